@@ -19,6 +19,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,22 +32,31 @@ import com.datatorrent.api.Context.OperatorContext;
 import com.datatorrent.api.DefaultInputPort;
 import com.datatorrent.api.DefaultPartition;
 import com.datatorrent.api.Partitioner;
+import com.datatorrent.api.Stats.OperatorStats;
+import com.datatorrent.api.StatsListener;
 import com.datatorrent.api.StreamCodec;
 import com.datatorrent.common.util.Slice;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * Operator that receives data on port and writes it to the data store.
  * Implements partitioning, maps partition key to the store bucket.
  * The derived class supplies the codec for partitioning and key-value serialization.
+ * <p>
+ * The bucket key is derived from the partition key with a bucket mask that is fixed at initial partitioning and sized
+ * for {@link #getMaxPartitionCount()}. When the partition count changes, buckets are reassigned to the partitions
+ * by the new partition mask and each partition takes over the checkpointed WAL state of the buckets it inherits.
+ * The partition count is doubled when the flush backlog reported in {@link HDHTWriter.BucketIOStats} exceeds
+ * {@link #getMaxFlushBacklog()}.
  * @param <EVENT>
  *
  * @since 2.0.0
  */
-public abstract class AbstractSinglePortHDHTWriter<EVENT> extends HDHTWriter implements Partitioner<AbstractSinglePortHDHTWriter<EVENT>>
+public abstract class AbstractSinglePortHDHTWriter<EVENT> extends HDHTWriter implements Partitioner<AbstractSinglePortHDHTWriter<EVENT>>, StatsListener
 {
   public interface HDHTCodec<EVENT> extends StreamCodec<EVENT>
   {
@@ -61,11 +71,27 @@ public abstract class AbstractSinglePortHDHTWriter<EVENT> extends HDHTWriter imp
 
   protected Set<Integer> partitions;
 
+  /* mask for bucket keys, fixed once assigned in initial partitioning */
+  protected int bucketMask;
+
   protected transient HDHTCodec<EVENT> codec;
 
   @Min(1)
   private int partitionCount = 1;
 
+  @Min(0)
+  private int maxPartitionCount = 16;
+
+  @Min(0)
+  private long maxFlushBacklog = 0;
+
+  @Min(0)
+  private long repartitionCooldownMillis = 60000;
+
+  private int currentPartitions;
+
+  private long nextRepartitionMillis;
+
   public final transient DefaultInputPort<EVENT> input = new DefaultInputPort<EVENT>()
   {
     @Override
@@ -95,6 +121,56 @@ public abstract class AbstractSinglePortHDHTWriter<EVENT> extends HDHTWriter imp
     return partitionCount;
   }
 
+  /**
+   * Upper bound for the partition count. Determines the number of buckets, which cannot be changed after initial
+   * partitioning, so it has to be set before the first deployment of the application. Default is 16. With 0 the initial
+   * partition count is used, dynamic partitioning is then limited to merging partitions and splitting them back.
+   *
+   * @return The maximum partition count.
+   */
+  public int getMaxPartitionCount()
+  {
+    return maxPartitionCount;
+  }
+
+  public void setMaxPartitionCount(int maxPartitionCount)
+  {
+    this.maxPartitionCount = maxPartitionCount;
+  }
+
+  /**
+   * Number of keys in the frozen write caches (changes waiting to be written to data files) of a partition above which
+   * the partition count is doubled, up to the maximum partition count. The default of 0 disables stats based
+   * scaling.
+   *
+   * @return The flush backlog threshold.
+   */
+  public long getMaxFlushBacklog()
+  {
+    return maxFlushBacklog;
+  }
+
+  public void setMaxFlushBacklog(long maxFlushBacklog)
+  {
+    this.maxFlushBacklog = maxFlushBacklog;
+  }
+
+  /**
+   * Minimum time between stats triggered repartitioning, allows the new partitions to recover from the WAL and
+   * report stats.
+   *
+   * @return The cool down time in milliseconds.
+   */
+  public long getRepartitionCooldownMillis()
+  {
+    return repartitionCooldownMillis;
+  }
+
+  public void setRepartitionCooldownMillis(long repartitionCooldownMillis)
+  {
+    this.repartitionCooldownMillis = repartitionCooldownMillis;
+  }
+
   /**
    * Storage bucket for the given event. Only one partition can write to a storage bucket and by default it is
    * identified by the partition id.
@@ -104,7 +180,7 @@ public abstract class AbstractSinglePortHDHTWriter<EVENT> extends HDHTWriter imp
    */
   protected long getBucketKey(EVENT event)
   {
-    return (codec.getPartition(event) & partitionMask);
+    return (codec.getPartition(event) & bucketMask);
   }
 
   protected void processEvent(EVENT event) throws IOException
@@ -119,7 +195,8 @@ public abstract class AbstractSinglePortHDHTWriter<EVENT> extends HDHTWriter imp
   @Override
   public void setup(OperatorContext arg0)
   {
-    LOG.debug("Store {} with partitions {} {}", super.getFileStore(), new PartitionKeys(this.partitionMask, this.partitions));
+    ensureBucketMask();
+    LOG.debug("Store {} with partitions {} bucketMask {}", super.getFileStore(), new PartitionKeys(this.partitionMask, this.partitions), this.bucketMask);
     super.setup(arg0);
     try {
       this.codec = getCodec();
@@ -145,15 +222,27 @@ public abstract class AbstractSinglePortHDHTWriter<EVENT> extends HDHTWriter imp
   {
     boolean isInitialPartition = partitions.iterator().next().getStats() == null;
 
-    if (!isInitialPartition) {
-      // support for dynamic partitioning requires lineage tracking
-      LOG.warn("Dynamic partitioning not implemented");
-      return partitions;
+    int newPartitionCount;
+    if (isInitialPartition) {
+      newPartitionCount = DefaultPartition.getRequiredPartitionCount(context, this.partitionCount);
+      this.bucketMask = getMask(Math.max(newPartitionCount, maxPartitionCount));
+    } else {
+      ensureBucketMask();
+      // the count may have been raised by the stats listener of any of the partitions
+      newPartitionCount = 0;
+      for (Partition<AbstractSinglePortHDHTWriter<EVENT>> p : partitions) {
+        newPartitionCount = Math.max(newPartitionCount, p.getPartitionedInstance().partitionCount);
+      }
+      // the partition mask cannot exceed the bucket mask
+      newPartitionCount = Math.min(newPartitionCount, bucketMask + 1);
+      if (newPartitionCount == partitions.size()) {
+        return partitions;
+      }
     }
+    LOG.info("Repartitioning from {} to {} partitions with bucket mask {}", partitions.size(), newPartitionCount, bucketMask);
 
-    final int newPartitionCount = DefaultPartition.getRequiredPartitionCount(context, this.partitionCount);
     Kryo lKryo = new Kryo();
-    Collection<Partition<AbstractSinglePortHDHTWriter<EVENT>>> newPartitions = Lists.newArrayListWithExpectedSize(newPartitionCount);
+    List<Partition<AbstractSinglePortHDHTWriter<EVENT>>> newPartitions = Lists.newArrayListWithExpectedSize(newPartitionCount);
     for (int i = 0; i < newPartitionCount; i++) {
       // Kryo.copy fails as it attempts to clone transient fields (input port)
       ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -163,24 +252,97 @@ public abstract class AbstractSinglePortHDHTWriter<EVENT> extends HDHTWriter imp
       Input lInput = new Input(bos.toByteArray());
       @SuppressWarnings("unchecked")
       AbstractSinglePortHDHTWriter<EVENT> oper = lKryo.readObject(lInput, this.getClass());
+      oper.clearBuckets();
+      oper.partitionCount = newPartitionCount;
+      oper.currentPartitions = newPartitionCount;
+      oper.nextRepartitionMillis = System.currentTimeMillis() + repartitionCooldownMillis;
       newPartitions.add(new DefaultPartition<AbstractSinglePortHDHTWriter<EVENT>>(oper));
     }
 
     // assign the partition keys
     DefaultPartition.assignPartitionKeys(newPartitions, input);
 
+    Map<Integer, AbstractSinglePortHDHTWriter<EVENT>> owners = Maps.newHashMap();
+    int newPartitionMask = 0;
     for (Partition<AbstractSinglePortHDHTWriter<EVENT>> p : newPartitions) {
       PartitionKeys pks = p.getPartitionKeys().get(input);
+      newPartitionMask = pks.mask;
       p.getPartitionedInstance().partitionMask = pks.mask;
       p.getPartitionedInstance().partitions = pks.partitions;
+      for (Integer pk : pks.partitions) {
+        owners.put(pk, p.getPartitionedInstance());
+      }
+    }
+
+    if (!isInitialPartition) {
+      // bucket ownership migration: the WAL and meta data state of each bucket moves to the partition that owns its key
+      for (Partition<AbstractSinglePortHDHTWriter<EVENT>> p : partitions) {
+        AbstractSinglePortHDHTWriter<EVENT> oldOper = p.getPartitionedInstance();
+        for (Long bucketKey : oldOper.getCheckpointedBuckets()) {
+          AbstractSinglePortHDHTWriter<EVENT> newOwner = owners.get((int)(bucketKey & newPartitionMask));
+          LOG.debug("Moving bucket {} to partitions {}", bucketKey, newOwner.partitions);
+          oldOper.transferBucket(bucketKey, newOwner);
+        }
+      }
     }
 
     return newPartitions;
   }
 
+  /**
+   * Operators checkpointed before the bucket mask was introduced identify their buckets by the partition mask.
+   */
+  private void ensureBucketMask()
+  {
+    if (bucketMask == 0) {
+      bucketMask = partitionMask;
+    }
+  }
+
+  private static int getMask(int partitionCount)
+  {
+    int bits = 32 - Integer.numberOfLeadingZeros(partitionCount - 1);
+    return (1 << bits) - 1;
+  }
+
   @Override
-  public void partitioned(Map<Integer, Partition<AbstractSinglePortHDHTWriter<EVENT>>> arg0)
+  public void partitioned(Map<Integer, Partition<AbstractSinglePortHDHTWriter<EVENT>>> partitions)
   {
+    currentPartitions = partitions.size();
+  }
+
+  /**
+   * Requests repartitioning when the partition count was changed or the flush backlog exceeds the threshold.
+   */
+  @Override
+  public Response processStats(BatchedOperatorStats stats)
+  {
+    Response res = new Response();
+    res.repartitionRequired = false;
+    ensureBucketMask();
+    if (maxFlushBacklog > 0 && partitionCount < bucketMask + 1 && System.currentTimeMillis() > nextRepartitionMillis) {
+      List<OperatorStats> windowedStats = stats.getLastWindowedStats();
+      if (windowedStats != null && !windowedStats.isEmpty()) {
+        Object counters = windowedStats.get(windowedStats.size() - 1).counters;
+        if (counters instanceof Map) {
+          long backlog = 0;
+          for (Object bucketStats : ((Map<?, ?>)counters).values()) {
+            if (bucketStats instanceof BucketIOStats) {
+              backlog += ((BucketIOStats)bucketStats).dataInFrozenCache;
+            }
+          }
+          if (backlog > maxFlushBacklog) {
+            partitionCount = Math.min(partitionCount * 2, bucketMask + 1);
+            LOG.info("Flush backlog {} of operator {} exceeds {}, scaling to {} partitions", backlog, stats.getOperatorId(), maxFlushBacklog, partitionCount);
+            nextRepartitionMillis = System.currentTimeMillis() + repartitionCooldownMillis;
+          }
+        }
+      }
+    }
+    if (currentPartitions != 0 && currentPartitions != partitionCount) {
+      res.repartitionRequired = true;
+    }
+    return res;
   }
 
 }
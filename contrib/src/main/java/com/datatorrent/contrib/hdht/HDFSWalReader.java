@@ -15,26 +15,68 @@
  */
 package com.datatorrent.contrib.hdht;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.PureJavaCrc32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * HDFSWalReader
+ * <p>
+ * Reads the batches written by {@link HDFSWalWriter} and verifies their checksums. A batch that is incomplete or fails
+ * the checksum is treated as torn write at the end of the log, reading stops at the end of the last valid batch.
+ * Files without header are read in the format of previous versions, without checksums.
  *
  * @since 2.0.0
  */
 public class HDFSWalReader implements HDHT.WALReader
 {
+  /* upper bound for batch length, larger values in the batch header indicate corruption */
+  private static final int MAX_BATCH_LENGTH = 1 << 30;
+
   DataInputStream in;
   private boolean eof = false;
   MutableKeyValue pair = null;
   String name;
 
+  private final boolean legacy;
+  private CompressionCodec codec;
+  private long position;
+  private boolean tornTail;
+  private final DataInputBuffer batch = new DataInputBuffer();
+  private final PureJavaCrc32C checksum = new PureJavaCrc32C();
+
   public HDFSWalReader(HDHTFileAccess bfs, long bucketKey, String name) throws IOException
   {
     this.name = name;
-    in = bfs.getInputStream(bucketKey, name);
+    in = new DataInputStream(new BufferedInputStream(bfs.getInputStream(bucketKey, name)));
+    in.mark(4);
+    int magic;
+    try {
+      magic = in.readInt();
+    } catch (EOFException e) {
+      magic = 0;
+    }
+    if (magic == HDFSWalWriter.MAGIC) {
+      legacy = false;
+      in.readByte(); // version
+      String codecName = in.readUTF();
+      codec = HDFSWalWriter.getCodec(codecName);
+      position = 4 + 1 + 2 + codecName.getBytes("UTF-8").length;
+    } else {
+      legacy = true;
+      in.reset();
+    }
   }
 
   @Override public void close() throws IOException
@@ -44,9 +86,21 @@ public class HDFSWalReader implements HDHT.WALReader
     }
   }
 
+  /**
+   * Seek to the given offset in the file. The offset needs to be at a batch boundary, as returned by
+   * {@link HDFSWalWriter#logSize()}.
+   */
   @Override public void seek(long offset) throws IOException
   {
-    in.skipBytes((int) offset);
+    long skip = offset - position;
+    while (skip > 0) {
+      long skipped = in.skip(skip);
+      if (skipped <= 0) {
+        break;
+      }
+      skip -= skipped;
+      position += skipped;
+    }
   }
 
   @Override public boolean advance() throws IOException
@@ -54,6 +108,43 @@ public class HDFSWalReader implements HDHT.WALReader
     if (eof)
       return false;
 
+    if (legacy) {
+      return advanceLegacy();
+    }
+
+    while (batch.available() == 0) {
+      if (!readBatch(true)) {
+        eof = true;
+        pair = null;
+        return false;
+      }
+    }
+
+    boolean isDelete = false;
+    int keyLen = batch.readInt();
+    if (keyLen < 0) {
+      keyLen = -keyLen;
+      isDelete = true;
+    }
+
+    byte[] key = new byte[keyLen];
+    batch.readFully(key);
+
+    byte[] value;
+    if (!isDelete) {
+      int valLen = batch.readInt();
+      value = new byte[valLen];
+      batch.readFully(value);
+    } else {
+      value = DELETED;
+    }
+
+    pair = new MutableKeyValue(key, value);
+    return true;
+  }
+
+  private boolean advanceLegacy() throws IOException
+  {
     try {
       boolean isDelete = false;
       int keyLen = in.readInt();
@@ -83,8 +174,107 @@ public class HDFSWalReader implements HDHT.WALReader
     }
   }
 
+  /**
+   * Read the next batch from the file.
+   *
+   * @param decode whether to decompress the records into the batch buffer, or only verify the checksum
+   * @return false at end of file or when the batch is incomplete or corrupt
+   * @throws IOException
+   */
+  private boolean readBatch(boolean decode) throws IOException
+  {
+    int first = in.read();
+    if (first < 0) {
+      return false;
+    }
+    try {
+      int storedLength = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+      int length = in.readInt();
+      int expectedChecksum = in.readInt();
+      if (storedLength < 0 || storedLength > MAX_BATCH_LENGTH || length < 0 || length > MAX_BATCH_LENGTH) {
+        return tornTail("invalid batch length " + storedLength);
+      }
+      byte[] stored = new byte[storedLength];
+      in.readFully(stored);
+      checksum.reset();
+      checksum.update(stored, 0, storedLength);
+      if ((int)checksum.getValue() != expectedChecksum) {
+        return tornTail("checksum mismatch");
+      }
+      position += HDFSWalWriter.BATCH_HEADER_LENGTH + storedLength;
+      if (decode) {
+        byte[] data = stored;
+        if (codec != null) {
+          data = new byte[length];
+          Decompressor decompressor = CodecPool.getDecompressor(codec);
+          try {
+            InputStream cis = codec.createInputStream(new ByteArrayInputStream(stored), decompressor);
+            new DataInputStream(cis).readFully(data);
+          } finally {
+            CodecPool.returnDecompressor(decompressor);
+          }
+        }
+        batch.reset(data, length);
+      }
+      return true;
+    } catch (EOFException e) {
+      return tornTail("incomplete batch");
+    }
+  }
+
+  private boolean tornTail(String reason)
+  {
+    LOG.warn("Torn write in WAL {} at offset {}: {}", name, position, reason);
+    tornTail = true;
+    return false;
+  }
+
+  /**
+   * Verify the batches up to the given offset.
+   *
+   * @param limit end offset
+   * @return the end offset of the last valid batch, not exceeding the limit.
+   * @throws IOException
+   */
+  public long getValidLength(long limit) throws IOException
+  {
+    if (legacy) {
+      return limit;
+    }
+    while (position < limit) {
+      long start = position;
+      if (!readBatch(false)) {
+        break;
+      }
+      if (position > limit) {
+        // limit not at batch boundary
+        tornTail("recovery offset " + limit + " within batch");
+        return start;
+      }
+    }
+    return Math.min(position, limit);
+  }
+
+  /**
+   * @return whether reading stopped at an incomplete or corrupt batch.
+   */
+  public boolean isTornTail()
+  {
+    return tornTail;
+  }
+
+  /**
+   * @return the offset after the last valid batch read.
+   */
+  public long getPosition()
+  {
+    return position;
+  }
+
   @Override public MutableKeyValue get() {
     return pair;
   }
 
+  private static final Logger LOG = LoggerFactory.getLogger(HDFSWalReader.class);
+
 }
@@ -18,38 +18,92 @@ package com.datatorrent.contrib.hdht;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.util.PureJavaCrc32C;
 
 import com.datatorrent.common.util.Slice;
 import com.datatorrent.contrib.hdht.HDHT.WALReader;
 
 /**
  * HDFSWalWriter
+ * <p>
+ * The file starts with a header (magic, version, compression codec name), followed by batches of records. Each batch
+ * is written as stored length, uncompressed length and CRC32C checksum of the stored bytes, followed by the optionally
+ * compressed records. Records are buffered in memory until the batch is written on flush.
  *
- * @since 2.0.0 
+ * @since 2.0.0
  */
 public class HDFSWalWriter implements HDHT.WALWriter
 {
+  static final int MAGIC = 0x48574c32;
+  static final byte VERSION = 1;
+  /* stored length, uncompressed length, checksum */
+  static final int BATCH_HEADER_LENGTH = 12;
+
   transient DataOutputStream out;
   long committedOffset;
   long unflushed;
   long bucketKey;
   String name;
 
+  private final boolean hsync;
+  private final CompressionCodec codec;
+  private final DataOutputBuffer batch = new DataOutputBuffer();
+  private final DataOutputBuffer compressed;
+  private final PureJavaCrc32C checksum = new PureJavaCrc32C();
+
   public HDFSWalWriter(HDHTFileAccess bfs, long bucketKey, String name) throws IOException
+  {
+    this(bfs, bucketKey, name, null, true);
+  }
+
+  /**
+   * @param bfs file system
+   * @param bucketKey bucket
+   * @param name WAL file name
+   * @param codecName name of the Hadoop compression codec for batches, null for no compression
+   * @param hsync whether flush waits for data to be persisted on disk (hsync) or only to reach the data nodes (hflush)
+   * @throws IOException
+   */
+  public HDFSWalWriter(HDHTFileAccess bfs, long bucketKey, String name, String codecName, boolean hsync) throws IOException
   {
     this.bucketKey = bucketKey;
     this.name = name;
+    this.hsync = hsync;
+    this.codec = getCodec(codecName);
+    this.compressed = codec == null ? null : new DataOutputBuffer();
     out = bfs.getOutputStream(bucketKey, name);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeUTF(codecName == null ? "" : codecName);
     unflushed = 0;
     committedOffset = 0;
   }
 
+  static CompressionCodec getCodec(String codecName)
+  {
+    if (codecName == null || codecName.isEmpty()) {
+      return null;
+    }
+    CompressionCodec codec = new CompressionCodecFactory(new Configuration()).getCodecByName(codecName);
+    if (codec == null) {
+      throw new IllegalArgumentException("Unknown compression codec " + codecName);
+    }
+    return codec;
+  }
+
   @Override public void close() throws IOException
   {
     if (out != null)
     {
-      out.flush();
+      flushBuffer();
       out.close();
     }
   }
@@ -57,26 +111,62 @@ public class HDFSWalWriter implements HDHT.WALWriter
   @Override
   public void append(Slice key, byte[] value) throws IOException
   {
+    int start = batch.getLength();
     if (value == WALReader.DELETED) {
-      out.writeInt(-key.length);
-      out.write(key.buffer, key.offset, key.length);
+      batch.writeInt(-key.length);
+      batch.write(key.buffer, key.offset, key.length);
     } else {
-      out.writeInt(key.length);
-      out.write(key.buffer, key.offset, key.length);
-      out.writeInt(value.length);
-      out.write(value);
+      batch.writeInt(key.length);
+      batch.write(key.buffer, key.offset, key.length);
+      batch.writeInt(value.length);
+      batch.write(value);
     }
+    unflushed += batch.getLength() - start;
   }
 
-  @Override public void flush() throws IOException
+  @Override
+  public void flushBuffer() throws IOException
   {
+    if (batch.getLength() == 0) {
+      return;
+    }
+    byte[] data = batch.getData();
+    int length = batch.getLength();
+    if (codec != null) {
+      compressed.reset();
+      Compressor compressor = CodecPool.getCompressor(codec);
+      try {
+        CompressionOutputStream cos = codec.createOutputStream(compressed, compressor);
+        cos.write(data, 0, length);
+        cos.finish();
+      } finally {
+        CodecPool.returnCompressor(compressor);
+      }
+      data = compressed.getData();
+      length = compressed.getLength();
+    }
+    checksum.reset();
+    checksum.update(data, 0, length);
+    out.writeInt(length);
+    out.writeInt(batch.getLength());
+    out.writeInt((int)checksum.getValue());
+    out.write(data, 0, length);
     out.flush();
+    batch.reset();
+    unflushed = 0;
+  }
+
+  @Override public void flush() throws IOException
+  {
+    flushBuffer();
     if (out instanceof FSDataOutputStream) {
-      ((FSDataOutputStream) out).hflush();
-      ((FSDataOutputStream) out).hsync();
+      if (hsync) {
+        ((FSDataOutputStream) out).hsync();
+      } else {
+        ((FSDataOutputStream) out).hflush();
+      }
     }
     committedOffset = out.size();
-    unflushed = 0;
   }
 
   @Override public long getUnflushedCount()
@@ -84,8 +174,10 @@ public class HDFSWalWriter implements HDHT.WALWriter
     return unflushed;
   }
 
-  @Override public long logSize()
+  @Override public long logSize() throws IOException
   {
+    // offsets need to be at batch boundary to be used as recovery position
+    flushBuffer();
     return out.size();
   }
 
@@ -17,6 +17,7 @@ package com.datatorrent.contrib.hdht;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.NavigableMap;
 
 import com.datatorrent.common.util.Slice;
 
@@ -30,12 +31,46 @@ public interface HDHT
   public interface Reader
   {
     byte[] get(long bucketKey, Slice key) throws IOException;
+
+    /**
+     * Same as {@link #get(long, Slice)}, without copying the value. The returned slice may reference the buffer of a
+     * data block shared with other readers and must not be modified.
+     *
+     * @param bucketKey bucket to read from.
+     * @param key       key to lookup.
+     * @return The value, or null if the key is not found.
+     * @throws IOException
+     */
+    Slice getSlice(long bucketKey, Slice key) throws IOException;
+
+    /**
+     * Read all entries of the bucket with keys in the given range (both bounds inclusive). Data files are read
+     * sequentially from the first key of the range, instead of seeking once per key.
+     *
+     * @param bucketKey bucket to read from.
+     * @param fromKey   lower bound key (inclusive).
+     * @param toKey     upper bound key (inclusive).
+     * @return The entries within the range, in key order.
+     * @throws IOException
+     */
+    NavigableMap<Slice, byte[]> scan(long bucketKey, Slice fromKey, Slice toKey) throws IOException;
   }
 
   public interface Writer
   {
     void put(long bucketKey, Slice key, byte[] value) throws IOException;
     byte[] getUncommitted(long bucketKey, Slice key);
+
+    /**
+     * Range lookup in the write cache (data not flushed/committed to files). Deleted keys are included with the
+     * {@link WALReader#DELETED} value so that they can mask entries in the data files.
+     *
+     * @param bucketKey bucket to read from.
+     * @param fromKey   lower bound key (inclusive).
+     * @param toKey     upper bound key (inclusive).
+     * @return The changes within the range, in key order.
+     */
+    NavigableMap<Slice, byte[]> getUncommitted(long bucketKey, Slice fromKey, Slice toKey);
   }
 
   /**
@@ -96,6 +131,12 @@ public interface HDHT
      */
     public void append(Slice key, byte[] value) throws IOException;
 
+    /**
+     * Write buffered data to the file, without waiting for it to be persisted.
+     * @throws IOException
+     */
+    public void flushBuffer() throws IOException;
+
     /**
      * Flush data to persistent storage.
      * @throws IOException
@@ -117,8 +158,9 @@ public interface HDHT
     /**
      * Returns file size, last part of the file may not be persisted on disk.
      * @return The file size, last part of the file may not be persisted on disk.
+     * @throws IOException
      */
-    public long logSize();
+    public long logSize() throws IOException;
   }
 
 }
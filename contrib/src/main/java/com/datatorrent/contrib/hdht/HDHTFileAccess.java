@@ -57,10 +57,17 @@ public interface HDHTFileAccess extends Closeable
      * @param data
      * @throws IOException
      */
-    //Move to
-    // void readFully(TreeMap<Slice, Slice> data) throws IOException;
     void readFully(TreeMap<Slice, byte[]> data) throws IOException;
 
+    /**
+     * Read the entire contents of the underlying file into a TreeMap structure without copying the values.
+     * Key and value slices may reference the block buffers of the file. Block buffers are not modified once read, so
+     * the slices remain valid after the reader is closed or the block is evicted from cache.
+     * @param data
+     * @throws IOException
+     */
+    void readFullyAsSlices(TreeMap<Slice, Slice> data) throws IOException;
+
     /**
      * Repositions the pointer to the beginning of the underlying file.
      * @throws IOException
@@ -22,14 +22,21 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import org.apache.commons.io.IOUtils;
@@ -42,9 +49,13 @@ import com.datatorrent.api.Operator;
 import com.datatorrent.common.util.NameableThreadFactory;
 import com.datatorrent.common.util.Slice;
 import com.datatorrent.contrib.hdht.HDHTFileAccess.HDSFileReader;
+import com.datatorrent.lib.bucket.BloomFilter;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 /**
@@ -63,6 +74,15 @@ public class HDHTReader implements Operator, HDHT.Reader
   public static final String FNAME_WAL = "_WAL";
   public static final String FNAME_META = "_META";
 
+  /**
+   * Flag byte in front of each value of a sorted run: the value follows.
+   */
+  static final byte RUN_VALUE = 0;
+  /**
+   * Flag byte of a sorted run entry for a deleted key, which masks the data file and older runs.
+   */
+  static final byte RUN_DELETED = 1;
+
   public static class HDSQuery
   {
     public long bucketKey;
@@ -83,9 +103,82 @@ public class HDHTReader implements Operator, HDHT.Reader
     }
   }
 
+  /**
+   * Query for all keys of a bucket within a key range (both bounds inclusive).
+   * Served by a single sequential read of the data files.
+   */
+  public static class HDSScanQuery
+  {
+    public long bucketKey;
+    public Slice fromKey;
+    public Slice toKey;
+    /**
+     * Optional keys of interest within the range, ordered by the key comparator. When set, the uncommitted changes
+     * are looked up by key and only these keys are copied into the result.
+     */
+    public NavigableSet<Slice> keys;
+    public volatile NavigableMap<Slice, byte[]> result;
+    public volatile boolean processed;
+
+    @Override public String toString()
+    {
+      return "HDSScanQuery{" +
+          "bucketKey=" + bucketKey +
+          ", fromKey=" + fromKey +
+          ", toKey=" + toKey +
+          ", processed=" + processed +
+          '}';
+    }
+  }
+
+  /**
+   * Bloom filter counters of a bucket, updated by the reader threads.
+   */
+  protected static class BloomFilterStats
+  {
+    /* lookups that skipped a file as the key is not contained */
+    public final AtomicLong negatives = new AtomicLong();
+    /* lookups that did not find the key in a file that the filter reported as possible match */
+    public final AtomicLong falsePositives = new AtomicLong();
+  }
+
   private static final Logger LOG = LoggerFactory.getLogger(HDHTReader.class);
 
-  protected final transient Kryo kryo = new Kryo();
+  /**
+   * Version of the {@link #FNAME_META} format, written in front of the bucket meta data. Files written before the
+   * version was introduced start with the Kryo tag of the unregistered {@link BucketMeta} class, which is 1.
+   */
+  static final byte META_VERSION = 2;
+
+  protected final transient Kryo kryo = newMetaKryo();
+
+  /**
+   * Kryo for the meta data. Fields are serialized with their names, so that fields can be added to the meta data
+   * classes without breaking the meta files already written.
+   */
+  static Kryo newMetaKryo()
+  {
+    Kryo kryo = new Kryo();
+    kryo.addDefaultSerializer(BucketMeta.class, CompatibleFieldSerializer.class);
+    kryo.addDefaultSerializer(BucketFileMeta.class, CompatibleFieldSerializer.class);
+    kryo.addDefaultSerializer(BloomFilter.class, CompatibleFieldSerializer.class);
+    return kryo;
+  }
+
+  /**
+   * Kryo for meta files written without version, when {@link BucketFileMeta} only had the name and the start key.
+   */
+  static Kryo newLegacyMetaKryo()
+  {
+    Kryo kryo = new Kryo();
+    FieldSerializer<BucketFileMeta> serializer = new FieldSerializer<BucketFileMeta>(kryo, BucketFileMeta.class);
+    serializer.removeField("runs");
+    serializer.removeField("bloomFilter");
+    serializer.removeField("runBloomFilters");
+    kryo.addDefaultSerializer(BucketFileMeta.class, serializer);
+    return kryo;
+  }
+
   @NotNull
   protected Comparator<Slice> keyComparator = new DefaultKeyComparator();
   @Valid
@@ -97,7 +190,18 @@ public class HDHTReader implements Operator, HDHT.Reader
     BucketMeta bucketMeta = null;
     try {
       InputStream is = store.getInputStream(bucketKey, FNAME_META);
-      bucketMeta = (BucketMeta)kryo.readClassAndObject(new Input(is));
+      Input input = new Input(is);
+      if (input.readByte() == META_VERSION) {
+        synchronized (kryo) {
+          // meta data is loaded by operator, writer and query threads
+          bucketMeta = (BucketMeta)kryo.readClassAndObject(input);
+        }
+      } else {
+        // written without version, before the file meta data had runs and filters
+        input.setPosition(input.position() - 1);
+        Kryo legacyKryo = newLegacyMetaKryo();
+        bucketMeta = (BucketMeta)legacyKryo.readClassAndObject(input);
+      }
       is.close();
     } catch (IOException e) {
       bucketMeta = new BucketMeta(keyComparator);
@@ -109,16 +213,35 @@ public class HDHTReader implements Operator, HDHT.Reader
    * Map containing all current queries. Accessed by operator and reader threads.
    */
   protected final ConcurrentMap<Slice, HDSQuery> queries = Maps.newConcurrentMap();
-  private final transient Map<Long, BucketReader> buckets = Maps.newHashMap();
+  private final transient ConcurrentMap<Long, BucketReader> buckets = Maps.newConcurrentMap();
+  private final transient ConcurrentMap<Long, BloomFilterStats> bloomFilterStats = Maps.newConcurrentMap();
 
   @VisibleForTesting
   protected transient ExecutorService queryExecutor;
   private volatile transient Exception executorError;
+  private int queryThreads = 1;
 
   public HDHTReader()
   {
   }
 
+  /**
+   * Number of threads that process queries asynchronously. Reads from the data files are not serialized, each thread
+   * uses its own reader of a file.
+   *
+   * @return The number of query threads.
+   */
+  @Min(value = 1)
+  public int getQueryThreads()
+  {
+    return queryThreads;
+  }
+
+  public void setQueryThreads(int queryThreads)
+  {
+    this.queryThreads = queryThreads;
+  }
+
   /**
    * Compare keys for sequencing as secondary level of organization within buckets.
    * In most cases it will be implemented using a time stamp as leading component.
@@ -150,7 +273,7 @@ public class HDHTReader implements Operator, HDHT.Reader
   {
     this.store.init();
     if (queryExecutor == null) {
-      queryExecutor = Executors.newSingleThreadScheduledExecutor(new NameableThreadFactory(this.getClass().getSimpleName()+"-Reader"));
+      queryExecutor = Executors.newFixedThreadPool(queryThreads, new NameableThreadFactory(this.getClass().getSimpleName()+"-Reader"));
     }
   }
 
@@ -214,11 +337,58 @@ public class HDHTReader implements Operator, HDHT.Reader
     this.queryExecutor.execute(readerRunnable);
   }
 
+  /**
+   * Fetch all entries within the key range of the given query from persistent storage.
+   * Changes that are not yet written to data files are captured in the calling (operator) thread
+   * and merged over the file data.
+   */
+  protected void processScanQuery(final HDSScanQuery query)
+  {
+    final NavigableMap<Slice, byte[]> changes = query.keys != null ? getUncommitted(query.bucketKey, query.keys) : getUncommitted(query.bucketKey, query.fromKey, query.toKey);
+    Runnable readerRunnable = new Runnable() {
+      @Override
+      public void run()
+      {
+        try {
+          LOG.debug("Processing {}", query);
+          query.result = scanFiles(query.bucketKey, query.fromKey, query.toKey, query.keys, changes);
+          query.processed = true;
+        } catch (Exception e) {
+          executorError = e;
+        }
+      }
+    };
+    this.queryExecutor.execute(readerRunnable);
+  }
+
+  /**
+   * Range lookup of changes that were not written to data files yet.
+   * Subclass can override this to serve from write cache.
+   * @return The changes within the range in key order, or null if there are none.
+   */
+  protected NavigableMap<Slice, byte[]> getUncommitted(long bucketKey, Slice fromKey, Slice toKey)
+  {
+    return null;
+  }
+
+  /**
+   * Lookup of the given keys in the changes that were not written to data files yet.
+   * Subclass can override this to serve from write cache.
+   * @return The changes of the keys in key order, or null if there are none.
+   */
+  protected NavigableMap<Slice, byte[]> getUncommitted(long bucketKey, NavigableSet<Slice> keys)
+  {
+    return null;
+  }
+
   protected BucketReader getReader(long bucketKey)
   {
     BucketReader br = this.buckets.get(bucketKey);
     if (br == null) {
-      this.buckets.put(bucketKey, br = new BucketReader());
+      BucketReader existing = this.buckets.putIfAbsent(bucketKey, br = new BucketReader());
+      if (existing != null) {
+        br = existing;
+      }
     }
     // meta data can be invalidated on write without removing unaffected readers
     if (br.bucketMeta == null) {
@@ -235,17 +405,28 @@ public class HDHTReader implements Operator, HDHT.Reader
       bucket.bucketMeta = null; // force index reload
       for (String name : fileNames) {
         LOG.debug("Closing reader {}", name);
-        IOUtils.closeQuietly(bucket.readers.remove(name));
+        closeReaders(bucket.readers.remove(name));
       }
     }
   }
 
-  private static Slice GET_KEY = new Slice(null, 0, 0);
+  @Override
+  public byte[] get(long bucketKey, Slice key) throws IOException
+  {
+    Slice value = getSlice(bucketKey, key);
+    if (value == null) {
+      return null;
+    }
+    if (value.offset == 0 && value.length == value.buffer.length) {
+      return value.buffer;
+    }
+    return Arrays.copyOfRange(value.buffer, value.offset, value.offset + value.length);
+  }
 
   @Override
-  public synchronized byte[] get(long bucketKey, Slice key) throws IOException
+  public Slice getSlice(long bucketKey, Slice key) throws IOException
   {
-    // this method is synchronized to support asynchronous reads outside operator thread
+    // not synchronized, file readers are pooled to support concurrent reads outside operator thread
     for (int i=0; i<10; i++) {
       BucketReader bucket = getReader(bucketKey);
       BucketMeta bucketMeta = bucket.bucketMeta;
@@ -254,34 +435,20 @@ public class HDHTReader implements Operator, HDHT.Reader
         continue;
       }
 
-      Map.Entry<Slice, BucketFileMeta> floorEntry = bucket.bucketMeta.files.floorEntry(key);
+      Map.Entry<Slice, BucketFileMeta> floorEntry = bucketMeta.files.floorEntry(key);
       if (floorEntry == null) {
         // no file for this key
         return null;
       }
 
       try {
-        HDSFileReader reader = bucket.readers.get(floorEntry.getValue().name);
-        if (reader == null) {
-          LOG.debug("Opening file {} {}", bucketKey, floorEntry.getValue().name);
-          bucket.readers.put(floorEntry.getValue().name, reader = store.getReader(bucketKey, floorEntry.getValue().name));
-        }
-        Slice value = new Slice(null, 0,0);
-        if (reader.seek(key)) {
-          reader.next(GET_KEY, value);
-        }
-        if (value.offset == 0) {
-          return value.buffer;
-        } else {
-          // this is inefficient, should return Slice
-          return Arrays.copyOfRange(value.buffer, value.offset, value.offset + value.length);
-        }
+        return getSlice(bucket, bucketKey, floorEntry.getValue(), key);
       } catch (IOException e) {
         // check for meta file update
-        this.buckets.remove(bucketKey);
-        bucket.close();
-        bucket = getReader(bucketKey);
-        Map.Entry<Slice, BucketFileMeta> newEntry = bucket.bucketMeta.files.floorEntry(key);
+        discardReaders(bucket, floorEntry.getValue());
+        bucket.bucketMeta = null;
+        BucketMeta newMeta = getReader(bucketKey).bucketMeta;
+        Map.Entry<Slice, BucketFileMeta> newEntry = newMeta == null ? null : newMeta.files.floorEntry(key);
         if (newEntry != null && newEntry.getValue().name.compareTo(floorEntry.getValue().name) == 0) {
           // file still the same - error unrelated to rewrite
           throw e;
@@ -294,6 +461,374 @@ public class HDHTReader implements Operator, HDHT.Reader
     return null;
   }
 
+  private Slice getSlice(BucketReader bucket, long bucketKey, BucketFileMeta fileMeta, Slice key) throws IOException
+  {
+    Slice readKey = new Slice(null, 0, 0);
+    Slice value = new Slice(null, 0, 0);
+    List<String> runs = fileMeta.runs;
+    if (runs != null) {
+      // changes not merged into the data file yet, most recent first
+      for (int r = runs.size(); r-- > 0;) {
+        BloomFilter runFilter = fileMeta.runBloomFilters != null && r < fileMeta.runBloomFilters.size() ? fileMeta.runBloomFilters.get(r) : null;
+        if (!mightContain(bucketKey, runFilter, key)) {
+          continue;
+        }
+        HDSFileReader runReader = borrowReader(bucket, bucketKey, runs.get(r));
+        try {
+          if (runReader.seek(key) && runReader.next(readKey, value)) {
+            return decodeRunValue(value) ? value : null;
+          }
+        } finally {
+          releaseReader(bucket, runs.get(r), runReader);
+        }
+        if (runFilter != null) {
+          getBloomFilterStats(bucketKey).falsePositives.incrementAndGet();
+        }
+      }
+    }
+
+    if (!mightContain(bucketKey, fileMeta.bloomFilter, key)) {
+      return null;
+    }
+    HDSFileReader reader = borrowReader(bucket, bucketKey, fileMeta.name);
+    try {
+      if (reader.seek(key) && reader.next(readKey, value)) {
+        // the value may reference the block buffer of the file, which is not modified after it was read
+        return value;
+      }
+      if (fileMeta.bloomFilter != null) {
+        getBloomFilterStats(bucketKey).falsePositives.incrementAndGet();
+      }
+      return null;
+    } finally {
+      releaseReader(bucket, fileMeta.name, reader);
+    }
+  }
+
+  /**
+   * Remove the flag byte from a value read from a sorted run.
+   * @param value the value, which references the value without the flag on return
+   * @return false if the key was deleted
+   */
+  static boolean decodeRunValue(Slice value) throws IOException
+  {
+    if (value.length == 0) {
+      throw new IOException("Sorted run value without flag byte");
+    }
+    byte flag = value.buffer[value.offset];
+    value.offset++;
+    value.length--;
+    return flag != RUN_DELETED;
+  }
+
+  private boolean mightContain(long bucketKey, BloomFilter filter, Slice key)
+  {
+    if (filter == null || filter.mightContainHash(BloomFilter.hash(key))) {
+      return true;
+    }
+    getBloomFilterStats(bucketKey).negatives.incrementAndGet();
+    return false;
+  }
+
+  protected BloomFilterStats getBloomFilterStats(long bucketKey)
+  {
+    BloomFilterStats stats = bloomFilterStats.get(bucketKey);
+    if (stats == null) {
+      BloomFilterStats existing = bloomFilterStats.putIfAbsent(bucketKey, stats = new BloomFilterStats());
+      if (existing != null) {
+        stats = existing;
+      }
+    }
+    return stats;
+  }
+
+  @Override
+  public NavigableMap<Slice, byte[]> scan(long bucketKey, Slice fromKey, Slice toKey) throws IOException
+  {
+    return scanFiles(bucketKey, fromKey, toKey, null, getUncommitted(bucketKey, fromKey, toKey));
+  }
+
+  /**
+   * Read the key range from the data files. Only the first file is positioned with seek, subsequent files in the range
+   * are read from the beginning until the upper bound is reached. A file and its sorted runs are merged while they are
+   * read, and the uncommitted changes are merged over them, so that only the most recent value of a key is copied
+   * into the result and deleted keys are skipped.
+   * @param keys keys of interest within the range, or null to return all keys of the range
+   * @param changes uncommitted changes within the range in key order, or null
+   */
+  protected NavigableMap<Slice, byte[]> scanFiles(long bucketKey, Slice fromKey, Slice toKey, NavigableSet<Slice> keys, NavigableMap<Slice, byte[]> changes) throws IOException
+  {
+    ScanResult result = new ScanResult(keys, changes);
+    if (keyComparator.compare(fromKey, toKey) > 0) {
+      return result.data;
+    }
+
+    for (int i=0; i<10; i++) {
+      BucketReader bucket = getReader(bucketKey);
+      BucketMeta bucketMeta = bucket.bucketMeta;
+      if (bucketMeta == null) {
+        // meta data invalidated
+        continue;
+      }
+
+      // the file containing the lower bound and all files that start within the range
+      Slice firstFileKey = bucketMeta.files.floorKey(fromKey);
+      if (firstFileKey == null) {
+        firstFileKey = fromKey;
+      }
+      NavigableMap<Slice, BucketFileMeta> files = bucketMeta.files.subMap(firstFileKey, true, toKey, true);
+
+      BucketFileMeta currentFile = null;
+      String fileName = null;
+      try {
+        result = new ScanResult(keys, changes);
+        boolean first = true;
+        for (BucketFileMeta fileMeta : files.values()) {
+          currentFile = fileMeta;
+          fileName = fileMeta.name;
+          readRange(bucket, bucketKey, fileMeta, first, fromKey, toKey, result);
+          first = false;
+        }
+        result.finish();
+        return result.data;
+      } catch (IOException e) {
+        // check for meta file update
+        discardReaders(bucket, currentFile);
+        bucket.bucketMeta = null;
+        BucketMeta newMeta = getReader(bucketKey).bucketMeta;
+        if (newMeta != null) {
+          for (BucketFileMeta fileMeta : newMeta.files.values()) {
+            if (fileName != null && (fileName.equals(fileMeta.name) || (fileMeta.runs != null && fileMeta.runs.contains(fileName)))) {
+              // file still the same - error unrelated to rewrite
+              throw e;
+            }
+          }
+        }
+        // retry
+        LOG.debug("Retry scan after meta data change bucket {} file {}", bucketKey, fileName);
+      }
+    }
+    result.finish();
+    return result.data;
+  }
+
+  /**
+   * Merge the entries within the key range of the data file and its sorted runs into the result. The runs only hold
+   * keys of the range of their data file, the most recent run wins for a key present in more than one of them.
+   * @param seek position the reader of the data file at the lower bound, otherwise read from the beginning of the file
+   */
+  private void readRange(BucketReader bucket, long bucketKey, BucketFileMeta fileMeta, boolean seek, Slice fromKey, Slice toKey, ScanResult result) throws IOException
+  {
+    List<RangeCursor> cursors = Lists.newArrayList();
+    try {
+      cursors.add(new RangeCursor(bucket, bucketKey, fileMeta.name, false));
+      if (fileMeta.runs != null) {
+        // oldest to most recent
+        for (String runName : fileMeta.runs) {
+          cursors.add(new RangeCursor(bucket, bucketKey, runName, true));
+        }
+      }
+      for (RangeCursor cursor : cursors) {
+        cursor.open(cursor.run || seek, fromKey, toKey);
+      }
+
+      boolean[] matches = new boolean[cursors.size()];
+      while (true) {
+        Slice minKey = null;
+        for (RangeCursor cursor : cursors) {
+          if (cursor.valid && (minKey == null || keyComparator.compare(cursor.key, minKey) < 0)) {
+            minKey = cursor.key;
+          }
+        }
+        if (minKey == null) {
+          break;
+        }
+        RangeCursor latest = null;
+        for (int i = 0; i < matches.length; i++) {
+          RangeCursor cursor = cursors.get(i);
+          matches[i] = cursor.valid && keyComparator.compare(cursor.key, minKey) == 0;
+          if (matches[i]) {
+            latest = cursor;
+          }
+        }
+        result.add(latest.key, latest.deleted ? null : latest.value);
+        for (int i = 0; i < matches.length; i++) {
+          if (matches[i]) {
+            cursors.get(i).advance(toKey);
+          }
+        }
+      }
+    } finally {
+      for (RangeCursor cursor : cursors) {
+        cursor.release(bucket);
+      }
+    }
+  }
+
+  /**
+   * Position of a scan in a data file or sorted run.
+   */
+  private class RangeCursor
+  {
+    final String fileName;
+    final boolean run;
+    final HDSFileReader reader;
+    // key and value may point into a shared block buffer
+    final Slice key = new Slice(null, 0, 0);
+    final Slice value = new Slice(null, 0, 0);
+    boolean valid;
+    boolean deleted;
+
+    RangeCursor(BucketReader bucket, long bucketKey, String fileName, boolean run) throws IOException
+    {
+      this.fileName = fileName;
+      this.run = run;
+      this.reader = borrowReader(bucket, bucketKey, fileName);
+    }
+
+    void open(boolean seek, Slice fromKey, Slice toKey) throws IOException
+    {
+      if (seek) {
+        reader.seek(fromKey);
+      } else {
+        reader.reset();
+      }
+      do {
+        advance(toKey);
+      } while (valid && keyComparator.compare(key, fromKey) < 0);
+    }
+
+    void advance(Slice toKey) throws IOException
+    {
+      valid = reader.next(key, value) && keyComparator.compare(key, toKey) <= 0;
+      deleted = valid && run && !decodeRunValue(value);
+    }
+
+    void release(BucketReader bucket)
+    {
+      releaseReader(bucket, fileName, reader);
+    }
+  }
+
+  /**
+   * Result of a scan, built in key order from the merged file entries and the uncommitted changes.
+   */
+  private class ScanResult
+  {
+    final TreeMap<Slice, byte[]> data;
+    final NavigableSet<Slice> keys;
+    final Iterator<Map.Entry<Slice, byte[]>> changes;
+    Map.Entry<Slice, byte[]> nextChange;
+
+    ScanResult(NavigableSet<Slice> keys, NavigableMap<Slice, byte[]> changes)
+    {
+      this.data = new TreeMap<Slice, byte[]>(keyComparator);
+      this.keys = keys;
+      this.changes = changes == null ? null : changes.entrySet().iterator();
+      this.nextChange = nextChange();
+    }
+
+    private Map.Entry<Slice, byte[]> nextChange()
+    {
+      return changes != null && changes.hasNext() ? changes.next() : null;
+    }
+
+    /**
+     * Add the file entry, unless an uncommitted change of the key supersedes it.
+     * @param value the value, or null if the key was deleted
+     */
+    void add(Slice key, Slice value)
+    {
+      while (nextChange != null) {
+        int cmp = keyComparator.compare(nextChange.getKey(), key);
+        if (cmp > 0) {
+          break;
+        }
+        addChange(nextChange);
+        nextChange = nextChange();
+        if (cmp == 0) {
+          return;
+        }
+      }
+      if (value != null && (keys == null || keys.contains(key))) {
+        data.put(new Slice(key.toByteArray()), Arrays.copyOfRange(value.buffer, value.offset, value.offset + value.length));
+      }
+    }
+
+    void finish()
+    {
+      for (; nextChange != null; nextChange = nextChange()) {
+        addChange(nextChange);
+      }
+    }
+
+    private void addChange(Map.Entry<Slice, byte[]> change)
+    {
+      if (change.getValue() != HDHT.WALReader.DELETED) {
+        data.put(change.getKey(), change.getValue());
+      }
+    }
+  }
+
+  /**
+   * Take an idle reader for the file from the pool or open a new one. The reader is used by a single thread until
+   * released, the number of readers per file is bounded by the number of concurrent queries.
+   */
+  private HDSFileReader borrowReader(BucketReader bucket, long bucketKey, String fileName) throws IOException
+  {
+    Queue<HDSFileReader> pool = bucket.readers.get(fileName);
+    if (pool == null) {
+      Queue<HDSFileReader> existing = bucket.readers.putIfAbsent(fileName, pool = new ConcurrentLinkedQueue<HDSFileReader>());
+      if (existing != null) {
+        pool = existing;
+      }
+    }
+    HDSFileReader reader = pool.poll();
+    if (reader == null) {
+      LOG.debug("Opening file {} {}", bucketKey, fileName);
+      reader = store.getReader(bucketKey, fileName);
+    }
+    return reader;
+  }
+
+  private void releaseReader(BucketReader bucket, String fileName, HDSFileReader reader)
+  {
+    Queue<HDSFileReader> pool = bucket.readers.get(fileName);
+    if (pool == null) {
+      IOUtils.closeQuietly(reader);
+      return;
+    }
+    pool.offer(reader);
+    if (bucket.readers.get(fileName) != pool && pool.remove(reader)) {
+      // pool was closed concurrently
+      IOUtils.closeQuietly(reader);
+    }
+  }
+
+  /**
+   * Close the idle readers of the data file and its runs after a read error.
+   */
+  private void discardReaders(BucketReader bucket, BucketFileMeta fileMeta)
+  {
+    if (fileMeta != null) {
+      closeReaders(bucket.readers.remove(fileMeta.name));
+      if (fileMeta.runs != null) {
+        for (String runName : fileMeta.runs) {
+          closeReaders(bucket.readers.remove(runName));
+        }
+      }
+    }
+  }
+
+  private static void closeReaders(Queue<HDSFileReader> pool)
+  {
+    if (pool != null) {
+      for (HDSFileReader reader = pool.poll(); reader != null; reader = pool.poll()) {
+        IOUtils.closeQuietly(reader);
+      }
+    }
+  }
+
   protected void addQuery(HDSQuery query)
   {
     HDSQuery existingQuery = this.queries.get(query.key);
@@ -329,11 +864,23 @@ public class HDHTReader implements Operator, HDHT.Reader
      * Lower bound sequence key
      */
     public Slice startKey;
+    /**
+     * Sorted runs with changes to the key range of this file that were not merged into the file yet, oldest first.
+     */
+    public List<String> runs;
+    /**
+     * Filter over the keys of the data file, null when not available.
+     */
+    public BloomFilter bloomFilter;
+    /**
+     * Filters over the keys of the sorted runs, in the same order as the runs. Entries are null when not available.
+     */
+    public List<BloomFilter> runBloomFilters;
 
     @Override
     public String toString()
     {
-      return "BucketFileMeta [name=" + name + ", startKey=" + startKey + "]";
+      return "BucketFileMeta [name=" + name + ", startKey=" + startKey + ", runs=" + runs + "]";
     }
   }
 
@@ -368,6 +915,16 @@ public class HDHTReader implements Operator, HDHT.Reader
       return bfm;
     }
 
+    protected String addRun(long bucketKey, BucketFileMeta bfm)
+    {
+      String name = Long.toString(bucketKey) + '-' + this.fileSeq++;
+      if (bfm.runs == null) {
+        bfm.runs = Lists.newArrayList();
+      }
+      bfm.runs.add(name);
+      return name;
+    }
+
     int fileSeq;
     long committedWid;
     final TreeMap<Slice, BucketFileMeta> files;
@@ -376,14 +933,14 @@ public class HDHTReader implements Operator, HDHT.Reader
 
   private static class BucketReader implements Closeable
   {
-    BucketMeta bucketMeta;
-    final ConcurrentMap<String, HDSFileReader> readers = Maps.newConcurrentMap();
+    volatile BucketMeta bucketMeta;
+    final ConcurrentMap<String, Queue<HDSFileReader>> readers = Maps.newConcurrentMap();
 
     @Override
     public void close() throws IOException
     {
-      for (HDSFileReader reader : readers.values()) {
-        reader.close();
+      for (Queue<HDSFileReader> pool : readers.values()) {
+        closeReaders(pool);
       }
     }
   }
@@ -27,7 +27,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.datatorrent.common.util.Slice;
-import com.datatorrent.contrib.hdht.HDHT.WALReader;
 import com.datatorrent.contrib.hdht.HDHT.WALWriter;
 
 /**
@@ -38,6 +37,10 @@ import com.datatorrent.contrib.hdht.HDHT.WALWriter;
  * have grown a beyond maxWalFileSize then current file is closed
  * and new file is created.
  *
+ * Records are written in batches, each batch carries a CRC32C checksum and is optionally
+ * compressed. At end of window the batches of all buckets are written before the files
+ * are synced, so that the syncs of the buckets overlap (group commit).
+ *
  * The WAL usage windowId as log sequence number(LSN). When data is
  * written to data files, the committedWid saved in bucket metadata.
  *
@@ -47,7 +50,9 @@ import com.datatorrent.contrib.hdht.HDHT.WALWriter;
  * Recovery After Failure.
  *
  *   If committedWid is smaller than wal windowId.
- *   - Truncate last WAL file to known offset (recoveryEndWalOffset).
+ *   - Truncate last WAL file to known offset (recoveryEndWalOffset). A torn write beyond
+ *     that offset is discarded, a torn write before it fails the recovery, since data of
+ *     checkpointed windows is lost, unless the loss is explicitly tolerated.
  *   - Wal metadata contains file id and recoveryEndWalOffset where committedWid ended,
  *     start reading from that location till the end of current WAL file
  *     and adds tuples back to the committed cache in store.
@@ -65,6 +70,21 @@ public class HDHTWalManager implements Closeable
 {
   public static final String WAL_FILE_PREFIX = "_WAL-";
 
+  /**
+   * Durability of the WAL at end of window.
+   */
+  public enum SyncPolicy
+  {
+    /**
+     * Wait for data to reach all data nodes (hflush), it may not be on disk yet.
+     */
+    HFLUSH,
+    /**
+     * Wait for data to be persisted on disk of all data nodes (hsync).
+     */
+    HSYNC
+  }
+
   public void setBucketKey(long bucketKey)
   {
     this.bucketKey = bucketKey;
@@ -93,6 +113,14 @@ public class HDHTWalManager implements Closeable
    * default is 128M */
   transient long maxWalFileSize = 128 * 1024 * 1024;
 
+  /* Hadoop compression codec for WAL batches, null for no compression */
+  transient String compressionCodec;
+
+  transient SyncPolicy syncPolicy = SyncPolicy.HSYNC;
+
+  /* Whether recovery continues when data before the checkpointed position is lost */
+  transient boolean dataLossTolerated;
+
   /* The class responsible writing WAL entry to file */
   transient WALWriter writer;
 
@@ -148,7 +176,7 @@ public class HDHTWalManager implements Closeable
 
     long offset = start.offset;
     for (long i = start.fileId; i <= end.fileId; i++) {
-      WALReader wReader = new HDFSWalReader(bfs, bucketKey, WAL_FILE_PREFIX + i);
+      HDFSWalReader wReader = new HDFSWalReader(bfs, bucketKey, WAL_FILE_PREFIX + i);
       wReader.seek(offset);
       offset = 0;
       int count = 0;
@@ -158,6 +186,15 @@ public class HDHTWalManager implements Closeable
         count++;
       }
       wReader.close();
+      if (wReader.isTornTail()) {
+        if (i < end.fileId) {
+          // the files before the end file were complete when the checkpoint was taken
+          dataLost("Recovery of wal " + i + " stopped at torn write, offset " + wReader.getPosition());
+        } else {
+          // the end file was truncated to the checkpointed offset, the torn write is beyond it
+          logger.warn("Recovery of wal {} stopped at torn write, offset {}", i, wReader.getPosition());
+        }
+      }
       logger.info("Recovered {} tuples from wal {}", count, i);
     }
 
@@ -174,19 +211,41 @@ public class HDHTWalManager implements Closeable
   {
     if (pos.offset == 0)
       return;
-    logger.info("recover wal file {}, data valid till offset {}", pos.fileId, pos.offset);
+    // the checkpointed position may be beyond the data that made it to disk, verify with the checksums
+    HDFSWalReader reader = new HDFSWalReader(bfs, bucketKey, WAL_FILE_PREFIX + pos.fileId);
+    long validLength;
+    try {
+      validLength = reader.getValidLength(pos.offset);
+    } finally {
+      reader.close();
+    }
+    if (validLength < pos.offset) {
+      dataLost("wal file " + pos.fileId + " valid till offset " + validLength + ", expected " + pos.offset);
+    }
+    logger.info("recover wal file {}, data valid till offset {}", pos.fileId, validLength);
     DataInputStream in = bfs.getInputStream(bucketKey, WAL_FILE_PREFIX + pos.fileId);
     DataOutputStream out = bfs.getOutputStream(bucketKey, WAL_FILE_PREFIX + pos.fileId + "-truncate");
-    IOUtils.copyLarge(in, out, 0, pos.offset);
+    IOUtils.copyLarge(in, out, 0, validLength);
     in.close();
     out.close();
     bfs.rename(bucketKey, WAL_FILE_PREFIX + pos.fileId + "-truncate", WAL_FILE_PREFIX + pos.fileId);
   }
 
+  /**
+   * Data of windows that were checkpointed as synced is missing in the WAL.
+   */
+  private void dataLost(String message) throws IOException
+  {
+    if (!dataLossTolerated) {
+      throw new IOException("Data loss in WAL of bucket " + bucketKey + ": " + message);
+    }
+    logger.warn("Data loss in WAL of bucket {}: {}", bucketKey, message);
+  }
+
   public void append(Slice key, byte[] value) throws IOException
   {
     if (writer == null)
-      writer = new HDFSWalWriter(bfs, bucketKey, WAL_FILE_PREFIX + walFileId);
+      writer = new HDFSWalWriter(bfs, bucketKey, WAL_FILE_PREFIX + walFileId, compressionCodec, syncPolicy == SyncPolicy.HSYNC);
 
     writer.append(key, value);
     long bytes = key.length + value.length + 2 * 4;
@@ -196,7 +255,18 @@ public class HDHTWalManager implements Closeable
 
     if (maxUnflushedBytes > 0 && writer.getUnflushedCount() > maxUnflushedBytes)
     {
-      flushWal();
+      writer.flushBuffer();
+    }
+  }
+
+  /**
+   * Write buffered records to the file without waiting for them to be persisted. Called for all buckets before
+   * {@link #endWindow(long)}, so that the data is in flight for all files when the syncs are issued.
+   */
+  public void flushBuffer() throws IOException
+  {
+    if (writer != null && dirty) {
+      writer.flushBuffer();
     }
   }
 
@@ -277,6 +347,36 @@ public class HDHTWalManager implements Closeable
     this.maxUnflushedBytes = maxUnflushedBytes;
   }
 
+  public String getCompressionCodec()
+  {
+    return compressionCodec;
+  }
+
+  public void setCompressionCodec(String compressionCodec)
+  {
+    this.compressionCodec = compressionCodec;
+  }
+
+  public SyncPolicy getSyncPolicy()
+  {
+    return syncPolicy;
+  }
+
+  public void setSyncPolicy(SyncPolicy syncPolicy)
+  {
+    this.syncPolicy = syncPolicy;
+  }
+
+  public boolean isDataLossTolerated()
+  {
+    return dataLossTolerated;
+  }
+
+  public void setDataLossTolerated(boolean dataLossTolerated)
+  {
+    this.dataLossTolerated = dataLossTolerated;
+  }
+
   public long getFlushedWid() {
     return flushedWid;
   }
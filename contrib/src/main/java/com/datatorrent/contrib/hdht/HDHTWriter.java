@@ -19,14 +19,21 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 
 import com.datatorrent.api.Context;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.io.file.tfile.BlockCache;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,8 +45,11 @@ import com.datatorrent.common.util.NameableThreadFactory;
 import com.datatorrent.common.util.Slice;
 import com.datatorrent.contrib.hdht.HDHTFileAccess.HDSFileReader;
 import com.datatorrent.contrib.hdht.HDHTFileAccess.HDSFileWriter;
+import com.datatorrent.contrib.hdht.tfile.TFileImpl;
+import com.datatorrent.lib.bucket.BloomFilter;
 import com.esotericsoftware.kryo.io.Output;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
@@ -62,18 +72,35 @@ import com.google.common.collect.Sets;
 public class HDHTWriter extends HDHTReader implements CheckpointListener, Operator, HDHT.Writer
 {
 
-  private final transient HashMap<Long, BucketMeta> metaCache = Maps.newHashMap();
+  /* estimated heap use of a hash map entry with key slice */
+  private static final int ENTRY_OVERHEAD = 96;
+  /* marker for keys deleted by a sorted run while merging a data file */
+  private static final Slice DELETED_SLICE = new Slice(HDHT.WALReader.DELETED, 0, 0);
+
+  private final transient ConcurrentMap<Long, BucketMeta> metaCache = Maps.newConcurrentMap();
   private long currentWindowId;
   private transient long lastFlushWindowId;
   private final transient HashMap<Long, Bucket> buckets = Maps.newHashMap();
   @VisibleForTesting
   protected transient ExecutorService writeExecutor;
+  private transient ExecutorService mergeExecutor;
   private volatile transient Throwable writerError;
+  private final transient Object flushBudgetLock = new Object();
+  private transient long frozenBytes;
 
   private int maxFileSize = 128 * 1024 * 1024; // 128m
   private int maxWalFileSize = 64 * 1024 * 1024;
   private int flushSize = 1000000;
   private int flushIntervalCount = 120;
+  private int maxSortedRuns = 0;
+  private int bloomFilterBitsPerKey = 0;
+  private String walCompressionCodec;
+  private boolean sortedWriteCache = false;
+  private int flushThreads = 1;
+  private long maxFrozenBytes = 0;
+  @NotNull
+  private HDHTWalManager.SyncPolicy walSyncPolicy = HDHTWalManager.SyncPolicy.HSYNC;
+  private boolean walDataLossTolerated = false;
 
   private final HashMap<Long, WalMeta> walMeta = Maps.newHashMap();
   private transient OperatorContext context;
@@ -111,7 +138,8 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
   }
 
   /**
-   * The number of changes collected in memory before flushing to persistent storage.
+   * The number of changes collected in memory before flushing to persistent storage. With {@link #isSortedWriteCache()},
+   * replaced values that still occupy the write cache count as changes.
    *
    * @return The number of changes collected in memory before flushing to persistent storage.
    */
@@ -142,15 +170,162 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
     this.flushIntervalCount = flushIntervalCount;
   }
 
+  /**
+   * Maximum number of sorted runs per data file. When greater than zero, changes to the key range of an existing data
+   * file are flushed as small sorted run files instead of rewriting the data file. Once the limit is reached, the data
+   * file and its runs are merged by a compaction task. Reads consult the runs from most recent to oldest before the
+   * data file. The default of 0 rewrites the data file on every flush.
+   *
+   * @return The maximum number of sorted runs per data file.
+   */
+  @Min(value = 0)
+  public int getMaxSortedRuns()
+  {
+    return maxSortedRuns;
+  }
+
+  public void setMaxSortedRuns(int maxSortedRuns)
+  {
+    this.maxSortedRuns = maxSortedRuns;
+  }
+
+  /**
+   * Number of bits per key for the bloom filters of data files. The filters are kept in the bucket meta data and
+   * allow lookups of absent keys to skip the file without seeking. 10 bits per key yield a false positive rate of
+   * about 1%. The default of 0 disables the filters, as they increase the size of the meta data.
+   *
+   * @return The number of bloom filter bits per key.
+   */
+  @Min(value = 0)
+  public int getBloomFilterBitsPerKey()
+  {
+    return bloomFilterBitsPerKey;
+  }
+
+  public void setBloomFilterBitsPerKey(int bloomFilterBitsPerKey)
+  {
+    this.bloomFilterBitsPerKey = bloomFilterBitsPerKey;
+  }
+
+  /**
+   * Use {@link MemTable} instead of hash maps for the write caches. Keys and values are then stored in arena blocks and
+   * kept sorted, which reduces garbage collection overhead for large flush sizes and avoids sorting the changes on
+   * flush, at the cost of copying values on lookup.
+   *
+   * @return Whether write caches are sorted memtables.
+   */
+  public boolean isSortedWriteCache()
+  {
+    return sortedWriteCache;
+  }
+
+  public void setSortedWriteCache(boolean sortedWriteCache)
+  {
+    this.sortedWriteCache = sortedWriteCache;
+  }
+
+  private Map<Slice, byte[]> newWriteCache()
+  {
+    if (sortedWriteCache) {
+      return new MemTable(getKeyComparator());
+    }
+    return Maps.newHashMap();
+  }
+
+  /**
+   * Number of threads that flush committed changes to data files. Buckets are flushed in parallel, a bucket is flushed
+   * by one thread at a time. With more than one thread, the existing data file for the next set of changes is read and
+   * merged while the current file is written. Default is 1, all buckets are flushed one after another.
+   *
+   * @return The number of flush threads.
+   */
+  @Min(value = 1)
+  public int getFlushThreads()
+  {
+    return flushThreads;
+  }
+
+  public void setFlushThreads(int flushThreads)
+  {
+    this.flushThreads = flushThreads;
+  }
+
+  /**
+   * Memory budget in bytes for changes that are being flushed to data files. When the estimated size of the frozen
+   * write caches exceeds the budget, {@link #put(long, Slice, byte[])} blocks until flushes complete, which propagates
+   * backpressure upstream instead of accumulating changes in memory. The default of 0 disables the limit.
+   *
+   * @return The flush memory budget.
+   */
+  @Min(value = 0)
+  public long getMaxFrozenBytes()
+  {
+    return maxFrozenBytes;
+  }
+
+  public void setMaxFrozenBytes(long maxFrozenBytes)
+  {
+    this.maxFrozenBytes = maxFrozenBytes;
+  }
+
+  /**
+   * Name of the Hadoop compression codec used for WAL batches, for example "default" (zlib), "snappy" or "lz4". The codec is
+   * recorded in the WAL file header, so it can be changed between restarts. Default is no compression.
+   *
+   * @return The compression codec name.
+   */
+  public String getWalCompressionCodec()
+  {
+    return walCompressionCodec;
+  }
+
+  public void setWalCompressionCodec(String walCompressionCodec)
+  {
+    this.walCompressionCodec = walCompressionCodec;
+  }
+
+  /**
+   * Durability of the WAL at end of window. HSYNC (default) waits until the data is on disk, HFLUSH only until it
+   * reached the data nodes, which is faster but can lose the most recent windows when all replicas fail at once.
+   *
+   * @return The WAL sync policy.
+   */
+  public HDHTWalManager.SyncPolicy getWalSyncPolicy()
+  {
+    return walSyncPolicy;
+  }
+
+  public void setWalSyncPolicy(HDHTWalManager.SyncPolicy walSyncPolicy)
+  {
+    this.walSyncPolicy = walSyncPolicy;
+  }
+
+  /**
+   * Whether recovery continues with the remaining data when the WAL lost data of checkpointed windows, for example
+   * after all replicas failed with the HFLUSH sync policy. By default (false) recovery fails instead. A torn write
+   * after the checkpointed position is always discarded.
+   *
+   * @return Whether loss of WAL data is tolerated on recovery.
+   */
+  public boolean isWalDataLossTolerated()
+  {
+    return walDataLossTolerated;
+  }
+
+  public void setWalDataLossTolerated(boolean walDataLossTolerated)
+  {
+    this.walDataLossTolerated = walDataLossTolerated;
+  }
+
   /**
    * Write data to size based rolling files
    *
    * @param bucket
    * @param bucketMeta
-   * @param data
+   * @param data entries in key order
    * @throws IOException
    */
-  private void writeFile(Bucket bucket, BucketMeta bucketMeta, TreeMap<Slice, byte[]> data) throws IOException
+  private void writeFile(Bucket bucket, BucketMeta bucketMeta, Map<Slice, byte[]> data) throws IOException
   {
     BucketIOStats ioStats = getOrCretaStats(bucket.bucketKey);
     long startTime = System.currentTimeMillis();
@@ -158,6 +333,7 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
     HDSFileWriter fw = null;
     BucketFileMeta fileMeta = null;
     int keysWritten = 0;
+    long[] keyHashes = bloomFilterBitsPerKey > 0 ? new long[data.size()] : null;
     for (Map.Entry<Slice, byte[]> dataEntry : data.entrySet()) {
       if (fw == null) {
         // next file
@@ -172,10 +348,16 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
       }
 
       fw.append(dataEntry.getKey().toByteArray(), dataEntry.getValue());
+      if (keyHashes != null) {
+        keyHashes[keysWritten] = BloomFilter.hash(dataEntry.getKey());
+      }
       keysWritten++;
       if (fw.getBytesWritten() > this.maxFileSize) {
         ioStats.dataFilesWritten++;
         ioStats.filesWroteInCurrentWriteCycle++;
+        if (keyHashes != null) {
+          fileMeta.bloomFilter = BloomFilter.create(bucket.bucketKey, keyHashes, keysWritten, bloomFilterBitsPerKey);
+        }
         // roll file
         fw.close();
         ioStats.dataBytesWritten += fw.getBytesWritten();
@@ -189,6 +371,9 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
     if (fw != null) {
       ioStats.dataFilesWritten++;
       ioStats.filesWroteInCurrentWriteCycle++;
+      if (keyHashes != null) {
+        fileMeta.bloomFilter = BloomFilter.create(bucket.bucketKey, keyHashes, keysWritten, bloomFilterBitsPerKey);
+      }
       fw.close();
       ioStats.dataBytesWritten += fw.getBytesWritten();
       this.store.rename(bucket.bucketKey, fileMeta.name + ".tmp", fileMeta.name);
@@ -198,6 +383,110 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
     ioStats.dataWriteTime += System.currentTimeMillis() - startTime;
   }
 
+  /**
+   * Write changes to the key range of an existing data file as new sorted run. Each value is preceded by a flag byte,
+   * deleted keys are written with the {@link #RUN_DELETED} flag only, to mask the entry in the data file and older
+   * runs. Empty values remain distinct from deleted keys.
+   *
+   * @param bucket
+   * @param bucketMeta
+   * @param fileMeta
+   * @param data entries in key order
+   * @throws IOException
+   */
+  private void writeRun(Bucket bucket, BucketMeta bucketMeta, BucketFileMeta fileMeta, Map<Slice, byte[]> data) throws IOException
+  {
+    BucketIOStats ioStats = getOrCretaStats(bucket.bucketKey);
+    long startTime = System.currentTimeMillis();
+
+    String runName = bucketMeta.addRun(bucket.bucketKey, fileMeta);
+    LOG.debug("writing sorted run {} {} for {}", bucket.bucketKey, runName, fileMeta.name);
+    HDSFileWriter fw = this.store.getWriter(bucket.bucketKey, runName + ".tmp");
+    long[] keyHashes = bloomFilterBitsPerKey > 0 ? new long[data.size()] : null;
+    int keysWritten = 0;
+    for (Map.Entry<Slice, byte[]> dataEntry : data.entrySet()) {
+      fw.append(dataEntry.getKey().toByteArray(), encodeRunValue(dataEntry.getValue()));
+      if (keyHashes != null) {
+        keyHashes[keysWritten] = BloomFilter.hash(dataEntry.getKey());
+      }
+      keysWritten++;
+    }
+    fw.close();
+    // deleted keys are part of the filter, as they need to mask older entries
+    if (fileMeta.runBloomFilters == null) {
+      fileMeta.runBloomFilters = Lists.newArrayList();
+    }
+    while (fileMeta.runBloomFilters.size() < fileMeta.runs.size() - 1) {
+      fileMeta.runBloomFilters.add(null);
+    }
+    fileMeta.runBloomFilters.add(keyHashes != null ? BloomFilter.create(bucket.bucketKey, keyHashes, keysWritten, bloomFilterBitsPerKey) : null);
+    ioStats.runFilesWritten++;
+    ioStats.filesWroteInCurrentWriteCycle++;
+    ioStats.dataBytesWritten += fw.getBytesWritten();
+    this.store.rename(bucket.bucketKey, runName + ".tmp", runName);
+    LOG.debug("created sorted run {} {} with {} entries", bucket.bucketKey, runName, data.size());
+
+    ioStats.dataWriteTime += System.currentTimeMillis() - startTime;
+  }
+
+  private static byte[] encodeRunValue(byte[] value)
+  {
+    if (value == HDHT.WALReader.DELETED) {
+      return new byte[] {RUN_DELETED};
+    }
+    byte[] encoded = new byte[value.length + 1];
+    encoded[0] = RUN_VALUE;
+    System.arraycopy(value, 0, encoded, 1, value.length);
+    return encoded;
+  }
+
+  /**
+   * Read data file and apply its sorted runs, oldest first. Files read are added to the set of files to delete.
+   *
+   * @param bucket
+   * @param fileMeta
+   * @param fileData
+   * @param filesToDelete
+   * @throws IOException
+   */
+  private void loadFile(Bucket bucket, BucketFileMeta fileMeta, TreeMap<Slice, byte[]> fileData, Set<String> filesToDelete) throws IOException
+  {
+    BucketIOStats ioStats = getOrCretaStats(bucket.bucketKey);
+    long start = System.currentTimeMillis();
+    // values reference the block buffers until the runs are applied, only the surviving values are copied
+    TreeMap<Slice, Slice> data = new TreeMap<Slice, Slice>(getKeyComparator());
+    HDSFileReader reader = store.getReader(bucket.bucketKey, fileMeta.name);
+    reader.readFullyAsSlices(data);
+    ioStats.dataBytesRead += store.getFileSize(bucket.bucketKey, fileMeta.name);
+    reader.close();
+    filesToDelete.add(fileMeta.name);
+
+    if (fileMeta.runs != null) {
+      TreeMap<Slice, Slice> runData = new TreeMap<Slice, Slice>(getKeyComparator());
+      for (String runName : fileMeta.runs) {
+        runData.clear();
+        reader = store.getReader(bucket.bucketKey, runName);
+        reader.readFullyAsSlices(runData);
+        ioStats.dataBytesRead += store.getFileSize(bucket.bucketKey, runName);
+        reader.close();
+        for (Map.Entry<Slice, Slice> runEntry : runData.entrySet()) {
+          Slice value = runEntry.getValue();
+          data.put(runEntry.getKey(), decodeRunValue(value) ? value : DELETED_SLICE);
+        }
+        filesToDelete.add(runName);
+      }
+    }
+    for (Map.Entry<Slice, Slice> entry : data.entrySet()) {
+      Slice value = entry.getValue();
+      fileData.put(entry.getKey(), value == DELETED_SLICE ? HDHT.WALReader.DELETED : value.toByteArray());
+    }
+    ioStats.dataReadTime += System.currentTimeMillis() - start;
+    /* these keys are re-written */
+    ioStats.dataKeysRewritten += fileData.size();
+    ioStats.filesReadInCurrentWriteCycle++;
+    ioStats.dataFilesRead++;
+  }
+
   private Bucket getBucket(long bucketKey) throws IOException
   {
     Bucket bucket = this.buckets.get(bucketKey);
@@ -205,12 +494,18 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
       LOG.debug("Opening bucket {}", bucketKey);
       bucket = new Bucket();
       bucket.bucketKey = bucketKey;
+      bucket.writeCache = newWriteCache();
+      bucket.committedWriteCache = newWriteCache();
+      bucket.frozenWriteCache = newWriteCache();
       this.buckets.put(bucketKey, bucket);
 
       BucketMeta bmeta = getMeta(bucketKey);
       WalMeta wmeta = getWalMeta(bucketKey);
       bucket.wal = new HDHTWalManager(this.store, bucketKey, wmeta.cpWalPosition);
       bucket.wal.setMaxWalFileSize(maxWalFileSize);
+      bucket.wal.setCompressionCodec(walCompressionCodec);
+      bucket.wal.setSyncPolicy(walSyncPolicy);
+      bucket.wal.setDataLossTolerated(walDataLossTolerated);
       BucketIOStats ioStats = getOrCretaStats(bucketKey);
       if (ioStats != null) {
         bucket.wal.restoreStats(ioStats);
@@ -224,6 +519,7 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
         LOG.debug("Recovery for bucket {}", bucketKey);
         // Add tuples from recovery start till recovery end.
         bucket.wal.runRecovery(bucket.committedWriteCache, bmeta.recoveryStartWalPosition, wmeta.cpWalPosition);
+        bucket.committedBytes = estimateSize(bucket.committedWriteCache);
         bucket.walPositions.put(wmeta.windowId, wmeta.cpWalPosition);
       }
     }
@@ -241,28 +537,98 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
   {
     Bucket bucket = this.buckets.get(bucketKey);
     if (bucket != null) {
-      byte[] v = bucket.writeCache.get(key);
-      if (v != null) {
-        return v != HDHT.WALReader.DELETED ? v : null;
-      }
-      for (Map.Entry<Long, HashMap<Slice, byte[]>> entry : bucket.checkpointedWriteCache.entrySet()) {
-        byte[] v2 = entry.getValue().get(key);
-        // find most recent entry
-        if (v2 != null) {
-          v = v2;
-        }
+      byte[] v = getChange(bucket, key);
+      return v != null && v != HDHT.WALReader.DELETED ? v : null;
+    }
+    return null;
+  }
+
+  /**
+   * Most recent change of the key in the write caches of the bucket.
+   * @return The value, {@link HDHT.WALReader#DELETED} or null if the key was not changed.
+   */
+  private byte[] getChange(Bucket bucket, Slice key)
+  {
+    byte[] v = bucket.writeCache.get(key);
+    if (v != null) {
+      return v;
+    }
+    for (Map.Entry<Long, Map<Slice, byte[]>> entry : bucket.checkpointedWriteCache.entrySet()) {
+      byte[] v2 = entry.getValue().get(key);
+      // find most recent entry
+      if (v2 != null) {
+        v = v2;
       }
+    }
+    if (v != null) {
+      return v;
+    }
+    v = bucket.committedWriteCache.get(key);
+    if (v != null) {
+      return v;
+    }
+    return bucket.frozenWriteCache.get(key);
+  }
+
+  /**
+   * Lookup of the given keys in the write cache, without iterating the caches.
+   * @return uncommitted changes of the keys, including deletes.
+   */
+  @Override
+  protected NavigableMap<Slice, byte[]> getUncommitted(long bucketKey, NavigableSet<Slice> keys)
+  {
+    Bucket bucket = this.buckets.get(bucketKey);
+    if (bucket == null) {
+      return null;
+    }
+    TreeMap<Slice, byte[]> changes = new TreeMap<Slice, byte[]>(getKeyComparator());
+    for (Slice key : keys) {
+      byte[] v = getChange(bucket, key);
       if (v != null) {
-        return v != HDHT.WALReader.DELETED ? v : null;
+        changes.put(key, v);
       }
-      v = bucket.committedWriteCache.get(key);
-      if (v != null) {
-        return v != HDHT.WALReader.DELETED ? v : null;
+    }
+    return changes;
+  }
+
+  /**
+   * Range lookup in write cache (data not flushed/committed to files). Caches are applied from oldest to most recent,
+   * so that later changes replace earlier ones.
+   * @param bucketKey
+   * @param fromKey
+   * @param toKey
+   * @return uncommitted changes within the range, including deletes.
+   */
+  @Override
+  public NavigableMap<Slice, byte[]> getUncommitted(long bucketKey, Slice fromKey, Slice toKey)
+  {
+    Bucket bucket = this.buckets.get(bucketKey);
+    if (bucket == null) {
+      return null;
+    }
+    TreeMap<Slice, byte[]> changes = new TreeMap<Slice, byte[]>(getKeyComparator());
+    addRange(changes, bucket.frozenWriteCache, fromKey, toKey);
+    addRange(changes, bucket.committedWriteCache, fromKey, toKey);
+    for (Map<Slice, byte[]> cpCache : bucket.checkpointedWriteCache.values()) {
+      addRange(changes, cpCache, fromKey, toKey);
+    }
+    addRange(changes, bucket.writeCache, fromKey, toKey);
+    return changes;
+  }
+
+  private void addRange(TreeMap<Slice, byte[]> changes, Map<Slice, byte[]> cache, Slice fromKey, Slice toKey)
+  {
+    if (cache instanceof MemTable) {
+      for (Map.Entry<Slice, byte[]> entry : ((MemTable)cache).entrySet(fromKey, toKey)) {
+        changes.put(entry.getKey(), entry.getValue());
+      }
+      return;
+    }
+    for (Map.Entry<Slice, byte[]> entry : cache.entrySet()) {
+      if (keyComparator.compare(entry.getKey(), fromKey) >= 0 && keyComparator.compare(entry.getKey(), toKey) <= 0) {
+        changes.put(entry.getKey(), entry.getValue());
       }
-      v = bucket.frozenWriteCache.get(key);
-      return v != null && v != HDHT.WALReader.DELETED ? v : null;
     }
-    return null;
   }
 
   /**
@@ -284,9 +650,12 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
   @Override
   public void put(long bucketKey, Slice key, byte[] value) throws IOException
   {
+    if (maxFrozenBytes > 0) {
+      awaitFlushBudget(bucketKey);
+    }
     Bucket bucket = getBucket(bucketKey);
     bucket.wal.append(key, value);
-    bucket.writeCache.put(key, value);
+    bucket.writeCacheBytes += sizeDelta(key, value, bucket.writeCache.put(key, value));
   }
 
   public void delete(long bucketKey, Slice key) throws IOException
@@ -294,22 +663,101 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
     put(bucketKey, key, HDHT.WALReader.DELETED);
   }
 
+  /**
+   * Block while the changes being flushed exceed the memory budget.
+   */
+  private void awaitFlushBudget(long bucketKey)
+  {
+    synchronized (flushBudgetLock) {
+      if (frozenBytes <= maxFrozenBytes) {
+        return;
+      }
+      long start = System.currentTimeMillis();
+      while (frozenBytes > maxFrozenBytes && writerError == null) {
+        try {
+          flushBudgetLock.wait(100);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Interrupted while waiting for flush", e);
+        }
+      }
+      getOrCretaStats(bucketKey).putWaitTime += System.currentTimeMillis() - start;
+    }
+    if (writerError != null) {
+      throw new RuntimeException("Error while flushing write cache.", this.writerError);
+    }
+  }
+
+  private void reserveFlushBudget(Bucket bucket, long size)
+  {
+    bucket.frozenBytes = size;
+    synchronized (flushBudgetLock) {
+      frozenBytes += bucket.frozenBytes;
+    }
+  }
+
+  private void releaseFlushBudget(Bucket bucket)
+  {
+    synchronized (flushBudgetLock) {
+      frozenBytes -= bucket.frozenBytes;
+      bucket.frozenBytes = 0;
+      flushBudgetLock.notifyAll();
+    }
+  }
+
+  private static long changeCount(Map<Slice, byte[]> cache)
+  {
+    if (cache instanceof MemTable) {
+      return (long)cache.size() + ((MemTable)cache).getReplacedCount();
+    }
+    return cache.size();
+  }
+
+  /**
+   * Change of the estimated size of a hash map write cache by a put. Sorted write caches report their memory usage.
+   */
+  private static long sizeDelta(Slice key, byte[] value, byte[] replaced)
+  {
+    if (replaced == null) {
+      return key.length + value.length + ENTRY_OVERHEAD;
+    }
+    return value.length - replaced.length;
+  }
+
+  /**
+   * Walks the cache, only used for caches that were filled without tracking their size, such as by WAL recovery.
+   */
+  private static long estimateSize(Map<Slice, byte[]> cache)
+  {
+    if (cache instanceof MemTable) {
+      return ((MemTable)cache).getMemoryUsage();
+    }
+    long size = 0;
+    for (Map.Entry<Slice, byte[]> entry : cache.entrySet()) {
+      size += entry.getKey().length + entry.getValue().length + ENTRY_OVERHEAD;
+    }
+    return size;
+  }
+
   /**
    * Flush changes from write cache to disk. New data files will be written and meta data replaced atomically. The flush
    * frequency determines availability of changes to external readers.
    *
+   * @return Whether data files reached the maximum number of sorted runs and need to be compacted.
    * @throws IOException
    */
-  private void writeDataFiles(Bucket bucket) throws IOException
+  private boolean writeDataFiles(final Bucket bucket) throws IOException
   {
     BucketIOStats ioStats = getOrCretaStats(bucket.bucketKey);
     LOG.debug("Writing data files in bucket {}", bucket.bucketKey);
     // copy meta data on write
-    BucketMeta bucketMetaCopy = kryo.copy(getMeta(bucket.bucketKey));
+    BucketMeta bucketMetaCopy = copyMeta(bucket.bucketKey);
 
     // bucket keys by file
     TreeMap<Slice, BucketFileMeta> bucketSeqStarts = bucketMetaCopy.files;
     Map<BucketFileMeta, Map<Slice, byte[]>> modifiedFiles = Maps.newHashMap();
+    // a sorted write cache is iterated in key order, the changes per file remain sorted
+    boolean sorted = bucket.frozenWriteCache instanceof MemTable;
 
     for (Map.Entry<Slice, byte[]> entry : bucket.frozenWriteCache.entrySet()) {
       // find file for key
@@ -337,54 +785,45 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
 
       Map<Slice, byte[]> fileUpdates = modifiedFiles.get(floorFile);
       if (fileUpdates == null) {
-        modifiedFiles.put(floorFile, fileUpdates = Maps.newHashMap());
+        modifiedFiles.put(floorFile, fileUpdates = sorted ? Maps.<Slice, byte[]>newLinkedHashMap() : Maps.<Slice, byte[]>newHashMap());
       }
       fileUpdates.put(entry.getKey(), entry.getValue());
     }
 
     HashSet<String> filesToDelete = Sets.newHashSet();
+    boolean compact = false;
+
+    // write modified files, the changes for the next file are merged while the current file is written
+    List<Map.Entry<BucketFileMeta, Map<Slice, byte[]>>> fileEntries = Lists.newArrayList(modifiedFiles.entrySet());
+    Future<Map<Slice, byte[]>> nextFileData = null;
+    for (int i = 0; i < fileEntries.size(); i++) {
+      BucketFileMeta fileMeta = fileEntries.get(i).getKey();
+      if (nextFileData == null) {
+        nextFileData = mergeFileData(bucket, fileMeta, fileEntries.get(i).getValue(), sorted, filesToDelete);
+      }
+      Map<Slice, byte[]> fileData = getFileData(nextFileData);
+      nextFileData = null;
+      if (i + 1 < fileEntries.size()) {
+        nextFileData = mergeFileData(bucket, fileEntries.get(i + 1).getKey(), fileEntries.get(i + 1).getValue(), sorted, filesToDelete);
+      }
 
-    // write modified files
-    for (Map.Entry<BucketFileMeta, Map<Slice, byte[]>> fileEntry : modifiedFiles.entrySet()) {
-      BucketFileMeta fileMeta = fileEntry.getKey();
-      TreeMap<Slice, byte[]> fileData = new TreeMap<Slice, byte[]>(getKeyComparator());
-
-      if (fileMeta.name != null) {
-        // load existing file
-        long start = System.currentTimeMillis();
-        HDSFileReader reader = store.getReader(bucket.bucketKey, fileMeta.name);
-        reader.readFully(fileData);
-        ioStats.dataBytesRead += store.getFileSize(bucket.bucketKey, fileMeta.name);
-        ioStats.dataReadTime += System.currentTimeMillis() - start;
-        /* these keys are re-written */
-        ioStats.dataKeysRewritten += fileData.size();
-        ioStats.filesReadInCurrentWriteCycle++;
-        ioStats.dataFilesRead++;
-        reader.close();
-        filesToDelete.add(fileMeta.name);
+      if (fileMeta.name != null && maxSortedRuns > 0) {
+        // leave existing file as is, changes are merged by compaction
+        writeRun(bucket, bucketMetaCopy, fileMeta, fileData);
+        compact |= fileMeta.runs.size() >= maxSortedRuns;
+        continue;
       }
 
-      // apply updates
-      fileData.putAll(fileEntry.getValue());
       // new file
+      bucketSeqStarts.remove(fileMeta.startKey);
       writeFile(bucket, bucketMetaCopy, fileData);
     }
 
     LOG.debug("Files written {} files read {}", ioStats.filesWroteInCurrentWriteCycle, ioStats.filesReadInCurrentWriteCycle);
     // flush meta data for new files
-    try {
-      LOG.debug("Writing {} with {} file entries", FNAME_META, bucketMetaCopy.files.size());
-      OutputStream os = store.getOutputStream(bucket.bucketKey, FNAME_META + ".new");
-      Output output = new Output(os);
-      bucketMetaCopy.committedWid = bucket.committedLSN;
-      bucketMetaCopy.recoveryStartWalPosition = bucket.recoveryStartWalPosition;
-      kryo.writeClassAndObject(output, bucketMetaCopy);
-      output.close();
-      os.close();
-      store.rename(bucket.bucketKey, FNAME_META + ".new", FNAME_META);
-    } catch (IOException e) {
-      throw new RuntimeException("Failed to write bucket meta data " + bucket.bucketKey, e);
-    }
+    bucketMetaCopy.committedWid = bucket.committedLSN;
+    bucketMetaCopy.recoveryStartWalPosition = bucket.recoveryStartWalPosition;
+    writeMeta(bucket.bucketKey, bucketMetaCopy);
 
     // clear pending changes
     ioStats.dataKeysWritten += bucket.frozenWriteCache.size();
@@ -403,13 +842,132 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
 
     ioStats.filesReadInCurrentWriteCycle = 0;
     ioStats.filesWroteInCurrentWriteCycle = 0;
+    return compact;
+  }
+
+  /**
+   * Sort the changes for a data file and merge them with the existing file, unless they are written as sorted run. Runs
+   * in the merge executor when flushing with multiple threads, otherwise in the calling thread.
+   *
+   * @return Future for the entries to write, in key order.
+   */
+  private Future<Map<Slice, byte[]>> mergeFileData(final Bucket bucket, final BucketFileMeta fileMeta, final Map<Slice, byte[]> changes, final boolean sorted, final Set<String> filesToDelete)
+  {
+    Callable<Map<Slice, byte[]>> merge = new Callable<Map<Slice, byte[]>>()
+    {
+      @Override
+      public Map<Slice, byte[]> call() throws IOException
+      {
+        boolean run = fileMeta.name != null && maxSortedRuns > 0;
+        if (sorted && (fileMeta.name == null || run)) {
+          // changes are already in key order
+          return changes;
+        }
+        TreeMap<Slice, byte[]> fileData = new TreeMap<Slice, byte[]>(getKeyComparator());
+        if (fileMeta.name != null && !run) {
+          // load existing file
+          loadFile(bucket, fileMeta, fileData, filesToDelete);
+        }
+        // apply updates
+        fileData.putAll(changes);
+        return fileData;
+      }
+    };
+    if (mergeExecutor == null) {
+      FutureTask<Map<Slice, byte[]>> task = new FutureTask<Map<Slice, byte[]>>(merge);
+      task.run();
+      return task;
+    }
+    return mergeExecutor.submit(merge);
+  }
+
+  private static Map<Slice, byte[]> getFileData(Future<Map<Slice, byte[]>> fileData) throws IOException
+  {
+    try {
+      return fileData.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while merging data file", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw new IOException("Failed to merge data file", e.getCause());
+    }
+  }
+
+  /**
+   * Merge data files that reached the maximum number of sorted runs with their runs. Runs in the write executor, after
+   * the flush that produced the runs and before the next flush of the bucket. The recovery information of the current meta data is retained.
+   *
+   * @throws IOException
+   */
+  private void compactDataFiles(Bucket bucket) throws IOException
+  {
+    BucketIOStats ioStats = getOrCretaStats(bucket.bucketKey);
+    BucketMeta bucketMetaCopy = copyMeta(bucket.bucketKey);
+    HashSet<String> filesToDelete = Sets.newHashSet();
+
+    for (BucketFileMeta fileMeta : Lists.newArrayList(bucketMetaCopy.files.values())) {
+      if (fileMeta.runs != null && fileMeta.runs.size() >= maxSortedRuns) {
+        LOG.debug("Compacting {} {} with {} runs", bucket.bucketKey, fileMeta.name, fileMeta.runs.size());
+        TreeMap<Slice, byte[]> fileData = new TreeMap<Slice, byte[]>(getKeyComparator());
+        loadFile(bucket, fileMeta, fileData, filesToDelete);
+        bucketMetaCopy.files.remove(fileMeta.startKey);
+        writeFile(bucket, bucketMetaCopy, fileData);
+        ioStats.filesCompacted++;
+      }
+    }
+
+    writeMeta(bucket.bucketKey, bucketMetaCopy);
+    this.metaCache.put(bucket.bucketKey, bucketMetaCopy);
+
+    for (String fileName : filesToDelete) {
+      store.delete(bucket.bucketKey, fileName);
+    }
+    invalidateReader(bucket.bucketKey, filesToDelete);
+
+    ioStats.filesReadInCurrentWriteCycle = 0;
+    ioStats.filesWroteInCurrentWriteCycle = 0;
+  }
+
+  private BucketMeta copyMeta(long bucketKey)
+  {
+    BucketMeta bucketMeta = getMeta(bucketKey);
+    synchronized (kryo) {
+      // kryo is shared with the query threads
+      return kryo.copy(bucketMeta);
+    }
+  }
+
+  private void writeMeta(long bucketKey, BucketMeta bucketMeta)
+  {
+    try {
+      LOG.debug("Writing {} with {} file entries", FNAME_META, bucketMeta.files.size());
+      OutputStream os = store.getOutputStream(bucketKey, FNAME_META + ".new");
+      Output output = new Output(os);
+      output.writeByte(META_VERSION);
+      synchronized (kryo) {
+        kryo.writeClassAndObject(output, bucketMeta);
+      }
+      output.close();
+      os.close();
+      store.rename(bucketKey, FNAME_META + ".new", FNAME_META);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to write bucket meta data " + bucketKey, e);
+    }
   }
 
   @Override
   public void setup(OperatorContext context)
   {
     super.setup(context);
-    writeExecutor = Executors.newSingleThreadScheduledExecutor(new NameableThreadFactory(this.getClass().getSimpleName() + "-Writer"));
+    if (flushThreads > 1) {
+      writeExecutor = Executors.newFixedThreadPool(flushThreads, new NameableThreadFactory(this.getClass().getSimpleName() + "-Writer"));
+      mergeExecutor = Executors.newFixedThreadPool(flushThreads, new NameableThreadFactory(this.getClass().getSimpleName() + "-Merge"));
+    } else {
+      writeExecutor = Executors.newSingleThreadScheduledExecutor(new NameableThreadFactory(this.getClass().getSimpleName() + "-Writer"));
+    }
     this.context = context;
   }
 
@@ -420,6 +978,9 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
       IOUtils.closeQuietly(bucket.wal);
     }
     writeExecutor.shutdown();
+    if (mergeExecutor != null) {
+      mergeExecutor.shutdown();
+    }
     super.teardown();
   }
 
@@ -434,16 +995,54 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
   public void endWindow()
   {
     super.endWindow();
-    for (final Bucket bucket : this.buckets.values()) {
-      try {
+    // group commit: write pending batches of all buckets first, so that the syncs wait for data already in flight
+    try {
+      for (final Bucket bucket : this.buckets.values()) {
         if (bucket.wal != null) {
-          bucket.wal.endWindow(currentWindowId);
-          WalMeta walMeta = getWalMeta(bucket.bucketKey);
-          walMeta.cpWalPosition = bucket.wal.getCurrentPosition();
-          walMeta.windowId = currentWindowId;
+          bucket.wal.flushBuffer();
         }
-      } catch (IOException e) {
-        throw new RuntimeException("Failed to flush WAL", e);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to flush WAL", e);
+    }
+    // sync the WALs of the buckets in parallel on the write executor
+    final long windowId = currentWindowId;
+    List<FutureTask<Void>> syncs = Lists.newArrayList();
+    for (final Bucket bucket : this.buckets.values()) {
+      if (bucket.wal != null) {
+        syncs.add(new FutureTask<Void>(new Callable<Void>()
+        {
+          @Override
+          public Void call() throws IOException
+          {
+            bucket.wal.endWindow(windowId);
+            return null;
+          }
+        }));
+      }
+    }
+    for (int i = 1; i < syncs.size(); i++) {
+      writeExecutor.execute(syncs.get(i));
+    }
+    // the operator thread syncs the first WAL and those which are still queued behind a flush
+    for (FutureTask<Void> sync : syncs) {
+      sync.run();
+    }
+    try {
+      for (FutureTask<Void> sync : syncs) {
+        sync.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while flushing WAL", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Failed to flush WAL", e.getCause());
+    }
+    for (final Bucket bucket : this.buckets.values()) {
+      if (bucket.wal != null) {
+        WalMeta walMeta = getWalMeta(bucket.bucketKey);
+        walMeta.cpWalPosition = bucket.wal.getCurrentPosition();
+        walMeta.windowId = currentWindowId;
       }
     }
 
@@ -474,11 +1073,13 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
     for (final Bucket bucket : this.buckets.values()) {
       if (!bucket.writeCache.isEmpty()) {
         bucket.checkpointedWriteCache.put(windowId, bucket.writeCache);
+        bucket.checkpointedBytes.put(windowId, bucket.writeCacheBytes);
+        bucket.writeCacheBytes = 0;
         bucket.walPositions.put(windowId, new HDHTWalManager.WalPosition(
             bucket.wal.getWalFileId(),
             bucket.wal.getWalSize()
         ));
-        bucket.writeCache = Maps.newHashMap();
+        bucket.writeCache = newWriteCache();
       }
     }
   }
@@ -503,10 +1104,21 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
   public void committed(long committedWindowId)
   {
     for (final Bucket bucket : this.buckets.values()) {
-      for (Iterator<Map.Entry<Long, HashMap<Slice, byte[]>>> cpIter = bucket.checkpointedWriteCache.entrySet().iterator(); cpIter.hasNext();) {
-        Map.Entry<Long, HashMap<Slice, byte[]>> checkpointEntry = cpIter.next();
+      for (Iterator<Map.Entry<Long, Map<Slice, byte[]>>> cpIter = bucket.checkpointedWriteCache.entrySet().iterator(); cpIter.hasNext();) {
+        Map.Entry<Long, Map<Slice, byte[]>> checkpointEntry = cpIter.next();
         if (checkpointEntry.getKey() <= committedWindowId) {
-          bucket.committedWriteCache.putAll(checkpointEntry.getValue());
+          Long checkpointedBytes = bucket.checkpointedBytes.remove(checkpointEntry.getKey());
+          if (bucket.committedWriteCache.isEmpty()) {
+            // take over the checkpointed cache instead of copying it
+            bucket.committedWriteCache = checkpointEntry.getValue();
+            bucket.committedBytes = checkpointedBytes != null ? checkpointedBytes : estimateSize(bucket.committedWriteCache);
+          } else if (bucket.committedWriteCache instanceof MemTable) {
+            bucket.committedWriteCache.putAll(checkpointEntry.getValue());
+          } else {
+            for (Map.Entry<Slice, byte[]> entry : checkpointEntry.getValue().entrySet()) {
+              bucket.committedBytes += sizeDelta(entry.getKey(), entry.getValue(), bucket.committedWriteCache.put(entry.getKey(), entry.getValue()));
+            }
+          }
           cpIter.remove();
         }
       }
@@ -519,24 +1131,44 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
         }
       }
 
-      if ((bucket.committedWriteCache.size() > this.flushSize || currentWindowId - lastFlushWindowId > flushIntervalCount) && !bucket.committedWriteCache.isEmpty()) {
-        // ensure previous flush completed
-        if (bucket.frozenWriteCache.isEmpty()) {
+      if ((changeCount(bucket.committedWriteCache) > this.flushSize || currentWindowId - lastFlushWindowId > flushIntervalCount) && !bucket.committedWriteCache.isEmpty()) {
+        // ensure previous flush and compaction completed
+        if (!bucket.flushPending) {
           bucket.frozenWriteCache = bucket.committedWriteCache;
-          bucket.committedWriteCache = Maps.newHashMap();
+          bucket.committedWriteCache = newWriteCache();
+          long size = bucket.frozenWriteCache instanceof MemTable ? ((MemTable)bucket.frozenWriteCache).getMemoryUsage() : bucket.committedBytes;
+          bucket.committedBytes = 0;
 
           bucket.committedLSN = committedWindowId;
+          bucket.flushPending = true;
+          if (maxFrozenBytes > 0) {
+            reserveFlushBudget(bucket, size);
+          }
 
           LOG.debug("Flushing data for bucket {} committedWid {} recoveryStartWalPosition {}", bucket.bucketKey, bucket.committedLSN, bucket.recoveryStartWalPosition);
           Runnable flushRunnable = new Runnable() {
             @Override
             public void run()
             {
+              boolean compact = false;
               try {
-                writeDataFiles(bucket);
+                compact = writeDataFiles(bucket);
               } catch (Throwable e) {
                 LOG.debug("Write error: {}", e.getMessage());
                 writerError = e;
+              } finally {
+                releaseFlushBudget(bucket);
+              }
+              try {
+                if (compact) {
+                  // merge runs after the flush, so that the frozen write cache is released first
+                  compactDataFiles(bucket);
+                }
+              } catch (Throwable e) {
+                LOG.debug("Compaction error: {}", e.getMessage());
+                writerError = e;
+              } finally {
+                bucket.flushPending = false;
               }
             }
           };
@@ -556,17 +1188,65 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
   {
     private long bucketKey;
     // keys that were modified and written to WAL, but not yet persisted, by checkpoint
-    private HashMap<Slice, byte[]> writeCache = Maps.newHashMap();
-    private final LinkedHashMap<Long, HashMap<Slice, byte[]>> checkpointedWriteCache = Maps.newLinkedHashMap();
+    private Map<Slice, byte[]> writeCache;
+    private final LinkedHashMap<Long, Map<Slice, byte[]>> checkpointedWriteCache = Maps.newLinkedHashMap();
     public HashMap<Long, HDHTWalManager.WalPosition> walPositions = Maps.newLinkedHashMap();
-    private HashMap<Slice, byte[]> committedWriteCache = Maps.newHashMap();
+    private Map<Slice, byte[]> committedWriteCache;
+    // estimated size of the hash map write caches, tracked on put so that no cache is walked on the operator thread
+    private long writeCacheBytes;
+    private final HashMap<Long, Long> checkpointedBytes = Maps.newHashMap();
+    private long committedBytes;
     // keys that are being flushed to data files
-    private HashMap<Slice, byte[]> frozenWriteCache = Maps.newHashMap();
+    private Map<Slice, byte[]> frozenWriteCache;
+    // flush or compaction in progress
+    private volatile boolean flushPending;
+    // estimated size of the frozen write cache, reserved from the flush memory budget
+    private long frozenBytes;
     private HDHTWalManager wal;
     private long committedLSN;
     public HDHTWalManager.WalPosition recoveryStartWalPosition;
   }
 
+  /**
+   * Buckets with checkpointed state in this instance.
+   *
+   * @return The bucket keys.
+   */
+  protected Set<Long> getCheckpointedBuckets()
+  {
+    Set<Long> bucketKeys = Sets.newHashSet(walMeta.keySet());
+    bucketKeys.addAll(bucketStats.keySet());
+    return bucketKeys;
+  }
+
+  /**
+   * Move the checkpointed state of a bucket (WAL position and stats) to another instance, when bucket ownership changes
+   * during repartitioning. The data files and meta data are located through the bucket key and need no transfer.
+   *
+   * @param bucketKey
+   * @param target the new owner of the bucket
+   */
+  protected void transferBucket(long bucketKey, HDHTWriter target)
+  {
+    WalMeta wmeta = walMeta.remove(bucketKey);
+    if (wmeta != null) {
+      target.walMeta.put(bucketKey, wmeta);
+    }
+    BucketIOStats ioStats = bucketStats.remove(bucketKey);
+    if (ioStats != null) {
+      target.bucketStats.put(bucketKey, ioStats);
+    }
+  }
+
+  /**
+   * Remove the checkpointed state of all buckets, before assigning buckets to a new partition.
+   */
+  protected void clearBuckets()
+  {
+    walMeta.clear();
+    bucketStats.clear();
+  }
+
   @VisibleForTesting
   protected void forceWal() throws IOException
   {
@@ -627,10 +1307,20 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
     /* The number of keys which are re-written, i.e keys which are read into memory from existing
        files which are written again in new data files */
     public long dataKeysRewritten;
+    /* Number of sorted runs written */
+    public long runFilesWritten;
+    /* Number of data files merged with their sorted runs */
+    public long filesCompacted;
+    /* Number of lookups that skipped a data file due to the bloom filter */
+    public long bloomFilterNegatives;
+    /* Number of lookups that did not find the key in a data file that passed the bloom filter */
+    public long bloomFilterFalsePositives;
 
     /* records in memory */
     public long dataInWriteCache;
     public long dataInFrozenCache;
+    /* heap memory used by sorted write caches, 0 for hash map caches */
+    public long writeCacheMemory;
     public int filesReadInCurrentWriteCycle;
     public int filesWroteInCurrentWriteCycle;
 
@@ -640,6 +1330,14 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
     /* Number of bytes read during data read */
     public long dataBytesRead;
 
+    /* Time put was blocked waiting for flushes to release memory */
+    public long putWaitTime;
+
+    /* Block cache counters, only maintained when the file access uses a dedicated block cache */
+    public long blockCacheHits;
+    public long blockCacheMisses;
+    public long blockCacheEvictions;
+
     @Override public String toString()
     {
       return "BucketIOStats{" +
@@ -652,13 +1350,22 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
           ", dataWriteTime=" + dataWriteTime +
           ", dataKeysWritten=" + dataKeysWritten +
           ", dataKeysRewritten=" + dataKeysRewritten +
+          ", runFilesWritten=" + runFilesWritten +
+          ", filesCompacted=" + filesCompacted +
+          ", bloomFilterNegatives=" + bloomFilterNegatives +
+          ", bloomFilterFalsePositives=" + bloomFilterFalsePositives +
           ", dataInWriteCache=" + dataInWriteCache +
           ", dataInFrozenCache=" + dataInFrozenCache +
+          ", writeCacheMemory=" + writeCacheMemory +
           ", filesReadInCurrentWriteCycle=" + filesReadInCurrentWriteCycle +
           ", filesWroteInCurrentWriteCycle=" + filesWroteInCurrentWriteCycle +
           ", dataFilesRead=" + dataFilesRead +
           ", dataReadTime=" + dataReadTime +
           ", dataBytesRead=" + dataBytesRead +
+          ", putWaitTime=" + putWaitTime +
+          ", blockCacheHits=" + blockCacheHits +
+          ", blockCacheMisses=" + blockCacheMisses +
+          ", blockCacheEvictions=" + blockCacheEvictions +
           '}';
     }
   }
@@ -676,9 +1383,29 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
       ioStats.walKeysWritten = walStats.totalKeys;
       ioStats.dataInWriteCache = bucket.writeCache.size();
       ioStats.dataInFrozenCache = bucket.frozenWriteCache.size();
+      ioStats.writeCacheMemory = memoryUsage(bucket.writeCache) + memoryUsage(bucket.committedWriteCache) + memoryUsage(bucket.frozenWriteCache);
+      for (Map<Slice, byte[]> cpCache : bucket.checkpointedWriteCache.values()) {
+        ioStats.writeCacheMemory += memoryUsage(cpCache);
+      }
+      BloomFilterStats bfStats = getBloomFilterStats(bucket.bucketKey);
+      ioStats.bloomFilterNegatives = bfStats.negatives.get();
+      ioStats.bloomFilterFalsePositives = bfStats.falsePositives.get();
+      if (store instanceof TFileImpl.DTFileImpl) {
+        BlockCache.Stats cacheStats = ((TFileImpl.DTFileImpl)store).getBlockCacheStats(bucket.bucketKey);
+        if (cacheStats != null) {
+          ioStats.blockCacheHits = cacheStats.hits.get();
+          ioStats.blockCacheMisses = cacheStats.misses.get();
+          ioStats.blockCacheEvictions = cacheStats.evictions.get();
+        }
+      }
     }
   }
 
+  private static long memoryUsage(Map<Slice, byte[]> cache)
+  {
+    return cache instanceof MemTable ? ((MemTable)cache).getMemoryUsage() : 0;
+  }
+
   @JsonSerialize
   public static class AggregatedBucketIOStats implements Serializable {
     private static final long serialVersionUID = 201412091454L;
@@ -711,15 +1438,25 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
           aggStats.globalStats.dataBytesWritten += stats.dataBytesWritten;
           aggStats.globalStats.dataKeysWritten += stats.dataKeysWritten;
           aggStats.globalStats.dataKeysRewritten += stats.dataKeysRewritten;
+          aggStats.globalStats.runFilesWritten += stats.runFilesWritten;
+          aggStats.globalStats.filesCompacted += stats.filesCompacted;
+          aggStats.globalStats.bloomFilterNegatives += stats.bloomFilterNegatives;
+          aggStats.globalStats.bloomFilterFalsePositives += stats.bloomFilterFalsePositives;
 
           aggStats.globalStats.dataInWriteCache += stats.dataInWriteCache;
           aggStats.globalStats.dataInFrozenCache += stats.dataInFrozenCache;
+          aggStats.globalStats.writeCacheMemory += stats.writeCacheMemory;
           aggStats.globalStats.filesReadInCurrentWriteCycle += stats.filesReadInCurrentWriteCycle;
           aggStats.globalStats.filesWroteInCurrentWriteCycle += stats.filesWroteInCurrentWriteCycle;
 
           aggStats.globalStats.dataReadTime += stats.dataReadTime;
           aggStats.globalStats.dataFilesRead += stats.dataFilesRead;
           aggStats.globalStats.dataBytesRead += stats.dataBytesRead;
+          aggStats.globalStats.putWaitTime += stats.putWaitTime;
+
+          aggStats.globalStats.blockCacheHits += stats.blockCacheHits;
+          aggStats.globalStats.blockCacheMisses += stats.blockCacheMisses;
+          aggStats.globalStats.blockCacheEvictions += stats.blockCacheEvictions;
 
           aggStats.aggregatedStats.put(bId, stats);
         }
@@ -729,14 +1466,14 @@ public class HDHTWriter extends HDHTReader implements CheckpointListener, Operat
   }
 
   /* A map holding stats for each bucket written by this partition */
-  private final HashMap<Long, BucketIOStats> bucketStats = Maps.newHashMap();
+  private final ConcurrentMap<Long, BucketIOStats> bucketStats = Maps.newConcurrentMap();
 
   private BucketIOStats getOrCretaStats(long bucketKey)
   {
     BucketIOStats ioStats = bucketStats.get(bucketKey);
     if (ioStats == null) {
-      ioStats = new BucketIOStats();
-      bucketStats.put(bucketKey, ioStats);
+      bucketStats.putIfAbsent(bucketKey, new BucketIOStats());
+      ioStats = bucketStats.get(bucketKey);
     }
     return ioStats;
   }
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2014 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.contrib.hdht;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.google.common.collect.Lists;
+
+import com.datatorrent.common.util.Slice;
+
+/**
+ * Sorted write cache for {@link HDHTWriter}. Keys and values are copied into large arena blocks, so that the cache
+ * holds a few big arrays instead of two small arrays per entry, which reduces the number of objects promoted to the old
+ * generation. The index is a skip list ordered by the key comparator, entries are iterated in key order.
+ * <p>
+ * Values are returned as copies. Replaced values remain in the arena until they exceed half of the used bytes, then the
+ * live entries are copied into new blocks and the index is swapped, readers of the old index still see the old blocks.
+ * Deletes are kept as {@link HDHT.WALReader#DELETED} marker. Single writer, concurrent readers.
+ */
+public class MemTable extends AbstractMap<Slice, byte[]>
+{
+  private static final int MIN_BLOCK_SIZE = 4 * 1024;
+  private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+  /* estimated heap use of a skip list entry with key and value slice */
+  private static final int ENTRY_OVERHEAD = 128;
+  private static final Slice DELETED = new Slice(HDHT.WALReader.DELETED, 0, 0);
+  /* replaced bytes below this are not worth copying the live entries */
+  private static final int MIN_COMPACTION_BYTES = MAX_BLOCK_SIZE;
+
+  private final Comparator<Slice> comparator;
+  private volatile ConcurrentSkipListMap<Slice, Slice> index;
+  private final List<byte[]> blocks = Lists.newArrayList();
+  private byte[] block;
+  private int blockOffset;
+  private long allocatedBytes;
+  private long usedBytes;
+  private long replacedBytes;
+  private int replacedCount;
+
+  public MemTable(Comparator<Slice> comparator)
+  {
+    this.comparator = comparator;
+    this.index = new ConcurrentSkipListMap<Slice, Slice>(comparator);
+  }
+
+  private Slice copy(byte[] buffer, int offset, int length)
+  {
+    if (block == null || block.length - blockOffset < length) {
+      int size = block == null ? MIN_BLOCK_SIZE : Math.min(MAX_BLOCK_SIZE, block.length * 2);
+      if (length > size / 4) {
+        // large entries get their own array
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, offset, bytes, 0, length);
+        blocks.add(bytes);
+        allocatedBytes += length;
+        usedBytes += length;
+        return new Slice(bytes, 0, length);
+      }
+      block = new byte[size];
+      blockOffset = 0;
+      blocks.add(block);
+      allocatedBytes += size;
+    }
+    System.arraycopy(buffer, offset, block, blockOffset, length);
+    Slice slice = new Slice(block, blockOffset, length);
+    blockOffset += length;
+    usedBytes += length;
+    return slice;
+  }
+
+  private void put(Slice key, Slice value)
+  {
+    Slice storedValue = value == DELETED ? DELETED : copy(value.buffer, value.offset, value.length);
+    Slice existing = index.get(key);
+    if (existing != null) {
+      // retain the existing key copy, the replaced value becomes garbage in the arena
+      index.put(key, storedValue);
+      replacedBytes += existing.length;
+      replacedCount++;
+      if (replacedBytes > MIN_COMPACTION_BYTES && replacedBytes > usedBytes / 2) {
+        compact();
+      }
+    } else {
+      index.put(copy(key.buffer, key.offset, key.length), storedValue);
+    }
+  }
+
+  /**
+   * Copy the live entries into new arena blocks. The new index is published after it is complete, the old blocks are
+   * not modified and remain valid for readers of the old index.
+   */
+  private void compact()
+  {
+    NavigableMap<Slice, Slice> live = index;
+    resetArena();
+    ConcurrentSkipListMap<Slice, Slice> compacted = new ConcurrentSkipListMap<Slice, Slice>(comparator);
+    for (Map.Entry<Slice, Slice> e : live.entrySet()) {
+      Slice key = e.getKey();
+      Slice value = e.getValue();
+      compacted.put(copy(key.buffer, key.offset, key.length), value == DELETED ? DELETED : copy(value.buffer, value.offset, value.length));
+    }
+    index = compacted;
+  }
+
+  private void resetArena()
+  {
+    blocks.clear();
+    block = null;
+    blockOffset = 0;
+    allocatedBytes = 0;
+    usedBytes = 0;
+    replacedBytes = 0;
+    replacedCount = 0;
+  }
+
+  /**
+   * Add or replace the entry. Unlike {@link Map#put(Object, Object)}, the previous value is not returned, to avoid
+   * copying it out of the arena.
+   *
+   * @return null
+   */
+  @Override
+  public byte[] put(Slice key, byte[] value)
+  {
+    put(key, value == HDHT.WALReader.DELETED ? DELETED : new Slice(value, 0, value.length));
+    return null;
+  }
+
+  @Override
+  public void putAll(Map<? extends Slice, ? extends byte[]> m)
+  {
+    if (m instanceof MemTable) {
+      // copy between arenas without intermediate arrays
+      for (Map.Entry<Slice, Slice> e : ((MemTable)m).index.entrySet()) {
+        put(e.getKey(), e.getValue());
+      }
+    } else {
+      super.putAll(m);
+    }
+  }
+
+  @Override
+  public byte[] get(Object key)
+  {
+    return toBytes(index.get(key));
+  }
+
+  @Override
+  public boolean containsKey(Object key)
+  {
+    return index.containsKey(key);
+  }
+
+  @Override
+  public int size()
+  {
+    return index.size();
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    return index.isEmpty();
+  }
+
+  @Override
+  public void clear()
+  {
+    index.clear();
+    resetArena();
+  }
+
+  @Override
+  public Set<Map.Entry<Slice, byte[]>> entrySet()
+  {
+    return entries(index);
+  }
+
+  /**
+   * Entries with keys within the range, in key order.
+   *
+   * @param fromKey lower bound key (inclusive).
+   * @param toKey upper bound key (inclusive).
+   * @return The entries within the range.
+   */
+  public Set<Map.Entry<Slice, byte[]>> entrySet(Slice fromKey, Slice toKey)
+  {
+    return entries(index.subMap(fromKey, true, toKey, true));
+  }
+
+  /**
+   * @return The heap memory used by the cache, including arena blocks and estimated index overhead.
+   */
+  public long getMemoryUsage()
+  {
+    return allocatedBytes + (long)index.size() * ENTRY_OVERHEAD;
+  }
+
+  /**
+   * @return Number of arena bytes that hold keys and values, including replaced values.
+   */
+  public long getUsedBytes()
+  {
+    return usedBytes;
+  }
+
+  /**
+   * @return Number of arena bytes held by replaced values that were not yet reclaimed.
+   */
+  public long getReplacedBytes()
+  {
+    return replacedBytes;
+  }
+
+  /**
+   * @return Number of replaced values that still hold arena bytes.
+   */
+  public int getReplacedCount()
+  {
+    return replacedCount;
+  }
+
+  private static byte[] toBytes(Slice value)
+  {
+    if (value == null) {
+      return null;
+    }
+    if (value == DELETED) {
+      return HDHT.WALReader.DELETED;
+    }
+    return value.toByteArray();
+  }
+
+  private static Set<Map.Entry<Slice, byte[]>> entries(final NavigableMap<Slice, Slice> map)
+  {
+    return new AbstractSet<Map.Entry<Slice, byte[]>>()
+    {
+      @Override
+      public Iterator<Map.Entry<Slice, byte[]>> iterator()
+      {
+        final Iterator<Map.Entry<Slice, Slice>> it = map.entrySet().iterator();
+        return new Iterator<Map.Entry<Slice, byte[]>>()
+        {
+          @Override
+          public boolean hasNext()
+          {
+            return it.hasNext();
+          }
+
+          @Override
+          public Map.Entry<Slice, byte[]> next()
+          {
+            Map.Entry<Slice, Slice> e = it.next();
+            return new AbstractMap.SimpleImmutableEntry<Slice, byte[]>(e.getKey(), toBytes(e.getValue()));
+          }
+
+          @Override
+          public void remove()
+          {
+            it.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size()
+      {
+        return map.size();
+      }
+    };
+  }
+
+}
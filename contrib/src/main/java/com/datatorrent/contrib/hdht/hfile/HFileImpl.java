@@ -263,6 +263,18 @@ public class HFileImpl extends HDHTFileAccessFSImpl {
         } while (scanner.next());
       }
 
+      @Override
+      public void readFullyAsSlices(TreeMap<Slice, Slice> data) throws IOException {
+        if (reader.getEntries() <= 0) return;
+        scanner.seekTo();
+        KeyValue kv;
+        do {
+          kv = scanner.getKeyValue();
+          Slice key = new Slice(kv.getRowArray(), kv.getKeyOffset(), kv.getKeyLength());
+          data.put(key, new Slice(kv.getRowArray(), kv.getValueOffset(), kv.getValueLength()));
+        } while (scanner.next());
+      }
+
       @Override
       public void reset() throws IOException {
         scanner.seekTo();
@@ -22,6 +22,7 @@ import java.util.TreeMap;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.file.tfile.BlockCache;
 import org.apache.hadoop.io.file.tfile.DTFile;
 import org.apache.hadoop.io.file.tfile.DTFile.Reader;
 import org.apache.hadoop.io.file.tfile.DTFile.Reader.Scanner;
@@ -54,6 +55,13 @@ public class DTFileReader implements HDSFileReader
     scanner = reader.createScanner();
   }
 
+  public DTFileReader(FSDataInputStream fsdis, long fileLength, Configuration conf, BlockCache blockCache, BlockCache.Stats cacheStats, String cacheKeyPrefix) throws IOException
+  {
+    this.fsdis = fsdis;
+    reader = new Reader(fsdis, fileLength, conf, blockCache, cacheStats, cacheKeyPrefix);
+    scanner = reader.createScanner();
+  }
+
   /**
    * Unlike the TFile.Reader.close method this will close the wrapped InputStream.
    * @see java.io.Closeable#close()
@@ -79,6 +87,18 @@ public class DTFileReader implements HDSFileReader
 
   }
 
+  @Override
+  public void readFullyAsSlices(TreeMap<Slice, Slice> data) throws IOException
+  {
+    scanner.rewind();
+    for (; !scanner.atEnd(); scanner.advance()) {
+      Entry en = scanner.entry();
+      Slice key = new Slice(en.getBlockBuffer(), en.getKeyOffset(), en.getKeyLength());
+      Slice value = new Slice(en.getBlockBuffer(), en.getValueOffset(), en.getValueLength());
+      data.put(key, value);
+    }
+  }
+
   @Override
   public void reset() throws IOException
   {
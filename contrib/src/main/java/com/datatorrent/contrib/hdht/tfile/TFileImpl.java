@@ -16,16 +16,21 @@
 package com.datatorrent.contrib.hdht.tfile;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.validation.constraints.Min;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.file.tfile.BlockCache;
 import org.apache.hadoop.io.file.tfile.DTFile;
 import org.apache.hadoop.io.file.tfile.TFile;
 import org.apache.hadoop.io.file.tfile.TFile.Reader;
 import org.apache.hadoop.io.file.tfile.TFile.Writer;
 
 import com.datatorrent.contrib.hdht.HDHTFileAccessFSImpl;
+import com.google.common.collect.Maps;
 
 /**
  * A TFile wrapper with HDHTFileAccess API
@@ -161,13 +166,82 @@ public abstract class TFileImpl extends HDHTFileAccessFSImpl
    *
    */
   public static class DTFileImpl extends TFileImpl {
-    
+
+    private long blockCacheSize = 0;
+
+    private transient BlockCache blockCache;
+
+    private final transient ConcurrentMap<Long, BlockCache.Stats> blockCacheStats = Maps.newConcurrentMap();
+
+    /**
+     * Memory limit in bytes for the block cache of this instance. When greater than zero, decompressed blocks are
+     * cached in a block cache owned by this file access, shared by all readers of the operator. Otherwise the global
+     * {@link org.apache.hadoop.io.file.tfile.CacheManager} is used (default).
+     *
+     * @return The block cache size.
+     */
+    @Min(0)
+    public long getBlockCacheSize()
+    {
+      return blockCacheSize;
+    }
+
+    public void setBlockCacheSize(long blockCacheSize)
+    {
+      this.blockCacheSize = blockCacheSize;
+    }
+
+    /**
+     * Use the given block cache, for example to share one cache between operators in the same container.
+     *
+     * @param blockCache
+     */
+    public void setBlockCache(BlockCache blockCache)
+    {
+      this.blockCache = blockCache;
+    }
+
+    public BlockCache getBlockCache()
+    {
+      return blockCache;
+    }
+
+    /**
+     * Block cache counters of the readers of the given bucket.
+     *
+     * @param bucketKey
+     * @return The counters, or null if the bucket was not read through the block cache.
+     */
+    public BlockCache.Stats getBlockCacheStats(long bucketKey)
+    {
+      return blockCacheStats.get(bucketKey);
+    }
+
+    @Override
+    public void init()
+    {
+      super.init();
+      if (blockCache == null && blockCacheSize > 0) {
+        blockCache = new BlockCache(blockCacheSize);
+      }
+    }
+
     @Override
     public HDSFileReader getReader(long bucketKey, String fileName) throws IOException
     {
       FSDataInputStream fsdis =  getInputStream(bucketKey, fileName);
       long fileLength = getFileSize(bucketKey, fileName);
       super.setupConfig(fs.getConf());
+      if (blockCache != null) {
+        BlockCache.Stats stats = blockCacheStats.get(bucketKey);
+        if (stats == null) {
+          blockCacheStats.putIfAbsent(bucketKey, new BlockCache.Stats());
+          stats = blockCacheStats.get(bucketKey);
+        }
+        // data files are immutable and their names are not reused
+        String cacheKeyPrefix = getBasePath() + '/' + bucketKey + '/' + fileName + '@';
+        return new DTFileReader(fsdis, fileLength, fs.getConf(), blockCache, stats, cacheKeyPrefix);
+      }
       return new DTFileReader(fsdis, fileLength, fs.getConf());
     }
     
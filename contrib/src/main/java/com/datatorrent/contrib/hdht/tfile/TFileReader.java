@@ -79,6 +79,21 @@ public class TFileReader implements HDSFileReader
 
   }
 
+  @Override
+  public void readFullyAsSlices(TreeMap<Slice, Slice> data) throws IOException
+  {
+    scanner.rewind();
+    for (; !scanner.atEnd(); scanner.advance()) {
+      Entry en = scanner.entry();
+      // TFile scanner does not expose the block buffer
+      byte[] key = new byte[en.getKeyLength()];
+      byte[] value = new byte[en.getValueLength()];
+      en.getKey(key);
+      en.getValue(value);
+      data.put(new Slice(key, 0, key.length), new Slice(value, 0, value.length));
+    }
+  }
+
   @Override
   public void reset() throws IOException
   {
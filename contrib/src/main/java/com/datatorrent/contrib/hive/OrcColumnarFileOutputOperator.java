@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.contrib.hive;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+
+import javax.validation.constraints.NotNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.io.orc.CompressionKind;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.Writer;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+
+import com.datatorrent.api.Context.OperatorContext;
+import com.datatorrent.api.Operator.CheckpointListener;
+
+import com.datatorrent.lib.io.fs.ColumnarFileOutputOperator;
+import com.datatorrent.lib.io.fs.ColumnarStripe;
+import com.datatorrent.lib.io.fs.ColumnarStripe.ColumnType;
+
+/**
+ * Columnar file output operator which makes the rolled files readable by Hive as ORC files.<br/>
+ * The rows are first written as {@link ColumnarStripe}s to part files in filePath, which can be truncated to their
+ * checkpointed offset on recovery. When a part file is rolled, its stripes are rewritten as an ORC file with the
+ * same name in orcPath, which is the location of the Hive table. The ORC file is written to a hidden file and renamed,
+ * so Hive never sees an incomplete file, and it is written again when the part is rolled again after a recovery. The
+ * part file is deleted once the window in which it was rolled is committed.
+ * <p>
+ * Only rolled parts are converted, so maxLength or rotationWindows should be set. Since a part is rolled at the end of
+ * a window at the earliest, rotationWindows equal to the checkpoint window count gives one ORC file per checkpoint.
+ * </p>
+ *
+ * @displayName ORC Columnar Writer
+ * @category Output
+ * @tags fs, file, output operator, columnar, orc, hive
+ */
+public class OrcColumnarFileOutputOperator extends ColumnarFileOutputOperator implements CheckpointListener
+{
+  /**
+   * Directory of the ORC files.
+   */
+  @NotNull
+  private String orcPath;
+
+  @NotNull
+  private CompressionKind orcCompression = CompressionKind.ZLIB;
+
+  /**
+   * Part files which were converted, by the window in which they were rolled.
+   */
+  private TreeMap<Long, ArrayList<String>> convertedParts = new TreeMap<Long, ArrayList<String>>();
+  private transient long currentWindowId;
+
+  @Override
+  public void setup(OperatorContext context)
+  {
+    super.setup(context);
+    try {
+      fs.mkdirs(new Path(orcPath));
+    }
+    catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  @Override
+  public void beginWindow(long windowId)
+  {
+    currentWindowId = windowId;
+    super.beginWindow(windowId);
+  }
+
+  @Override
+  protected void rotateHook(String finishedFile)
+  {
+    try {
+      convert(finishedFile);
+    }
+    catch (IOException ex) {
+      throw new RuntimeException("Failed to convert " + finishedFile, ex);
+    }
+    ArrayList<String> parts = convertedParts.get(currentWindowId);
+    if (parts == null) {
+      parts = new ArrayList<String>();
+      convertedParts.put(currentWindowId, parts);
+    }
+    parts.add(finishedFile);
+  }
+
+  /**
+   * Rewrites the stripes of a rolled part file as an ORC file.
+   *
+   * @param partFile name of the part file in filePath.
+   * @throws IOException
+   */
+  private void convert(String partFile) throws IOException
+  {
+    Path orcFile = new Path(orcPath, partFile);
+    Path tmpFile = new Path(orcPath, "." + partFile + ".tmp");
+    fs.delete(tmpFile, false);
+
+    Writer writer = null;
+    long rows = 0;
+    DataInputStream in = new DataInputStream(fs.open(new Path(filePath, partFile)));
+    try {
+      ColumnarStripe stripe;
+      while ((stripe = ColumnarStripe.read(in)) != null) {
+        if (writer == null) {
+          writer = OrcFile.createWriter(tmpFile, OrcFile.writerOptions(fs.getConf()).fileSystem(fs)
+                                        .inspector(createInspector(stripe)).compress(orcCompression));
+        }
+        Object[] row = new Object[stripe.getColumnCount()];
+        for (int r = 0; r < stripe.getRowCount(); r++) {
+          for (int column = 0; column < row.length; column++) {
+            row[column] = getValue(stripe, column, r);
+          }
+          writer.addRow(row);
+        }
+        rows += stripe.getRowCount();
+      }
+    }
+    finally {
+      in.close();
+      if (writer != null) {
+        writer.close();
+      }
+    }
+
+    if (writer == null) {
+      LOG.debug("no rows in {}", partFile);
+      return;
+    }
+    fs.delete(orcFile, false);
+    if (!fs.rename(tmpFile, orcFile)) {
+      throw new IOException("Failed to rename " + tmpFile + " to " + orcFile);
+    }
+    LOG.debug("converted {} rows of {} to {}", rows, partFile, orcFile);
+  }
+
+  private static ObjectInspector createInspector(ColumnarStripe stripe)
+  {
+    List<String> names = new ArrayList<String>();
+    List<ObjectInspector> inspectors = new ArrayList<ObjectInspector>();
+    for (int column = 0; column < stripe.getColumnCount(); column++) {
+      names.add(stripe.getColumnName(column));
+      switch (stripe.getColumnType(column)) {
+        case BOOLEAN:
+          inspectors.add(PrimitiveObjectInspectorFactory.javaBooleanObjectInspector);
+          break;
+        case INT:
+          inspectors.add(PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+          break;
+        case LONG:
+          inspectors.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+          break;
+        case FLOAT:
+          inspectors.add(PrimitiveObjectInspectorFactory.javaFloatObjectInspector);
+          break;
+        case DOUBLE:
+          inspectors.add(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector);
+          break;
+        default:
+          inspectors.add(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+          break;
+      }
+    }
+    return ObjectInspectorFactory.getStandardStructObjectInspector(names, inspectors);
+  }
+
+  private static Object getValue(ColumnarStripe stripe, int column, int row)
+  {
+    ColumnType type = stripe.getColumnType(column);
+    switch (type) {
+      case BOOLEAN:
+        return stripe.getBoolean(column, row);
+      case INT:
+        return (int)stripe.getLong(column, row);
+      case LONG:
+        return stripe.getLong(column, row);
+      case FLOAT:
+        return (float)stripe.getDouble(column, row);
+      case DOUBLE:
+        return stripe.getDouble(column, row);
+      default:
+        return stripe.getString(column, row);
+    }
+  }
+
+  @Override
+  public void checkpointed(long windowId)
+  {
+  }
+
+  /**
+   * Deletes the part files which were rolled in committed windows, their rows are in the ORC files.
+   */
+  @Override
+  public void committed(long windowId)
+  {
+    Iterator<Map.Entry<Long, ArrayList<String>>> iterator = convertedParts.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Long, ArrayList<String>> entry = iterator.next();
+      if (entry.getKey() > windowId) {
+        break;
+      }
+      for (String partFile : entry.getValue()) {
+        try {
+          fs.delete(new Path(filePath, partFile), false);
+        }
+        catch (IOException ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Gets the directory of the ORC files.
+   * @return The directory of the ORC files.
+   */
+  public String getOrcPath()
+  {
+    return orcPath;
+  }
+
+  /**
+   * Sets the directory of the ORC files, which is usually the location of an external Hive table stored as ORC. It
+   * should be different from filePath, which holds the part files that are not yet converted.
+   * @param orcPath The directory of the ORC files.
+   */
+  public void setOrcPath(String orcPath)
+  {
+    this.orcPath = orcPath;
+  }
+
+  /**
+   * Gets the compression of the ORC files.
+   * @return The compression of the ORC files.
+   */
+  public CompressionKind getOrcCompression()
+  {
+    return orcCompression;
+  }
+
+  /**
+   * Sets the compression of the ORC files. Default is {@link CompressionKind#ZLIB}.
+   * @param orcCompression The compression of the ORC files.
+   */
+  public void setOrcCompression(CompressionKind orcCompression)
+  {
+    this.orcCompression = orcCompression;
+  }
+
+  private static final Logger LOG = LoggerFactory.getLogger(OrcColumnarFileOutputOperator.class);
+}
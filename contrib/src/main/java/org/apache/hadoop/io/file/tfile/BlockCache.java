@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2014 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.io.file.tfile;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.io.file.tfile.DTBCFile.Reader.BlockReader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Size bounded cache of decompressed blocks that can be assigned to individual readers, as alternative to the global
+ * {@link CacheManager}.
+ * <br>
+ * <br>
+ * The cache is segmented (SLRU): blocks are admitted to a probationary segment and promoted to the protected segment
+ * when they are read again. Blocks evicted from the protected segment are demoted to the probationary segment.
+ * Blocks that are read only once, such as during compaction of a data file, therefore only displace other probationary
+ * blocks and do not flush the frequently used blocks.
+ * <br>
+ * <br>
+ * Hits, misses and evictions are counted in {@link Stats}, which the reader passes with each access so that the
+ * counters can be attributed to the owner of the reader.
+ *
+ * @since 2.0.0
+ */
+public class BlockCache
+{
+  public static final float DEFAULT_PROTECTED_RATIO = 0.8f;
+
+  /**
+   * Cache counters.
+   */
+  public static class Stats
+  {
+    public final AtomicLong hits = new AtomicLong();
+    public final AtomicLong misses = new AtomicLong();
+    public final AtomicLong evictions = new AtomicLong();
+  }
+
+  private static class Entry
+  {
+    final BlockReader reader;
+    final Stats stats;
+
+    Entry(BlockReader reader, Stats stats)
+    {
+      this.reader = reader;
+      this.stats = stats;
+    }
+  }
+
+  private static class EntryWeigher implements Weigher<String, Entry>
+  {
+    private final CacheManager.KVWeigher weigher = new CacheManager.KVWeigher();
+
+    @Override
+    public int weigh(String key, Entry value)
+    {
+      return weigher.weigh(key, value.reader);
+    }
+  }
+
+  private final Cache<String, Entry> probation;
+  private final Cache<String, Entry> protectedSegment;
+  private final Stats stats = new Stats();
+
+  /**
+   * @param maximumMemory memory limit in bytes for the decompressed blocks and their overhead
+   */
+  public BlockCache(long maximumMemory)
+  {
+    this(maximumMemory, DEFAULT_PROTECTED_RATIO);
+  }
+
+  /**
+   * @param maximumMemory memory limit in bytes for the decompressed blocks and their overhead
+   * @param protectedRatio fraction of the memory reserved for blocks that were read more than once
+   */
+  public BlockCache(long maximumMemory, float protectedRatio)
+  {
+    long protectedMemory = (long)(maximumMemory * protectedRatio);
+    this.probation = CacheBuilder.newBuilder().maximumWeight(maximumMemory - protectedMemory).weigher(new EntryWeigher()).removalListener(new RemovalListener<String, Entry>()
+    {
+      @Override
+      public void onRemoval(RemovalNotification<String, Entry> notification)
+      {
+        if (notification.wasEvicted()) {
+          stats.evictions.incrementAndGet();
+          if (notification.getValue() != null) {
+            notification.getValue().stats.evictions.incrementAndGet();
+          }
+        }
+      }
+    }).build();
+    this.protectedSegment = CacheBuilder.newBuilder().maximumWeight(protectedMemory).weigher(new EntryWeigher()).removalListener(new RemovalListener<String, Entry>()
+    {
+      @Override
+      public void onRemoval(RemovalNotification<String, Entry> notification)
+      {
+        if (notification.wasEvicted() && notification.getKey() != null && notification.getValue() != null) {
+          // demote, the block gets another chance in the probationary segment
+          probation.put(notification.getKey(), notification.getValue());
+        }
+      }
+    }).build();
+  }
+
+  /**
+   * @param key block key
+   * @param readerStats counters of the reader
+   * @return The cached block or null.
+   */
+  public BlockReader get(String key, Stats readerStats)
+  {
+    Entry entry = protectedSegment.getIfPresent(key);
+    if (entry == null) {
+      entry = probation.getIfPresent(key);
+      if (entry != null) {
+        // second access, promote
+        probation.invalidate(key);
+        protectedSegment.put(key, entry);
+      }
+    }
+    if (entry == null) {
+      stats.misses.incrementAndGet();
+      readerStats.misses.incrementAndGet();
+      return null;
+    }
+    stats.hits.incrementAndGet();
+    readerStats.hits.incrementAndGet();
+    return entry.reader;
+  }
+
+  public void put(String key, BlockReader blk, Stats readerStats)
+  {
+    probation.put(key, new Entry(blk, readerStats));
+  }
+
+  public void invalidateKeys(Collection<String> keys)
+  {
+    probation.invalidateAll(keys);
+    protectedSegment.invalidateAll(keys);
+  }
+
+  public long size()
+  {
+    return probation.size() + protectedSegment.size();
+  }
+
+  /**
+   * @return The counters of all readers using this cache.
+   */
+  public Stats getStats()
+  {
+    return stats;
+  }
+
+}
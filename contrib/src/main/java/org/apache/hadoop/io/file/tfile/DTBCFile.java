@@ -153,6 +153,16 @@ final class DTBCFile {
         }
       }
 
+      /**
+       * New read state on the decompressed data of another block state.
+       */
+      public RBlockState(RBlockState other)
+      {
+        this.compressAlgo = other.compressAlgo;
+        this.region = other.region;
+        this.rbain = new ReusableByteArrayInputStream(other.rbain.getBuf());
+      }
+
       /**
        * Get the output stream for BlockAppender's consumption.
        * 
@@ -500,6 +510,10 @@ final class DTBCFile {
     //
     private ByteArrayOutputStream baos;
     private ArrayList<String> cacheKeys;
+    // shared block cache, null for the global CacheManager
+    private final BlockCache blockCache;
+    private final BlockCache.Stats cacheStats;
+    private final String cacheKeyPrefix;
 
     public ArrayList<String> getCacheKeys()
     {
@@ -650,6 +664,14 @@ final class DTBCFile {
       {
         return wrappedInputStream;
       }
+
+      /**
+       * @return A new reader on the same decompressed data, with independent position.
+       */
+      BlockReader copy()
+      {
+        return new BlockReader(new RBlockState(rBlkState));
+      }
     }
 
     /**
@@ -663,6 +685,31 @@ final class DTBCFile {
      */
     public Reader(FSDataInputStream fin, long fileLength, Configuration conf)
         throws IOException {
+      this(fin, fileLength, conf, null, null, null);
+    }
+
+    /**
+     * Constructor with a shared block cache. Blocks are cached by file identity and offset, so that readers of the
+     * same file share the decompressed blocks. Each reader obtains its own view on the cached block data. Blocks remain
+     * cached after the reader is closed, the file must therefore be immutable for a given cache key prefix.
+     *
+     * @param fin
+     *          FS input stream.
+     * @param fileLength
+     *          Length of the corresponding file
+     * @param blockCache
+     *          the block cache
+     * @param cacheStats
+     *          counters for the cache access of this reader
+     * @param cacheKeyPrefix
+     *          unique identity of the file
+     * @throws IOException
+     */
+    public Reader(FSDataInputStream fin, long fileLength, Configuration conf, BlockCache blockCache, BlockCache.Stats cacheStats, String cacheKeyPrefix)
+        throws IOException {
+      this.blockCache = blockCache;
+      this.cacheStats = cacheStats == null ? new BlockCache.Stats() : cacheStats;
+      this.cacheKeyPrefix = cacheKeyPrefix;
       this.in = fin;
       this.conf = conf;
       // A reader buffer to read the block
@@ -780,6 +827,16 @@ final class DTBCFile {
 
     private BlockReader createReader(Algorithm compressAlgo, BlockRegion region)
         throws IOException {
+        if (blockCache != null) {
+          String cacheKey = cacheKeyPrefix + region.getOffset();
+          BlockReader cached = blockCache.get(cacheKey, cacheStats);
+          if (cached != null) {
+            return cached.copy();
+          }
+          BlockReader br = new BlockReader(new RBlockState(compressAlgo, in, region, conf, this));
+          blockCache.put(cacheKey, br, cacheStats);
+          return br;
+        }
         BlockReader br = (BlockReader) CacheManager.get(region.getOffset() + this.toString());
         if(br==null){
           RBlockState rbs = new RBlockState(compressAlgo, in, region, conf, this);
@@ -823,7 +823,17 @@ public class DTFile {
      */
     public Reader(FSDataInputStream fsdis, long fileLength, Configuration conf)
         throws IOException {
-      readerBCF = new DTBCFile.Reader(fsdis, fileLength, conf);
+      this(fsdis, fileLength, conf, null, null, null);
+    }
+
+    /**
+     * Constructor with a shared block cache.
+     *
+     * @see DTBCFile.Reader#Reader(FSDataInputStream, long, Configuration, BlockCache, BlockCache.Stats, String)
+     */
+    public Reader(FSDataInputStream fsdis, long fileLength, Configuration conf, BlockCache blockCache, BlockCache.Stats cacheStats, String cacheKeyPrefix)
+        throws IOException {
+      readerBCF = new DTBCFile.Reader(fsdis, fileLength, conf, blockCache, cacheStats, cacheKeyPrefix);
 
       // first, read TFile meta
       BlockReader brMeta = readerBCF.getMetaBlock(TFileMeta.BLOCK_NAME);
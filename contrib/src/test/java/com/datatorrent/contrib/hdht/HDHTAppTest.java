@@ -78,6 +78,8 @@ public class HDHTAppTest implements StreamingApplication
     //conf.set("dt.operator.Store.flushSize", "0");
     conf.set("dt.operator.Store.flushIntervalCount", "1");
     conf.set("dt.operator.Store.partitionCount", "2");
+    // one bucket per partition
+    conf.set("dt.operator.Store.maxPartitionCount", "2");
 
     lma.prepareDAG(new HDHTAppTest(), conf);
     LocalMode.Controller lc = lma.getController();
@@ -18,6 +18,8 @@ package com.datatorrent.contrib.hdht;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.hbase.io.compress.Compression.Algorithm;
@@ -104,6 +106,7 @@ public class HDHTFileAccessTest
     writeFile(0, timpl, "TFileUnit" + compression);
     testSeqRead(0, timpl, "TFileUnit" + compression);
     testRandomRead(0, timpl, "TFileUnit" + compression);
+    testReadFullyAsSlices(0, timpl, "TFileUnit" + compression);
 
   }
 
@@ -114,6 +117,7 @@ public class HDHTFileAccessTest
     writeFile(0, timpl, "TFileUnit" + compression);
     testSeqRead(0, timpl, "TFileUnit" + compression);
     testRandomRead(0, timpl, "TFileUnit" + compression);
+    testReadFullyAsSlices(0, timpl, "TFileUnit" + compression);
 
   }
 
@@ -127,6 +131,7 @@ public class HDHTFileAccessTest
     writeFile(0, himpl, "HFileUnit" + calgo);
     testSeqRead(0, himpl, "HFileUnit" + calgo);
     testRandomRead(0, himpl, "HFileUnit" + calgo);
+    testReadFullyAsSlices(0, himpl, "HFileUnit" + calgo);
   }
 
   private void writeFile(long bucketKey, HDHTFileAccessFSImpl hfa, String fileName) throws IOException
@@ -179,6 +184,23 @@ public class HDHTFileAccessTest
     in.close();
   }
 
+  private void testReadFullyAsSlices(long bucketKey, HDHTFileAccessFSImpl hfa, String fileName) throws IOException
+  {
+    HDSFileReader in = hfa.getReader(bucketKey, fileName);
+    TreeMap<Slice, Slice> data = new TreeMap<Slice, Slice>(new HDHTWriter.DefaultKeyComparator());
+    in.readFullyAsSlices(data);
+    in.close();
+    assertEquals("Number of entries", keys.length, data.size());
+    int i = 0;
+    for (Map.Entry<Slice, Slice> e : data.entrySet()) {
+      Slice tkey = e.getKey();
+      Slice tvalue = e.getValue();
+      assertArrayEquals("Key is not as expected", keys[i], Arrays.copyOfRange(tkey.buffer, tkey.offset, tkey.offset + tkey.length));
+      assertArrayEquals("Value is not as expected", values[i].getBytes(), Arrays.copyOfRange(tvalue.buffer, tvalue.offset, tvalue.offset + tvalue.length));
+      i++;
+    }
+  }
+
   @After
   public void cleanup() throws IOException
   {
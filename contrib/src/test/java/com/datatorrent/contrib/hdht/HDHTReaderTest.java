@@ -16,7 +16,12 @@
 package com.datatorrent.contrib.hdht;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
@@ -30,6 +35,7 @@ import com.datatorrent.contrib.hdht.HDHTReader;
 import com.datatorrent.contrib.hdht.HDHTWriter;
 import com.datatorrent.contrib.hdht.HDHTReader.HDSQuery;
 import com.datatorrent.lib.util.TestUtils;
+import com.esotericsoftware.kryo.io.Output;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.MoreExecutors;
 
@@ -187,4 +193,216 @@ public class HDHTReaderTest
     reader.teardown();
 
   }
+
+  @Test
+  public void testScan() throws Exception
+  {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+
+    HDHTFileAccessFSImpl fa = new MockFileAccess();
+    fa.setBasePath(file.getAbsolutePath());
+
+    HDHTWriter hds = new HDHTWriter();
+    hds.setFileStore(fa);
+    hds.setFlushSize(0); // flush after every window
+    hds.setMaxFileSize(1); // one key per file
+
+    hds.setup(null);
+    hds.writeExecutor = MoreExecutors.sameThreadExecutor(); // synchronous flush on committed
+    hds.beginWindow(1);
+    for (int i = 0; i < 10; i++) {
+      hds.put(1, HDHTWriterTest.newKey(1, i), ("data" + i).getBytes());
+    }
+    hds.endWindow();
+    hds.checkpointed(1);
+    hds.committed(1);
+
+    // changes in the write cache replace data in files
+    hds.beginWindow(2);
+    hds.put(1, HDHTWriterTest.newKey(1, 3), "data3-2".getBytes());
+    hds.delete(1, HDHTWriterTest.newKey(1, 4));
+    hds.put(1, HDHTWriterTest.newKey(1, 11), "data11".getBytes());
+    hds.endWindow();
+
+    NavigableMap<Slice, byte[]> result = hds.scan(1, HDHTWriterTest.newKey(1, 2), HDHTWriterTest.newKey(1, 6));
+    Assert.assertEquals("keys " + result.keySet(), 4, result.size());
+    Assert.assertArrayEquals("first", "data2".getBytes(), result.firstEntry().getValue());
+    Assert.assertArrayEquals("uncommitted", "data3-2".getBytes(), result.get(HDHTWriterTest.newKey(1, 3)));
+    Assert.assertNull("deleted", result.get(HDHTWriterTest.newKey(1, 4)));
+    Assert.assertArrayEquals("last", "data6".getBytes(), result.lastEntry().getValue());
+
+    // only the keys of interest are looked up in the write cache and copied from the files
+    HDHTReader.HDSScanQuery keyQuery = new HDHTReader.HDSScanQuery();
+    keyQuery.bucketKey = 1;
+    keyQuery.fromKey = HDHTWriterTest.newKey(1, 2);
+    keyQuery.toKey = HDHTWriterTest.newKey(1, 6);
+    keyQuery.keys = new TreeSet<Slice>(hds.getKeyComparator());
+    keyQuery.keys.add(HDHTWriterTest.newKey(1, 3));
+    keyQuery.keys.add(HDHTWriterTest.newKey(1, 4));
+    keyQuery.keys.add(HDHTWriterTest.newKey(1, 5));
+    hds.queryExecutor = MoreExecutors.sameThreadExecutor();
+    hds.processScanQuery(keyQuery);
+    Assert.assertTrue("processed", keyQuery.processed);
+    Assert.assertEquals("keys " + keyQuery.result.keySet(), 2, keyQuery.result.size());
+    Assert.assertArrayEquals("uncommitted", "data3-2".getBytes(), keyQuery.result.get(HDHTWriterTest.newKey(1, 3)));
+    Assert.assertArrayEquals("file", "data5".getBytes(), keyQuery.result.get(HDHTWriterTest.newKey(1, 5)));
+    hds.teardown();
+
+    // files only
+    HDHTReader reader = new HDHTReader();
+    reader.setFileStore(fa);
+    reader.setup(null);
+    reader.queryExecutor = MoreExecutors.sameThreadExecutor(); // synchronous endWindow processing
+
+    HDHTReader.HDSScanQuery q = new HDHTReader.HDSScanQuery();
+    q.bucketKey = 1;
+    q.fromKey = HDHTWriterTest.newKey(1, 8);
+    q.toKey = HDHTWriterTest.newKey(1, 20);
+    reader.processScanQuery(q);
+    Assert.assertTrue("processed", q.processed);
+    Assert.assertEquals("keys " + q.result.keySet(), 2, q.result.size());
+    Assert.assertArrayEquals("first", "data8".getBytes(), q.result.firstEntry().getValue());
+    Assert.assertArrayEquals("last", "data9".getBytes(), q.result.lastEntry().getValue());
+
+    q.fromKey = HDHTWriterTest.newKey(1, 20);
+    q.toKey = HDHTWriterTest.newKey(1, 30);
+    reader.processScanQuery(q);
+    Assert.assertEquals("empty range " + q.result.keySet(), 0, q.result.size());
+    reader.teardown();
+  }
+
+  @Test
+  public void testBloomFilter() throws Exception
+  {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+
+    HDHTFileAccessFSImpl fa = new MockFileAccess();
+    fa.setBasePath(file.getAbsolutePath());
+
+    HDHTWriter hds = new HDHTWriter();
+    hds.setFileStore(fa);
+    hds.setFlushSize(0); // flush after every window
+    hds.setBloomFilterBitsPerKey(10);
+
+    hds.setup(null);
+    hds.writeExecutor = MoreExecutors.sameThreadExecutor(); // synchronous flush on committed
+    hds.beginWindow(1);
+    for (int i = 0; i < 100; i += 2) {
+      hds.put(1, HDHTWriterTest.newKey(1, i), ("data" + i).getBytes());
+    }
+    hds.endWindow();
+    hds.checkpointed(1);
+    hds.committed(1);
+
+    for (int i = 0; i < 100; i += 2) {
+      Assert.assertArrayEquals("get " + i, ("data" + i).getBytes(), hds.get(1, HDHTWriterTest.newKey(1, i)));
+    }
+    for (int i = 1; i < 100; i += 2) {
+      Assert.assertNull("get absent " + i, hds.get(1, HDHTWriterTest.newKey(1, i)));
+    }
+
+    HDHTReader.BloomFilterStats stats = hds.getBloomFilterStats(1);
+    Assert.assertEquals("absent keys", 50, stats.negatives.get() + stats.falsePositives.get());
+    Assert.assertTrue("skipped files " + stats.negatives, stats.negatives.get() > 40);
+    hds.teardown();
+  }
+
+  @Test
+  public void testConcurrentGet() throws Exception
+  {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+
+    HDHTFileAccessFSImpl fa = new MockFileAccess();
+    fa.setBasePath(file.getAbsolutePath());
+
+    HDHTWriter hds = new HDHTWriter();
+    hds.setFileStore(fa);
+    hds.setFlushSize(0); // flush after every window
+    hds.setMaxFileSize(64); // multiple files
+
+    hds.setup(null);
+    hds.writeExecutor = MoreExecutors.sameThreadExecutor(); // synchronous flush on committed
+    hds.beginWindow(1);
+    for (int i = 0; i < 100; i++) {
+      hds.put(1, HDHTWriterTest.newKey(1, i), ("data" + i).getBytes());
+    }
+    hds.endWindow();
+    hds.checkpointed(1);
+    hds.committed(1);
+    hds.teardown();
+
+    final HDHTReader reader = new HDHTReader();
+    reader.setFileStore(fa);
+    reader.setQueryThreads(4);
+    reader.setup(null);
+
+    List<Future<byte[]>> results = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      final Slice key = HDHTWriterTest.newKey(1, i % 100);
+      results.add(reader.queryExecutor.submit(new Callable<byte[]>()
+      {
+        @Override
+        public byte[] call() throws Exception
+        {
+          return reader.get(1, key);
+        }
+      }));
+    }
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertArrayEquals("get " + i, ("data" + (i % 100)).getBytes(), results.get(i).get());
+    }
+    reader.teardown();
+  }
+
+  @Test
+  public void testLegacyMeta() throws Exception
+  {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+
+    HDHTFileAccessFSImpl fa = new MockFileAccess();
+    fa.setBasePath(file.getAbsolutePath());
+
+    Slice key0 = HDHTWriterTest.newKey(1, 0);
+    String data0 = "data0";
+    writeKey(fa, key0, data0);
+    long bucketKey = HDHTWriterTest.getBucketKey(key0);
+
+    HDHTReader reader = new HDHTReader();
+    reader.setFileStore(fa);
+    HDHTReader.BucketMeta meta = reader.loadBucketMeta(bucketKey);
+    Assert.assertEquals("files " + meta.files, 1, meta.files.size());
+
+    // rewrite the meta file without version and filters, as before runs and filters were added to the file meta
+    for (HDHTReader.BucketFileMeta fileMeta : meta.files.values()) {
+      fileMeta.bloomFilter = null;
+    }
+    Output output = new Output(fa.getOutputStream(bucketKey, HDHTReader.FNAME_META));
+    HDHTReader.newLegacyMetaKryo().writeClassAndObject(output, meta);
+    output.close();
+
+    HDHTReader.BucketMeta legacyMeta = reader.loadBucketMeta(bucketKey);
+    Assert.assertEquals("fileSeq", meta.fileSeq, legacyMeta.fileSeq);
+    Assert.assertEquals("committedWid", meta.committedWid, legacyMeta.committedWid);
+    Assert.assertEquals("files", meta.files.keySet(), legacyMeta.files.keySet());
+    HDHTReader.BucketFileMeta fileMeta = legacyMeta.files.firstEntry().getValue();
+    Assert.assertEquals("name", meta.files.firstEntry().getValue().name, fileMeta.name);
+    Assert.assertNull("runs", fileMeta.runs);
+    Assert.assertNull("bloomFilter", fileMeta.bloomFilter);
+
+    // the legacy meta data is readable and rewritten in the current format
+    Slice key1 = HDHTWriterTest.newKey(1, 1);
+    writeKey(fa, key1, "data1");
+    InputStream is = fa.getInputStream(bucketKey, HDHTReader.FNAME_META);
+    Assert.assertEquals("version", HDHTReader.META_VERSION, is.read());
+    is.close();
+
+    reader.setup(null);
+    Assert.assertArrayEquals("key0", data0.getBytes(), reader.get(bucketKey, key0));
+    Assert.assertArrayEquals("key1", "data1".getBytes(), reader.get(bucketKey, key1));
+    reader.teardown();
+  }
 }
@@ -19,7 +19,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -30,6 +34,9 @@ import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 
+import com.datatorrent.api.DefaultPartition;
+import com.datatorrent.api.Partitioner.Partition;
+import com.datatorrent.api.Stats.OperatorStats;
 import com.datatorrent.common.util.Slice;
 import com.datatorrent.contrib.hdht.HDHTFileAccessFSImpl;
 import com.datatorrent.contrib.hdht.HDHTWalManager;
@@ -38,8 +45,13 @@ import com.datatorrent.contrib.hdht.HDHTFileAccess.HDSFileReader;
 import com.datatorrent.contrib.hdht.HDHTReader.HDSQuery;
 import com.datatorrent.contrib.hdht.hfile.HFileImpl;
 import com.datatorrent.contrib.hdht.tfile.TFileImpl;
+import com.datatorrent.lib.partitioner.StatelessPartitionerTest.PartitioningContextImpl;
+import com.datatorrent.lib.util.KeyValPair;
 import com.datatorrent.lib.util.TestUtils;
 import com.esotericsoftware.kryo.Kryo;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.MoreExecutors;
 
 /**
@@ -252,6 +264,179 @@ public class HDHTWriterTest
 
   }
 
+  @Test
+  public void testSortedWriteCache() throws Exception
+  {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+
+    Slice key1 = newKey(1, 1);
+    Slice key2 = newKey(1, 2);
+    Slice key3 = newKey(1, 3);
+
+    HDHTFileAccessFSImpl fa = new MockFileAccess();
+    fa.setBasePath(file.getAbsolutePath());
+    HDHTWriter hds = new HDHTWriter();
+    hds.setFileStore(fa);
+    hds.setFlushSize(0); // flush after every window
+    hds.setSortedWriteCache(true);
+
+    hds.setup(null);
+    hds.writeExecutor = MoreExecutors.sameThreadExecutor(); // synchronous flush
+    hds.beginWindow(1);
+    hds.put(1, key3, "data3".getBytes());
+    hds.put(1, key1, "data1".getBytes());
+    hds.put(1, key2, "data2".getBytes());
+    hds.put(1, key1, "data1-1".getBytes());
+    Assert.assertArrayEquals("uncommitted", "data1-1".getBytes(), hds.getUncommitted(1, key1));
+    Assert.assertEquals("uncommitted range", 2, hds.getUncommitted(1, key1, key2).size());
+    hds.endWindow();
+    hds.checkpointed(1);
+    hds.committed(1);
+    Assert.assertArrayEquals("get", "data1-1".getBytes(), hds.get(1, key1));
+    Assert.assertArrayEquals("get", "data3".getBytes(), hds.get(1, key3));
+
+    hds.beginWindow(2);
+    hds.delete(1, key2);
+    Assert.assertNull("deleted uncommitted", hds.getUncommitted(1, key2));
+    hds.endWindow();
+    hds.checkpointed(2);
+    hds.committed(2);
+    Assert.assertNull("deleted", hds.get(1, key2));
+    Assert.assertEquals("scan", 2, hds.scan(1, key1, key3).size());
+    hds.teardown();
+  }
+
+  @Test
+  public void testMemTableCompaction() throws Exception
+  {
+    MemTable cache = new MemTable(new HDHTReader.DefaultKeyComparator());
+    Slice key1 = newKey(1, 1);
+    Slice key2 = newKey(1, 2);
+    cache.put(key2, "data2".getBytes());
+    byte[] value = new byte[1000];
+    for (int i = 0; i < 3000; i++) {
+      value[0] = (byte)i;
+      cache.put(key1, value);
+    }
+    Assert.assertTrue("replaced bytes reclaimed " + cache.getUsedBytes(), cache.getUsedBytes() < 3 * 1024 * 1024);
+    Assert.assertTrue("replaced count reset", cache.getReplacedCount() < 3000);
+    Assert.assertArrayEquals("value", value, cache.get(key1));
+    Assert.assertArrayEquals("value", "data2".getBytes(), cache.get(key2));
+    Assert.assertEquals("size", 2, cache.size());
+  }
+
+  @Test
+  public void testParallelFlush() throws Exception
+  {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+
+    HDHTFileAccessFSImpl fa = new MockFileAccess();
+    fa.setBasePath(file.getAbsolutePath());
+    HDHTWriter hds = new HDHTWriter();
+    hds.setFileStore(fa);
+    hds.setFlushSize(0); // flush after every window
+    hds.setFlushThreads(4);
+    hds.setMaxFrozenBytes(1); // put waits for flushes of the previous window
+
+    int numBuckets = 8;
+    int numWindows = 5;
+    int keysPerWindow = 100;
+    hds.setup(null);
+    for (int w = 1; w <= numWindows; w++) {
+      hds.beginWindow(w);
+      for (long bucketKey = 0; bucketKey < numBuckets; bucketKey++) {
+        for (int i = 0; i < keysPerWindow; i++) {
+          long seq = (w - 1) * keysPerWindow + i;
+          hds.put(bucketKey, newKey(bucketKey, seq), ("data" + seq).getBytes());
+        }
+      }
+      hds.endWindow();
+      hds.checkpointed(w);
+      hds.committed(w);
+    }
+    hds.writeExecutor.shutdown();
+    Assert.assertTrue("flush completed", hds.writeExecutor.awaitTermination(10, TimeUnit.SECONDS));
+
+    for (long bucketKey = 0; bucketKey < numBuckets; bucketKey++) {
+      for (long seq = 0; seq < numWindows * keysPerWindow; seq++) {
+        Slice key = newKey(bucketKey, seq);
+        byte[] v = hds.getUncommitted(bucketKey, key);
+        if (v == null) {
+          v = hds.get(bucketKey, key);
+        }
+        Assert.assertArrayEquals("bucket " + bucketKey + " key " + seq, ("data" + seq).getBytes(), v);
+      }
+    }
+    hds.teardown();
+  }
+
+  @Test
+  public void testSortedRuns() throws Exception
+  {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+    File bucket1Dir = new File(file, "1");
+    RegexFileFilter dataFileFilter = new RegexFileFilter("\\d+.*");
+
+    Slice key1 = newKey(1, 1);
+    Slice key2 = newKey(1, 2);
+    Slice key3 = newKey(1, 3);
+
+    HDHTFileAccessFSImpl fa = new MockFileAccess();
+    fa.setBasePath(file.getAbsolutePath());
+    HDHTWriter hds = new HDHTWriter();
+    hds.setFileStore(fa);
+    hds.setFlushSize(0); // flush after every window
+    hds.setMaxSortedRuns(2);
+
+    hds.setup(null);
+    hds.writeExecutor = MoreExecutors.sameThreadExecutor(); // synchronous flush
+    hds.beginWindow(1);
+    hds.put(1, key1, "data1".getBytes());
+    hds.put(1, key2, "data2".getBytes());
+    hds.endWindow();
+    hds.checkpointed(1);
+    hds.committed(1);
+    Assert.assertEquals("data files", 1, bucket1Dir.list(dataFileFilter).length);
+
+    // changes to existing file written as run
+    hds.beginWindow(2);
+    hds.put(1, key1, "data1-2".getBytes());
+    hds.delete(1, key2);
+    hds.endWindow();
+    hds.checkpointed(2);
+    hds.committed(2);
+    Assert.assertEquals("data files with run", 2, bucket1Dir.list(dataFileFilter).length);
+    Assert.assertArrayEquals("get from run", "data1-2".getBytes(), hds.get(1, key1));
+    Assert.assertNull("deleted in run", hds.get(1, key2));
+    Assert.assertEquals("scan " + hds.scan(1, key1, key3), 1, hds.scan(1, key1, key3).size());
+    Assert.assertArrayEquals("scan from run", "data1-2".getBytes(), hds.scan(1, key1, key3).get(key1));
+
+    // second run triggers compaction
+    hds.beginWindow(3);
+    hds.put(1, key3, "data3".getBytes());
+    hds.endWindow();
+    hds.checkpointed(3);
+    hds.committed(3);
+    Assert.assertEquals("data files after compaction", 1, bucket1Dir.list(dataFileFilter).length);
+    Assert.assertArrayEquals("get after compaction", "data1-2".getBytes(), hds.get(1, key1));
+    Assert.assertNull("deleted after compaction", hds.get(1, key2));
+    Assert.assertArrayEquals("get after compaction", "data3".getBytes(), hds.get(1, key3));
+
+    // empty value in a run is not a delete
+    hds.beginWindow(4);
+    hds.put(1, key1, new byte[0]);
+    hds.endWindow();
+    hds.checkpointed(4);
+    hds.committed(4);
+    Assert.assertEquals("data files with run", 2, bucket1Dir.list(dataFileFilter).length);
+    Assert.assertArrayEquals("empty value from run", new byte[0], hds.get(1, key1));
+    Assert.assertArrayEquals("scan empty value from run", new byte[0], hds.scan(1, key1, key3).get(key1));
+    hds.teardown();
+  }
+
   @Test
   public void testRandomWrite() throws Exception
   {
@@ -440,5 +625,128 @@ public class HDHTWriterTest
     testHDSFileAccess(hfi);
   }
 
-}
+  @Test
+  public void testRepartitionBucketMigration() throws Exception
+  {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+    HDHTFileAccessFSImpl fa = new MockFileAccess();
+    fa.setBasePath(file.getAbsolutePath());
+
+    HDHTTestOperator oper = new HDHTTestOperator();
+    oper.setFileStore(fa);
+    oper.setPartitionCount(2);
+    oper.setMaxPartitionCount(4);
+
+    List<Partition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>>> partitions = Lists.newArrayList();
+    partitions.add(new DefaultPartition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>>(oper));
+    Collection<Partition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>>> initialPartitions = oper.definePartitions(partitions, new PartitioningContextImpl(null, 0));
+    Assert.assertEquals("initial partitions", 2, initialPartitions.size());
+
+    // each partition writes the buckets of its partition keys, the changes remain in the WAL
+    partitions = Lists.newArrayList();
+    for (Partition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>> p : initialPartitions) {
+      AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>> writer = p.getPartitionedInstance();
+      Assert.assertEquals("partition mask", 1, writer.partitionMask);
+      Assert.assertEquals("bucket mask", 3, writer.bucketMask);
+      writer.setup(null);
+      writer.writeExecutor = MoreExecutors.sameThreadExecutor();
+      writer.beginWindow(1);
+      for (long bucketKey = 0; bucketKey < 4; bucketKey++) {
+        if (writer.partitions.contains((int)(bucketKey & writer.partitionMask))) {
+          writer.put(bucketKey, newKey(bucketKey, 1), ("data" + bucketKey).getBytes());
+        }
+      }
+      writer.endWindow();
+      writer.checkpointed(1);
+      writer.teardown();
+      Assert.assertEquals("checkpointed buckets", 2, writer.getCheckpointedBuckets().size());
+      partitions.add(new TestUtils.MockPartition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>>((DefaultPartition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>>)p, new TestUtils.MockBatchedOperatorStats(1)));
+    }
+
+    AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>> partitioner = partitions.get(0).getPartitionedInstance();
+    partitioner.setPartitionCount(4);
+    Collection<Partition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>>> newPartitions = partitioner.definePartitions(partitions, new PartitioningContextImpl(null, 0));
+    Assert.assertEquals("partitions", 4, newPartitions.size());
+
+    for (Partition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>> p : newPartitions) {
+      AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>> writer = p.getPartitionedInstance();
+      Assert.assertEquals("partition mask", 3, writer.partitionMask);
+      Assert.assertEquals("partition keys", 1, writer.partitions.size());
+      long bucketKey = writer.partitions.iterator().next();
+      Assert.assertEquals("checkpointed buckets", Sets.newHashSet(bucketKey), writer.getCheckpointedBuckets());
+
+      // the new owner recovers the changes of the bucket from the WAL
+      writer.setup(null);
+      writer.writeExecutor = MoreExecutors.sameThreadExecutor();
+      writer.beginWindow(2);
+      writer.put(bucketKey, newKey(bucketKey, 2), ("data" + bucketKey).getBytes());
+      Assert.assertArrayEquals("recovered " + bucketKey, ("data" + bucketKey).getBytes(), writer.getUncommitted(bucketKey, newKey(bucketKey, 1)));
+      writer.endWindow();
+      writer.teardown();
+    }
+  }
 
+  @Test
+  public void testRepartitionOnFlushBacklog() throws Exception
+  {
+    HDHTTestOperator oper = new HDHTTestOperator();
+    oper.setFileStore(new MockFileAccess());
+    oper.setMaxPartitionCount(4);
+    oper.setMaxFlushBacklog(100);
+    oper.setRepartitionCooldownMillis(0);
+
+    List<Partition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>>> partitions = Lists.newArrayList();
+    partitions.add(new DefaultPartition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>>(oper));
+    Partition<AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>>> partition = oper.definePartitions(partitions, new PartitioningContextImpl(null, 0)).iterator().next();
+    AbstractSinglePortHDHTWriter<KeyValPair<byte[], byte[]>> writer = partition.getPartitionedInstance();
+    writer.partitioned(Collections.singletonMap(0, partition));
+    // let the cool down after partitioning pass
+    Thread.sleep(10);
+
+    TestUtils.MockBatchedOperatorStats stats = new TestUtils.MockBatchedOperatorStats(1);
+    stats.operatorStats = Lists.newArrayList(newOperatorStats(50));
+    Assert.assertFalse("backlog below threshold", writer.processStats(stats).repartitionRequired);
+    Assert.assertEquals("partition count", 1, writer.getPartitionCount());
+
+    stats.operatorStats = Lists.newArrayList(newOperatorStats(150));
+    Assert.assertTrue("backlog above threshold", writer.processStats(stats).repartitionRequired);
+    Assert.assertEquals("partition count", 2, writer.getPartitionCount());
+  }
+
+  @Test
+  public void testBucketMaskOfLegacyCheckpoint() throws Exception
+  {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+    HDHTFileAccessFSImpl fa = new MockFileAccess();
+    fa.setBasePath(file.getAbsolutePath());
+
+    // restored from a checkpoint written before the bucket mask, buckets were identified by the partition mask
+    HDHTTestOperator oper = new HDHTTestOperator();
+    oper.setFileStore(fa);
+    oper.partitionMask = 1;
+    oper.partitions = Sets.newHashSet(1);
+    oper.bucketMask = 0;
+    oper.setup(null);
+    Assert.assertEquals("bucket mask", 1, oper.bucketMask);
+    oper.teardown();
+  }
+
+  /**
+   * Stats of two buckets with the given number of keys in their frozen write caches.
+   */
+  private static OperatorStats newOperatorStats(long frozenKeys)
+  {
+    Map<Long, HDHTWriter.BucketIOStats> counters = Maps.newHashMap();
+    for (long bucketKey = 0; bucketKey < 2; bucketKey++) {
+      HDHTWriter.BucketIOStats bucketStats = new HDHTWriter.BucketIOStats();
+      bucketStats.dataInFrozenCache = frozenKeys / 2;
+      counters.put(bucketKey, bucketStats);
+    }
+    OperatorStats operatorStats = new OperatorStats();
+    operatorStats.counters = counters;
+    return operatorStats;
+  }
+
+}
@@ -58,7 +58,7 @@ public class MockFileAccess extends HDHTFileAccessFSImpl
   }
 
   @Override
-  public HDSFileReader getReader(final long bucketKey, final String fileName) throws IOException
+  public synchronized HDSFileReader getReader(final long bucketKey, final String fileName) throws IOException
   {
     final HashMap<Slice, Pair<byte[], Integer>> data = Maps.newHashMap();
     final ArrayList<Slice> keys = Lists.newArrayList();
@@ -86,6 +86,15 @@ public class MockFileAccess extends HDHTFileAccessFSImpl
         }
       }
 
+      @Override
+      public void readFullyAsSlices(TreeMap<Slice, Slice> result) throws IOException
+      {
+        for (Map.Entry<Slice, Pair<byte[], Integer>> e : data.entrySet()) {
+          byte[] value = e.getValue().first;
+          result.put(e.getKey(), new Slice(value, 0, value.length));
+        }
+      }
+
       @Override
       public void reset() throws IOException {
         index.setValue(0);
@@ -23,6 +23,7 @@ import com.datatorrent.contrib.hdht.HDHTWriter;
 import com.datatorrent.contrib.hdht.MutableKeyValue;
 import com.datatorrent.lib.util.TestUtils;
 import com.esotericsoftware.kryo.Kryo;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import org.junit.Assert;
@@ -32,8 +33,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.Random;
 
 public class WALTest
@@ -94,6 +98,104 @@ public class WALTest
     Assert.assertEquals("Write and read same number of tuples ", numTuples, read);
   }
 
+  /**
+   * Write compressed batches and append an incomplete batch to simulate a torn write.
+   * All records of complete batches are read back, reading stops at the torn tail.
+   */
+  @Test
+  public void testWalCompressionAndTornTail() throws IOException
+  {
+    FileUtils.deleteDirectory(file);
+    HDHTFileAccessFSImpl bfs = new MockFileAccess();
+    bfs.setBasePath(file.getAbsolutePath());
+    bfs.init();
+    ((MockFileAccess)bfs).disableChecksum();
+
+    int numTuples = 100;
+    HDFSWalWriter wWriter = new HDFSWalWriter(bfs, 1, "WAL-0", "default", false);
+    for (int i = 0; i < numTuples; i++) {
+      wWriter.append(genRandomKey(100), new byte[100]);
+      if (i % 10 == 0) {
+        wWriter.flush();
+      }
+    }
+    wWriter.append(genRandomKey(100), HDHT.WALReader.DELETED);
+    long validLength = wWriter.logSize();
+    wWriter.close();
+
+    File wal0 = new File(file.getAbsoluteFile().toString() + "/1/WAL-0");
+    Assert.assertEquals("WAL file length", validLength, wal0.length());
+    FileOutputStream fos = new FileOutputStream(wal0, true);
+    fos.write(new byte[] {0, 0, 1, 0, 0, 0});
+    fos.close();
+
+    HDFSWalReader wReader = new HDFSWalReader(bfs, 1, "WAL-0");
+    int read = 0;
+    while (wReader.advance()) {
+      read++;
+    }
+    wReader.close();
+    Assert.assertEquals("Tuples read before torn tail", numTuples + 1, read);
+    Assert.assertTrue("Torn tail detected", wReader.isTornTail());
+
+    wReader = new HDFSWalReader(bfs, 1, "WAL-0");
+    Assert.assertEquals("Valid length", validLength, wReader.getValidLength(wal0.length()));
+    wReader.close();
+  }
+
+  /**
+   * A torn write after the checkpointed offset is discarded on recovery. Data missing before the checkpointed offset
+   * fails the recovery, unless the data loss is tolerated.
+   */
+  @Test
+  public void testRecoveryDataLoss() throws IOException
+  {
+    FileUtils.deleteDirectory(file);
+    HDHTFileAccessFSImpl bfs = new MockFileAccess();
+    bfs.setBasePath(file.getAbsolutePath());
+    bfs.init();
+    ((MockFileAccess)bfs).disableChecksum();
+
+    HDFSWalWriter wWriter = new HDFSWalWriter(bfs, 1, HDHTWalManager.WAL_FILE_PREFIX + 0, null, false);
+    for (int i = 0; i < 20; i++) {
+      wWriter.append(genRandomKey(100), new byte[100]);
+      if (i % 10 == 9) {
+        wWriter.flush();
+      }
+    }
+    long checkpointedOffset = wWriter.logSize();
+    wWriter.close();
+
+    File wal0 = new File(file.getAbsoluteFile().toString() + "/1/" + HDHTWalManager.WAL_FILE_PREFIX + 0);
+    FileOutputStream fos = new FileOutputStream(wal0, true);
+    fos.write(new byte[] {0, 0, 1, 0, 0, 0});
+    fos.close();
+
+    Map<Slice, byte[]> recovered = Maps.newHashMap();
+    HDHTWalManager wal = new HDHTWalManager(bfs, 1);
+    wal.runRecovery(recovered, new HDHTWalManager.WalPosition(0, 0), new HDHTWalManager.WalPosition(0, checkpointedOffset));
+    Assert.assertEquals("torn write after checkpoint discarded", 20, recovered.size());
+    Assert.assertEquals("truncated", checkpointedOffset, wal0.length());
+
+    // the second batch of the checkpointed data is incomplete
+    RandomAccessFile raf = new RandomAccessFile(wal0, "rw");
+    raf.setLength(checkpointedOffset - 10);
+    raf.close();
+    recovered.clear();
+    wal = new HDHTWalManager(bfs, 1);
+    try {
+      wal.runRecovery(recovered, new HDHTWalManager.WalPosition(0, 0), new HDHTWalManager.WalPosition(0, checkpointedOffset));
+      Assert.fail("data loss not detected");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("Data loss"));
+    }
+
+    wal = new HDHTWalManager(bfs, 1);
+    wal.setDataLossTolerated(true);
+    wal.runRecovery(recovered, new HDHTWalManager.WalPosition(0, 0), new HDHTWalManager.WalPosition(0, checkpointedOffset));
+    Assert.assertEquals("recovered complete batch", 10, recovered.size());
+  }
+
   /**
    * Read WAL from middle of the file by seeking to known valid
    * offset and start reading from that point till the end.
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.contrib.hive;
+
+import java.io.File;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.io.orc.OrcFile;
+import org.apache.hadoop.hive.ql.io.orc.Reader;
+import org.apache.hadoop.hive.ql.io.orc.RecordReader;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+
+import com.datatorrent.lib.io.fs.AbstractFileOutputOperatorTest;
+import com.datatorrent.lib.io.fs.ColumnarFileOutputOperatorTest.Event;
+import com.datatorrent.lib.io.fs.ColumnarStripe.ColumnType;
+import com.datatorrent.lib.util.TestUtils.TestInfo;
+
+import static com.datatorrent.lib.io.fs.AbstractFileOutputOperatorTest.testOperatorContext;
+
+public class OrcColumnarFileOutputOperatorTest
+{
+  @Rule public TestInfo testMeta = new AbstractFileOutputOperatorTest.FSTestWatcher();
+
+  @Test
+  public void testOrcFiles() throws Exception
+  {
+    OrcColumnarFileOutputOperator writer = new OrcColumnarFileOutputOperator();
+    writer.setFilePath(testMeta.getDir() + "/parts");
+    writer.setOrcPath(testMeta.getDir() + "/orc");
+    writer.setOutputFileName("events");
+    writer.setColumnNames(Lists.newArrayList("time", "name", "value"));
+    writer.setExpressions(Lists.newArrayList("time", "name", "value"));
+    writer.setColumnTypes(Lists.newArrayList(ColumnType.LONG, ColumnType.STRING, ColumnType.DOUBLE));
+    writer.setRotationWindows(2);
+    writer.setup(testOperatorContext);
+
+    for (int window = 0; window < 3; window++) {
+      writer.beginWindow(window);
+      for (int i = window * 10; i < window * 10 + 10; i++) {
+        writer.input.put(new Event(i, i % 2 == 0 ? null : "name" + i, i / 2.0));
+      }
+      writer.endWindow();
+    }
+
+    File part = new File(testMeta.getDir() + "/parts", "events.0");
+    Assert.assertTrue("rolled part", part.exists());
+    Assert.assertFalse("open part", new File(testMeta.getDir() + "/orc", "events.1").exists());
+
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Reader reader = OrcFile.createReader(fs, new Path(testMeta.getDir() + "/orc", "events.0"));
+    Assert.assertEquals("rows", 20, reader.getNumberOfRows());
+    StructObjectInspector inspector = (StructObjectInspector)reader.getObjectInspector();
+    RecordReader rows = reader.rows((boolean[])null);
+    Object row = null;
+    for (int i = 0; i < 20; i++) {
+      Assert.assertTrue("next row", rows.hasNext());
+      row = rows.next(row);
+      List<Object> values = inspector.getStructFieldsDataAsList(row);
+      Assert.assertEquals("time", String.valueOf(i), values.get(0).toString());
+      Assert.assertEquals("name", i % 2 == 0 ? null : "name" + i, values.get(1) == null ? null : values.get(1).toString());
+      Assert.assertEquals("value", String.valueOf(i / 2.0), values.get(2).toString());
+    }
+    rows.close();
+
+    writer.committed(1);
+    Assert.assertFalse("part deleted when committed", part.exists());
+    writer.teardown();
+  }
+}
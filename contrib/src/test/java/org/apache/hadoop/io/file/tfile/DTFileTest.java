@@ -179,6 +179,82 @@ public class DTFileTest
     Assert.assertEquals("Size of reverse lookup cache is zero ", 0, reader.readerBCF.getCacheKeys().size());
   }
 
+  @Test
+  public void sharedBlockCache() throws IOException
+  {
+    byte[] key = new byte[16];
+    ByteBuffer bb = ByteBuffer.wrap(key);
+    bb.putLong(tuples / 2);
+
+    BlockCache blockCache = new BlockCache(64 * 1024 * 1024);
+    BlockCache.Stats stats1 = new BlockCache.Stats();
+    BlockCache.Stats stats2 = new BlockCache.Stats();
+    long len = fs.getFileStatus(path).getLen();
+    long globalSize = CacheManager.getCacheSize();
+
+    DTFile.Reader reader1 = new DTFile.Reader(fs.open(path), len, conf, blockCache, stats1, path.toString() + '@');
+    DTFile.Reader.Scanner scanner1 = reader1.createScanner();
+    scanner1.lowerBound(key);
+    Assert.assertEquals("first read is a miss", 1, stats1.misses.get());
+    Assert.assertEquals("block cached", 1, blockCache.size());
+    Assert.assertEquals("global cache not used", globalSize, CacheManager.getCacheSize());
+
+    /* second reader of the same file finds the block decompressed by the first */
+    DTFile.Reader reader2 = new DTFile.Reader(fs.open(path), len, conf, blockCache, stats2, path.toString() + '@');
+    DTFile.Reader.Scanner scanner2 = reader2.createScanner();
+    scanner2.lowerBound(key);
+    Assert.assertEquals("hit", 1, stats2.hits.get());
+    Assert.assertEquals("no miss", 0, stats2.misses.get());
+    byte[] key1 = new byte[scanner1.entry().getKeyLength()];
+    scanner1.entry().getKey(key1);
+    byte[] key2 = new byte[scanner2.entry().getKeyLength()];
+    scanner2.entry().getKey(key2);
+    Assert.assertArrayEquals("both scanners see the same entry", key1, key2);
+
+    /* blocks outlive the readers */
+    scanner1.close();
+    reader1.close();
+    Assert.assertEquals("block cached after close", 1, blockCache.size());
+    scanner2.close();
+    scanner2.lowerBound(key);
+    Assert.assertEquals("hit after other reader closed", 2, stats2.hits.get());
+    reader2.close();
+    Assert.assertEquals("total hits", 2, blockCache.getStats().hits.get());
+    Assert.assertEquals("total misses", 1, blockCache.getStats().misses.get());
+  }
+
+  @Test
+  public void blockCacheScanResistance() throws IOException
+  {
+    BlockCache blockCache = new BlockCache(1024 * 1024, 0.5f);
+    BlockCache.Stats stats = new BlockCache.Stats();
+    long len = fs.getFileStatus(path).getLen();
+    DTFile.Reader reader = new DTFile.Reader(fs.open(path), len, conf, blockCache, stats, path.toString() + '@');
+
+    byte[] hotKey = new byte[16];
+    ByteBuffer.wrap(hotKey).putLong(0);
+    DTFile.Reader.Scanner scanner = reader.createScanner();
+    /* second access promotes the block to the protected segment */
+    scanner.lowerBound(hotKey);
+    scanner.close();
+    scanner.lowerBound(hotKey);
+    scanner.close();
+
+    /* scan over all blocks, each read once */
+    DTFile.Reader.Scanner fullScan = reader.createScanner();
+    while (!fullScan.atEnd()) {
+      fullScan.advance();
+    }
+    fullScan.close();
+    Assert.assertTrue("scan evicted blocks", stats.evictions.get() > 0);
+
+    long hits = stats.hits.get();
+    scanner.lowerBound(hotKey);
+    Assert.assertEquals("hot block survived the scan", hits + 1, stats.hits.get());
+    scanner.close();
+    reader.close();
+  }
+
   @Test
   public void checkInvalidKeys()
   {
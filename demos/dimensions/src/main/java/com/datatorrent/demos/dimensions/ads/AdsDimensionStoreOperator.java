@@ -21,7 +21,6 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -45,7 +44,6 @@ import com.datatorrent.lib.codec.KryoSerializableStreamCodec;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
 /**
  * AdsDimension Store Operator
@@ -348,7 +346,7 @@ public class AdsDimensionStoreOperator extends AbstractSinglePortHDHTWriter<AdIn
     AdInfo.AdInfoAggregateEvent ae = mapper.convertValue(queryParams.keys, AdInfo.AdInfoAggregateEvent.class);
 
     long bucketKey = getBucketKey(ae);
-    if (!(super.partitions == null || super.partitions.contains((int)bucketKey))) {
+    if (!(super.partitions == null || super.partitions.contains((int)(bucketKey & super.partitionMask)))) {
       //LOG.debug("Ignoring query for bucket {} when this partition serves {}", bucketKey, super.partitions);
       return;
     }
@@ -372,28 +370,14 @@ public class AdsDimensionStoreOperator extends AbstractSinglePortHDHTWriter<AdIn
     }
     query.startTime = TimeUnit.MILLISECONDS.convert(query.intervalTimeUnit.convert(query.startTime, TimeUnit.MILLISECONDS), query.intervalTimeUnit);
 
-    // set query for each point in series
+    // single range scan for all points in series
+    query.scan.bucketKey = bucketKey;
     query.prototype.timestamp = query.startTime;
-    while (query.prototype.timestamp <= query.endTime) {
-      Slice key = new Slice(getKey(query.prototype));
-      HDSQuery q = super.queries.get(key);
-      if (q == null) {
-        q = new HDSQuery();
-        q.bucketKey = bucketKey;
-        q.key = key;
-        super.addQuery(q);
-      } else {
-        // TODO: find out why we got null in first place
-        if (q.result == null) {
-          LOG.debug("Forcing refresh for {}", q);
-          q.processed = false;
-        }
-      }
-      q.keepAliveCount = query.windowCountdown;
-      query.points.add(q);
-      query.prototype.timestamp += query.intervalTimeUnit.toMillis(1);
-    }
-    LOG.debug("Queries: {}", query.points);
+    query.scan.fromKey = new Slice(getKey(query.prototype));
+    query.prototype.timestamp = query.endTime;
+    query.scan.toKey = new Slice(getKey(query.prototype));
+    super.processScanQuery(query.scan);
+    LOG.debug("Scan: {}", query.scan);
     timeSeriesQueries.put(query.id, query);
   }
 
@@ -412,9 +396,9 @@ public class AdsDimensionStoreOperator extends AbstractSinglePortHDHTWriter<AdIn
       TimeSeriesQueryResult res = new TimeSeriesQueryResult();
       res.id = rangeQuery.id;
       res.countDown = rangeQuery.windowCountdown;
-      res.data = Lists.newArrayListWithExpectedSize(rangeQuery.points.size());
+      res.data = Lists.newArrayList();
       rangeQuery.prototype.timestamp = rangeQuery.startTime;
-      for (HDSQuery query : rangeQuery.points) {
+      while (rangeQuery.prototype.timestamp <= rangeQuery.endTime) {
         // check in-flight memory store first
         Map<AdInfoAggregateEvent, AdInfoAggregateEvent> buffered = cache.get(rangeQuery.prototype.timestamp);
         if (buffered != null) {
@@ -427,12 +411,13 @@ public class AdsDimensionStoreOperator extends AbstractSinglePortHDHTWriter<AdIn
           }
         }
         // results from persistent store
-        if (query.processed && query.result != null) {
-          AdInfo.AdInfoAggregateEvent ae = super.codec.fromKeyValue(query.key, query.result);
+        if (rangeQuery.scan.processed) {
+          Slice key = new Slice(getKey(rangeQuery.prototype));
+          AdInfo.AdInfoAggregateEvent ae = super.codec.fromKeyValue(key, rangeQuery.scan.result.get(key));
           if (ae != null)
             res.data.add(ae);
         }
-        rangeQuery.prototype.timestamp += TimeUnit.MINUTES.toMillis(1);
+        rangeQuery.prototype.timestamp += rangeQuery.intervalTimeUnit.toMillis(1);
       }
       if (!res.data.isEmpty()) {
         LOG.debug("Emitting {} points for {}", res.data.size(), res.id);
@@ -449,7 +434,7 @@ public class AdsDimensionStoreOperator extends AbstractSinglePortHDHTWriter<AdIn
     public long startTime;
     public long endTime;
     public TimeUnit intervalTimeUnit = TimeUnit.MINUTES;
-    private transient LinkedHashSet<HDSQuery> points = Sets.newLinkedHashSet();
+    private transient HDSScanQuery scan = new HDSScanQuery();
 
     @Override public String toString()
     {
@@ -67,7 +67,13 @@ public class Application implements StreamingApplication
     dimensions.setAggregators(aggregators);
     DimensionsComputationUnifierImpl<AdInfo, AdInfo.AdInfoAggregateEvent> unifier = new DimensionsComputationUnifierImpl<AdInfo, AdInfo.AdInfoAggregateEvent>();
     unifier.setAggregators(aggregators);
+    unifier.setMaxAggregates(conf.getInt(Application.class.getName() + ".maxUnifierAggregates", 0));
     dimensions.setUnifier(unifier);
+    int unifierLimit = conf.getInt(Application.class.getName() + ".unifierLimit", 0);
+    if (unifierLimit > 0) {
+      /* cascade the unifiers when there are many partitions */
+      dag.setOutputPortAttribute(dimensions.output, Context.PortContext.UNIFIER_LIMIT, unifierLimit);
+    }
 
     RedisAggregateOutputOperator redis = dag.addOperator("Redis", new RedisAggregateOutputOperator());
 
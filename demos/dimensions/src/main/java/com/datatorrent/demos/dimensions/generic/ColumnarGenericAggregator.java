@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.demos.dimensions.generic;
+
+import com.datatorrent.lib.statistics.AggregateColumns;
+import com.datatorrent.lib.statistics.DimensionsComputation;
+
+/**
+ * {@link GenericAggregator} which sums the values of a window in primitive columns instead of boxing every sum.<br/>
+ * Integer and Long values are summed in long columns; Float and Double values in double columns.
+ */
+public class ColumnarGenericAggregator extends GenericAggregator implements DimensionsComputation.ColumnarAggregator<GenericEvent, GenericAggregate>
+{
+  private static final long serialVersionUID = 201503101140L;
+  /* index of the long or double column of every value */
+  private int[] columns;
+  private boolean[] longColumns;
+  private int longColumnCount;
+  private int doubleColumnCount;
+
+  public ColumnarGenericAggregator() {}
+
+  public ColumnarGenericAggregator(EventSchema eventSchema)
+  {
+    super(eventSchema);
+  }
+
+  /**
+   * @param eventSchema schema
+   * @return true if all the aggregates of the schema are sums of numbers.
+   */
+  static boolean isSupported(EventSchema eventSchema)
+  {
+    for (String metric : eventSchema.genericEventValues) {
+      if (!"sum".equals(eventSchema.aggregates.get(metric))) {
+        return false;
+      }
+      Class<?> type = eventSchema.fields.get(metric);
+      if (!Integer.class.equals(type) && !Long.class.equals(type) && !Float.class.equals(type) && !Double.class.equals(type)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void init(String dimension)
+  {
+    super.init(dimension);
+    EventSchema eventSchema = getEventSchema();
+    int count = eventSchema.genericEventValues.size();
+    columns = new int[count];
+    longColumns = new boolean[count];
+    longColumnCount = doubleColumnCount = 0;
+    for (int i = 0; i < count; i++) {
+      Class<?> type = eventSchema.fields.get(eventSchema.genericEventValues.get(i));
+      longColumns[i] = Integer.class.equals(type) || Long.class.equals(type);
+      columns[i] = longColumns[i] ? longColumnCount++ : doubleColumnCount++;
+    }
+  }
+
+  @Override
+  public int getLongColumnCount()
+  {
+    return longColumnCount;
+  }
+
+  @Override
+  public int getDoubleColumnCount()
+  {
+    return doubleColumnCount;
+  }
+
+  @Override
+  public void initialize(AggregateColumns<GenericEvent> dest, GenericEvent src)
+  {
+    /* sums start at zero */
+  }
+
+  @Override
+  public void aggregate(AggregateColumns<GenericEvent> dest, GenericEvent src)
+  {
+    for (int i = 0; i < columns.length; i++) {
+      Object value = src.values[i];
+      if (value == null) {
+        continue;
+      }
+      if (longColumns[i]) {
+        dest.addLong(columns[i], ((Number)value).longValue());
+      }
+      else {
+        dest.addDouble(columns[i], ((Number)value).doubleValue());
+      }
+    }
+  }
+
+  @Override
+  public GenericAggregate getGroup(GenericEvent src, AggregateColumns<GenericEvent> aggregates, int aggregatorIndex)
+  {
+    GenericAggregate aggr = getGroup(src, aggregatorIndex);
+    EventSchema eventSchema = getEventSchema();
+    for (int i = 0; i < columns.length; i++) {
+      Class<?> type = eventSchema.fields.get(eventSchema.genericEventValues.get(i));
+      if (Integer.class.equals(type)) {
+        aggr.aggregates[i] = (int)aggregates.getLong(columns[i]);
+      }
+      else if (Long.class.equals(type)) {
+        aggr.aggregates[i] = aggregates.getLong(columns[i]);
+      }
+      else if (Float.class.equals(type)) {
+        aggr.aggregates[i] = (float)aggregates.getDouble(columns[i]);
+      }
+      else {
+        aggr.aggregates[i] = aggregates.getDouble(columns[i]);
+      }
+    }
+    return aggr;
+  }
+
+}
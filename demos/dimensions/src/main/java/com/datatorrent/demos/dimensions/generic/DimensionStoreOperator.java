@@ -24,7 +24,6 @@ import com.datatorrent.contrib.hdht.tfile.TFileImpl;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
@@ -46,6 +45,8 @@ import java.util.concurrent.TimeUnit;
  *   dimension: Array of dimensions with fields separated by colon, and time prefixed with time=.  Supported time units: MINUTES, HOURS, DAYS
  *   aggregates: Fields to aggregate for specified dimensions.  Aggregates types can include: sum, avg, min, max
  *   timestamp: Name of the timestamp field.  Data type should be Long with value in milliseconds since Jan 1, 1970 GMT.
+ *   rollups: Optional coarser time units, eg. ["HOURS", "DAYS"].  Aggregates are rolled up to these time units as they are
+ *            written, and a range query is answered from the coarsest time unit which gives it the requested number of points.
  *
  * Example JSON schema for Ads demo:
  *
@@ -65,11 +66,15 @@ import java.util.concurrent.TimeUnit;
 public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<GenericAggregate>
 {
   protected final SortedMap<Long, Map<GenericAggregate, GenericAggregate>> cache = Maps.newTreeMap();
+  // caches of the rollups of the schema by time unit
+  protected final Map<TimeUnit, SortedMap<Long, Map<GenericAggregate, GenericAggregate>>> rollupCaches = Maps.newHashMap();
 
   private int maxCacheSize = 5;
   private GenericAggregator aggregator;
   private transient EventSchema eventSchema;
   protected transient GenericAggregateSerializer serializer;
+  // key to look up the rollup aggregates of an event, reused for all events
+  private transient GenericAggregate rollupKey;
 
   public int getMaxCacheSize()
   {
@@ -147,7 +152,7 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
     public long startTime;
     public long endTime;
     public TimeUnit intervalTimeUnit = TimeUnit.MINUTES;
-    private transient LinkedHashSet<HDSQuery> points = Sets.newLinkedHashSet();
+    private transient HDSScanQuery scan = new HDSScanQuery();
 
     @Override
     public String toString()
@@ -171,6 +176,7 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
     public Map<String, String> keys;
     public long startTime;
     public long endTime;
+    public TimeUnit timeUnit;
   }
 
   static public class HDSRangeQueryResult
@@ -212,7 +218,7 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
     GenericAggregate ae = new GenericAggregate(eventSchema.convertQueryKeysToGenericEvent(queryParams.keys));
 
     long bucketKey = getBucketKey(ae);
-    if (!(super.partitions == null || super.partitions.contains((int)bucketKey))) {
+    if (!(super.partitions == null || super.partitions.contains((int)(bucketKey & super.partitionMask)))) {
       //LOG.debug("Ignoring query for bucket {} when this partition serves {}", bucketKey, super.partitions);
       return;
     }
@@ -221,6 +227,10 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
     query.id = queryParams.id;
     query.prototype = ae;
     query.windowCountdown = 30;
+    query.intervalTimeUnit = getQueryTimeUnit(queryParams);
+    if (query.intervalTimeUnit != TimeUnit.MINUTES) {
+      query.prototype.rollup = query.intervalTimeUnit;
+    }
 
     query.endTime = queryParams.endTime;
     if (queryParams.endTime == 0) {
@@ -236,29 +246,60 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
     }
     query.startTime = TimeUnit.MILLISECONDS.convert(query.intervalTimeUnit.convert(query.startTime, TimeUnit.MILLISECONDS), query.intervalTimeUnit);
 
-    // set query for each point in series
+    // single range scan for all points in series, keys are ordered by timestamp before the dimensions, so only the key
+    // of each point is copied from the range which contains all dimension combinations of the bucket
+    query.scan.bucketKey = bucketKey;
     query.prototype.setTimestamp(query.startTime);
-    while (query.prototype.getTimestamp() <= query.endTime) {
-      Slice key = new Slice(codec.getKeyBytes(query.prototype));
-      HDSQuery q = super.queries.get(key);
-      if (q == null) {
-        q = new HDSQuery();
-        q.bucketKey = bucketKey;
-        q.key = key;
-        super.addQuery(q);
-      } else {
-        // TODO: find out why we got null in first place
-        if (q.result == null) {
-          LOG.debug("Forcing refresh for {}", q);
-          q.processed = false;
+    query.scan.fromKey = new Slice(codec.getKeyBytes(query.prototype));
+    query.prototype.setTimestamp(query.endTime);
+    query.scan.toKey = new Slice(codec.getKeyBytes(query.prototype));
+    query.scan.keys = new TreeSet<Slice>(getKeyComparator());
+    for (long timestamp = query.startTime; timestamp <= query.endTime; timestamp += query.intervalTimeUnit.toMillis(1)) {
+      query.prototype.setTimestamp(timestamp);
+      query.scan.keys.add(new Slice(codec.getKeyBytes(query.prototype)));
+    }
+    super.processScanQuery(query.scan);
+    LOG.debug("Scan: {}", query.scan);
+    rangeQueries.put(query.id, query);
+  }
+
+  /**
+   * The time unit of the query if it is given; otherwise the coarsest stored time unit which has at least numResults
+   * points in the range of the query. A query for a time unit which is neither MINUTES nor a rollup is rejected,
+   * instead of being answered in a different time unit.
+   */
+  private TimeUnit getQueryTimeUnit(QueryParameters queryParams)
+  {
+    List<TimeUnit> rollups = getEventSchema().rollups;
+    if (queryParams.timeUnit != null) {
+      if (queryParams.timeUnit != TimeUnit.MINUTES && !rollups.contains(queryParams.timeUnit)) {
+        throw new IllegalArgumentException("Time unit " + queryParams.timeUnit + " is not stored, query MINUTES or one of the rollups " + rollups);
+      }
+      return queryParams.timeUnit;
+    }
+    if (queryParams.numResults > 0 && queryParams.startTime > 0) {
+      long endTime = queryParams.endTime == 0 ? System.currentTimeMillis() : queryParams.endTime;
+      for (int i = rollups.size(); i-- > 0; ) {
+        TimeUnit rollup = rollups.get(i);
+        if (rollup.convert(endTime - queryParams.startTime, TimeUnit.MILLISECONDS) >= queryParams.numResults) {
+          return rollup;
         }
       }
-      q.keepAliveCount = query.windowCountdown;
-      query.points.add(q);
-      query.prototype.setTimestamp(query.prototype.getTimestamp() + query.intervalTimeUnit.toMillis(1));
     }
-    LOG.debug("Queries: {}", query.points);
-    rangeQueries.put(query.id, query);
+    return TimeUnit.MINUTES;
+  }
+
+  private SortedMap<Long, Map<GenericAggregate, GenericAggregate>> getCache(TimeUnit rollup)
+  {
+    if (rollup == null) {
+      return cache;
+    }
+    SortedMap<Long, Map<GenericAggregate, GenericAggregate>> rollupCache = rollupCaches.get(rollup);
+    if (rollupCache == null) {
+      rollupCache = Maps.newTreeMap();
+      rollupCaches.put(rollup, rollupCache);
+    }
+    return rollupCache;
   }
 
   @Override
@@ -269,13 +310,42 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
 
   @Override
   protected void processEvent(GenericAggregate aggr) throws IOException
+  {
+    // roll up incrementally before aggr is cached and aggregated into
+    for (TimeUnit rollup : getEventSchema().rollups) {
+      SortedMap<Long, Map<GenericAggregate, GenericAggregate>> rollupCache = getCache(rollup);
+      rollupKey.keys = aggr.keys;
+      rollupKey.timestamp = TimeUnit.MILLISECONDS.convert(rollup.convert(aggr.timestamp, TimeUnit.MILLISECONDS), rollup);
+      Map<GenericAggregate, GenericAggregate> valMap = rollupCache.get(rollupKey.timestamp);
+      if (valMap == null) {
+        valMap = new HashMap<GenericAggregate, GenericAggregate>();
+        rollupCache.put(rollupKey.timestamp, valMap);
+      }
+      GenericAggregate val = valMap.get(rollupKey);
+      if (val == null) {
+        // first event of the keys in the interval
+        val = new GenericAggregate();
+        val.keys = aggr.keys;
+        val.aggregates = aggr.aggregates.clone();
+        val.timestamp = rollupKey.timestamp;
+        val.rollup = rollup;
+        valMap.put(val, val);
+      } else {
+        aggregator.aggregate(val, aggr);
+      }
+    }
+    rollupKey.keys = null;
+    aggregate(cache, aggr);
+  }
+
+  private void aggregate(SortedMap<Long, Map<GenericAggregate, GenericAggregate>> timeCache, GenericAggregate aggr)
   {
     // aggregate in-memory, flush to store in endWindow
-    Map<GenericAggregate, GenericAggregate> valMap = cache.get(aggr.getTimestamp());
+    Map<GenericAggregate, GenericAggregate> valMap = timeCache.get(aggr.getTimestamp());
     if (valMap == null) {
       valMap = new HashMap<GenericAggregate, GenericAggregate>();
       valMap.put(aggr, aggr);
-      cache.put(aggr.getTimestamp(), valMap);
+      timeCache.put(aggr.getTimestamp(), valMap);
     } else {
       GenericAggregate val = valMap.get(aggr);
       if (val == null) {
@@ -293,17 +363,9 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
     super.endWindow();
 
     // flush final aggregates to HDHT
-    int expiredEntries = cache.size() - maxCacheSize;
-    while(expiredEntries-- > 0){
-
-      Map<GenericAggregate, GenericAggregate> vals = cache.remove(cache.firstKey());
-      for (GenericAggregate ai: vals.values()) {
-        try {
-          super.processEvent(ai);
-        } catch (IOException e) {
-          LOG.warn("Error putting the value", e);
-        }
-      }
+    flush(cache);
+    for (SortedMap<Long, Map<GenericAggregate, GenericAggregate>> rollupCache : rollupCaches.values()) {
+      flush(rollupCache);
     }
 
     // process queries
@@ -320,11 +382,11 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
       HDSRangeQueryResult res = new HDSRangeQueryResult();
       res.id = rangeQuery.id;
       res.countDown = rangeQuery.windowCountdown;
-      res.data = Lists.newArrayListWithExpectedSize(rangeQuery.points.size());
+      res.data = Lists.newArrayList();
       rangeQuery.prototype.setTimestamp(rangeQuery.startTime);
-      for (HDSQuery query : rangeQuery.points) {
+      while (rangeQuery.prototype.getTimestamp() <= rangeQuery.endTime) {
         // check in-flight memory store first
-        Map<GenericAggregate, GenericAggregate> buffered = this.cache.get(rangeQuery.prototype.getTimestamp());
+        Map<GenericAggregate, GenericAggregate> buffered = getCache(rangeQuery.prototype.rollup).get(rangeQuery.prototype.getTimestamp());
         if (buffered != null) {
           GenericAggregate ga = buffered.get(rangeQuery.prototype);
           if (ga != null) {
@@ -335,10 +397,14 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
           }
         }
         // results from persistent store
-        if (query.processed && query.result != null) {
-          GenericAggregate ga = codec.fromKeyValue(query.key, query.result);
-          if (ga.aggregates != null)
-            res.data.add(eventSchema.convertAggregateEventToMap(ga));
+        if (rangeQuery.scan.processed) {
+          Slice key = new Slice(codec.getKeyBytes(rangeQuery.prototype));
+          byte[] value = rangeQuery.scan.result.get(key);
+          if (value != null) {
+            GenericAggregate ga = codec.fromKeyValue(key, value);
+            if (ga.aggregates != null)
+              res.data.add(eventSchema.convertAggregateEventToMap(ga));
+          }
         }
         rangeQuery.prototype.setTimestamp(rangeQuery.prototype.getTimestamp() + rangeQuery.intervalTimeUnit.toMillis(1));
       }
@@ -351,10 +417,27 @@ public class DimensionStoreOperator extends AbstractSinglePortHDHTWriter<Generic
 
 
 
+  private void flush(SortedMap<Long, Map<GenericAggregate, GenericAggregate>> timeCache)
+  {
+    int expiredEntries = timeCache.size() - maxCacheSize;
+    while(expiredEntries-- > 0){
+
+      Map<GenericAggregate, GenericAggregate> vals = timeCache.remove(timeCache.firstKey());
+      for (GenericAggregate ai: vals.values()) {
+        try {
+          super.processEvent(ai);
+        } catch (IOException e) {
+          LOG.warn("Error putting the value", e);
+        }
+      }
+    }
+  }
+
   @Override public void setup(Context.OperatorContext arg0)
   {
     super.setup(arg0);
     this.serializer = new GenericAggregateSerializer(getEventSchema());
+    this.rollupKey = new GenericAggregate();
     setAggregator(new GenericAggregator(getEventSchema()));
   }
 
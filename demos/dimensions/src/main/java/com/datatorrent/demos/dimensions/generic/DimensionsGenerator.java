@@ -25,6 +25,7 @@ import java.util.List;
 public class DimensionsGenerator
 {
   private EventSchema eventSchema;
+  private boolean columnar = false;
 
   public DimensionsGenerator(EventSchema eventSchema)
   {
@@ -32,6 +33,24 @@ public class DimensionsGenerator
   }
 
 
+  /**
+   * Sets whether sums of numbers are aggregated in primitive columns. Default is false.
+   *
+   * @param columnar
+   */
+  public void setColumnar(boolean columnar)
+  {
+    this.columnar = columnar;
+  }
+
+  private GenericAggregator newAggregator()
+  {
+    if (columnar && ColumnarGenericAggregator.isSupported(eventSchema)) {
+      return new ColumnarGenericAggregator(eventSchema);
+    }
+    return new GenericAggregator(eventSchema);
+  }
+
   GenericAggregator[] generateAggregators()
   {
     if (eventSchema.dimensions == null || eventSchema.dimensions.size() == 0)
@@ -44,7 +63,7 @@ public class DimensionsGenerator
 
     for(int i = 0; i < numDimensions; i++)
     {
-      aggregators[i] = new GenericAggregator(eventSchema);
+      aggregators[i] = newAggregator();
       aggregators[i].init(eventSchema.dimensions.get(i));
     }
     return aggregators;
@@ -71,7 +90,7 @@ public class DimensionsGenerator
     for(int i = 0; i < numDimensions; i++)
     {
       StringBuilder builder = new StringBuilder("time=MINUTES");
-      aggregators[i] = new GenericAggregator(eventSchema);
+      aggregators[i] = newAggregator();
       for(int k = 0; k < numKeys; k++)
       {
         if ((i & (1 << k)) != 0) {
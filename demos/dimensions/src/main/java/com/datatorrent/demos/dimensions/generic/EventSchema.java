@@ -24,9 +24,11 @@ import org.codehaus.jackson.map.ObjectMapper;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Describes schema for performing dimensional computation on a stream of Map<String,Object> tuples.
@@ -37,6 +39,8 @@ import java.util.Set;
  *   dimension: Array of dimensions with fields separated by colon, and time prefixed with time=.  Supported time units: MINUTES, HOURS, DAYS
  *   aggregates: Fields to aggregate for specified dimensions.  Aggregates types can include: sum, avg, min, max
  *   timestamp: Name of the timestamp field.  Data type should be Long with value in milliseconds since Jan 1, 1970 GMT.
+ *   rollups: Optional array of time units coarser than the time units of the dimensions, eg. ["HOURS", "DAYS"].  The
+ *            dimension store maintains aggregates at these time units as well.
  *
  * JSON schema for Ads demo:
  *
@@ -124,6 +128,9 @@ public class EventSchema implements Serializable
 
   public String timestamp = "timestamp";
 
+  // Coarser time units at which aggregates are rolled up by the store, in increasing order
+  public List<TimeUnit> rollups = Lists.newArrayList();
+
   // Used to map between event schema and generic event arrays for keys and values
   transient public List<String> genericEventKeys = Lists.newArrayList();
   transient public List<String> genericEventValues = Lists.newArrayList();
@@ -217,6 +224,16 @@ public class EventSchema implements Serializable
 
     eventSchema.genericEventValues.addAll(eventSchema.aggregates.keySet());
 
+    Collections.sort(eventSchema.rollups);
+    for (String dimension : eventSchema.dimensions) {
+      for (String attribute : dimension.split(":")) {
+        String[] keyval = attribute.split("=", 2);
+        if (keyval[0].equals("time") && !eventSchema.rollups.isEmpty() && TimeUnit.valueOf(keyval[1]).compareTo(eventSchema.rollups.get(0)) >= 0) {
+          throw new IllegalArgumentException("Rollups " + eventSchema.rollups + " are not coarser than dimension " + dimension);
+        }
+      }
+    }
+
     return eventSchema;
   }
 
@@ -248,8 +265,13 @@ public class EventSchema implements Serializable
   }
 
   public int getKeyLen() {
-    if (keyLen == 0)
+    if (keyLen == 0) {
       keyLen = getSerializedLength(keys);
+      if (!rollups.isEmpty()) {
+        // time unit of the aggregate
+        keyLen++;
+      }
+    }
     return keyLen;
   }
 
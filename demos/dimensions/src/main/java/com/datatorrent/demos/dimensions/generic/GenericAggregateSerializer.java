@@ -20,6 +20,7 @@ import com.google.common.collect.Maps;
 
 import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * GenericAggregateSerializer
@@ -140,7 +141,11 @@ public class GenericAggregateSerializer {
   {
     ByteBuffer bb = ByteBuffer.allocate(eventSchema.getKeyLen());
 
-    // Write timestamp as first field
+    // Write time unit of rollups first, so that the aggregates of every time unit are contiguous
+    if (!eventSchema.rollups.isEmpty()) {
+      bb.put(event.rollup == null ? 0 : (byte)(event.rollup.ordinal() + 1));
+    }
+    // Write timestamp
     fieldSerializers.get(eventSchema.getClass(eventSchema.getTimestamp())).putField(bb, event.timestamp);
     // Write event keys
     for (int i=0; i < eventSchema.genericEventKeys.size(); i++) {
@@ -170,6 +175,11 @@ public class GenericAggregateSerializer {
 
     ByteBuffer bb = ByteBuffer.wrap(key.buffer, key.offset, key.length);
 
+    if (!eventSchema.rollups.isEmpty()) {
+      byte rollup = bb.get();
+      event.rollup = rollup == 0 ? null : TimeUnit.values()[rollup - 1];
+    }
+
     // Deserialize timestamp
     event.timestamp = (Long)fieldSerializers.get(eventSchema.getClass(eventSchema.getTimestamp())).readField(bb);
 
@@ -33,6 +33,8 @@ class GenericAggregate implements DimensionsComputation.AggregateEvent
   public Object[] keys;
   public Object[] aggregates;
   long timestamp;
+  // time unit of a rollup in the dimension store, null for the aggregates of the dimensions
+  TimeUnit rollup;
   private int aggregatorIndex = 0;
 
   public GenericAggregate() {}
@@ -166,6 +168,25 @@ public class GenericAggregator implements DimensionsComputation.Aggregator<Gener
     return aggr;
   }
 
+  /**
+   * Copies the dimension keys and the timestamp of an event, which are the fields compared by this aggregator and
+   * read by {@link #getGroup(GenericEvent, int)}.
+   *
+   * @param src event
+   * @return event with the dimension keys and timestamp of src, without values.
+   */
+  public GenericEvent copyKey(GenericEvent src)
+  {
+    GenericEvent key = new GenericEvent();
+    key.keys = new Object[src.keys.length];
+    for (int i : keyIndexes) {
+      key.keys[i] = src.keys[i];
+    }
+    key.values = new Object[src.values.length];
+    key.timestamp = src.timestamp;
+    return key;
+  }
+
   @Override
   public int computeHashCode(GenericEvent object)
   {
@@ -262,6 +283,11 @@ public class GenericAggregator implements DimensionsComputation.Aggregator<Gener
     return null;
   }
 
+  EventSchema getEventSchema()
+  {
+    return eventSchema;
+  }
+
   public String getDimension()
   {
     return dimension;
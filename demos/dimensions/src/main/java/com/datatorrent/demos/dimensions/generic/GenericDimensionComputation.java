@@ -38,6 +38,7 @@ public class GenericDimensionComputation extends DimensionsComputation<Object, G
 {
   private String eventSchemaJSON = EventSchema.DEFAULT_SCHEMA_SALES;
   private transient EventSchema eventSchema;
+  private boolean columnarAggregation = false;
 
   // Initialize aggregators when this class is instantiated
   {
@@ -51,6 +52,7 @@ public class GenericDimensionComputation extends DimensionsComputation<Object, G
 
   private void initAggregators(){
     DimensionsGenerator gen = new DimensionsGenerator(getEventSchema());
+    gen.setColumnar(columnarAggregation);
     Aggregator[] aggregators = gen.generateAggregators();
     setAggregators(aggregators);
   }
@@ -66,6 +68,23 @@ public class GenericDimensionComputation extends DimensionsComputation<Object, G
     initAggregators();
   }
 
+  /**
+   * When set, sums of numbers are aggregated in primitive columns with {@link ColumnarGenericAggregator}.
+   * Default is false.
+   *
+   * @param columnarAggregation
+   */
+  public void setColumnarAggregation(boolean columnarAggregation)
+  {
+    this.columnarAggregation = columnarAggregation;
+    initAggregators();
+  }
+
+  public boolean isColumnarAggregation()
+  {
+    return columnarAggregation;
+  }
+
   public EventSchema getEventSchema() {
     if (eventSchema == null ) {
       try {
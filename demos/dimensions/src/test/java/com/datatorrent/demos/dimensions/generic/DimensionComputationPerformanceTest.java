@@ -32,7 +32,7 @@ public class DimensionComputationPerformanceTest
     return info;
   }
 
-  long timeDimensions(int count)
+  long timeDimensions(int count, boolean columnar)
   {
     AdInfo info;
     String TEST_SCHEMA_JSON = "{\n" +
@@ -44,6 +44,7 @@ public class DimensionComputationPerformanceTest
 
     GenericDimensionComputation dimensions = new GenericDimensionComputation();
     dimensions.setEventSchemaJSON(TEST_SCHEMA_JSON);
+    dimensions.setColumnarAggregation(columnar);
     dimensions.setup(null);
 
     long start_time = System.currentTimeMillis();
@@ -100,9 +101,12 @@ public class DimensionComputationPerformanceTest
   public void test() throws InterruptedException, IOException
   {
     int tuplesCount = 1000000;
-    long dimMS = timeDimensions(tuplesCount);
+    long dimMS = timeDimensions(tuplesCount, false);
     LOG.debug("Dimensions computation for {} tuples: {} ms", tuplesCount, dimMS);
     Assert.assertTrue("Dimensions sufficiently fast", dimMS < 10000);
+    long columnarDimMS = timeDimensions(tuplesCount, true);
+    LOG.debug("Columnar dimensions computation for {} tuples: {} ms", tuplesCount, columnarDimMS);
+    Assert.assertTrue("Columnar dimensions sufficiently fast", columnarDimMS < 10000);
     long dimWithKryoMS = timeDimensionsWithKryo(tuplesCount);
     LOG.debug("Dimensions computation with Kryo for {} tuples: {} ms", tuplesCount, dimWithKryoMS);
     Assert.assertTrue("Dimensions with Kryo sufficiently fast", dimMS < 20000);
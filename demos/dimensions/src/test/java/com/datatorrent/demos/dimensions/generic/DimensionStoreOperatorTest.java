@@ -19,6 +19,7 @@ import java.io.File;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import org.apache.commons.io.FileUtils;
@@ -438,4 +439,101 @@ public class DimensionStoreOperatorTest
         System.out.println(o);
     }
   }
+
+  @Test
+  public void testRollups() throws Exception {
+    File file = new File(testInfo.getDir());
+    FileUtils.deleteDirectory(file);
+
+    DimensionStoreOperator hdsOut = new DimensionStoreOperator() {
+      @Override
+      public void setup(OperatorContext arg0)
+      {
+        super.setup(arg0);
+        super.writeExecutor = super.queryExecutor = MoreExecutors.sameThreadExecutor(); // synchronous processing
+      }
+    };
+    TFileImpl hdsFile = new TFileImpl.DefaultTFileImpl();
+    hdsOut.setFileStore(hdsFile);
+    hdsFile.setBasePath(testInfo.getDir());
+    hdsOut.setEventSchemaJSON(GenericAggregateSerializerTest.TEST_SCHEMA_JSON.replace("\"timestamp\": \"timestamp\"",
+        "\"timestamp\": \"timestamp\", \"rollups\": [\"HOURS\"]"));
+    hdsOut.setMaxCacheSize(1);
+    hdsOut.setFlushIntervalCount(0);
+    hdsOut.setup(null);
+    EventSchema eventSchema = hdsOut.getEventSchema();
+    Assert.assertEquals("rollups", Lists.newArrayList(TimeUnit.HOURS), eventSchema.rollups);
+
+    CollectorTestSink<DimensionStoreOperator.HDSRangeQueryResult> queryResults = new CollectorTestSink<DimensionStoreOperator.HDSRangeQueryResult>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    CollectorTestSink<Object> tmp = (CollectorTestSink) queryResults;
+    hdsOut.queryResult.setSink(tmp);
+
+    long baseHour = TimeUnit.MILLISECONDS.convert(TimeUnit.HOURS.convert(System.currentTimeMillis(), TimeUnit.MILLISECONDS), TimeUnit.HOURS);
+
+    // one click every minute for an hour and a half
+    hdsOut.beginWindow(1);
+    for (int minute = 0; minute < 90; minute++) {
+      Map<String, Object> eventMap = Maps.newHashMap();
+      eventMap.put("timestamp", baseHour + TimeUnit.MILLISECONDS.convert(minute, TimeUnit.MINUTES));
+      eventMap.put("pubId", 1);
+      eventMap.put("adUnit", 3);
+      eventMap.put("clicks", 1L);
+      hdsOut.input.process(new GenericAggregate(eventSchema.convertMapToGenericEvent(eventMap)));
+    }
+    hdsOut.endWindow();
+    Assert.assertEquals("hours in cache", 1, hdsOut.rollupCaches.get(TimeUnit.HOURS).size());
+
+    hdsOut.beginWindow(2);
+    JSONObject keys = new JSONObject();
+    keys.put("pubId", 1);
+    keys.put("adUnit", 3);
+
+    // coarsest time unit with the requested number of points
+    JSONObject query = new JSONObject();
+    query.put("numResults", "1");
+    query.put("keys", keys);
+    query.put("id", "query1");
+    query.put("startTime", baseHour);
+    query.put("endTime", baseHour + TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS));
+    hdsOut.query.process(query.toString());
+
+    query.put("numResults", "20");
+    query.put("id", "query2");
+    hdsOut.query.process(query.toString());
+
+    Assert.assertEquals("hours", TimeUnit.HOURS, hdsOut.rangeQueries.get("query1").intervalTimeUnit);
+    Assert.assertEquals("minutes", TimeUnit.MINUTES, hdsOut.rangeQueries.get("query2").intervalTimeUnit);
+    hdsOut.endWindow();
+
+    Assert.assertEquals("queryResults " + queryResults.collectedTuples, 2, queryResults.collectedTuples.size());
+    for (HDSRangeQueryResult r : queryResults.collectedTuples) {
+      if (r.id.equals("query1")) {
+        Assert.assertEquals("result points " + r, 2, r.data.size());
+        // first hour from HDHT, second hour from cache
+        Assert.assertEquals("clicks", 60L, r.data.get(0).get("clicks"));
+        Assert.assertEquals("timestamp", baseHour, r.data.get(0).get("timestamp"));
+        Assert.assertEquals("clicks", 30L, r.data.get(1).get("clicks"));
+      }
+      else {
+        Assert.assertEquals("result points " + r, 61, r.data.size());
+        Assert.assertEquals("clicks", 1L, r.data.get(0).get("clicks"));
+      }
+    }
+
+    // a given time unit is not replaced by a coarser one
+    hdsOut.beginWindow(3);
+    query.put("numResults", "1");
+    query.put("timeUnit", "MINUTES");
+    query.put("id", "query3");
+    hdsOut.query.process(query.toString());
+    Assert.assertEquals("minutes", TimeUnit.MINUTES, hdsOut.rangeQueries.get("query3").intervalTimeUnit);
+
+    // a time unit which is not stored is rejected
+    query.put("timeUnit", "SECONDS");
+    query.put("id", "query4");
+    hdsOut.query.process(query.toString());
+    Assert.assertNull("query for time unit not stored", hdsOut.rangeQueries.get("query4"));
+    hdsOut.endWindow();
+  }
 }
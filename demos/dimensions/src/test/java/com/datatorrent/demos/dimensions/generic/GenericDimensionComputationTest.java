@@ -1,8 +1,17 @@
 package com.datatorrent.demos.dimensions.generic;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.datatorrent.lib.testbench.CollectorTestSink;
+import com.datatorrent.lib.util.TestUtils;
+
 public class GenericDimensionComputationTest
 {
   @Test
@@ -14,4 +23,46 @@ public class GenericDimensionComputationTest
 
     Assert.assertEquals("Total number of aggregators ", 8, dc.getAggregators().length);
   }
+
+  private static CollectorTestSink<Object> runWindow(boolean columnar)
+  {
+    GenericDimensionComputation dc = new GenericDimensionComputation();
+    dc.setEventSchemaJSON(GenericAggregateSerializerTest.TEST_SCHEMA_JSON);
+    dc.setColumnarAggregation(columnar);
+    dc.setup(null);
+    CollectorTestSink<Object> sink = new CollectorTestSink<Object>();
+    TestUtils.setSink(dc.output, sink);
+
+    dc.beginWindow(1);
+    for (int i = 0; i < 1000; i++) {
+      Map<String, Object> event = Maps.newHashMap();
+      event.put("timestamp", 60000L * (i % 3));
+      event.put("pubId", i % 5);
+      event.put("adUnit", i % 7);
+      event.put("adId", i % 11);
+      event.put("clicks", (long)i);
+      dc.data.process(event);
+    }
+    dc.endWindow();
+    return sink;
+  }
+
+  private static List<String> toSortedStrings(CollectorTestSink<Object> sink)
+  {
+    List<String> aggregates = Lists.newArrayList();
+    for (Object tuple : sink.collectedTuples) {
+      aggregates.add(tuple.toString());
+    }
+    Collections.sort(aggregates);
+    return aggregates;
+  }
+
+  @Test
+  public void testColumnarAggregation()
+  {
+    CollectorTestSink<Object> expected = runWindow(false);
+    CollectorTestSink<Object> sink = runWindow(true);
+
+    Assert.assertEquals("aggregates", toSortedStrings(expected), toSortedStrings(sink));
+  }
 }
@@ -53,6 +53,9 @@ public abstract class AbstractBucket<T>
   private transient Map<Object, T> writtenEvents;
   private transient long lastUpdateTime;
   private transient boolean isDataOnDiskLoaded;
+  //set on access, cleared by the eviction of the bucket manager
+  private transient volatile boolean referenced;
+  private FixedWidthKeyMap.KeyType eventKeyType;
 
   @SuppressWarnings("unused")
   protected AbstractBucket()
@@ -90,15 +93,37 @@ public abstract class AbstractBucket<T>
     unwrittenEvents = null;
   }
 
+  /**
+   * Sets the type of the event keys, when only the keys are kept. The new events are then stored in a
+   * {@link FixedWidthKeyMap}.
+   */
+  void setEventKeyType(FixedWidthKeyMap.KeyType eventKeyType)
+  {
+    this.eventKeyType = eventKeyType;
+  }
+
   void updateAccessTime()
   {
     lastUpdateTime = System.currentTimeMillis();
+    referenced = true;
+  }
+
+  /**
+   * Clears the access flag.
+   *
+   * @return true if the bucket was accessed since the flag was cleared last time.
+   */
+  boolean clearReferenced()
+  {
+    boolean wasReferenced = referenced;
+    referenced = false;
+    return wasReferenced;
   }
 
   void addNewEvent(Object eventKey, T event)
   {
     if (unwrittenEvents == null) {
-      unwrittenEvents = Maps.newHashMap();
+      unwrittenEvents = eventKeyType == null ? Maps.<Object, T>newHashMap() : new FixedWidthKeyMap<T>(eventKeyType);
     }
     unwrittenEvents.put(eventKey, event);
   }
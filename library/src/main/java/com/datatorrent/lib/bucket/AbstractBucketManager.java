@@ -17,13 +17,14 @@ package com.datatorrent.lib.bucket;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nonnull;
 import javax.validation.constraints.Min;
@@ -34,11 +35,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.MinMaxPriorityQueue;
 import com.google.common.collect.Sets;
 
 import com.datatorrent.common.util.DTThrowable;
+import com.datatorrent.common.util.NameableThreadFactory;
 import com.datatorrent.lib.counters.BasicCounters;
 
 /**
@@ -66,10 +68,21 @@ import com.datatorrent.lib.counters.BasicCounters;
  * offloaded.
  * </li>
  * <li>
+ * {@link #loaderThreads}: number of threads which load buckets from the store concurrently.
+ * </li>
+ * <li>
  * {@link #writeEventKeysOnly}: when this is true, the manager would not cache the event. It will only
  * keep the event key. This reduces memory usage and is useful for operators like De-duplicator which are interested only
  * in the event key.
  * </li>
+ * <li>
+ * {@link #eventKeyType}: when set along with {@link #writeEventKeysOnly}, the event keys, which have to be of that type,
+ * are kept in {@link FixedWidthKeyMap}s of primitive longs and written to the store in a compact format.
+ * </li>
+ * <li>
+ * {@link #expectedEventsPerBucket}: when greater than 0, the manager keeps a {@link BloomFilter} of the event keys of
+ * each bucket that was loaded once. The filter tells whether an event may be present in a bucket without loading it.
+ * </li>
  * </ol>
  * </p>
  *
@@ -81,6 +94,7 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
   public static int DEF_NUM_BUCKETS = 1000;
   public static int DEF_NUM_BUCKETS_MEM = 120;
   public static long DEF_MILLIS_PREVENTING_EVICTION = 10 * 60000;
+  public static double DEF_FALSE_POSITIVE_PROBABILITY = 0.01;
   private static long RESERVED_BUCKET_KEY = -2;
   //Check-pointed
   @Min(1)
@@ -92,11 +106,17 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
   @Min(0)
   protected long millisPreventingBucketEviction;
   protected boolean writeEventKeysOnly;
+  protected FixedWidthKeyMap.KeyType eventKeyType;
   @NotNull
   protected BucketStore<T> bucketStore;
   @NotNull
   protected final Map<Integer, AbstractBucket<T>> dirtyBuckets;
   protected long committedWindow;
+  @Min(0)
+  protected int expectedEventsPerBucket;
+  protected double falsePositiveProbability;
+  //bucket index -> filter of the event keys of the bucket
+  protected Map<Integer, BloomFilter> bucketFilters;
   //Not check-pointed
   //Indexed by bucketKey keys.
   protected transient AbstractBucket<T>[] buckets;
@@ -108,8 +128,13 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
   private transient volatile boolean running;
   @NotNull
   private transient final Lock lock;
-  @NotNull
-  private transient final MinMaxPriorityQueue<AbstractBucket<T>> bucketHeap;
+  @Min(1)
+  protected int loaderThreads;
+  private transient ExecutorService[] loaders;
+  private transient final AtomicInteger loadsInProgress;
+  private transient volatile Throwable loadFailure;
+  /* held for reading while a bucket is loaded and for writing while the loads are suspended */
+  protected transient final ReentrantReadWriteLock loadLock;
 
   protected transient boolean recordStats;
   protected transient BasicCounters<MutableLong> bucketCounters;
@@ -117,24 +142,12 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
   public AbstractBucketManager()
   {
     eventQueue = new LinkedBlockingQueue<Long>();
-    evictionCandidates = Sets.newHashSet();
+    evictionCandidates = Collections.synchronizedSet(Sets.<Integer>newLinkedHashSet());
     dirtyBuckets = Maps.newConcurrentMap();
-    bucketHeap = MinMaxPriorityQueue.orderedBy(new Comparator<AbstractBucket<T>>()
-    {
-      @Override
-      public int compare(AbstractBucket<T> bucket1, AbstractBucket<T> bucket2)
-      {
-        if (bucket1.lastUpdateTime() < bucket2.lastUpdateTime()) {
-          return -1;
-        }
-        if (bucket1.lastUpdateTime() > bucket2.lastUpdateTime()) {
-          return 1;
-        }
-        return 0;
-      }
-
-    }).create();
+    loadsInProgress = new AtomicInteger();
     lock = new Lock();
+    //fair, so that suspending the loads only waits for the loads in progress
+    loadLock = new ReentrantReadWriteLock(true);
     committedWindow = -1;
 
     noOfBuckets = DEF_NUM_BUCKETS;
@@ -142,6 +155,9 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
     maxNoOfBucketsInMemory = DEF_NUM_BUCKETS_MEM + 100;
     millisPreventingBucketEviction = DEF_MILLIS_PREVENTING_EVICTION;
     writeEventKeysOnly = true;
+    falsePositiveProbability = DEF_FALSE_POSITIVE_PROBABILITY;
+    bucketFilters = Maps.newHashMap();
+    loaderThreads = 1;
   }
 
   /**
@@ -194,6 +210,77 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
     }
   }
 
+  /**
+   * Sets the number of threads which load buckets from the store. Loads of different bucket indexes are executed
+   * concurrently, loads of the same index in the order they were requested.
+   *
+   * @param loaderThreads
+   */
+  public void setLoaderThreads(int loaderThreads)
+  {
+    this.loaderThreads = loaderThreads;
+  }
+
+  public int getLoaderThreads()
+  {
+    return loaderThreads;
+  }
+
+  /**
+   * Sets the type of the event keys, which is used when only event keys are kept. The keys are then stored in arrays of
+   * primitive longs instead of hash maps. null keeps the keys in hash maps (default). The type cannot be changed for an
+   * existing store.
+   *
+   * @param eventKeyType
+   */
+  public void setEventKeyType(FixedWidthKeyMap.KeyType eventKeyType)
+  {
+    this.eventKeyType = eventKeyType;
+    if (this.bucketStore != null) {
+      this.bucketStore.setEventKeyType(eventKeyType);
+    }
+  }
+
+  public FixedWidthKeyMap.KeyType getEventKeyType()
+  {
+    return eventKeyType;
+  }
+
+  /**
+   * Sets the expected number of events per bucket, which sizes the bloom filters of the buckets. 0 disables the
+   * filters.
+   *
+   * @param expectedEventsPerBucket
+   */
+  public void setExpectedEventsPerBucket(int expectedEventsPerBucket)
+  {
+    this.expectedEventsPerBucket = expectedEventsPerBucket;
+  }
+
+  /**
+   * Sets the false positive probability of the bloom filters when a bucket has the expected number of events.
+   *
+   * @param falsePositiveProbability
+   */
+  public void setFalsePositiveProbability(double falsePositiveProbability)
+  {
+    this.falsePositiveProbability = falsePositiveProbability;
+  }
+
+  @Override
+  public boolean mightContain(long bucketKey, Object eventKey)
+  {
+    BloomFilter filter = bucketFilters.get((int) (bucketKey % noOfBuckets));
+    return filter == null || filter.bucketKey != bucketKey || filter.mightContain(eventKey);
+  }
+
+  @Override
+  public boolean hasFilter(long bucketKey)
+  {
+    BloomFilter filter = bucketFilters.get((int) (bucketKey % noOfBuckets));
+    return filter != null && filter.bucketKey == bucketKey;
+  }
+
   @Override
   public void setBucketCounters(@Nonnull BasicCounters<MutableLong> bucketCounters)
   {
@@ -203,13 +290,25 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
     bucketCounters.setCounter(CounterKeys.DELETED_BUCKETS, new MutableLong());
     bucketCounters.setCounter(CounterKeys.EVENTS_COMMITTED_LAST_WINDOW, new MutableLong());
     bucketCounters.setCounter(CounterKeys.EVENTS_IN_MEMORY, new MutableLong());
+    bucketCounters.setCounter(CounterKeys.BUCKETS_LOADED, new MutableLong());
+    bucketCounters.setCounter(CounterKeys.BUCKET_LOAD_TIME, new MutableLong());
+    bucketCounters.setCounter(CounterKeys.LAST_BUCKET_LOAD_TIME, new MutableLong());
+    bucketCounters.setCounter(CounterKeys.MAX_BUCKET_LOAD_TIME, new MutableLong());
+    bucketCounters.setCounter(CounterKeys.LOAD_QUEUE_DEPTH, new MutableLong());
     recordStats = true;
   }
 
   @Override
   public void shutdownService()
   {
+    resumeLoads();
     running = false;
+    if (loaders != null) {
+      for (ExecutorService loader : loaders) {
+        loader.shutdownNow();
+      }
+      loaders = null;
+    }
     bucketStore.teardown();
   }
 
@@ -221,82 +320,25 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
     try {
       while (running) {
         Long request = eventQueue.poll(1, TimeUnit.SECONDS);
+        if (loadFailure != null) {
+          throw loadFailure;
+        }
         if (request != null) {
           long requestedKey = request;
           if (RESERVED_BUCKET_KEY == requestedKey) {
+            awaitLoads();
             synchronized (lock) {
               lock.notify();
             }
           }
-          else {
-            int bucketIdx = (int) (requestedKey % noOfBuckets);
-            long numEventsRemoved = 0;
-            if (buckets[bucketIdx] != null && buckets[bucketIdx].bucketKey != requestedKey) {
-              //Delete the old bucket in memory at that index.
-              AbstractBucket<T> oldBucket = buckets[bucketIdx];
-
-              dirtyBuckets.remove(bucketIdx);
-              evictionCandidates.remove(bucketIdx);
-              buckets[bucketIdx] = null;
-
-              listener.bucketOffLoaded(oldBucket.bucketKey);
-              bucketStore.deleteBucket(bucketIdx);
-              if (recordStats) {
-                bucketCounters.getCounter(CounterKeys.DELETED_BUCKETS).increment();
-                bucketCounters.getCounter(CounterKeys.BUCKETS_IN_MEMORY).decrement();
-                numEventsRemoved += oldBucket.countOfUnwrittenEvents() + oldBucket.countOfWrittenEvents();
-              }
-              logger.debug("deleted bucket {} {}", oldBucket.bucketKey, bucketIdx);
-            }
-
-            Map<Object, T> bucketDataInStore = bucketStore.fetchBucket(bucketIdx);
-
-            //Delete the least recently used bucket in memory if the noOfBucketsInMemory threshold is reached.
-            if (evictionCandidates.size() + 1 > noOfBucketsInMemory) {
-
-              for (int anIndex : evictionCandidates) {
-                bucketHeap.add(buckets[anIndex]);
-              }
-              int overFlow = evictionCandidates.size() + 1 - noOfBucketsInMemory;
-              while (overFlow-- >= 0) {
-                AbstractBucket<T> lruBucket = bucketHeap.poll();
-                if (lruBucket == null) {
-                  break;
-                }
-                int lruIdx = (int) (lruBucket.bucketKey % noOfBuckets);
-
-                if (dirtyBuckets.containsKey(lruIdx)) {
-                  break;
-                }
-                if (((System.currentTimeMillis() - lruBucket.lastUpdateTime()) < millisPreventingBucketEviction)
-                  && ((evictionCandidates.size() + 1) <= maxNoOfBucketsInMemory)) {
-                  break;
-                }
-                evictionCandidates.remove(lruIdx);
-                buckets[lruIdx] = null;
-                listener.bucketOffLoaded(lruBucket.bucketKey);
-                if (recordStats) {
-                  bucketCounters.getCounter(CounterKeys.EVICTED_BUCKETS).increment();
-                  bucketCounters.getCounter(CounterKeys.BUCKETS_IN_MEMORY).decrement();
-                  numEventsRemoved += lruBucket.countOfUnwrittenEvents() + lruBucket.countOfWrittenEvents();
-                }
-                logger.debug("evicted bucket {} {}", lruBucket.bucketKey, lruIdx);
-              }
-            }
-
-            AbstractBucket<T> bucket = buckets[bucketIdx];
-            if (bucket == null || bucket.bucketKey != requestedKey) {
-              bucket = createBucket(requestedKey);
-              buckets[bucketIdx] = bucket;
-            }
-            bucket.setWrittenEvents(bucketDataInStore);
-            evictionCandidates.add(bucketIdx);
-            listener.bucketLoaded(bucket);
+          else if (loaders == null) {
             if (recordStats) {
-              bucketCounters.getCounter(CounterKeys.BUCKETS_IN_MEMORY).increment();
-              bucketCounters.getCounter(CounterKeys.EVENTS_IN_MEMORY).add(bucketDataInStore.size() - numEventsRemoved);
+              bucketCounters.getCounter(CounterKeys.LOAD_QUEUE_DEPTH).setValue(eventQueue.size() + 1);
             }
-            bucketHeap.clear();
+            loadBucket(requestedKey);
+          }
+          else {
+            submitLoad(requestedKey);
           }
         }
       }
@@ -307,12 +349,211 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
     }
   }
 
+  /**
+   * Loads of the same bucket index are submitted to the same loader, so that they are executed in order.
+   */
+  private void submitLoad(final long requestedKey)
+  {
+    int inProgress = loadsInProgress.incrementAndGet();
+    if (recordStats) {
+      synchronized (evictionCandidates) {
+        bucketCounters.getCounter(CounterKeys.LOAD_QUEUE_DEPTH).setValue(eventQueue.size() + inProgress);
+      }
+    }
+    loaders[(int) (requestedKey % noOfBuckets) % loaders.length].submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        try {
+          loadBucket(requestedKey);
+        }
+        catch (Throwable t) {
+          logger.error("load of bucket {} failed", requestedKey, t);
+          loadFailure = t;
+        }
+        finally {
+          loadsInProgress.decrementAndGet();
+        }
+      }
+
+    });
+  }
+
+  /**
+   * Waits until the loads that were submitted to the loaders are completed.
+   */
+  private void awaitLoads() throws Exception
+  {
+    if (loaders == null) {
+      return;
+    }
+    List<Future<?>> futures = Lists.newArrayListWithCapacity(loaders.length);
+    for (ExecutorService loader : loaders) {
+      futures.add(loader.submit(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+        }
+
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+  }
+
+  private void loadBucket(long requestedKey) throws Exception
+  {
+    List<Long> evictedKeys = Lists.newArrayList();
+    AbstractBucket<T> bucket;
+    loadLock.readLock().lockInterruptibly();
+    try {
+      bucket = fetchBucket(requestedKey, evictedKeys);
+    }
+    finally {
+      loadLock.readLock().unlock();
+    }
+    for (long evictedKey : evictedKeys) {
+      listener.bucketOffLoaded(evictedKey);
+    }
+    listener.bucketLoaded(bucket);
+  }
+
+  /**
+   * Fetches the bucket from the store and makes room for it in memory. Invoked with the read lock of
+   * {@link #loadLock}.
+   *
+   * @param requestedKey key of the bucket.
+   * @param evictedKeys  keys of the evicted buckets.
+   * @return the loaded bucket.
+   */
+  private AbstractBucket<T> fetchBucket(long requestedKey, List<Long> evictedKeys) throws Exception
+  {
+    int bucketIdx = (int) (requestedKey % noOfBuckets);
+    long numEventsRemoved = 0;
+    AbstractBucket<T> oldBucket = null;
+    synchronized (evictionCandidates) {
+      if (buckets[bucketIdx] != null && buckets[bucketIdx].bucketKey != requestedKey) {
+        //Delete the old bucket in memory at that index.
+        oldBucket = buckets[bucketIdx];
+
+        dirtyBuckets.remove(bucketIdx);
+        evictionCandidates.remove(bucketIdx);
+        buckets[bucketIdx] = null;
+        if (recordStats) {
+          bucketCounters.getCounter(CounterKeys.DELETED_BUCKETS).increment();
+          bucketCounters.getCounter(CounterKeys.BUCKETS_IN_MEMORY).decrement();
+          numEventsRemoved += oldBucket.countOfUnwrittenEvents() + oldBucket.countOfWrittenEvents();
+        }
+      }
+    }
+    if (oldBucket != null) {
+      listener.bucketOffLoaded(oldBucket.bucketKey);
+      bucketStore.deleteBucket(bucketIdx);
+      logger.debug("deleted bucket {} {}", oldBucket.bucketKey, bucketIdx);
+    }
+
+    long loadStart = System.currentTimeMillis();
+    Map<Object, T> bucketDataInStore = bucketStore.fetchBucket(bucketIdx);
+    long loadTime = System.currentTimeMillis() - loadStart;
+
+    AbstractBucket<T> bucket;
+    synchronized (evictionCandidates) {
+      if (recordStats) {
+        bucketCounters.getCounter(CounterKeys.BUCKETS_LOADED).increment();
+        bucketCounters.getCounter(CounterKeys.BUCKET_LOAD_TIME).add(loadTime);
+        bucketCounters.getCounter(CounterKeys.LAST_BUCKET_LOAD_TIME).setValue(loadTime);
+        MutableLong maxLoadTime = bucketCounters.getCounter(CounterKeys.MAX_BUCKET_LOAD_TIME);
+        if (loadTime > maxLoadTime.longValue()) {
+          maxLoadTime.setValue(loadTime);
+        }
+      }
+
+      //Delete the least recently used buckets in memory if the noOfBucketsInMemory threshold is reached.
+      numEventsRemoved += evictBuckets(bucketIdx, evictedKeys);
+
+      bucket = buckets[bucketIdx];
+      if (bucket == null || bucket.bucketKey != requestedKey) {
+        bucket = newBucket(requestedKey);
+        buckets[bucketIdx] = bucket;
+      }
+      bucket.setWrittenEvents(bucketDataInStore);
+      evictionCandidates.add(bucketIdx);
+      if (recordStats) {
+        bucketCounters.getCounter(CounterKeys.BUCKETS_IN_MEMORY).increment();
+        bucketCounters.getCounter(CounterKeys.EVENTS_IN_MEMORY).add(bucketDataInStore.size() - numEventsRemoved);
+      }
+    }
+    return bucket;
+  }
+
+  /**
+   * Evicts buckets until the number of buckets in memory including the bucket being loaded is within
+   * {@link #noOfBucketsInMemory}.<br/>
+   * The candidates are kept in the order they were added. A candidate that was accessed since it was last visited
+   * gets a second chance and moves to the end (CLOCK), so the order is maintained on access instead of being sorted on
+   * every load. Dirty buckets are skipped and buckets accessed within {@link #millisPreventingBucketEviction} are only
+   * evicted when the number of buckets exceeds {@link #maxNoOfBucketsInMemory}.<br/>
+   * Invoked with the lock on {@link #evictionCandidates}.
+   *
+   * @param bucketIdx   index of the bucket being loaded.
+   * @param evictedKeys keys of the evicted buckets.
+   * @return number of events removed from memory.
+   */
+  private long evictBuckets(int bucketIdx, List<Long> evictedKeys)
+  {
+    long numEventsRemoved = 0;
+    long now = System.currentTimeMillis();
+    for (int pass = 0; pass < 2 && bucketsInMemory(bucketIdx) > noOfBucketsInMemory; pass++) {
+      List<Integer> secondChance = Lists.newArrayList();
+      for (Iterator<Integer> iterator = evictionCandidates.iterator(); iterator.hasNext() && bucketsInMemory(bucketIdx) > noOfBucketsInMemory;) {
+        int candidateIdx = iterator.next();
+        AbstractBucket<T> candidate = buckets[candidateIdx];
+        if (candidate == null) {
+          iterator.remove();
+          continue;
+        }
+        if (candidateIdx == bucketIdx || dirtyBuckets.containsKey(candidateIdx)) {
+          continue;
+        }
+        if (candidate.clearReferenced() && pass == 0) {
+          iterator.remove();
+          secondChance.add(candidateIdx);
+          continue;
+        }
+        if ((now - candidate.lastUpdateTime()) < millisPreventingBucketEviction
+          && bucketsInMemory(bucketIdx) <= maxNoOfBucketsInMemory) {
+          continue;
+        }
+        iterator.remove();
+        buckets[candidateIdx] = null;
+        evictedKeys.add(candidate.bucketKey);
+        if (recordStats) {
+          bucketCounters.getCounter(CounterKeys.EVICTED_BUCKETS).increment();
+          bucketCounters.getCounter(CounterKeys.BUCKETS_IN_MEMORY).decrement();
+          numEventsRemoved += candidate.countOfUnwrittenEvents() + candidate.countOfWrittenEvents();
+        }
+        logger.debug("evicted bucket {} {}", candidate.bucketKey, candidateIdx);
+      }
+      evictionCandidates.addAll(secondChance);
+    }
+    return numEventsRemoved;
+  }
+
+  private int bucketsInMemory(int bucketIdx)
+  {
+    return evictionCandidates.size() + (evictionCandidates.contains(bucketIdx) ? 0 : 1);
+  }
+
   @Override
   public void setBucketStore(@Nonnull BucketStore<T> bucketStore)
   {
     this.bucketStore = bucketStore;
     bucketStore.setNoOfBuckets(noOfBuckets);
     bucketStore.setWriteEventKeysOnly(writeEventKeysOnly);
+    bucketStore.setEventKeyType(eventKeyType);
   }
 
   @Override
@@ -334,6 +575,12 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
     for (Map.Entry<Integer, AbstractBucket<T>> bucketEntry : dirtyBuckets.entrySet()) {
       buckets[bucketEntry.getKey()] = bucketEntry.getValue();
     }
+    if (loaderThreads > 1) {
+      loaders = new ExecutorService[loaderThreads];
+      for (int i = 0; i < loaderThreads; i++) {
+        loaders[i] = Executors.newSingleThreadExecutor(new NameableThreadFactory("BucketLoader-" + i));
+      }
+    }
     Thread eventServiceThread = new Thread(this, "BucketLoaderService");
     eventServiceThread.start();
   }
@@ -361,7 +608,7 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
     AbstractBucket<T> bucket = buckets[bucketIdx];
 
     if (bucket == null || bucket.bucketKey != bucketKey) {
-      bucket = createBucket(bucketKey);
+      bucket = newBucket(bucketKey);
       buckets[bucketIdx] = bucket;
       dirtyBuckets.put(bucketIdx, bucket);
     }
@@ -369,12 +616,49 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
       dirtyBuckets.put(bucketIdx, bucket);
     }
 
-    bucket.addNewEvent(bucket.getEventKey(event), writeEventKeysOnly ? null : event);
+    Object eventKey = bucket.getEventKey(event);
+    bucket.addNewEvent(eventKey, writeEventKeysOnly ? null : event);
+    if (expectedEventsPerBucket > 0) {
+      updateFilter(bucketIdx, bucket, eventKey);
+    }
     if (recordStats) {
       bucketCounters.getCounter(CounterKeys.EVENTS_IN_MEMORY).increment();
     }
   }
 
+  /**
+   * Adds the event key to the filter of the bucket. The filter is created when the bucket is loaded from the store, as
+   * only then all the keys of the bucket are known.
+   */
+  protected void updateFilter(int bucketIdx, AbstractBucket<T> bucket, Object eventKey)
+  {
+    BloomFilter filter = bucketFilters.get(bucketIdx);
+    if (filter == null || filter.bucketKey != bucket.bucketKey) {
+      if (!bucket.isDataOnDiskLoaded()) {
+        if (filter != null) {
+          //the bucket at this index was replaced
+          bucketFilters.remove(bucketIdx);
+        }
+        return;
+      }
+      filter = new BloomFilter(bucket.bucketKey, expectedEventsPerBucket, falsePositiveProbability);
+      if (bucket.countOfWrittenEvents() > 0) {
+        for (Object key : bucket.getWrittenEvents().keySet()) {
+          filter.add(key);
+        }
+      }
+      if (bucket.countOfUnwrittenEvents() > 0) {
+        for (Object key : bucket.getUnwrittenEvents().keySet()) {
+          filter.add(key);
+        }
+      }
+      bucketFilters.put(bucketIdx, filter);
+    }
+    else {
+      filter.add(eventKey);
+    }
+  }
+
   @Override
   public void endWindow(long window)
   {
@@ -410,6 +694,33 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
     committedWindow = window;
   }
 
+  @Override
+  public void committed(long window)
+  {
+    try {
+      bucketStore.committed(window);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void suspendLoads() throws InterruptedException
+  {
+    if (!loadLock.isWriteLockedByCurrentThread()) {
+      loadLock.writeLock().lockInterruptibly();
+    }
+  }
+
+  @Override
+  public void resumeLoads()
+  {
+    if (loadLock.isWriteLockedByCurrentThread()) {
+      loadLock.writeLock().unlock();
+    }
+  }
+
   @Override
   public void blockUntilAllRequestsServiced() throws InterruptedException
   {
@@ -433,6 +744,18 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
    */
   protected abstract AbstractBucket<T> createBucket(long bucketKey);
 
+  /**
+   * Creates the bucket and sets the type of its event keys.
+   */
+  protected AbstractBucket<T> newBucket(long bucketKey)
+  {
+    AbstractBucket<T> bucket = createBucket(bucketKey);
+    if (writeEventKeysOnly && eventKeyType != null) {
+      bucket.setEventKeyType(eventKeyType);
+    }
+    return bucket;
+  }
+
    @Override
   public void definePartitions(List<BucketManager<T>> oldManagers, Map<Integer, BucketManager<T>> partitionKeysToManagers, int partitionMask)
   {
@@ -449,7 +772,7 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
 
           AbstractBucket<T> destBucket = newManagerImpl.dirtyBuckets.get(sourceBucketIdx);
           if (destBucket == null) {
-            destBucket = createBucket(sourceBucket.bucketKey);
+            destBucket = newBucket(sourceBucket.bucketKey);
             newManagerImpl.dirtyBuckets.put(sourceBucketIdx, destBucket);
           }
           destBucket.addNewEvent(eventEntry.getKey(), eventEntry.getValue());
@@ -523,6 +846,8 @@ public abstract class AbstractBucketManager<T> implements BucketManager<T>, Runn
     @SuppressWarnings("unchecked")
     AbstractBucketManager<T> clone = (AbstractBucketManager<T>)super.clone();
     clone.setBucketStore(clone.getBucketStore().clone());
+    //filters of the old partitions do not cover the keys of the new partitions
+    clone.bucketFilters = Maps.newHashMap();
     return clone;
   }
 
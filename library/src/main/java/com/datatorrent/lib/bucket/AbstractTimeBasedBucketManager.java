@@ -52,6 +52,8 @@ public abstract class AbstractTimeBasedBucketManager<T> extends AbstractBucketMa
   protected long startOfBucketsInMillis;
   private long expiryTime;
   private Long[] maxTimesPerBuckets;
+  @Min(0)
+  private int prefetchBuckets;
 
   private transient long endOBucketsInMillis;
   private transient Timer bucketSlidingTimer;
@@ -122,6 +124,27 @@ public abstract class AbstractTimeBasedBucketManager<T> extends AbstractBucketMa
     return bucketSpanInMillis;
   }
 
+  /**
+   * Sets the number of buckets following a requested bucket which are loaded along with it. Events mostly arrive in
+   * time order, so the next buckets are likely to be requested soon.
+   *
+   * @param prefetchBuckets number of buckets to load ahead.
+   */
+  public void setPrefetchBuckets(int prefetchBuckets)
+  {
+    this.prefetchBuckets = prefetchBuckets;
+  }
+
+  /**
+   * Gets the number of buckets following a requested bucket which are loaded along with it.
+   *
+   * @return prefetchBuckets
+   */
+  public int getPrefetchBuckets()
+  {
+    return prefetchBuckets;
+  }
+
   @Deprecated
   @Override
   public AbstractTimeBasedBucketManager<T> cloneWithProperties()
@@ -148,6 +171,7 @@ public abstract class AbstractTimeBasedBucketManager<T> extends AbstractBucketMa
     if (bucketStore != null) {
       bucketStore.setNoOfBuckets(noOfBuckets);
       bucketStore.setWriteEventKeysOnly(writeEventKeysOnly);
+      bucketStore.setEventKeyType(eventKeyType);
     }
     maxTimesPerBuckets = new Long[noOfBuckets];
   }
@@ -183,12 +207,17 @@ public abstract class AbstractTimeBasedBucketManager<T> extends AbstractBucketMa
             bucketCounters.getCounter(CounterKeys.LOW).setValue(expiryTime);
           }
         }
+        //the expiry changes the store like the loads
+        loadLock.readLock().lock();
         try {
           ((BucketStore.ExpirableBucketStore<T>) bucketStore).deleteExpiredBuckets(time);
         }
         catch (IOException e) {
           throw new RuntimeException(e);
         }
+        finally {
+          loadLock.readLock().unlock();
+        }
       }
 
     }, bucketSpanInMillis, bucketSpanInMillis);
@@ -222,6 +251,26 @@ public abstract class AbstractTimeBasedBucketManager<T> extends AbstractBucketMa
     return key;
   }
 
+  @Override
+  public void loadBucketData(long bucketKey)
+  {
+    super.loadBucketData(bucketKey);
+    if (prefetchBuckets == 0 || bucketKey < 0) {
+      return;
+    }
+    long maxKey;
+    synchronized (lock) {
+      //buckets beyond the end would replace live buckets at the same index
+      maxKey = (endOBucketsInMillis - startOfBucketsInMillis) / bucketSpanInMillis;
+    }
+    for (long key = bucketKey + 1; key <= Math.min(bucketKey + prefetchBuckets, maxKey); key++) {
+      AbstractBucket<T> bucket = buckets[(int) (key % noOfBuckets)];
+      if (bucket == null || bucket.bucketKey != key || !bucket.isDataOnDiskLoaded()) {
+        super.loadBucketData(key);
+      }
+    }
+  }
+
   @Override
   public void shutdownService()
   {
@@ -281,7 +330,7 @@ public abstract class AbstractTimeBasedBucketManager<T> extends AbstractBucketMa
     AbstractBucket<T> bucket = buckets[bucketIdx];
 
     if (bucket == null || bucket.bucketKey != bucketKey) {
-      bucket = createBucket(bucketKey);
+      bucket = newBucket(bucketKey);
       buckets[bucketIdx] = bucket;
       dirtyBuckets.put(bucketIdx, bucket);
     }
@@ -289,7 +338,11 @@ public abstract class AbstractTimeBasedBucketManager<T> extends AbstractBucketMa
       dirtyBuckets.put(bucketIdx, bucket);
     }
 
-    bucket.addNewEvent(bucket.getEventKey(event), writeEventKeysOnly ? null : event);
+    Object eventKey = bucket.getEventKey(event);
+    bucket.addNewEvent(eventKey, writeEventKeysOnly ? null : event);
+    if (expectedEventsPerBucket > 0) {
+      updateFilter(bucketIdx, bucket, eventKey);
+    }
     bucketCounters.getCounter(BucketManager.CounterKeys.EVENTS_IN_MEMORY).increment();
 
     Long max = maxTimesPerBuckets[bucketIdx];
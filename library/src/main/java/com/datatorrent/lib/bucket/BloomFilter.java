@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2014 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.bucket;
+
+import com.datatorrent.common.util.Slice;
+
+/**
+ * Bloom filter over the event keys of a bucket.<br/>
+ * The filter answers whether an event key may be present in the bucket without loading the bucket from the
+ * {@link BucketStore}. Event keys are hashed by their {@link Object#hashCode()}, the same hash which is used to
+ * partition the events. Byte keys, like the keys of the HDHT data files, are hashed with {@link #hash(Slice)} and
+ * added with {@link #addHash(long)}.
+ * <p>
+ * The probe positions are derived by double hashing from the low and the high half of a 64 bit hash of the key, so
+ * that the second hash is independent of the first.
+ * </p>
+ */
+public class BloomFilter
+{
+  private static final double LN2 = Math.log(2);
+
+  public final long bucketKey;
+  private long[] bits;
+  private int numBits;
+  private int numHashes;
+  private int size;
+
+  @SuppressWarnings("unused")
+  private BloomFilter()
+  {
+    //for kryo
+    bucketKey = -1L;
+  }
+
+  /**
+   * @param bucketKey                 key of the bucket.
+   * @param expectedInsertions        expected number of event keys in the bucket.
+   * @param falsePositiveProbability  false positive probability when the expected number of keys is inserted.
+   */
+  public BloomFilter(long bucketKey, int expectedInsertions, double falsePositiveProbability)
+  {
+    this.bucketKey = bucketKey;
+    int n = Math.max(1, expectedInsertions);
+    numBits = (int)Math.max(64, Math.min(Integer.MAX_VALUE - 63, (long)(-n * Math.log(falsePositiveProbability) / (LN2 * LN2))));
+    numHashes = Math.max(1, (int)Math.round((double)numBits / n * LN2));
+    bits = new long[(numBits + 63) >>> 6];
+  }
+
+  private BloomFilter(int numBits, int numHashes, long bucketKey)
+  {
+    this.bucketKey = bucketKey;
+    this.numBits = numBits;
+    this.numHashes = numHashes;
+    bits = new long[(numBits + 63) >>> 6];
+  }
+
+  /**
+   * Creates a filter for the given key hashes.
+   *
+   * @param bucketKey   key of the bucket.
+   * @param hashes      key hashes, computed with {@link #hash(Slice)}.
+   * @param count       number of valid entries in hashes.
+   * @param bitsPerKey  number of bits per key, 10 bits yield a false positive probability of about 1%.
+   * @return The filter.
+   */
+  public static BloomFilter create(long bucketKey, long[] hashes, int count, int bitsPerKey)
+  {
+    int numBits = (int)Math.max(64, Math.min(Integer.MAX_VALUE - 63, (long)count * bitsPerKey));
+    int numHashes = Math.max(1, Math.min(30, (int)Math.round(bitsPerKey * LN2)));
+    BloomFilter filter = new BloomFilter(numBits, numHashes, bucketKey);
+    for (int i = 0; i < count; i++) {
+      filter.addHash(hashes[i]);
+    }
+    return filter;
+  }
+
+  public void add(Object eventKey)
+  {
+    addHash(hash(eventKey.hashCode()));
+  }
+
+  /**
+   * @param eventKey event key.
+   * @return false if the key is definitely not in the bucket; true if it may be.
+   */
+  public boolean mightContain(Object eventKey)
+  {
+    return mightContainHash(hash(eventKey.hashCode()));
+  }
+
+  /**
+   * Adds a key by its 64 bit hash.
+   *
+   * @param hash hash of the key, computed with {@link #hash(Slice)}.
+   */
+  public void addHash(long hash)
+  {
+    int h1 = (int)hash;
+    int h2 = (int)(hash >>> 32) | 1;
+    for (int i = 0; i < numHashes; i++) {
+      int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+      bits[bit >>> 6] |= 1L << bit;
+    }
+    size++;
+  }
+
+  /**
+   * @param hash hash of the key, computed with {@link #hash(Slice)}.
+   * @return false if the key is definitely not in the filter; true if it may be.
+   */
+  public boolean mightContainHash(long hash)
+  {
+    int h1 = (int)hash;
+    int h2 = (int)(hash >>> 32) | 1;
+    for (int i = 0; i < numHashes; i++) {
+      int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+      if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return number of keys added to the filter.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * @return estimated false positive probability for the number of keys added.
+   */
+  public double getFalsePositiveProbability()
+  {
+    return Math.pow(1 - Math.exp(-(double)numHashes * size / numBits), numHashes);
+  }
+
+  /**
+   * 64 bit hash of the key bytes (FNV-1a with murmur3 finalizer).
+   *
+   * @param key key bytes.
+   * @return The hash.
+   */
+  public static long hash(Slice key)
+  {
+    long h = 0xcbf29ce484222325L;
+    for (int i = key.offset; i < key.offset + key.length; i++) {
+      h ^= key.buffer[i] & 0xff;
+      h *= 0x100000001b3L;
+    }
+    return mix(h);
+  }
+
+  /* spread the hash code over 64 bits, as key hash codes are often sequential */
+  private static long hash(int hashCode)
+  {
+    return mix((hashCode & 0xffffffffL) * 0x9e3779b97f4a7c15L);
+  }
+
+  /* murmur3 finalizer */
+  private static long mix(long h)
+  {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "BloomFilter{bucketKey=" + bucketKey + ", numBits=" + numBits + ", numHashes=" + numHashes + ", size=" + size + '}';
+  }
+
+}
@@ -113,6 +113,24 @@ public interface BucketManager<T> extends Cloneable
    */
   void loadBucketData(long bucketKey);
 
+  /**
+   * Checks the bloom filter of the bucket, which allows to skip loading the bucket for events that are definitely new.
+   *
+   * @param bucketKey key of the bucket.
+   * @param eventKey  event key.
+   * @return false if the event key is definitely not present in the bucket; true if it may be present or the bucket has
+   * no filter.
+   */
+  boolean mightContain(long bucketKey, Object eventKey);
+
+  /**
+   * Returns whether the manager has a bloom filter for the bucket.
+   *
+   * @param bucketKey key of the bucket.
+   * @return true if there is a filter for the bucket; false otherwise.
+   */
+  boolean hasFilter(long bucketKey);
+
   /**
    * Adds the event to the un-written section of the bucket corresponding to the bucket key.
    *
@@ -136,6 +154,29 @@ public interface BucketManager<T> extends Cloneable
    */
   void blockUntilAllRequestsServiced() throws InterruptedException;
 
+  /**
+   * Waits for the bucket loads in progress and holds back further loads until {@link #resumeLoads()}, so that the
+   * store is not changed in the background while the window is saved and checkpointed. The requests which are not
+   * serviced yet remain queued. Invoked by the operator thread.
+   *
+   * @throws InterruptedException
+   */
+  void suspendLoads() throws InterruptedException;
+
+  /**
+   * Resumes the bucket loads which were held back by {@link #suspendLoads()}. Has no effect when the loads are not
+   * suspended.
+   */
+  void resumeLoads();
+
+  /**
+   * Informs the store that a window is committed, so that it can delete the data which is replaced and which
+   * checkpoints no longer refer to.
+   *
+   * @param window committed window.
+   */
+  void committed(long window);
+
   /**
    * Constructs a new {@link BucketManager} with only the settings and not the data.
    *
@@ -191,6 +232,6 @@ public interface BucketManager<T> extends Cloneable
   {
 
     BUCKETS_IN_MEMORY, EVICTED_BUCKETS, DELETED_BUCKETS, EVENTS_COMMITTED_LAST_WINDOW,
-    EVENTS_IN_MEMORY
+    EVENTS_IN_MEMORY, BUCKETS_LOADED, BUCKET_LOAD_TIME, LAST_BUCKET_LOAD_TIME, MAX_BUCKET_LOAD_TIME, LOAD_QUEUE_DEPTH
   }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Bucket store API.<br/>
@@ -55,6 +56,14 @@ public interface BucketStore<T> extends Cloneable
    */
   void deleteBucket(int bucketIdx) throws IOException;
 
+  /**
+   * Deletes the data which the checkpoints since the given window no longer refer to. Data which is replaced in the
+   * store must not be deleted earlier, since recovery may restore a state that refers to it.
+   *
+   * @param window committed window.
+   */
+  void committed(long window) throws IOException;
+
   /**
    * Fetches events of the bucket corresponding to the bucket index from the store.
    *
@@ -78,6 +87,15 @@ public interface BucketStore<T> extends Cloneable
    * @param writeEventKeysOnly
    */
   void setWriteEventKeysOnly(boolean writeEventKeysOnly);
+
+  /**
+   * Sets the type of the event keys when only event keys are written. The keys are then kept in
+   * {@link FixedWidthKeyMap} and written in a compact binary format. null keeps the keys in hash maps and serializes
+   * them with kryo.
+   *
+   * @param eventKeyType type of the event keys.
+   */
+  void setEventKeyType(@Nullable FixedWidthKeyMap.KeyType eventKeyType);
   BucketStore<T> clone() throws CloneNotSupportedException;
 
   public interface ExpirableBucketStore<T> extends BucketStore<T>
@@ -18,13 +18,15 @@ package com.datatorrent.lib.bucket;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+
 /**
  * <p>ExpirableHdfsBucketStore class.</p>
  *
@@ -34,43 +36,45 @@ import org.slf4j.LoggerFactory;
 public class ExpirableHdfsBucketStore<T> extends HdfsBucketStore<T> implements BucketStore.ExpirableBucketStore<T>
 {
 
-  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
   @Override
   public void deleteExpiredBuckets(long time) throws IOException
   {
-    Iterator<Long> iterator = windowToBuckets.keySet().iterator();
-    for (; iterator.hasNext(); ) {
-      long window = iterator.next();
-      long timestamp= windowToTimestamp.get(window);
-      if (timestamp < time) {
-        Collection<Integer> indices = windowToBuckets.get(window);
-        synchronized (indices) {
+    List<Path> files = Lists.newArrayList();
+    synchronized (lock) {
+      Iterator<Long> iterator = windowToBuckets.keySet().iterator();
+      for (; iterator.hasNext(); ) {
+        long window = iterator.next();
+        long timestamp = windowToTimestamp.get(window);
+        if (timestamp < time) {
+          Collection<Integer> indices = windowToBuckets.get(window);
           if (indices.size() > 0) {
-            Path dataFilePath = new Path(bucketRoot + PATH_SEPARATOR + window);
-            FileSystem fs = FileSystem.newInstance(dataFilePath.toUri(), configuration);
-            try {
-              if (fs.exists(dataFilePath)) {
-                logger.debug("start delete {}", window);
-                fs.delete(dataFilePath, true);
-                logger.debug("end delete {}", window);
-              }
-              for (int bucketIdx : indices) {
-                Map<Long, Long> offsetMap = bucketPositions[bucketIdx];
-                if (offsetMap != null) {
-                  synchronized (offsetMap) {
-                    offsetMap.remove(window);
-                  }
-                }
+            files.add(new Path(bucketRoot + PATH_SEPARATOR + window));
+            for (int bucketIdx : indices) {
+              Map<Long, Long> offsetMap = bucketPositions[bucketIdx];
+              if (offsetMap != null) {
+                offsetMap.remove(window);
               }
             }
-            finally {
-              fs.close();
-            }
           }
           windowToTimestamp.remove(window);
           iterator.remove();
         }
       }
+      //compacted files expire with the most recent window merged into them, the checkpoints before refer to them
+      Iterator<Map.Entry<Integer, CompactedSegment>> segments = compactedSegments.entrySet().iterator();
+      while (segments.hasNext()) {
+        Map.Entry<Integer, CompactedSegment> entry = segments.next();
+        if (entry.getValue().timestamp < time) {
+          logger.debug("expire compacted bucket {}", entry.getKey());
+          deleteOnCommit(getCompactedFilePath(entry.getKey(), entry.getValue().window));
+          segments.remove();
+        }
+      }
+    }
+    for (Path file : files) {
+      logger.debug("start delete {}", file);
+      deleteFile(file);
+      logger.debug("end delete {}", file);
     }
   }
 
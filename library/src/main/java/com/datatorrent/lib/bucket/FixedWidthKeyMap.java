@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.bucket;
+
+import java.util.*;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+
+/**
+ * Map of bucket events for {@link AbstractBucketManager#setWriteEventKeysOnly(boolean)}, which stores fixed width event
+ * keys in open addressing arrays of primitive longs instead of boxed keys in hash map entries.<br/>
+ * The map only holds keys: values are always null. Keys are boxed only when the map is iterated.
+ *
+ * @param <T> type of bucket events
+ */
+@DefaultSerializer(FieldSerializer.class)
+public class FixedWidthKeyMap<T> extends AbstractMap<Object, T>
+{
+  private static final int MIN_CAPACITY = 16;
+
+  /**
+   * Supported event key types.
+   */
+  public static enum KeyType
+  {
+    /**
+     * {@link Long} keys.
+     */
+    LONG(1),
+    /**
+     * {@link java.util.UUID} keys.
+     */
+    UUID(2);
+
+    /* number of longs per key */
+    final int width;
+
+    KeyType(int width)
+    {
+      this.width = width;
+    }
+
+    boolean isInstance(Object key)
+    {
+      return this == LONG ? key instanceof Long : key instanceof java.util.UUID;
+    }
+
+    long high(Object key)
+    {
+      return this == LONG ? (Long)key : ((java.util.UUID)key).getMostSignificantBits();
+    }
+
+    long low(Object key)
+    {
+      return this == LONG ? 0 : ((java.util.UUID)key).getLeastSignificantBits();
+    }
+
+    /**
+     * Same as {@link Object#hashCode()} of the boxed key, which partitions the events.
+     */
+    int hashCode(long high, long low)
+    {
+      if (this == LONG) {
+        return (int)(high ^ (high >>> 32));
+      }
+      long hilo = high ^ low;
+      return ((int)(hilo >> 32)) ^ (int)hilo;
+    }
+
+    Object toKey(long high, long low)
+    {
+      return this == LONG ? (Object)high : new java.util.UUID(high, low);
+    }
+  }
+
+  private KeyType keyType;
+  private long[] keys;
+  /* occupied slots, one bit per slot */
+  private long[] used;
+  private int capacity;
+  private int size;
+
+  @SuppressWarnings("unused")
+  private FixedWidthKeyMap()
+  {
+    //for kryo
+  }
+
+  public FixedWidthKeyMap(KeyType keyType)
+  {
+    this(keyType, MIN_CAPACITY);
+  }
+
+  public FixedWidthKeyMap(KeyType keyType, int expectedSize)
+  {
+    this.keyType = keyType;
+    allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize * 4 / 3)) << 1));
+  }
+
+  private void allocate(int capacity)
+  {
+    this.capacity = capacity;
+    keys = new long[capacity * keyType.width];
+    used = new long[(capacity + 63) >>> 6];
+  }
+
+  public KeyType getKeyType()
+  {
+    return keyType;
+  }
+
+  /**
+   * Adds the key.
+   *
+   * @param high key, or the most significant bits of an {@link UUID} key.
+   * @param low  0, or the least significant bits of an {@link UUID} key.
+   * @return true if the key was added; false if it was present.
+   */
+  public boolean add(long high, long low)
+  {
+    if ((size + 1) * 4L > capacity * 3L) {
+      resize();
+    }
+    int slot = find(high, low);
+    if (slot >= 0) {
+      return false;
+    }
+    slot = -slot - 1;
+    set(slot, high, low);
+    size++;
+    return true;
+  }
+
+  /**
+   * @param high key, or the most significant bits of an {@link UUID} key.
+   * @param low  0, or the least significant bits of an {@link UUID} key.
+   * @return true if the map contains the key.
+   */
+  public boolean contains(long high, long low)
+  {
+    return find(high, low) >= 0;
+  }
+
+  /**
+   * @return the slot of the key if present; otherwise -(free slot + 1).
+   */
+  private int find(long high, long low)
+  {
+    int mask = capacity - 1;
+    int slot = hash(high, low) & mask;
+    while (isUsed(slot)) {
+      int i = slot * keyType.width;
+      if (keys[i] == high && (keyType.width == 1 || keys[i + 1] == low)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -slot - 1;
+  }
+
+  private void set(int slot, long high, long low)
+  {
+    int i = slot * keyType.width;
+    keys[i] = high;
+    if (keyType.width == 2) {
+      keys[i + 1] = low;
+    }
+    used[slot >>> 6] |= 1L << slot;
+  }
+
+  private boolean isUsed(int slot)
+  {
+    return (used[slot >>> 6] & (1L << slot)) != 0;
+  }
+
+  private void resize()
+  {
+    long[] oldKeys = keys;
+    long[] oldUsed = used;
+    int oldCapacity = capacity;
+    allocate(capacity << 1);
+    for (int slot = 0; slot < oldCapacity; slot++) {
+      if ((oldUsed[slot >>> 6] & (1L << slot)) != 0) {
+        int i = slot * keyType.width;
+        long high = oldKeys[i];
+        long low = keyType.width == 2 ? oldKeys[i + 1] : 0;
+        set(-find(high, low) - 1, high, low);
+      }
+    }
+  }
+
+  private static int hash(long high, long low)
+  {
+    long h = (high ^ (low * 0x9e3779b97f4a7c15L)) * 0xc2b2ae3d27d4eb4fL;
+    return (int)(h ^ (h >>> 32));
+  }
+
+  @Override
+  public T put(Object key, T value)
+  {
+    if (value != null) {
+      throw new IllegalArgumentException("only event keys are stored");
+    }
+    add(keyType.high(key), keyType.low(key));
+    return null;
+  }
+
+  @Override
+  public void putAll(Map<? extends Object, ? extends T> m)
+  {
+    if (m instanceof FixedWidthKeyMap && ((FixedWidthKeyMap<?>)m).keyType == keyType) {
+      //copy without boxing
+      FixedWidthKeyMap<?> other = (FixedWidthKeyMap<?>)m;
+      for (int slot = 0; slot < other.capacity; slot++) {
+        if (other.isUsed(slot)) {
+          int i = slot * keyType.width;
+          add(other.keys[i], keyType.width == 2 ? other.keys[i + 1] : 0);
+        }
+      }
+    }
+    else {
+      super.putAll(m);
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key)
+  {
+    return keyType.isInstance(key) && contains(keyType.high(key), keyType.low(key));
+  }
+
+  @Override
+  public T get(Object key)
+  {
+    return null;
+  }
+
+  @Override
+  public int size()
+  {
+    return size;
+  }
+
+  @Override
+  public void clear()
+  {
+    Arrays.fill(used, 0);
+    size = 0;
+  }
+
+  @Override
+  public Set<Entry<Object, T>> entrySet()
+  {
+    return new AbstractSet<Entry<Object, T>>()
+    {
+      @Override
+      public Iterator<Entry<Object, T>> iterator()
+      {
+        return new Iterator<Entry<Object, T>>()
+        {
+          int slot = next(0);
+
+          private int next(int from)
+          {
+            while (from < capacity && !isUsed(from)) {
+              from++;
+            }
+            return from;
+          }
+
+          @Override
+          public boolean hasNext()
+          {
+            return slot < capacity;
+          }
+
+          @Override
+          public Entry<Object, T> next()
+          {
+            if (slot >= capacity) {
+              throw new NoSuchElementException();
+            }
+            int i = slot * keyType.width;
+            Object key = keyType.toKey(keys[i], keyType.width == 2 ? keys[i + 1] : 0);
+            slot = next(slot + 1);
+            return new SimpleImmutableEntry<Object, T>(key, null);
+          }
+
+          @Override
+          public void remove()
+          {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override
+      public int size()
+      {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Heap used by the keys, excluding the object headers.
+   *
+   * @return number of bytes.
+   */
+  public long getMemoryUsage()
+  {
+    return keys.length * 8L + used.length * 8L;
+  }
+
+}
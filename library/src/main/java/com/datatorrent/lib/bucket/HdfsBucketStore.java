@@ -42,7 +42,20 @@ import com.datatorrent.common.util.NameableThreadFactory;
 
 /**
  * {@link BucketStore} which works with HDFS.<br/>
- * The path of buckets in hdfs is <code>{application-path}/buckets/{operatorId}/{windowId}</code>.
+ * The path of buckets in hdfs is <code>{application-path}/buckets/{operatorId}/{windowId}</code>.<br/>
+ * <br/>
+ * When {@link #setCompactionThreshold(int) compaction} is enabled, the window segments of a bucket are merged in the
+ * background into a single file per bucket, <code>{application-path}/buckets/{operatorId}/compacted/{bucketIdx}-{windowId}</code>,
+ * so that loading the bucket reads one file plus the windows written after the compaction. The merged window files and
+ * the previous compacted file are deleted only when a window stored after the compaction is {@link #committed(long)
+ * committed}, because the checkpoints before it still refer to them.<br/>
+ * <br/>
+ * When only event keys are written and the {@link #setEventKeyType(FixedWidthKeyMap.KeyType) key type} is set, a bucket
+ * segment is the number of keys followed by the keys as 8 or 16 bytes each.<br/>
+ * <br/>
+ * Buckets are fetched and deleted by the loader threads of the bucket manager while the operator thread stores the
+ * windows, so the positions of the buckets, the windows and the compacted files are guarded by a single lock. Files are
+ * read, written and deleted outside of the lock.
  *
  * @param <T> type of bucket event
  * @since 0.9.4
@@ -57,9 +70,11 @@ public class HdfsBucketStore<T> implements BucketStore<T>
   public static transient int DEF_KEEP_ALIVE_SECONDS = 120;
 
   static transient final String PATH_SEPARATOR = "/";
+  static transient final String COMPACTED_DIR = "compacted";
 
   //Check-pointed
   private boolean writeEventKeysOnly;
+  protected FixedWidthKeyMap.KeyType eventKeyType;
   @Min(1)
   protected int noOfBuckets;
   protected Map<Long, Long>[] bucketPositions;
@@ -73,8 +88,17 @@ public class HdfsBucketStore<T> implements BucketStore<T>
   protected int interpolatedPoolSize;
   @NotNull
   private String bucketsDir;
+  @Min(0)
+  private int compactionThreshold;
+  protected ConcurrentMap<Integer, CompactedSegment> compactedSegments;
+  /* files which are no longer referenced, by the first window stored after that */
+  protected TreeMap<Long, List<String>> obsoleteFiles;
+  /* files which are no longer referenced, since the last window was stored */
+  protected List<String> unreferencedFiles;
 
   //Non check-pointed
+  /* guards the bucket positions, the windows, the compacted segments and the obsolete files */
+  protected transient final Lock lock;
   protected transient Multimap<Long, Integer> windowToBuckets;
   protected transient String bucketRoot;
   protected transient Configuration configuration;
@@ -84,10 +108,17 @@ public class HdfsBucketStore<T> implements BucketStore<T>
   protected transient int partitionMask;
   protected transient int operatorId;
   protected transient ThreadPoolExecutor threadPoolExecutor;
+  protected transient ExecutorService compactionExecutor;
+  protected transient Set<Integer> pendingCompactions;
+  protected transient ConcurrentMap<Integer, Compaction> completedCompactions;
 
   public HdfsBucketStore()
   {
+    lock = new Lock();
     windowToTimestamp = Maps.newHashMap();
+    compactedSegments = Maps.newConcurrentMap();
+    obsoleteFiles = Maps.newTreeMap();
+    unreferencedFiles = Lists.newArrayList();
     corePoolSize = DEF_CORE_POOL_SIZE;
     maximumPoolSize = -1;
     interpolatedPoolSize = -1;
@@ -109,6 +140,12 @@ public class HdfsBucketStore<T> implements BucketStore<T>
     this.writeEventKeysOnly = writeEventKeysOnly;
   }
 
+  @Override
+  public void setEventKeyType(FixedWidthKeyMap.KeyType eventKeyType)
+  {
+    this.eventKeyType = eventKeyType;
+  }
+
   public void setCorePoolSize(int corePoolSize)
   {
     this.corePoolSize = corePoolSize;
@@ -134,6 +171,23 @@ public class HdfsBucketStore<T> implements BucketStore<T>
     this.bucketsDir = bucketsDir;
   }
 
+  /**
+   * Sets the number of window segments of a bucket that triggers a background compaction of the bucket into a single
+   * file. Values of the most recent window win. The compacted file expires when all windows merged into it have
+   * expired. 0 disables compaction (default).
+   *
+   * @param compactionThreshold number of window segments.
+   */
+  public void setCompactionThreshold(int compactionThreshold)
+  {
+    this.compactionThreshold = compactionThreshold;
+  }
+
+  public int getCompactionThreshold()
+  {
+    return compactionThreshold;
+  }
+
   public void setConfiguration(int operatorId, String applicationPath, Set<Integer> partitionKeys, int partitionMask)
   {
     Preconditions.checkNotNull(applicationPath);
@@ -176,6 +230,11 @@ public class HdfsBucketStore<T> implements BucketStore<T>
       threadPoolExecutor = new ThreadPoolExecutor(corePoolSize, maximumPoolSize, keepAliveSeconds, TimeUnit.SECONDS, queue, threadFactory);
     }
     logger.debug("threadpool settings {} {} {}", threadPoolExecutor.getCorePoolSize(), threadPoolExecutor.getMaximumPoolSize(), keepAliveSeconds);
+    pendingCompactions = Collections.newSetFromMap(Maps.<Integer, Boolean>newConcurrentMap());
+    completedCompactions = Maps.newConcurrentMap();
+    if (compactionThreshold > 0) {
+      compactionExecutor = Executors.newSingleThreadExecutor(new NameableThreadFactory("BucketCompaction"));
+    }
   }
 
   /**
@@ -186,6 +245,9 @@ public class HdfsBucketStore<T> implements BucketStore<T>
   {
     //Not closing the filesystem.
     threadPoolExecutor.shutdown();
+    if (compactionExecutor != null) {
+      compactionExecutor.shutdownNow();
+    }
     configuration.clear();
   }
 
@@ -200,6 +262,7 @@ public class HdfsBucketStore<T> implements BucketStore<T>
     FileSystem fs = FileSystem.newInstance(dataFilePath.toUri(), configuration);
     FSDataOutputStream dataStream = fs.create(dataFilePath);
 
+    Map<Integer, Long> offsets = Maps.newHashMap();
     Output output = new Output(dataStream);
     try {
       long offset = 0;
@@ -215,75 +278,317 @@ public class HdfsBucketStore<T> implements BucketStore<T>
             eventClass = lEventClass;
           }
         }
-        //Write the size of data and then data
-        dataStream.writeInt(bucketData.size());
-        for (Map.Entry<Object, T> entry : bucketData.entrySet()) {
-          writeSerde.writeObject(output, entry.getKey());
+        writeSegment(writeSerde, dataStream, output, bucketData);
+        offsets.put(bucketIdx, offset);
+        offset = dataStream.getPos();
+      }
+    }
+    finally {
+      output.close();
+      dataStream.close();
+      fs.close();
+    }
 
-          if (!writeEventKeysOnly) {
-            int posLength = output.position();
-            output.writeInt(0); //temporary place holder
-            writeSerde.writeObject(output, entry.getValue());
-            int posValue = output.position();
-            int valueLength = posValue - posLength - 4;
-            output.setPosition(posLength);
-            output.writeInt(valueLength);
-            output.setPosition(posValue);
-          }
-        }
-        output.flush();
+    synchronized (lock) {
+      for (Map.Entry<Integer, Long> entry : offsets.entrySet()) {
+        int bucketIdx = entry.getKey();
         if (bucketPositions[bucketIdx] == null) {
           bucketPositions[bucketIdx] = Maps.newHashMap();
         }
+        bucketPositions[bucketIdx].put(window, entry.getValue());
         windowToBuckets.put(window, bucketIdx);
         windowToTimestamp.put(window, timestamp);
-        synchronized (bucketPositions[bucketIdx]) {
-          bucketPositions[bucketIdx].put(window, offset);
+      }
+      //the checkpoint of this window is the first one which does not refer to these files
+      if (!unreferencedFiles.isEmpty()) {
+        obsoleteFiles.put(window, unreferencedFiles);
+        unreferencedFiles = Lists.newArrayList();
+      }
+    }
+    if (compactionExecutor != null) {
+      for (int bucketIdx : data.keySet()) {
+        scheduleCompaction(bucketIdx);
+      }
+    }
+  }
+
+  /**
+   * Writes the size of data and then data.
+   */
+  private void writeSegment(Kryo serde, FSDataOutputStream dataStream, Output output, Map<Object, T> bucketData) throws IOException
+  {
+    dataStream.writeInt(bucketData.size());
+    if (isFixedWidthKeys()) {
+      for (Object key : bucketData.keySet()) {
+        output.writeLong(eventKeyType.high(key));
+        if (eventKeyType.width == 2) {
+          output.writeLong(eventKeyType.low(key));
+        }
+      }
+      output.flush();
+      return;
+    }
+    for (Map.Entry<Object, T> entry : bucketData.entrySet()) {
+      serde.writeObject(output, entry.getKey());
+
+      if (!writeEventKeysOnly) {
+        int posLength = output.position();
+        output.writeInt(0); //temporary place holder
+        serde.writeObject(output, entry.getValue());
+        int posValue = output.position();
+        int valueLength = posValue - posLength - 4;
+        output.setPosition(posLength);
+        output.writeInt(valueLength);
+        output.setPosition(posValue);
+      }
+    }
+    output.flush();
+  }
+
+  /**
+   * Reads the events of one bucket segment.
+   *
+   * @param serde     kryo used for reading.
+   * @param dataFile  window or compacted file.
+   * @param offset    position of the bucket segment in the file.
+   * @param filter    whether to skip the events that do not belong to the partition.
+   * @param bucketData map to which the events are added.
+   */
+  private void readSegment(Kryo serde, Path dataFile, long offset, boolean filter, Map<Object, T> bucketData) throws IOException
+  {
+    FileSystem fs = FileSystem.newInstance(dataFile.toUri(), configuration);
+    try {
+      FSDataInputStream stream = fs.open(dataFile);
+      stream.seek(offset);
+      Input input = new Input(stream);
+
+      int length = stream.readInt();
+
+      if (isFixedWidthKeys()) {
+        for (int i = 0; i < length; i++) {
+          long high = input.readLong();
+          long low = eventKeyType.width == 2 ? input.readLong() : 0;
+          if (filter && !partitionKeys.contains(eventKeyType.hashCode(high, low) & partitionMask)) {
+            continue;
+          }
+          if (bucketData instanceof FixedWidthKeyMap) {
+            ((FixedWidthKeyMap<T>)bucketData).add(high, low);
+          }
+          else {
+            bucketData.put(eventKeyType.toKey(high, low), null);
+          }
+        }
+        input.close();
+        stream.close();
+        return;
+      }
+
+      for (int i = 0; i < length; i++) {
+        Object key = serde.readObject(input, eventKeyClass);
+
+        boolean keyPasses = !filter || partitionKeys.contains(key.hashCode() & partitionMask);
+
+        if (!writeEventKeysOnly) {
+          //if key passes then read the value otherwise skip the value
+          int entrySize = input.readInt();
+          if (keyPasses) {
+            T entry = serde.readObject(input, eventClass);
+            bucketData.put(key, entry);
+          }
+          else {
+            input.skip(entrySize);
+          }
+        }
+        else if (keyPasses) {
+          bucketData.put(key, null);
         }
-        offset = dataStream.getPos();
+      }
+      input.close();
+      stream.close();
+    }
+    finally {
+      fs.close();
+    }
+  }
+
+  private boolean isFixedWidthKeys()
+  {
+    return writeEventKeysOnly && eventKeyType != null;
+  }
+
+  private Map<Object, T> newBucketData()
+  {
+    if (isFixedWidthKeys()) {
+      return new FixedWidthKeyMap<T>(eventKeyType);
+    }
+    return Maps.newHashMap();
+  }
+
+  protected Path getCompactedFilePath(int bucketIdx, long window)
+  {
+    return new Path(bucketRoot + PATH_SEPARATOR + COMPACTED_DIR + PATH_SEPARATOR + bucketIdx + "-" + window);
+  }
+
+  protected void deleteFile(Path dataFilePath) throws IOException
+  {
+    FileSystem fs = FileSystem.newInstance(dataFilePath.toUri(), configuration);
+    try {
+      if (fs.exists(dataFilePath)) {
+        fs.delete(dataFilePath, true);
       }
     }
     finally {
-      output.close();
-      dataStream.close();
       fs.close();
     }
   }
 
+  /**
+   * Schedules the deletion of a file which the current state no longer refers to. The file is deleted when the
+   * checkpoint of the next stored window is committed, since recovery from an earlier checkpoint reads it again.
+   * Invoked with the {@link #lock}.
+   */
+  protected void deleteOnCommit(Path dataFilePath)
+  {
+    unreferencedFiles.add(dataFilePath.toString());
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws java.io.IOException
+   */
+  @Override
+  public void committed(long window) throws IOException
+  {
+    List<String> files = Lists.newArrayList();
+    synchronized (lock) {
+      Iterator<List<String>> iterator = obsoleteFiles.headMap(window, true).values().iterator();
+      while (iterator.hasNext()) {
+        files.addAll(iterator.next());
+        iterator.remove();
+      }
+    }
+    for (String file : files) {
+      logger.debug("delete obsolete {}", file);
+      deleteFile(new Path(file));
+    }
+  }
+
+  /**
+   * Submits the compaction of the bucket when the number of window segments reached the threshold. Invoked in the
+   * operator thread.
+   */
+  private void scheduleCompaction(int bucketIdx)
+  {
+    Map<Long, Long> positions;
+    TreeMap<Long, Long> windows;
+    CompactedSegment previous;
+    long timestamp;
+    synchronized (lock) {
+      positions = bucketPositions[bucketIdx];
+      if (positions == null || positions.size() < compactionThreshold || !pendingCompactions.add(bucketIdx)) {
+        return;
+      }
+      windows = Maps.newTreeMap();
+      windows.putAll(positions);
+      previous = compactedSegments.get(bucketIdx);
+      timestamp = previous != null ? previous.timestamp : Long.MIN_VALUE;
+      for (long window : windows.keySet()) {
+        Long windowTimestamp = windowToTimestamp.get(window);
+        if (windowTimestamp != null) {
+          timestamp = Math.max(timestamp, windowTimestamp);
+        }
+      }
+    }
+    logger.debug("schedule compaction of bucket {} windows {}", bucketIdx, windows.keySet());
+    compactionExecutor.submit(new CompactionTask(bucketIdx, positions, windows, previous, new CompactedSegment(windows.lastKey(), timestamp)));
+  }
+
+  /**
+   * Replaces the merged window segments of the bucket with the compacted file. Invoked before the bucket is fetched or
+   * deleted, so that the compaction is applied by the thread which reads the bucket.
+   */
+  protected void applyCompaction(int bucketIdx) throws IOException
+  {
+    if (completedCompactions == null) {
+      return;
+    }
+    Compaction compaction = completedCompactions.remove(bucketIdx);
+    if (compaction == null) {
+      return;
+    }
+    synchronized (lock) {
+      pendingCompactions.remove(bucketIdx);
+      // the bucket may have been deleted or windows expired while compacting
+      if (bucketPositions[bucketIdx] == compaction.positions && compaction.positions.keySet().containsAll(compaction.windows)
+          && compactedSegments.get(bucketIdx) == compaction.previous) {
+        compactedSegments.put(bucketIdx, compaction.segment);
+        compaction.positions.keySet().removeAll(compaction.windows);
+        if (compaction.previous != null) {
+          deleteOnCommit(getCompactedFilePath(bucketIdx, compaction.previous.window));
+        }
+        for (long window : compaction.windows) {
+          removeWindow(window, bucketIdx, true);
+        }
+        logger.debug("compacted bucket {} windows {}", bucketIdx, compaction.windows);
+        return;
+      }
+    }
+    logger.debug("discard compaction of bucket {}", bucketIdx);
+    deleteFile(getCompactedFilePath(bucketIdx, compaction.segment.window));
+  }
+
+  /**
+   * Removes the bucket from the window. Invoked with the {@link #lock}.
+   *
+   * @param window         window of the bucket segment.
+   * @param bucketIdx      bucket index.
+   * @param deleteOnCommit whether the window file is deleted when the next stored window is committed, otherwise the
+   *                       caller deletes the file.
+   * @return true if no bucket is left in the window.
+   */
+  protected boolean removeWindow(long window, int bucketIdx, boolean deleteOnCommit)
+  {
+    Collection<Integer> indices = windowToBuckets.get(window);
+    if (indices.remove(bucketIdx) && indices.isEmpty()) {
+      windowToBuckets.removeAll(window);
+      windowToTimestamp.remove(window);
+      if (deleteOnCommit) {
+        deleteOnCommit(new Path(bucketRoot + PATH_SEPARATOR + window));
+      }
+      return true;
+    }
+    return false;
+  }
+
   /**
    * {@inheritDoc}
    * @throws java.io.IOException
    */
-  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
   @Override
   public void deleteBucket(int bucketIdx) throws IOException
   {
-    Map<Long, Long> offsetMap = bucketPositions[bucketIdx];
-    if (offsetMap != null) {
-      for (Long window : offsetMap.keySet()) {
-        Collection<Integer> indices = windowToBuckets.get(window);
-        synchronized (indices) {
-          boolean elementRemoved = indices.remove(bucketIdx);
-          if (indices.isEmpty() && elementRemoved) {
-            Path dataFilePath = new Path(bucketRoot + PATH_SEPARATOR + window);
-            FileSystem fs = FileSystem.newInstance(dataFilePath.toUri(), configuration);
-            try {
-              if (fs.exists(dataFilePath)) {
-                logger.debug("start delete {}", window);
-                fs.delete(dataFilePath, true);
-                logger.debug("end delete {}", window);
-              }
-              windowToBuckets.removeAll(window);
-              windowToTimestamp.remove(window);
-            }
-            finally {
-              fs.close();
-            }
+    applyCompaction(bucketIdx);
+    List<Path> files = Lists.newArrayList();
+    synchronized (lock) {
+      CompactedSegment segment = compactedSegments.remove(bucketIdx);
+      if (segment != null) {
+        files.add(getCompactedFilePath(bucketIdx, segment.window));
+      }
+      Map<Long, Long> offsetMap = bucketPositions[bucketIdx];
+      if (offsetMap != null) {
+        for (Long window : offsetMap.keySet()) {
+          if (removeWindow(window, bucketIdx, false)) {
+            files.add(new Path(bucketRoot + PATH_SEPARATOR + window));
           }
         }
       }
+      bucketPositions[bucketIdx] = null;
+    }
+    for (Path file : files) {
+      logger.debug("start delete {}", file);
+      deleteFile(file);
+      logger.debug("end delete {}", file);
     }
-    bucketPositions[bucketIdx] = null;
   }
 
   /**
@@ -294,32 +599,45 @@ public class HdfsBucketStore<T> implements BucketStore<T>
   @Nonnull
   public Map<Object, T> fetchBucket(int bucketIdx) throws Exception
   {
-    Map<Object, T> bucketData = Maps.newHashMap();
-
-    if (bucketPositions[bucketIdx] == null) {
-      return bucketData;
+    Map<Object, T> bucketData = newBucketData();
+
+    applyCompaction(bucketIdx);
+    Map<Long, Long> windows;
+    CompactedSegment segment;
+    synchronized (lock) {
+      if (bucketPositions[bucketIdx] == null) {
+        return bucketData;
+      }
+      windows = Maps.newHashMap(bucketPositions[bucketIdx]);
+      segment = compactedSegments.get(bucketIdx);
     }
 
     logger.debug("start fetch bucket {}", bucketIdx);
 
     long startTime = System.currentTimeMillis();
-    Set<Long> windows = bucketPositions[bucketIdx].keySet();
-    int numWindows = windows.size();
-    if (maximumPoolSize == -1 && interpolatedPoolSize < numWindows && interpolatedPoolSize < hardLimitOnPoolSize) {
-      int diff = numWindows - interpolatedPoolSize;
-      if (interpolatedPoolSize + diff <= hardLimitOnPoolSize) {
-        interpolatedPoolSize += diff;
-      }
-      else {
-        interpolatedPoolSize = hardLimitOnPoolSize;
+    int numWindows = windows.size() + (segment != null ? 1 : 0);
+    //buckets may be fetched by several loader threads
+    synchronized (threadPoolExecutor) {
+      if (maximumPoolSize == -1 && interpolatedPoolSize < numWindows && interpolatedPoolSize < hardLimitOnPoolSize) {
+        int diff = numWindows - interpolatedPoolSize;
+        if (interpolatedPoolSize + diff <= hardLimitOnPoolSize) {
+          interpolatedPoolSize += diff;
+        }
+        else {
+          interpolatedPoolSize = hardLimitOnPoolSize;
+        }
+        logger.debug("interpolated pool size {}", interpolatedPoolSize);
+        threadPoolExecutor.setMaximumPoolSize(interpolatedPoolSize);
       }
-      logger.debug("interpolated pool size {}", interpolatedPoolSize);
-      threadPoolExecutor.setMaximumPoolSize(interpolatedPoolSize);
     }
 
     List<Future<Exchange<T>>> futures = Lists.newArrayList();
-    for (long window : windows) {
-      futures.add(threadPoolExecutor.submit(new BucketFetchCallable(bucketIdx, window)));
+    if (segment != null) {
+      // windows that remain in the bucket are more recent than the compacted windows
+      futures.add(threadPoolExecutor.submit(new BucketFetchCallable(segment.window, getCompactedFilePath(bucketIdx, segment.window), 0)));
+    }
+    for (Map.Entry<Long, Long> window : windows.entrySet()) {
+      futures.add(threadPoolExecutor.submit(new BucketFetchCallable(window.getKey(), new Path(bucketRoot + PATH_SEPARATOR + window.getKey()), window.getValue())));
     }
 
     if (writeEventKeysOnly) {
@@ -401,12 +719,14 @@ public class HdfsBucketStore<T> implements BucketStore<T>
   {
 
     final long window;
-    final int bucketIdx;
+    final Path dataFile;
+    final long offset;
 
-    BucketFetchCallable(int bucketIdx, long window)
+    BucketFetchCallable(long window, Path dataFile, long offset)
     {
-      this.bucketIdx = bucketIdx;
       this.window = window;
+      this.dataFile = dataFile;
+      this.offset = offset;
     }
 
     @Override
@@ -415,45 +735,112 @@ public class HdfsBucketStore<T> implements BucketStore<T>
       Kryo readSerde = new Kryo();
       readSerde.setClassLoader(classLoader);
 
-      Map<Object, T> bucketDataPerWindow = Maps.newHashMap();
-      Path dataFile = new Path(bucketRoot + PATH_SEPARATOR + window);
-      FileSystem fs = FileSystem.newInstance(dataFile.toUri(), configuration);
-      try {
-        //Read data only for the fileIds in which bucketIdx had events.
-        FSDataInputStream stream = fs.open(dataFile);
-        stream.seek(bucketPositions[bucketIdx].get(window));
-        Input input = new Input(stream);
+      Map<Object, T> bucketDataPerWindow = newBucketData();
+      //Read data only for the fileIds in which bucketIdx had events.
+      readSegment(readSerde, dataFile, offset, true, bucketDataPerWindow);
+      return new Exchange<T>(window, bucketDataPerWindow);
+    }
+  }
 
-        int length = stream.readInt();
+  protected static class Lock
+  {
+  }
 
-        for (int i = 0; i < length; i++) {
-          Object key = readSerde.readObject(input, eventKeyClass);
+  /**
+   * Compacted file of a bucket.
+   */
+  protected static class CompactedSegment
+  {
+    /* last window merged into the file */
+    long window;
+    /* max timestamp of the merged windows */
+    long timestamp;
 
-          int partitionKey = key.hashCode() & partitionMask;
-          boolean keyPasses = partitionKeys.contains(partitionKey);
+    @SuppressWarnings("unused")
+    private CompactedSegment()
+    {
+      //for kryo
+    }
 
-          if (!writeEventKeysOnly) {
-            //if key passes then read the value otherwise skip the value
-            int entrySize = input.readInt();
-            if (keyPasses) {
-              T entry = readSerde.readObject(input, eventClass);
-              bucketDataPerWindow.put(key, entry);
-            }
-            else {
-              input.skip(entrySize);
-            }
-          }
-          else if (keyPasses) {
-            bucketDataPerWindow.put(key, null);
-          }
+    CompactedSegment(long window, long timestamp)
+    {
+      this.window = window;
+      this.timestamp = timestamp;
+    }
+  }
+
+  /**
+   * Result of a compaction that is waiting to be applied.
+   */
+  protected static class Compaction
+  {
+    final int bucketIdx;
+    final Map<Long, Long> positions;
+    final Set<Long> windows;
+    final CompactedSegment previous;
+    final CompactedSegment segment;
+
+    Compaction(int bucketIdx, Map<Long, Long> positions, Set<Long> windows, CompactedSegment previous, CompactedSegment segment)
+    {
+      this.bucketIdx = bucketIdx;
+      this.positions = positions;
+      this.windows = windows;
+      this.previous = previous;
+      this.segment = segment;
+    }
+  }
+
+  private class CompactionTask implements Runnable
+  {
+    final int bucketIdx;
+    final Map<Long, Long> positions;
+    final TreeMap<Long, Long> windows;
+    final CompactedSegment previous;
+    final CompactedSegment segment;
+
+    CompactionTask(int bucketIdx, Map<Long, Long> positions, TreeMap<Long, Long> windows, CompactedSegment previous, CompactedSegment segment)
+    {
+      this.bucketIdx = bucketIdx;
+      this.positions = positions;
+      this.windows = windows;
+      this.previous = previous;
+      this.segment = segment;
+    }
+
+    @Override
+    public void run()
+    {
+      try {
+        Kryo serde = new Kryo();
+        serde.setClassLoader(classLoader);
+        // merge in window order, the most recent value of a key wins. Events of all partitions are retained.
+        Map<Object, T> bucketData = newBucketData();
+        if (previous != null) {
+          readSegment(serde, getCompactedFilePath(bucketIdx, previous.window), 0, false, bucketData);
         }
-        input.close();
-        stream.close();
+        for (Map.Entry<Long, Long> window : windows.entrySet()) {
+          readSegment(serde, new Path(bucketRoot + PATH_SEPARATOR + window.getKey()), window.getValue(), false, bucketData);
+        }
+
+        Path dataFilePath = getCompactedFilePath(bucketIdx, segment.window);
+        FileSystem fs = FileSystem.newInstance(dataFilePath.toUri(), configuration);
+        FSDataOutputStream dataStream = fs.create(dataFilePath);
+        Output output = new Output(dataStream);
+        try {
+          writeSegment(serde, dataStream, output, bucketData);
+        }
+        finally {
+          output.close();
+          dataStream.close();
+          fs.close();
+        }
+        completedCompactions.put(bucketIdx, new Compaction(bucketIdx, positions, windows.keySet(), previous, segment));
       }
-      finally {
-        fs.close();
+      catch (Throwable t) {
+        // segments remain in place, compaction is retried with the next window
+        logger.warn("compaction of bucket {} failed", bucketIdx, t);
+        pendingCompactions.remove(bucketIdx);
       }
-      return new Exchange<T>(window, bucketDataPerWindow);
     }
   }
 
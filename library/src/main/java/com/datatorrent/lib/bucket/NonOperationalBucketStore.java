@@ -51,6 +51,11 @@ public class NonOperationalBucketStore<T> implements BucketStore.ExpirableBucket
   {
   }
 
+  @Override
+  public void setEventKeyType(FixedWidthKeyMap.KeyType eventKeyType)
+  {
+  }
+
   @Override
   public void setup()
   {
@@ -82,6 +87,11 @@ public class NonOperationalBucketStore<T> implements BucketStore.ExpirableBucket
   {
   }
 
+  @Override
+  public void committed(long window) throws IOException
+  {
+  }
+
   /**
    * {@inheritDoc}
    * @throws java.lang.Exception
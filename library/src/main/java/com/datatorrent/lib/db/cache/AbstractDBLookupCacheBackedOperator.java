@@ -16,17 +16,26 @@
 package com.datatorrent.lib.db.cache;
 
 import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
 import com.datatorrent.api.Context;
 import com.datatorrent.api.DefaultInputPort;
 import com.datatorrent.api.DefaultOutputPort;
 import com.datatorrent.api.Operator;
 
+import com.datatorrent.common.util.NameableThreadFactory;
+
 import com.datatorrent.lib.db.Connectable;
 import com.datatorrent.lib.util.KeyValPair;
 
@@ -42,6 +51,12 @@ import com.datatorrent.lib.util.KeyValPair;
  * <li>Query to fetch the value of the key from tuple when the value is not present in the cache.</li>
  * </ul>
  * </p>
+ * <p>
+ * When {@link #setAsyncLookups(boolean)} is set, the keys which are not present in the cache are looked up in the
+ * backup store by a separate thread in batches of {@link #getLookupBatchSize()} keys, and the operator thread keeps
+ * processing tuples meanwhile. The key/values are still emitted in the order of the tuples, and all the tuples of a
+ * window are emitted in that window.
+ * </p>
  * @displayName Abstract DB Lookup Cache Backed
  * @category Database
  * @tags cache, key value
@@ -50,12 +65,23 @@ import com.datatorrent.lib.util.KeyValPair;
  * @param <S> type of store
  * @since 0.9.1
  */
-public abstract class AbstractDBLookupCacheBackedOperator<T, S extends Connectable> implements Operator, CacheManager.Backup
+public abstract class AbstractDBLookupCacheBackedOperator<T, S extends Connectable> implements Operator, CacheManager.Backup, Operator.IdleTimeHandler
 {
   @NotNull
   protected S store;
   @NotNull
   protected CacheManager cacheManager;
+  protected boolean asyncLookups;
+  @Min(1)
+  protected int lookupBatchSize = 100;
+
+  private transient long sleepTimeMillis;
+  private transient Context.OperatorContext context;
+  private transient ExecutorService lookupExecutor;
+  /* lookups in the order of the tuples */
+  private transient Queue<Lookup> pendingLookups;
+  /* batch of keys which is not submitted yet */
+  private transient LookupBatch currentBatch;
 
   protected AbstractDBLookupCacheBackedOperator()
   {
@@ -77,6 +103,10 @@ public abstract class AbstractDBLookupCacheBackedOperator<T, S extends Connectab
   protected void processTuple(T tuple)
   {
     Object key = getKeyFromTuple(tuple);
+    if (asyncLookups) {
+      processTupleAsync(key);
+      return;
+    }
     Object value = cacheManager.get(key);
 
     if (value != null) {
@@ -84,6 +114,94 @@ public abstract class AbstractDBLookupCacheBackedOperator<T, S extends Connectab
     }
   }
 
+  private void processTupleAsync(Object key)
+  {
+    Object value = cacheManager.getIfPresent(key);
+    if (value != null && pendingLookups.isEmpty()) {
+      output.emit(new KeyValPair<Object, Object>(key, value));
+      return;
+    }
+
+    Lookup lookup = new Lookup(key);
+    if (value != null) {
+      lookup.value = value;
+    }
+    else {
+      if (currentBatch == null) {
+        currentBatch = new LookupBatch();
+      }
+      currentBatch.keys.add(key);
+      lookup.batch = currentBatch;
+      if (currentBatch.keys.size() >= lookupBatchSize) {
+        submitCurrentBatch();
+      }
+    }
+    pendingLookups.add(lookup);
+    emitResolvedLookups(false);
+  }
+
+  private void submitCurrentBatch()
+  {
+    if (currentBatch != null) {
+      final List<Object> keys = Lists.newArrayList(currentBatch.keys);
+      currentBatch.keyList = keys;
+      currentBatch.values = lookupExecutor.submit(new Callable<List<Object>>()
+      {
+        @Override
+        public List<Object> call() throws Exception
+        {
+          return cacheManager.loadAll(keys);
+        }
+      });
+      currentBatch = null;
+    }
+  }
+
+  /**
+   * Emits the lookups at the head of the queue which are resolved.
+   *
+   * @param block when true, waits for all the pending lookups to be resolved.
+   * @return number of emitted lookups.
+   */
+  private int emitResolvedLookups(boolean block)
+  {
+    int emitted = 0;
+    Lookup lookup;
+    while ((lookup = pendingLookups.peek()) != null) {
+      if (lookup.batch != null) {
+        if (!block && !lookup.batch.isDone()) {
+          break;
+        }
+        lookup.value = lookup.batch.get(lookup.key);
+        lookup.batch = null;
+      }
+      pendingLookups.poll();
+      if (lookup.value != null) {
+        output.emit(new KeyValPair<Object, Object>(lookup.key, lookup.value));
+      }
+      emitted++;
+    }
+    return emitted;
+  }
+
+  @Override
+  public void handleIdleTime()
+  {
+    if (asyncLookups && !pendingLookups.isEmpty()) {
+      submitCurrentBatch();
+      if (emitResolvedLookups(false) > 0) {
+        return;
+      }
+    }
+    /* nothing to do here, so sleep for a while to avoid busy loop */
+    try {
+      Thread.sleep(sleepTimeMillis);
+    }
+    catch (InterruptedException ie) {
+      throw new RuntimeException(ie);
+    }
+  }
+
   public final transient DefaultOutputPort<KeyValPair<Object, Object>> output = new DefaultOutputPort<KeyValPair<Object, Object>>();
 
   @Override
@@ -95,12 +213,17 @@ public abstract class AbstractDBLookupCacheBackedOperator<T, S extends Connectab
   @Override
   public void endWindow()
   {
-    //Do nothing
+    if (asyncLookups) {
+      submitCurrentBatch();
+      emitResolvedLookups(true);
+    }
+    context.setCounters(cacheManager.getCounters());
   }
 
   @Override
   public void setup(Context.OperatorContext context)
   {
+    this.context = context;
     cacheManager.setBackup(this);
     try {
       cacheManager.initialize();
@@ -108,11 +231,19 @@ public abstract class AbstractDBLookupCacheBackedOperator<T, S extends Connectab
     catch (IOException e) {
       throw new RuntimeException(e);
     }
+    sleepTimeMillis = context.getValue(Context.OperatorContext.SPIN_MILLIS);
+    if (asyncLookups) {
+      pendingLookups = Lists.newLinkedList();
+      lookupExecutor = Executors.newSingleThreadExecutor(new NameableThreadFactory("CacheLookup"));
+    }
   }
 
   @Override
   public void teardown()
   {
+    if (lookupExecutor != null) {
+      lookupExecutor.shutdownNow();
+    }
     try {
       cacheManager.close();
     }
@@ -159,6 +290,36 @@ public abstract class AbstractDBLookupCacheBackedOperator<T, S extends Connectab
     return cacheManager;
   }
 
+  /**
+   * When set, the keys missing in the cache are looked up asynchronously in batches. Default is false.
+   *
+   * @param asyncLookups
+   */
+  public void setAsyncLookups(boolean asyncLookups)
+  {
+    this.asyncLookups = asyncLookups;
+  }
+
+  public boolean isAsyncLookups()
+  {
+    return asyncLookups;
+  }
+
+  /**
+   * Sets the max number of keys which are looked up in the backup store together when {@link #isAsyncLookups()}.
+   *
+   * @param lookupBatchSize max number of keys.
+   */
+  public void setLookupBatchSize(int lookupBatchSize)
+  {
+    this.lookupBatchSize = lookupBatchSize;
+  }
+
+  public int getLookupBatchSize()
+  {
+    return lookupBatchSize;
+  }
+
   /**
    * <br>This operator receives tuples which encapsulates the keys. Concrete classes should
    * provide the implementation to extract a key from a tuple.</br>
@@ -168,6 +329,55 @@ public abstract class AbstractDBLookupCacheBackedOperator<T, S extends Connectab
    */
   protected abstract Object getKeyFromTuple(T tuple);
 
+  private static class Lookup
+  {
+    final Object key;
+    Object value;
+    /* batch which resolves the lookup; null when it is resolved */
+    LookupBatch batch;
+
+    Lookup(Object key)
+    {
+      this.key = key;
+    }
+  }
+
+  private static class LookupBatch
+  {
+    final Set<Object> keys = Sets.newLinkedHashSet();
+    List<Object> keyList;
+    Future<List<Object>> values;
+    Map<Object, Object> results;
+
+    boolean isDone()
+    {
+      return values != null && values.isDone();
+    }
+
+    Object get(Object key)
+    {
+      if (results == null) {
+        List<Object> valueList;
+        try {
+          valueList = values.get();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+          throw new RuntimeException("while looking up keys", e.getCause());
+        }
+        results = Maps.newHashMap();
+        for (int i = 0; i < keyList.size(); i++) {
+          if (valueList.get(i) != null) {
+            results.put(keyList.get(i), valueList.get(i));
+          }
+        }
+      }
+      return results.get(key);
+    }
+  }
+
   private final static Logger LOG = LoggerFactory.getLogger(AbstractDBLookupCacheBackedOperator.class);
 
 }
@@ -18,17 +18,23 @@ package com.datatorrent.lib.db.cache;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
+import org.apache.commons.lang.mutable.MutableLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
+import com.datatorrent.lib.counters.BasicCounters;
 import com.datatorrent.lib.db.KeyValueStore;
 
 /**
@@ -40,7 +46,11 @@ import com.datatorrent.lib.db.KeyValueStore;
  * <p>
  * Typically primary store is faster but has limited size like memory and backup store is slower but unlimited like databases.<br/>
  * Store Manager can also refresh the values of keys at a specified time every day. This time is in format HH:mm:ss Z.<br/>
- * This is not thread-safe.
+ * Alternatively, with {@link #setEntryRefreshIntervalMillis(long)} every key is refreshed individually once that interval
+ * has passed since its value was loaded, so the refresh of the keys is spread over time.<br/>
+ * The hits and misses of the primary store and the loads from the backup store are counted in {@link #getCounters()}.<br/>
+ * The lookups may be done by the operator thread, a lookup thread and the refresh timer at the same time, so the primary
+ * store has to be thread-safe. Calls to the backup store are serialized, a backup store can use a single connection.
  * </p>
  *
  * @since 0.9.2
@@ -52,7 +62,21 @@ public class CacheManager implements Closeable
   @NotNull
   protected Backup backup;
   protected String refreshTime;
+  @Min(0)
+  protected long entryRefreshIntervalMillis;
+  @Min(1)
+  protected int refreshBatchSize = 1000;
   private transient Timer refresher;
+  /* load times of the keys in the order they were loaded */
+  private transient LinkedHashMap<Object, Long> loadTimes;
+  /* the lookups may be done by a thread other than the one which publishes the counters */
+  private final transient AtomicLong primaryHits = new AtomicLong();
+  private final transient AtomicLong primaryMisses = new AtomicLong();
+  private final transient AtomicLong backupLoads = new AtomicLong();
+  private final transient AtomicLong loadTimeNanos = new AtomicLong();
+  private transient BasicCounters<MutableLong> counters;
+  /* guards the calls to the backup store */
+  private final transient Object backupLock = new Object();
 
   public CacheManager()
   {
@@ -63,9 +87,30 @@ public class CacheManager implements Closeable
   {
     primary.connect();
     backup.connect();
+    loadTimes = Maps.newLinkedHashMap();
+    counters = new BasicCounters<MutableLong>(MutableLong.class);
+    for (CounterKeys key : CounterKeys.values()) {
+      counters.setCounter(key, new MutableLong());
+    }
     Map<Object, Object> initialEntries = backup.loadInitialData();
     if (initialEntries != null) {
       primary.putAll(initialEntries);
+      for (Object key : initialEntries.keySet()) {
+        loaded(key);
+      }
+    }
+
+    if (entryRefreshIntervalMillis > 0) {
+      long period = Math.max(1, entryRefreshIntervalMillis / 10);
+      refresher = new Timer("CacheRefresher", true);
+      refresher.schedule(new TimerTask()
+      {
+        @Override
+        public void run()
+        {
+          refreshExpiredEntries();
+        }
+      }, period, period);
     }
 
     if (!Strings.isNullOrEmpty(refreshTime)) {
@@ -89,7 +134,7 @@ public class CacheManager implements Closeable
         {
           List<Object> keysToRefresh = Lists.newArrayList(primary.getKeys());
           if (keysToRefresh.size() > 0) {
-            List<Object> refreshedValues = backup.getAll(keysToRefresh);
+            List<Object> refreshedValues = backupGetAll(keysToRefresh);
             if (refreshedValues != null) {
               for (int i = 0; i < keysToRefresh.size(); i++) {
                 primary.put(keysToRefresh.get(i), refreshedValues.get(i));
@@ -99,7 +144,9 @@ public class CacheManager implements Closeable
         }
       };
 
-      refresher = new Timer();
+      if (refresher == null) {
+        refresher = new Timer();
+      }
       if (initialDelay < 0) {
         refresher.schedule(task, 0);
         timeToRefresh.add(Calendar.DAY_OF_MONTH, 1);
@@ -114,26 +161,210 @@ public class CacheManager implements Closeable
   {
     Object primaryVal = primary.get(key);
     if (primaryVal != null) {
+      primaryHits.incrementAndGet();
       return primaryVal;
     }
+    primaryMisses.incrementAndGet();
 
-    Object backupVal = backup.get(key);
+    Object backupVal;
+    synchronized (backupLock) {
+      long start = System.nanoTime();
+      backupVal = backup.get(key);
+      loadTimeNanos.addAndGet(System.nanoTime() - start);
+    }
+    backupLoads.incrementAndGet();
     if (backupVal != null) {
       primary.put(key, backupVal);
+      loaded(key);
     }
     return backupVal;
   }
 
+  /**
+   * Gets the value of a key from the primary store only. The lookup is counted as a hit or a miss of the primary store,
+   * so a miss should be followed by {@link #loadAll(List)} which does not count the key again.
+   *
+   * @param key key
+   * @return value of the key in the primary store; null if the primary store does not have it.
+   */
+  @Nullable
+  public Object getIfPresent(@Nonnull Object key)
+  {
+    Object value = primary.get(key);
+    if (value != null) {
+      primaryHits.incrementAndGet();
+    }
+    else {
+      primaryMisses.incrementAndGet();
+    }
+    return value;
+  }
+
+  /**
+   * Gets the values of keys from the primary store, and the values of the keys missing in the primary store with one
+   * {@link Backup#getAll(List)} call.
+   *
+   * @param keys keys
+   * @return values in the order of the keys; null for the keys which are not present.
+   */
+  public List<Object> getAll(@Nonnull List<Object> keys)
+  {
+    List<Object> values = primary.getAll(keys);
+    int misses = 0;
+    for (Object value : values) {
+      if (value == null) {
+        misses++;
+      }
+    }
+    primaryHits.addAndGet(keys.size() - misses);
+    primaryMisses.addAndGet(misses);
+    return load(keys, values);
+  }
+
+  /**
+   * Gets the values of keys which were already looked up with {@link #getIfPresent(Object)}. The keys are checked in
+   * the primary store again, since they may have been loaded in the meantime, but only the backup store calls are
+   * counted.
+   *
+   * @param keys keys
+   * @return values in the order of the keys; null for the keys which are not present.
+   */
+  public List<Object> loadAll(@Nonnull List<Object> keys)
+  {
+    return load(keys, primary.getAll(keys));
+  }
+
+  /**
+   * Loads the keys which have no value with one {@link Backup#getAll(List)} call and saves them in the primary store.
+   */
+  private List<Object> load(List<Object> keys, List<Object> values)
+  {
+    List<Object> missingKeys = Lists.newArrayList();
+    for (int i = 0; i < keys.size(); i++) {
+      if (values.get(i) == null) {
+        missingKeys.add(keys.get(i));
+      }
+    }
+    if (missingKeys.isEmpty()) {
+      return values;
+    }
+
+    List<Object> backupValues;
+    synchronized (backupLock) {
+      long start = System.nanoTime();
+      backupValues = backup.getAll(missingKeys);
+      loadTimeNanos.addAndGet(System.nanoTime() - start);
+    }
+    backupLoads.incrementAndGet();
+    for (int i = 0, j = 0; i < keys.size(); i++) {
+      if (values.get(i) == null) {
+        Object backupVal = backupValues.get(j++);
+        if (backupVal != null) {
+          primary.put(keys.get(i), backupVal);
+          loaded(keys.get(i));
+          values.set(i, backupVal);
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Records the load time of a key for {@link #setEntryRefreshIntervalMillis(long)}.
+   */
+  private void loaded(Object key)
+  {
+    if (entryRefreshIntervalMillis > 0) {
+      synchronized (loadTimes) {
+        loadTimes.remove(key);
+        loadTimes.put(key, System.currentTimeMillis());
+      }
+    }
+  }
+
+  /**
+   * Reloads the keys which were loaded more than {@link #entryRefreshIntervalMillis} ago in batches of
+   * {@link #refreshBatchSize}. Keys which are no longer in the primary store are forgotten.
+   */
+  protected void refreshExpiredEntries()
+  {
+    long expiryTime = System.currentTimeMillis() - entryRefreshIntervalMillis;
+    while (true) {
+      List<Object> keysToRefresh = Lists.newArrayList();
+      synchronized (loadTimes) {
+        Iterator<Map.Entry<Object, Long>> iterator = loadTimes.entrySet().iterator();
+        while (keysToRefresh.size() < refreshBatchSize && iterator.hasNext()) {
+          Map.Entry<Object, Long> entry = iterator.next();
+          if (entry.getValue() > expiryTime) {
+            break;
+          }
+          iterator.remove();
+          if (primary.get(entry.getKey()) != null) {
+            keysToRefresh.add(entry.getKey());
+          }
+        }
+      }
+      if (keysToRefresh.isEmpty()) {
+        return;
+      }
+
+      List<Object> refreshedValues = backupGetAll(keysToRefresh);
+      for (int i = 0; i < keysToRefresh.size(); i++) {
+        Object key = keysToRefresh.get(i);
+        Object value = refreshedValues.get(i);
+        if (value != null) {
+          primary.put(key, value);
+          loaded(key);
+        }
+        else {
+          primary.remove(key);
+        }
+      }
+    }
+  }
+
+  private List<Object> backupGetAll(List<Object> keys)
+  {
+    synchronized (backupLock) {
+      return backup.getAll(keys);
+    }
+  }
+
+  /**
+   * Updates the counters with the lookups since {@link #initialize()}. The counters are meant to be published with
+   * {@link com.datatorrent.api.Context.OperatorContext#setCounters(Object)}.
+   *
+   * @return counters keyed by {@link CounterKeys}.
+   */
+  public BasicCounters<MutableLong> getCounters()
+  {
+    long hits = primaryHits.get();
+    long lookups = hits + primaryMisses.get();
+    counters.getCounter(CounterKeys.PRIMARY_HITS).setValue(hits);
+    counters.getCounter(CounterKeys.PRIMARY_MISSES).setValue(lookups - hits);
+    counters.getCounter(CounterKeys.HIT_RATIO_PPM).setValue(lookups == 0 ? 0 : hits * 1000000 / lookups);
+    counters.getCounter(CounterKeys.BACKUP_LOADS).setValue(backupLoads.get());
+    counters.getCounter(CounterKeys.LOAD_TIME_MILLIS).setValue(TimeUnit.NANOSECONDS.toMillis(loadTimeNanos.get()));
+    if (primary instanceof EvictionCounting) {
+      counters.getCounter(CounterKeys.EVICTIONS).setValue(((EvictionCounting)primary).getEvictionCount());
+    }
+    return counters;
+  }
+
   public void put(@Nonnull Object key, @Nonnull Object value)
   {
     primary.put(key, value);
-    backup.put(key, value);
+    synchronized (backupLock) {
+      backup.put(key, value);
+    }
   }
 
   @Override
   public void close() throws IOException
   {
-    refresher.cancel();
+    if (refresher != null) {
+      refresher.cancel();
+    }
     primary.disconnect();
     backup.disconnect();
   }
@@ -174,6 +405,66 @@ public class CacheManager implements Closeable
     return refreshTime;
   }
 
+  /**
+   * Sets the interval after which the value of a key is reloaded from the backup store. The keys are refreshed
+   * individually, so the refresh is spread over time instead of happening for all the keys at once. 0 which is the
+   * default disables the refresh of the individual keys.
+   *
+   * @param entryRefreshIntervalMillis refresh interval of a key in millis.
+   */
+  public void setEntryRefreshIntervalMillis(long entryRefreshIntervalMillis)
+  {
+    this.entryRefreshIntervalMillis = entryRefreshIntervalMillis;
+  }
+
+  public long getEntryRefreshIntervalMillis()
+  {
+    return entryRefreshIntervalMillis;
+  }
+
+  /**
+   * Sets the max number of keys which are reloaded from the backup store with one {@link Backup#getAll(List)} call.
+   *
+   * @param refreshBatchSize max number of keys.
+   */
+  public void setRefreshBatchSize(int refreshBatchSize)
+  {
+    this.refreshBatchSize = refreshBatchSize;
+  }
+
+  public int getRefreshBatchSize()
+  {
+    return refreshBatchSize;
+  }
+
+  public static enum CounterKeys
+  {
+    /**
+     * Lookups of keys which were present in the primary store.
+     */
+    PRIMARY_HITS,
+    /**
+     * Lookups of keys which were not present in the primary store.
+     */
+    PRIMARY_MISSES,
+    /**
+     * Hits per million lookups in the primary store.
+     */
+    HIT_RATIO_PPM,
+    /**
+     * Calls to the backup store for keys missing in the primary store.
+     */
+    BACKUP_LOADS,
+    /**
+     * Total time of the calls to the backup store.
+     */
+    LOAD_TIME_MILLIS,
+    /**
+     * Entries evicted from the primary store, when it implements {@link EvictionCounting}.
+     */
+    EVICTIONS
+  }
+
   /**
    * A primary store should also provide setting the value for a key.
    */
@@ -188,9 +479,24 @@ public class CacheManager implements Closeable
     Set<Object> getKeys();
   }
 
+  /**
+   * Optionally implemented by a {@link Primary} which evicts entries on its own, to report the evictions in the
+   * counters.
+   */
+  public static interface EvictionCounting
+  {
+    /**
+     * Get the number of entries which the store evicted on its own, because of its size or the expiry of entries.
+     *
+     * @return number of evicted entries.
+     */
+    long getEvictionCount();
+  }
+
   /**
    * Backup store is queried when {@link Primary} doesn't contain a key.<br/>
    * It also provides data needed at startup.<br/>
+   * The calls of the {@link CacheManager} are made by one thread at a time.<br/>
    */
   public static interface Backup extends KeyValueStore
   {
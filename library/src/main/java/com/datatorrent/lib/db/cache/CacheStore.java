@@ -43,7 +43,7 @@ import com.google.common.collect.Lists;
  *
  * @since 0.9.2
  */
-public class CacheStore implements CacheManager.Primary
+public class CacheStore implements CacheManager.Primary, CacheManager.EvictionCounting
 {
 
   @Min(0)
@@ -103,6 +103,15 @@ public class CacheStore implements CacheManager.Primary
     return values;
   }
 
+  /**
+   * @return number of entries which were evicted because they expired.
+   */
+  @Override
+  public long getEvictionCount()
+  {
+    return cache.stats().evictionCount();
+  }
+
   @Override
   public void connect() throws IOException
   {
@@ -115,7 +124,7 @@ public class CacheStore implements CacheManager.Primary
     else if (entryExpiryStrategy == ExpiryType.EXPIRE_AFTER_WRITE) {
       cacheBuilder.expireAfterWrite(entryExpiryDurationInMillis, TimeUnit.MILLISECONDS);
     }
-    cache = cacheBuilder.build();
+    cache = cacheBuilder.recordStats().build();
     this.cleanupScheduler = Executors.newScheduledThreadPool(1);
     cleanupScheduler.scheduleAtFixedRate(new Runnable()
     {
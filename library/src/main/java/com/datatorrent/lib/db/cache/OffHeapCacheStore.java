@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.db.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.validation.constraints.Min;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * A {@link CacheManager.Primary} which keeps serialized key/value pairs in direct byte buffers outside the heap.<br/>
+ *
+ * Properties of the off-heap cache store:<br/>
+ * <ul>
+ * <li>Transient: It is not checkpointed.</li>
+ * <li>Max Cache Size In Bytes: the serialized entries never take more than this many bytes. The oldest entries are
+ * evicted first to make room for new entries.</li>
+ * <li>Segment Count: the cache is split into segments which are locked independently.</li>
+ * </ul>
+ * Keys and values are serialized with Kryo. Keys are compared by their serialized form, so equal keys have to be
+ * serialized to the same bytes.
+ */
+public class OffHeapCacheStore implements CacheManager.Primary, CacheManager.EvictionCounting
+{
+  /* hash, key length, value length */
+  private static final int HEADER_SIZE = 12;
+  /* key length which marks the unused end of a segment */
+  private static final int WRAP = -1;
+
+  @Min(1)
+  protected long maxCacheSizeInBytes = 64L << 20;
+
+  @Min(1)
+  protected int segmentCount = 16;
+
+  private transient Segment[] segments;
+
+  @Override
+  public void connect() throws IOException
+  {
+    long segmentSize = maxCacheSizeInBytes / segmentCount;
+    if (segmentSize < HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("segment size " + segmentSize + " is out of range, change the segment count");
+    }
+    segments = new Segment[segmentCount];
+    for (int i = segmentCount; i-- > 0; ) {
+      segments[i] = new Segment((int)segmentSize);
+    }
+  }
+
+  @Override
+  public boolean isConnected()
+  {
+    return segments != null;
+  }
+
+  @Override
+  public void disconnect() throws IOException
+  {
+    segments = null;
+  }
+
+  private static int hash(Object key)
+  {
+    /* murmur3 finalizer */
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    return h ^ (h >>> 16);
+  }
+
+  private Segment segmentFor(int hash)
+  {
+    return segments[(hash >>> 16) % segments.length];
+  }
+
+  @Override
+  public Object get(Object key)
+  {
+    int hash = hash(key);
+    return segmentFor(hash).get(hash, key);
+  }
+
+  @Override
+  public List<Object> getAll(List<Object> keys)
+  {
+    List<Object> values = Lists.newArrayListWithCapacity(keys.size());
+    for (Object key : keys) {
+      values.add(get(key));
+    }
+    return values;
+  }
+
+  @Override
+  public void put(Object key, Object value)
+  {
+    int hash = hash(key);
+    segmentFor(hash).put(hash, key, value);
+  }
+
+  /**
+   * Sizes the index of every segment for the entries before they are put, so that bulk loads such as
+   * {@link CacheManager.Backup#loadInitialData()} do not rehash.
+   */
+  @Override
+  public void putAll(Map<Object, Object> m)
+  {
+    int entriesPerSegment = m.size() / segments.length + 1;
+    for (Segment segment : segments) {
+      segment.ensureCapacity(entriesPerSegment);
+    }
+    for (Map.Entry<Object, Object> entry : m.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public void remove(Object key)
+  {
+    int hash = hash(key);
+    segmentFor(hash).remove(hash, key);
+  }
+
+  @Override
+  public Set<Object> getKeys()
+  {
+    Set<Object> keys = Sets.newHashSet();
+    for (Segment segment : segments) {
+      segment.addKeys(keys);
+    }
+    return keys;
+  }
+
+  /**
+   * @return number of entries which were evicted to make room for new entries.
+   */
+  @Override
+  public long getEvictionCount()
+  {
+    long evictions = 0;
+    for (Segment segment : segments) {
+      evictions += segment.getEvictions();
+    }
+    return evictions;
+  }
+
+  /**
+   * @return bytes taken by the entries, including the entries which are replaced or removed but not yet reclaimed.
+   */
+  public long getUsedBytes()
+  {
+    long used = 0;
+    for (Segment segment : segments) {
+      used += segment.getUsed();
+    }
+    return used;
+  }
+
+  /**
+   * Sets the max size of the cache in bytes.
+   *
+   * @param maxCacheSizeInBytes the max size of the serialized entries.
+   */
+  public void setMaxCacheSizeInBytes(long maxCacheSizeInBytes)
+  {
+    this.maxCacheSizeInBytes = maxCacheSizeInBytes;
+  }
+
+  public long getMaxCacheSizeInBytes()
+  {
+    return maxCacheSizeInBytes;
+  }
+
+  /**
+   * Sets the number of segments which are locked independently.
+   *
+   * @param segmentCount number of segments.
+   */
+  public void setSegmentCount(int segmentCount)
+  {
+    this.segmentCount = segmentCount;
+  }
+
+  public int getSegmentCount()
+  {
+    return segmentCount;
+  }
+
+  /**
+   * A ring buffer of entries which are appended at the tail and evicted from the head, with an open addressing index
+   * of the live entries.
+   */
+  private static class Segment
+  {
+    private final ByteBuffer arena;
+    private final int capacity;
+    private int head;
+    private int tail;
+    private int used;
+    /* offset + 1 of the entry of every occupied slot, 0 for a free slot */
+    private int[] offsets = new int[16];
+    private int[] hashes = new int[16];
+    private int count;
+    private long evictions;
+    private final Kryo kryo = new Kryo();
+    private final Output output = new Output(64, -1);
+
+    Segment(int capacity)
+    {
+      this.capacity = capacity;
+      arena = ByteBuffer.allocateDirect(capacity);
+      kryo.setClassLoader(Thread.currentThread().getContextClassLoader());
+    }
+
+    synchronized Object get(int hash, Object key)
+    {
+      output.clear();
+      kryo.writeClassAndObject(output, key);
+      int slot = find(hash, output.getBuffer(), output.position());
+      if (slot < 0) {
+        return null;
+      }
+      int offset = offsets[slot] - 1;
+      int keyLength = arena.getInt(offset + 4);
+      byte[] value = new byte[arena.getInt(offset + 8)];
+      ByteBuffer entry = arena.duplicate();
+      entry.position(offset + HEADER_SIZE + keyLength);
+      entry.get(value);
+      return kryo.readClassAndObject(new Input(value));
+    }
+
+    synchronized void put(int hash, Object key, Object value)
+    {
+      output.clear();
+      kryo.writeClassAndObject(output, key);
+      int keyLength = output.position();
+      kryo.writeClassAndObject(output, value);
+      int valueLength = output.position() - keyLength;
+      byte[] bytes = output.getBuffer();
+
+      int slot = find(hash, bytes, keyLength);
+      if (slot >= 0) {
+        /* the replaced entry is reclaimed when it reaches the head */
+        delete(slot);
+      }
+      int size = HEADER_SIZE + keyLength + valueLength;
+      if (size > capacity) {
+        return;
+      }
+      makeRoom(size);
+
+      arena.putInt(tail, hash);
+      arena.putInt(tail + 4, keyLength);
+      arena.putInt(tail + 8, valueLength);
+      ByteBuffer entry = arena.duplicate();
+      entry.position(tail + HEADER_SIZE);
+      entry.put(bytes, 0, keyLength + valueLength);
+
+      ensureCapacity(count + 1);
+      slot = -find(hash, bytes, keyLength) - 1;
+      offsets[slot] = tail + 1;
+      hashes[slot] = hash;
+      count++;
+      tail += size;
+      used += size;
+    }
+
+    synchronized void remove(int hash, Object key)
+    {
+      output.clear();
+      kryo.writeClassAndObject(output, key);
+      int slot = find(hash, output.getBuffer(), output.position());
+      if (slot >= 0) {
+        delete(slot);
+      }
+    }
+
+    synchronized void addKeys(Set<Object> keys)
+    {
+      for (int offset : offsets) {
+        if (offset != 0) {
+          byte[] key = new byte[arena.getInt(offset - 1 + 4)];
+          ByteBuffer entry = arena.duplicate();
+          entry.position(offset - 1 + HEADER_SIZE);
+          entry.get(key);
+          keys.add(kryo.readClassAndObject(new Input(key)));
+        }
+      }
+    }
+
+    synchronized long getEvictions()
+    {
+      return evictions;
+    }
+
+    synchronized int getUsed()
+    {
+      return used;
+    }
+
+    /**
+     * Evicts entries from the head until there are size contiguous bytes at the tail.
+     */
+    private void makeRoom(int size)
+    {
+      while (true) {
+        if (used == 0) {
+          head = tail = 0;
+        }
+        if (tail > head || used == 0) {
+          if (capacity - tail >= size) {
+            return;
+          }
+          /* skip the end of the buffer */
+          if (capacity - tail >= HEADER_SIZE) {
+            arena.putInt(tail + 4, WRAP);
+          }
+          used += capacity - tail;
+          tail = 0;
+        }
+        else if (head - tail >= size) {
+          return;
+        }
+        else {
+          evictHead();
+        }
+      }
+    }
+
+    private void evictHead()
+    {
+      if (capacity - head < HEADER_SIZE || arena.getInt(head + 4) == WRAP) {
+        used -= capacity - head;
+        head = 0;
+        return;
+      }
+      int hash = arena.getInt(head);
+      int size = HEADER_SIZE + arena.getInt(head + 4) + arena.getInt(head + 8);
+      int mask = offsets.length - 1;
+      for (int slot = hash & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+        if (offsets[slot] == head + 1) {
+          delete(slot);
+          evictions++;
+          break;
+        }
+      }
+      head += size;
+      used -= size;
+      if (head == capacity) {
+        head = 0;
+      }
+    }
+
+    /**
+     * @return slot of the key if it is present; otherwise -(free slot + 1).
+     */
+    private int find(int hash, byte[] key, int keyLength)
+    {
+      int mask = offsets.length - 1;
+      int slot = hash & mask;
+      while (offsets[slot] != 0) {
+        if (hashes[slot] == hash && keyEquals(offsets[slot] - 1, key, keyLength)) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -slot - 1;
+    }
+
+    private boolean keyEquals(int offset, byte[] key, int keyLength)
+    {
+      if (arena.getInt(offset + 4) != keyLength) {
+        return false;
+      }
+      offset += HEADER_SIZE;
+      for (int i = 0; i < keyLength; i++) {
+        if (arena.get(offset + i) != key[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Frees the slot and shifts back the following slots of the probe sequence.
+     */
+    private void delete(int slot)
+    {
+      int mask = offsets.length - 1;
+      offsets[slot] = 0;
+      count--;
+      int next = slot;
+      while (true) {
+        next = (next + 1) & mask;
+        if (offsets[next] == 0) {
+          return;
+        }
+        int ideal = hashes[next] & mask;
+        if (slot <= next ? (slot < ideal && ideal <= next) : (slot < ideal || ideal <= next)) {
+          continue;
+        }
+        offsets[slot] = offsets[next];
+        hashes[slot] = hashes[next];
+        offsets[next] = 0;
+        slot = next;
+      }
+    }
+
+    /**
+     * Resizes the index at most once so that it stays at most half full with the given number of entries.
+     */
+    synchronized void ensureCapacity(int entries)
+    {
+      if (entries * 2 <= offsets.length) {
+        return;
+      }
+      int length = offsets.length;
+      while (entries * 2 > length) {
+        length <<= 1;
+      }
+      int[] oldOffsets = offsets;
+      int[] oldHashes = hashes;
+      offsets = new int[length];
+      hashes = new int[length];
+      int mask = length - 1;
+      for (int i = oldOffsets.length; i-- > 0; ) {
+        if (oldOffsets[i] != 0) {
+          int slot = oldHashes[i] & mask;
+          while (offsets[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          offsets[slot] = oldOffsets[i];
+          hashes[slot] = oldHashes[i];
+        }
+      }
+    }
+  }
+
+}
@@ -19,11 +19,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import com.datatorrent.api.Context;
 
@@ -45,7 +48,10 @@ public abstract class JDBCLookupCacheBackedOperator<T> extends AbstractDBLookupC
 {
   @NotNull
   protected String tableName;
+  @Min(1)
+  protected int maxKeysPerQuery = 100;
 
+  /* the statements are used by one thread at a time, the cache manager serializes the calls to the backup store */
   protected transient PreparedStatement putStatement;
   protected transient PreparedStatement getStatement;
 
@@ -106,9 +112,28 @@ public abstract class JDBCLookupCacheBackedOperator<T> extends AbstractDBLookupC
     }
   }
 
+  /**
+   * Gets the values of the keys with queries of at most {@link #getMaxKeysPerQuery()} keys when
+   * {@link #fetchGetAllQuery(int)} is implemented; otherwise with the get query for every key.
+   *
+   * @param keys keys
+   * @return values in the order of the keys.
+   */
   @Override
   public List<Object> getAll(List<Object> keys)
   {
+    if (fetchGetAllQuery(1) != null) {
+      List<Object> values = Lists.newArrayListWithCapacity(keys.size());
+      for (int from = 0; from < keys.size(); from += maxKeysPerQuery) {
+        List<Object> batch = keys.subList(from, Math.min(keys.size(), from + maxKeysPerQuery));
+        Map<Object, Object> batchValues = getBatch(batch);
+        for (Object key : batch) {
+          values.add(batchValues.get(key));
+        }
+      }
+      return values;
+    }
+
     List<Object> values = Lists.newArrayList();
     for (Object key : keys) {
       try {
@@ -123,6 +148,91 @@ public abstract class JDBCLookupCacheBackedOperator<T> extends AbstractDBLookupC
     return values;
   }
 
+  private Map<Object, Object> getBatch(List<Object> keys)
+  {
+    try {
+      PreparedStatement getAllStatement = store.connection.prepareStatement(fetchGetAllQuery(keys.size()));
+      try {
+        prepareGetAllStatement(getAllStatement, keys);
+        return processGetAllResultSet(getAllStatement.executeQuery());
+      }
+      finally {
+        getAllStatement.close();
+      }
+    }
+    catch (SQLException e) {
+      throw new RuntimeException("while fetching keys", e);
+    }
+  }
+
+  /**
+   * Query which fetches the values of the given number of keys, eg.
+   * <code>"select col1, col2 from table where col1 in " + getParameterList(numKeys)</code>.<br/>
+   * The default returns null, in which case the values are fetched with the get query one key at a time.
+   *
+   * @param numKeys number of keys
+   * @return query or null.
+   */
+  protected String fetchGetAllQuery(int numKeys)
+  {
+    return null;
+  }
+
+  /**
+   * Sets the parameters of the query returned by {@link #fetchGetAllQuery(int)}. The default sets the keys as the
+   * parameters in order.
+   */
+  protected void prepareGetAllStatement(PreparedStatement getAllStatement, List<Object> keys) throws SQLException
+  {
+    for (int i = 0; i < keys.size(); i++) {
+      getAllStatement.setObject(i + 1, keys.get(i));
+    }
+  }
+
+  /**
+   * Reads the key/values from the result of the query returned by {@link #fetchGetAllQuery(int)}. The default reads the
+   * key from the first column and the value from the second column of every row.
+   *
+   * @param resultSet result of the query.
+   * @return values by key.
+   */
+  protected Map<Object, Object> processGetAllResultSet(ResultSet resultSet) throws SQLException
+  {
+    Map<Object, Object> values = Maps.newHashMap();
+    while (resultSet.next()) {
+      values.put(resultSet.getObject(1), resultSet.getObject(2));
+    }
+    return values;
+  }
+
+  /**
+   * @param numKeys number of parameters.
+   * @return parenthesized list of parameters for an IN clause, eg. (?, ?, ?).
+   */
+  protected static String getParameterList(int numKeys)
+  {
+    StringBuilder builder = new StringBuilder("(?");
+    for (int i = 1; i < numKeys; i++) {
+      builder.append(", ?");
+    }
+    return builder.append(')').toString();
+  }
+
+  /**
+   * Sets the max number of keys in the query returned by {@link #fetchGetAllQuery(int)}.
+   *
+   * @param maxKeysPerQuery max number of keys.
+   */
+  public void setMaxKeysPerQuery(int maxKeysPerQuery)
+  {
+    this.maxKeysPerQuery = maxKeysPerQuery;
+  }
+
+  public int getMaxKeysPerQuery()
+  {
+    return maxKeysPerQuery;
+  }
+
   protected abstract void prepareGetStatement(PreparedStatement getStatement, Object key) throws SQLException;
 
   protected abstract void preparePutStatement(PreparedStatement putStatement, Object key, Object value) throws SQLException;
@@ -15,10 +15,12 @@
  */
 package com.datatorrent.lib.dedup;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
@@ -33,8 +35,10 @@ import org.slf4j.LoggerFactory;
 import org.apache.commons.lang.mutable.MutableLong;
 
 import com.datatorrent.lib.bucket.AbstractBucket;
+import com.datatorrent.lib.bucket.AbstractBucketManager;
 import com.datatorrent.lib.bucket.BucketManager;
 import com.datatorrent.lib.counters.BasicCounters;
+import com.datatorrent.lib.io.IdempotentStorageManager;
 import com.datatorrent.api.*;
 import com.datatorrent.api.Context.OperatorContext;
 import com.datatorrent.api.annotation.InputPortFieldAnnotation;
@@ -61,10 +65,23 @@ import com.datatorrent.common.util.DTThrowable;
  * <li>
  * If the bucket is loaded, the operator drops the event if it is already present in the bucket; emits it otherwise.
  * </li>
+ * <li>
+ * If the bucket manager keeps bloom filters ({@link AbstractBucketManager#setExpectedEventsPerBucket(int)}) and the
+ * filter of a bucket that is not loaded tells that the event is definitely new, the event is emitted without loading
+ * the bucket.
+ * </li>
  * </ol>
  * </p>
  *
  * <p>
+ * By default {@link #endWindow()} blocks until all the requested buckets are loaded and the waiting events are
+ * processed. With {@link #setNonBlockingEndWindow(boolean)} the waiting events are carried over to the following windows
+ * as part of the checkpointed state. The keys of the buckets whose events are emitted in a window, either from the waiting
+ * events or directly because the bucket was loaded, are saved with the {@link IdempotentStorageManager}. A replayed
+ * window waits for the same buckets and holds back the events of all other buckets, so that it emits the same events.
+ * </p>
+ *
+ * <p>
  * Based on the assumption that duplicate events fall in the same bucket.
  * </p>
  *
@@ -76,7 +93,7 @@ import com.datatorrent.common.util.DTThrowable;
  * @param <OUTPUT> type of output tuple
  * @since 0.9.4
  */
-public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, BucketManager.Listener<INPUT>, Operator.IdleTimeHandler, Partitioner<AbstractDeduper<INPUT, OUTPUT>>
+public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, BucketManager.Listener<INPUT>, Operator.IdleTimeHandler, Operator.CheckpointListener, Partitioner<AbstractDeduper<INPUT, OUTPUT>>
 {
   /**
    * The input port on which events are received.
@@ -114,8 +131,22 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
   private transient OperatorContext context;
   protected BasicCounters<MutableLong> counters;
   private transient long currentWindow;
+  //buckets which are loaded because the filter reported a possible duplicate
+  private transient final Set<Long> filterPositiveLoads;
   @Min(1)
   private int partitionCount = 1;
+  private boolean nonBlockingEndWindow;
+  @NotNull
+  protected IdempotentStorageManager idempotentStorageManager = new IdempotentStorageManager.NoopIdempotentStorageManager();
+  protected int operatorId; //needed in partitioning
+  //keys of the buckets whose events were processed in the current window, in order
+  private transient final List<Long> processedBuckets;
+  private transient final Set<Long> processedBucketKeys;
+  //keys of the buckets to process in the window being replayed; null when the window is not replayed
+  private transient List<Long> replayBuckets;
+  private transient Set<Long> replayBucketKeys;
+  //loaded buckets which are held back while a window is replayed
+  private transient final Map<Long, AbstractBucket<INPUT>> heldBuckets;
 
   public AbstractDeduper()
   {
@@ -124,6 +155,10 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
     partitionMask = 0;
 
     fetchedBuckets = new LinkedBlockingQueue<AbstractBucket<INPUT>>();
+    filterPositiveLoads = Sets.newHashSet();
+    processedBuckets = Lists.newArrayList();
+    processedBucketKeys = Sets.newHashSet();
+    heldBuckets = Maps.newLinkedHashMap();
     counters = new BasicCounters<MutableLong>(MutableLong.class);
   }
 
@@ -137,15 +172,53 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
     return partitionCount;
   }
 
+  /**
+   * When true, {@link #endWindow()} does not wait for pending bucket loads. The events which are waiting for their
+   * buckets are carried over to the next window. End window only waits for the loads in progress and holds back the
+   * loads until the next window, so that the window is saved and checkpointed while the store does not change.
+   *
+   * @param nonBlockingEndWindow whether end window waits for the bucket loads.
+   */
+  public void setNonBlockingEndWindow(boolean nonBlockingEndWindow)
+  {
+    this.nonBlockingEndWindow = nonBlockingEndWindow;
+  }
+
+  public boolean isNonBlockingEndWindow()
+  {
+    return nonBlockingEndWindow;
+  }
+
+  /**
+   * Sets the idempotent storage manager which keeps the order in which waiting events are processed when
+   * {@link #setNonBlockingEndWindow(boolean)} is set.
+   *
+   * @param idempotentStorageManager an {@link IdempotentStorageManager}
+   */
+  public void setIdempotentStorageManager(@NotNull IdempotentStorageManager idempotentStorageManager)
+  {
+    this.idempotentStorageManager = Preconditions.checkNotNull(idempotentStorageManager, "idempotent storage manager");
+  }
+
+  public IdempotentStorageManager getIdempotentStorageManager()
+  {
+    return idempotentStorageManager;
+  }
+
   @Override
   public void setup(OperatorContext context)
   {
     this.context = context;
     this.currentWindow = context.getValue(Context.OperatorContext.ACTIVATION_WINDOW_ID);
     sleepTimeMillis = context.getValue(OperatorContext.SPIN_MILLIS);
+    operatorId = context.getId();
+    idempotentStorageManager.setup(context);
 
     bucketManager.setBucketCounters(counters);
     counters.setCounter(CounterKeys.DUPLICATE_EVENTS, new MutableLong());
+    counters.setCounter(CounterKeys.AVOIDED_BUCKET_LOADS, new MutableLong());
+    counters.setCounter(CounterKeys.FILTER_FALSE_POSITIVES, new MutableLong());
+    counters.setCounter(CounterKeys.FILTER_FALSE_POSITIVE_PPM, new MutableLong());
 
     bucketManager.startService(this);
     logger.debug("bucket keys at startup {}", waitingEvents.keySet());
@@ -158,12 +231,31 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
   public void teardown()
   {
     bucketManager.shutdownService();
+    idempotentStorageManager.teardown();
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public void beginWindow(long l)
   {
+    bucketManager.resumeLoads();
     currentWindow = l;
+    processedBuckets.clear();
+    processedBucketKeys.clear();
+    replayBuckets = null;
+    replayBucketKeys = null;
+    if (nonBlockingEndWindow && l <= idempotentStorageManager.getLargestRecoveryWindow()) {
+      try {
+        replayBuckets = (List<Long>) idempotentStorageManager.load(operatorId, l);
+      }
+      catch (IOException e) {
+        throw new RuntimeException("replay", e);
+      }
+      if (replayBuckets == null) {
+        replayBuckets = Collections.emptyList();
+      }
+      replayBucketKeys = Sets.newHashSet(replayBuckets);
+    }
   }
 
   // This method can be overriden in implementation of Deduper.
@@ -182,7 +274,13 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
         return;
       } //ignore event
 
-      if (bucket != null && bucket.isDataOnDiskLoaded()) {
+      List<INPUT> waitingList = waitingEvents.get(bucketKey);
+      if (waitingList == null && bucket != null && bucket.isDataOnDiskLoaded()
+        && (replayBucketKeys == null || replayBucketKeys.contains(bucketKey))) {
+        //a replayed window only emits the events of the buckets which were processed in the original window
+        if (processedBucketKeys.add(bucketKey)) {
+          processedBuckets.add(bucketKey);
+        }
         bucketManager.newEvent(bucketKey, tuple);
         output.emit(convert(tuple));
       }
@@ -190,11 +288,23 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
         /**
          * The bucket on disk is not loaded. So we load the bucket from the disk.
          * Before that we check if there is a pending request to load the bucket and in that case we
-         * put the event in a waiting list.
+         * put the event in a waiting list. The event also waits when the bucket is loaded but the waiting events of
+         * the bucket are not processed yet, so that the events of a bucket are processed in order.
          */
         boolean doLoadFromDisk = false;
-        List<INPUT> waitingList = waitingEvents.get(bucketKey);
         if (waitingList == null) {
+          /**
+           * Waiting events are not in the filter yet, so the filter is only consulted when there is no pending request.
+           */
+          if (!bucketManager.mightContain(bucketKey, getEventKey(tuple))) {
+            counters.getCounter(CounterKeys.AVOIDED_BUCKET_LOADS).increment();
+            bucketManager.newEvent(bucketKey, tuple);
+            output.emit(convert(tuple));
+            return;
+          }
+          if (bucketManager.hasFilter(bucketKey)) {
+            filterPositiveLoads.add(bucketKey);
+          }
           waitingList = Lists.newArrayList();
           waitingEvents.put(bucketKey, waitingList);
           doLoadFromDisk = true;
@@ -212,53 +322,146 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
   public void endWindow()
   {
     try {
-      bucketManager.blockUntilAllRequestsServiced();
-      handleIdleTime();
-      Preconditions.checkArgument(waitingEvents.isEmpty(), waitingEvents.keySet());
+      if (!nonBlockingEndWindow) {
+        bucketManager.blockUntilAllRequestsServiced();
+        processFetchedBuckets();
+        Preconditions.checkArgument(waitingEvents.isEmpty(), waitingEvents.keySet());
+      }
+      else if (replayBuckets != null) {
+        replay();
+      }
+      else {
+        processFetchedBuckets();
+        if (currentWindow > idempotentStorageManager.getLargestRecoveryWindow()) {
+          idempotentStorageManager.save(Lists.newArrayList(processedBuckets), operatorId, currentWindow);
+        }
+      }
+      if (nonBlockingEndWindow) {
+        //the loaders must not change the buckets and the store while the window is saved and checkpointed
+        bucketManager.suspendLoads();
+      }
       bucketManager.endWindow(currentWindow);
     }
     catch (Throwable cause) {
       DTThrowable.rethrow(cause);
     }
+    long falsePositives = counters.getCounter(CounterKeys.FILTER_FALSE_POSITIVES).longValue();
+    long negatives = counters.getCounter(CounterKeys.AVOIDED_BUCKET_LOADS).longValue() + falsePositives;
+    if (negatives > 0) {
+      counters.getCounter(CounterKeys.FILTER_FALSE_POSITIVE_PPM).setValue(falsePositives * 1000000 / negatives);
+    }
     context.setCounters(counters);
   }
 
   @Override
   public void handleIdleTime()
   {
-    if (fetchedBuckets.isEmpty()) {
-      /* nothing to do here, so sleep for a while to avoid busy loop */
+    if (fetchedBuckets.isEmpty() && (replayBuckets != null || heldBuckets.isEmpty())) {
+      /* wait for the bucket manager to report a loaded bucket instead of sleeping, to avoid busy loop */
+      AbstractBucket<INPUT> bucket;
       try {
-        Thread.sleep(sleepTimeMillis);
+        bucket = fetchedBuckets.poll(sleepTimeMillis, TimeUnit.MILLISECONDS);
       }
       catch (InterruptedException ie) {
         throw new RuntimeException(ie);
       }
+      if (bucket == null) {
+        return;
+      }
+      if (replayBuckets != null) {
+        heldBuckets.put(bucket.bucketKey, bucket);
+      }
+      else {
+        processWaitingEvents(bucket);
+      }
     }
-    else {
-      /**
-       * Remove all the events from waiting list whose buckets are loaded.
-       * Process these events again.
-       */
-      AbstractBucket<INPUT> bucket;
-      while ((bucket = fetchedBuckets.poll()) != null) {
-        List<INPUT> waitingList = waitingEvents.remove(bucket.bucketKey);
-        if (waitingList != null) {
-          for (INPUT event : waitingList) {
-            if (!bucket.containsEvent(event)) {
-              bucketManager.newEvent(bucket.bucketKey, event);
-              output.emit(convert(event));
-            }
-            else {
-              counters.getCounter(CounterKeys.DUPLICATE_EVENTS).increment();
-              duplicates.emit(event);
-            }
-          }
+    processFetchedBuckets();
+  }
+
+  /**
+   * Remove all the events from waiting list whose buckets are loaded.
+   * Process these events again.
+   */
+  private void processFetchedBuckets()
+  {
+    if (replayBuckets == null && !heldBuckets.isEmpty()) {
+      List<AbstractBucket<INPUT>> held = Lists.newArrayList(heldBuckets.values());
+      heldBuckets.clear();
+      for (AbstractBucket<INPUT> bucket : held) {
+        processWaitingEvents(bucket);
+      }
+    }
+    AbstractBucket<INPUT> bucket;
+    while ((bucket = fetchedBuckets.poll()) != null) {
+      if (replayBuckets != null) {
+        //the buckets are processed in the order of the original window at the end of the replayed window
+        heldBuckets.put(bucket.bucketKey, bucket);
+      }
+      else {
+        processWaitingEvents(bucket);
+      }
+    }
+  }
+
+  private void processWaitingEvents(AbstractBucket<INPUT> bucket)
+  {
+    List<INPUT> waitingList = waitingEvents.remove(bucket.bucketKey);
+    if (waitingList != null) {
+      processedBuckets.add(bucket.bucketKey);
+      processedBucketKeys.add(bucket.bucketKey);
+      if (filterPositiveLoads.remove(bucket.bucketKey) && !bucket.containsEvent(waitingList.get(0))) {
+        //the event which triggered the load is new
+        counters.getCounter(CounterKeys.FILTER_FALSE_POSITIVES).increment();
+      }
+      for (INPUT event : waitingList) {
+        if (!bucket.containsEvent(event)) {
+          bucketManager.newEvent(bucket.bucketKey, event);
+          output.emit(convert(event));
+        }
+        else {
+          counters.getCounter(CounterKeys.DUPLICATE_EVENTS).increment();
+          duplicates.emit(event);
         }
       }
     }
   }
 
+  /**
+   * Processes the waiting events of the buckets which were processed in the original window, in the same order. The
+   * replayed window waits for these buckets to be loaded.
+   */
+  private void replay() throws InterruptedException
+  {
+    for (long bucketKey : replayBuckets) {
+      if (!waitingEvents.containsKey(bucketKey)) {
+        continue;
+      }
+      AbstractBucket<INPUT> bucket;
+      while ((bucket = heldBuckets.remove(bucketKey)) == null) {
+        AbstractBucket<INPUT> fetched = fetchedBuckets.take();
+        heldBuckets.put(fetched.bucketKey, fetched);
+      }
+      processWaitingEvents(bucket);
+    }
+  }
+
+  @Override
+  public void checkpointed(long windowId)
+  {
+  }
+
+  @Override
+  public void committed(long windowId)
+  {
+    bucketManager.committed(windowId);
+    try {
+      idempotentStorageManager.deleteUpTo(operatorId, windowId);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -289,12 +492,14 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
 
     //Collect the state here
     List<BucketManager<INPUT>> oldStorageManagers = Lists.newArrayList();
+    Set<Integer> deletedOperators = Sets.newHashSet();
 
     Map<Long, List<INPUT>> allWaitingEvents = Maps.newHashMap();
 
     for (Partition<AbstractDeduper<INPUT, OUTPUT>> partition : partitions) {
       //collect all bucketStorageManagers
       oldStorageManagers.add(partition.getPartitionedInstance().bucketManager);
+      deletedOperators.add(partition.getPartitionedInstance().operatorId);
 
       //collect all waiting events
       for (Map.Entry<Long, List<INPUT>> awaitingList : partition.getPartitionedInstance().waitingEvents.entrySet()) {
@@ -313,6 +518,7 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
     partitions.clear();
 
     Collection<Partition<AbstractDeduper<INPUT, OUTPUT>>> newPartitions = Lists.newArrayListWithCapacity(finalCapacity);
+    Collection<IdempotentStorageManager> newManagers = Lists.newArrayListWithExpectedSize(finalCapacity);
     Map<Integer, BucketManager<INPUT>> partitionKeyToStorageManagers = Maps.newHashMap();
 
     for (int i = 0; i < finalCapacity; i++) {
@@ -336,6 +542,9 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
 
       deduperInstance.partitionKeys = deduperPartition.getPartitionKeys().get(input).partitions;
       deduperInstance.partitionMask = lPartitionMask;
+      deduperInstance.nonBlockingEndWindow = nonBlockingEndWindow;
+      deduperInstance.idempotentStorageManager = idempotentStorageManager.newInstance();
+      newManagers.add(deduperInstance.idempotentStorageManager);
       logger.debug("partitions {},{}", deduperInstance.partitionKeys, deduperInstance.partitionMask);
       try {
         deduperInstance.bucketManager = bucketManager.clone();
@@ -373,6 +582,7 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
     }
     //let storage manager and subclasses distribute state as well
     bucketManager.definePartitions(oldStorageManagers, partitionKeyToStorageManagers, lPartitionMask);
+    idempotentStorageManager.partitioned(newManagers, deletedOperators);
     return newPartitions;
   }
 
@@ -441,9 +651,14 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
     return "Deduper{" + "partitionKeys=" + partitionKeys + ", partitionMask=" + partitionMask + '}';
   }
 
+  /**
+   * Counters of the deduper.<br/>
+   * The false positive rate of the bucket filters is reported in parts per million of the new events which were checked
+   * against a filter: <code>FILTER_FALSE_POSITIVES / (AVOIDED_BUCKET_LOADS + FILTER_FALSE_POSITIVES)</code>.
+   */
   public static enum CounterKeys
   {
-    DUPLICATE_EVENTS
+    DUPLICATE_EVENTS, AVOIDED_BUCKET_LOADS, FILTER_FALSE_POSITIVES, FILTER_FALSE_POSITIVE_PPM
   }
 
   public static class CountersListener implements StatsListener, Serializable
@@ -458,14 +673,17 @@ public abstract class AbstractDeduper<INPUT, OUTPUT> implements Operator, Bucket
             if (os.counters instanceof BasicCounters) {
               @SuppressWarnings("unchecked")
               BasicCounters<MutableLong> cs = (BasicCounters<MutableLong>) os.counters;
-              logger.debug("operatorId:{} buckets:[in-memory:{} deleted:{} evicted:{}] events:[in-memory:{} committed-last-window:{} " +
-                  "duplicates:{}] low:{} high:{}", batchedOperatorStats.getOperatorId(),
+              logger.debug("operatorId:{} buckets:[in-memory:{} deleted:{} evicted:{} loaded:{} load-time:{}] events:[in-memory:{} committed-last-window:{} " +
+                  "duplicates:{}] avoided-loads:{} low:{} high:{}", batchedOperatorStats.getOperatorId(),
                 cs.getCounter(BucketManager.CounterKeys.BUCKETS_IN_MEMORY),
                 cs.getCounter(BucketManager.CounterKeys.DELETED_BUCKETS),
                 cs.getCounter(BucketManager.CounterKeys.EVICTED_BUCKETS),
+                cs.getCounter(BucketManager.CounterKeys.BUCKETS_LOADED),
+                cs.getCounter(BucketManager.CounterKeys.BUCKET_LOAD_TIME),
                 cs.getCounter(BucketManager.CounterKeys.EVENTS_IN_MEMORY),
                 cs.getCounter(BucketManager.CounterKeys.EVENTS_COMMITTED_LAST_WINDOW),
-                cs.getCounter(CounterKeys.DUPLICATE_EVENTS));
+                cs.getCounter(CounterKeys.DUPLICATE_EVENTS),
+                cs.getCounter(CounterKeys.AVOIDED_BUCKET_LOADS));
             }
           }
         }
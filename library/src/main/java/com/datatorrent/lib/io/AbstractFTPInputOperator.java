@@ -15,10 +15,8 @@
  */
 package com.datatorrent.lib.io;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
 import java.util.Map;
 
@@ -173,7 +171,7 @@ public abstract class AbstractFTPInputOperator<T> extends AbstractFileInputOpera
    */
   public static class FTPStringInputOperator extends AbstractFTPInputOperator<String>
   {
-    private transient BufferedReader br;
+    private transient LineReader lineReader;
 
     public final transient DefaultOutputPort<String> output = new DefaultOutputPort<String>();
 
@@ -181,7 +179,7 @@ public abstract class AbstractFTPInputOperator<T> extends AbstractFileInputOpera
     protected InputStream openFile(Path path) throws IOException
     {
       InputStream is = super.openFile(path);
-      br = new BufferedReader(new InputStreamReader(is));
+      lineReader = new LineReader(is, bytePosition);
       return is;
     }
 
@@ -189,13 +187,19 @@ public abstract class AbstractFTPInputOperator<T> extends AbstractFileInputOpera
     protected void closeFile(InputStream is) throws IOException
     {
       super.closeFile(is);
-      br = null;
+      lineReader = null;
     }
 
     @Override
     protected String readEntity() throws IOException
     {
-      return br.readLine();
+      return lineReader.readLine();
+    }
+
+    @Override
+    protected long getRecordPosition()
+    {
+      return lineReader == null ? -1 : lineReader.getPosition();
     }
 
     @Override
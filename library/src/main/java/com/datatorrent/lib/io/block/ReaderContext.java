@@ -16,9 +16,9 @@
 
 package com.datatorrent.lib.io.block;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.PositionedReadable;
@@ -125,7 +125,9 @@ public interface ReaderContext<STREAM extends InputStream & PositionedReadable>
     {
       if (offset < blockMetadata.getLength()) {
         Entity entity = readEntity();
-        offset += entity.usedBytes;
+        if (entity != null) {
+          offset += entity.usedBytes;
+        }
         return entity;
       }
       return null;
@@ -137,7 +139,9 @@ public interface ReaderContext<STREAM extends InputStream & PositionedReadable>
   /**
    * This reader context splits the block into entities on '\n' or '\r'.<br/>
    * It will not read ahead of the block boundary if the last entity was completely contained in the block.<br/>
-   * Any records formed using this context will need a way to validate the start of the record.
+   * Any records formed using this context will need a way to validate the start of the record.<br/>
+   * The line terminators are found by scanning the bytes that are read, so the records are the exact bytes of the
+   * lines irrespective of their encoding. Bytes which are read ahead are kept for the following entities of the block.
    *
    * @param <STREAM> type of stream.
    */
@@ -147,21 +151,18 @@ public interface ReaderContext<STREAM extends InputStream & PositionedReadable>
 
     protected int bufferSize;
 
-    private final transient ByteArrayOutputStream lineBuilder;
-    private final transient ByteArrayOutputStream emptyBuilder;
-    private final transient ByteArrayOutputStream tmpBuilder;
-
     private transient byte[] buffer;
-    private transient String strBuffer;
-    private transient int posInStr;
+    /* position of the first byte of the buffer in the stream and the number of bytes in the buffer */
+    private transient long bufferOffset;
+    private transient int bufferLength;
+    /* bytes of a line which spans more than one buffer */
+    private transient byte[] lineBuffer;
+    private transient int lineLength;
 
     public LineReaderContext()
     {
       super();
       bufferSize = 8192;
-      lineBuilder = new ByteArrayOutputStream();
-      emptyBuilder = new ByteArrayOutputStream();
-      tmpBuilder = new ByteArrayOutputStream();
     }
 
     @Override
@@ -170,6 +171,7 @@ public interface ReaderContext<STREAM extends InputStream & PositionedReadable>
       if (buffer == null) {
         buffer = new byte[bufferSize];
       }
+      bufferLength = 0;
       super.initialize(stream, blockMetadata, consecutiveBlock);
     }
 
@@ -179,69 +181,90 @@ public interface ReaderContext<STREAM extends InputStream & PositionedReadable>
       //Implemented a buffered reader instead of using java's BufferedReader because it was reading much ahead of block boundary
       //and faced issues with duplicate records. Controlling the buffer size didn't help either.
 
-      boolean foundEOL = false;
-      int bytesRead = 0;
-      long usedBytes = 0;
+      long position = offset;
+      byte[] record = null;
+      lineLength = 0;
 
-      while (!foundEOL) {
-        tmpBuilder.reset();
-        if (posInStr == 0) {
-          bytesRead = stream.read(offset + usedBytes, buffer, 0, bufferSize);
-          if (bytesRead == -1) {
-            break;
+      while (record == null) {
+        int pos = fill(position);
+        if (pos < 0) {
+          if (position == offset) {
+            return null;
           }
-          strBuffer = new String(buffer);
+          //the last line of the stream is not terminated
+          record = Arrays.copyOf(lineBuffer, lineLength);
+          break;
         }
-
-        while (posInStr < strBuffer.length()) {
-          char c = strBuffer.charAt(posInStr);
-          if (c != '\r' && c != '\n') {
-            tmpBuilder.write(c);
-            posInStr++;
+        int start = pos;
+        while (pos < bufferLength && buffer[pos] != '\n' && buffer[pos] != '\r') {
+          pos++;
+        }
+        if (pos < bufferLength) {
+          if (lineLength == 0) {
+            record = Arrays.copyOfRange(buffer, start, pos);
           }
           else {
-            foundEOL = true;
-            break;
-          }
-        }
-        byte[] subLine = tmpBuilder.toByteArray();
-        usedBytes += subLine.length;
-        lineBuilder.write(subLine);
-
-        if (foundEOL) {
-          while (posInStr < strBuffer.length()) {
-            char c = strBuffer.charAt(posInStr);
-            if (c == '\r' || c == '\n') {
-              emptyBuilder.write(c);
-              posInStr++;
-            }
-            else {
-              break;
-            }
+            appendToLine(start, pos);
+            record = Arrays.copyOf(lineBuffer, lineLength);
           }
-          usedBytes += emptyBuilder.toByteArray().length;
         }
         else {
-          //read more bytes from the input stream
-          posInStr = 0;
+          appendToLine(start, pos);
         }
+        position += pos - start;
       }
-      posInStr = 0;
-      //when end of stream is reached then bytesRead is -1
-      if (bytesRead == -1) {
-        lineBuilder.reset();
-        emptyBuilder.reset();
-        return null;
+
+      //skip the line terminators
+      int pos;
+      while ((pos = fill(position)) >= 0) {
+        int start = pos;
+        while (pos < bufferLength && (buffer[pos] == '\n' || buffer[pos] == '\r')) {
+          pos++;
+        }
+        position += pos - start;
+        if (pos < bufferLength) {
+          break;
+        }
       }
-      entity.clear();
-      entity.record = lineBuilder.toByteArray();
-      entity.usedBytes = usedBytes;
 
-      lineBuilder.reset();
-      emptyBuilder.reset();
+      entity.clear();
+      entity.record = record;
+      entity.usedBytes = position - offset;
       return entity;
     }
 
+    /**
+     * Reads the bytes at the position into the buffer if the buffer doesn't have them.
+     *
+     * @param position position in the stream.
+     * @return index of the position in the buffer; -1 at the end of the stream.
+     * @throws IOException
+     */
+    private int fill(long position) throws IOException
+    {
+      if (position >= bufferOffset && position < bufferOffset + bufferLength) {
+        return (int) (position - bufferOffset);
+      }
+      int bytesRead = stream.read(position, buffer, 0, bufferSize);
+      if (bytesRead <= 0) {
+        bufferLength = 0;
+        return -1;
+      }
+      bufferOffset = position;
+      bufferLength = bytesRead;
+      return 0;
+    }
+
+    private void appendToLine(int start, int end)
+    {
+      int length = end - start;
+      if (lineBuffer == null || lineLength + length > lineBuffer.length) {
+        lineBuffer = Arrays.copyOf(lineBuffer == null ? buffer : lineBuffer, Math.max(lineLength + length, (lineLength + length) * 3 / 2));
+      }
+      System.arraycopy(buffer, start, lineBuffer, lineLength, length);
+      lineLength += length;
+    }
+
     /**
      * Sets the buffer size of read.
      *
@@ -282,7 +305,9 @@ public interface ReaderContext<STREAM extends InputStream & PositionedReadable>
       if (!consecutiveBlock && blockMetadata.getOffset() != 0) {
         try {
           Entity entity = readEntity();
-          offset += entity.usedBytes;
+          if (entity != null) {
+            offset += entity.usedBytes;
+          }
         }
         catch (IOException e) {
           throw new RuntimeException("when reading first entity", e);
@@ -295,7 +320,9 @@ public interface ReaderContext<STREAM extends InputStream & PositionedReadable>
     {
       if (offset < blockMetadata.getLength() || (offset == blockMetadata.getLength() && !blockMetadata.isLastBlock())) {
         Entity entity = readEntity();
-        offset += entity.usedBytes;
+        if (entity != null) {
+          offset += entity.usedBytes;
+        }
         return entity;
       }
       return null;
@@ -16,10 +16,12 @@
 package com.datatorrent.lib.io.fs;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import com.esotericsoftware.kryo.Kryo;
@@ -31,8 +33,10 @@ import com.google.common.collect.Sets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.mutable.MutableLong;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -57,6 +61,8 @@ import com.datatorrent.api.Context.OperatorContext;
  * <p>
  * Fault tolerant by tracking previously read files and current offset as part of checkpoint state. In case of failure
  * the operator will skip files that were already processed and fast forward to the offset of the current file.
+ * Subclasses which report the byte position of their records with {@link #getRecordPosition()} are fast forwarded by
+ * seeking the file instead of reading and skipping the records which were emitted.
  * </p>
  * <p>
  * Supports partitioning and dynamic changes to number of partitions through property {@link #partitionCount}. The
@@ -66,6 +72,12 @@ import com.datatorrent.api.Context.OperatorContext;
  * This class supports retrying of failed files by putting them into failed list, and retrying them after pending
  * files are processed. Retrying is disabled when maxRetryCount is set to zero.
  * </p>
+ * <p>
+ * When {@link #setBlockSize(long)} is set, files larger than the block size are split into blocks which are spread
+ * over the partitions, so that a large file is read in parallel. A block is tracked like a file: the order of the
+ * records and the recovery are kept per block. By default a block is aligned to lines ending with '\n', see
+ * {@link #openBlock(FSDataInputStream, long, long)}.
+ * </p>
  * @displayName FS Directory Scan Input
  * @category Input
  * @tags fs, file, input operator
@@ -85,13 +97,22 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
   protected int scanIntervalMillis = 5000;
   protected int offset;
   protected String currentFile;
+  /**
+   * Byte position in the current file of the record after the last emitted record, or -1 when it is not known.
+   * When a file is opened this is the position which the stream starts at.
+   */
+  protected long bytePosition = -1;
   protected Set<String> processedFiles = new HashSet<String>();
   protected int emitBatchSize = 1000;
+  @Min(0)
+  protected long blockSize;
   protected int currentPartitions = 1 ;
   protected int partitionCount = 1;
   private int retryCount = 0;
   private int maxRetryCount = 5;
   transient protected int skipCount = 0;
+  /* position which the next opened file is sought to */
+  private transient long seekPosition = -1;
   private transient OperatorContext context;
 
   private final BasicCounters<MutableLong> fileCounters = new BasicCounters<MutableLong>(MutableLong.class);
@@ -122,6 +143,8 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
     int   offset;
     int    retryCount;
     long   lastFailedTime;
+    /* byte position of the record at offset; -1 when it is not known */
+    long   position = -1;
 
     /* For kryo serialization */
     @SuppressWarnings("unused")
@@ -145,6 +168,7 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
       return "FailedFile[" +
           "path='" + path + '\'' +
           ", offset=" + offset +
+          ", position=" + position +
           ", retryCount=" + retryCount +
           ", lastFailedTime=" + lastFailedTime +
           ']';
@@ -360,6 +384,25 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
     this.emitBatchSize = emitBatchSize;
   }
 
+  /**
+   * Returns the size of the blocks which files are split into.
+   * @return the block size in bytes; 0 when the files are not split.
+   */
+  public long getBlockSize()
+  {
+    return blockSize;
+  }
+
+  /**
+   * Sets the size of the blocks which files are split into. The blocks of a file are spread over the partitions.
+   * 0, which is the default, reads every file as a whole in one partition.
+   * @param blockSize The block size in bytes.
+   */
+  public void setBlockSize(long blockSize)
+  {
+    this.blockSize = blockSize;
+  }
+
   /**
    * Sets the idempotent storage manager on the operator.
    * @param idempotentStorageManager  an {@link IdempotentStorageManager}
@@ -443,6 +486,7 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
       //reset current file and offset in case of replay
       currentFile = null;
       offset = 0;
+      bytePosition = -1;
     }
   }
 
@@ -577,11 +621,19 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
               if (pendingFiles.contains(recoveryEntry.file)) {
                 pendingFiles.remove(recoveryEntry.file);
               }
-              inputStream = retryFailedFile(new FailedFile(recoveryEntry.file, recoveryEntry.startOffset));
+              FailedFile recoveredFile = new FailedFile(recoveryEntry.file, recoveryEntry.startOffset);
+              recoveredFile.position = recoveryEntry.getStartPosition();
+              inputStream = retryFailedFile(recoveredFile);
               while (offset < recoveryEntry.endOffset) {
                 T line = readEntity();
-                offset++;
-                emit(line);
+                if (skipCount == 0) {
+                  offset++;
+                  emit(line);
+                  bytePosition = getRecordPosition();
+                }
+                else {
+                  skipCount--;
+                }
               }
             }
             else {
@@ -589,6 +641,7 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
                 T line = readEntity();
                 offset++;
                 emit(line);
+                bytePosition = getRecordPosition();
               }
             }
           }
@@ -613,14 +666,19 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
         if (currentFile != null && offset > 0) {
           //open file resets offset to 0 so this a way around it.
           int tmpOffset = offset;
-          if (fs.exists(new Path(currentFile))) {
-            this.inputStream = openFile(new Path(currentFile));
+          long tmpPosition = bytePosition;
+          if (fs.exists(getFilePath(currentFile))) {
+            this.inputStream = openFile(new Path(currentFile), tmpPosition);
             offset = tmpOffset;
-            skipCount = tmpOffset;
+            if (tmpPosition < 0) {
+              skipCount = tmpOffset;
+              bytePosition = -1;
+            }
           } else {
             currentFile = null;
             offset = 0;
             skipCount = 0;
+            bytePosition = -1;
           }
         }
         else if (!unfinishedFiles.isEmpty()) {
@@ -629,7 +687,7 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
         else if (!pendingFiles.isEmpty()) {
           String newPathString = pendingFiles.iterator().next();
           pendingFiles.remove(newPathString);
-          if (fs.exists(new Path(newPathString)))
+          if (fs.exists(getFilePath(newPathString)))
             this.inputStream = openFile(new Path(newPathString));
         }
         else if (!failedFiles.isEmpty()) {
@@ -645,6 +703,7 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
     }
     if (inputStream != null) {
       int startOffset = offset;
+      long startPosition = skipCount == 0 ? bytePosition : -1;
       String file  = currentFile; //current file is reset to null when closed.
 
       try {
@@ -668,6 +727,9 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
           else {
             skipCount--;
           }
+          if (skipCount == 0) {
+            bytePosition = getRecordPosition();
+          }
         }
       }
       catch (IOException e) {
@@ -675,7 +737,7 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
       }
       //Only when something was emitted from the file then we record it for entry.
       if (offset > startOffset) {
-        currentWindowRecoveryState.add(new RecoveryEntry(file, startOffset, offset));
+        currentWindowRecoveryState.add(startPosition < 0 ? new RecoveryEntry(file, startOffset, offset) : new PositionedRecoveryEntry(file, startOffset, offset, startPosition));
       }
     }
   }
@@ -686,6 +748,11 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
   protected void scanDirectory()
   {
     if(System.currentTimeMillis() - scanIntervalMillis >= lastScanMillis) {
+      if (blockSize > 0) {
+        scanBlocks();
+        lastScanMillis = System.currentTimeMillis();
+        return;
+      }
       Set<Path> newPaths = scanner.scan(fs, filePath, processedFiles);
 
       for(Path newPath : newPaths) {
@@ -699,6 +766,45 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
     }
   }
 
+  /**
+   * Adds the blocks of the new files which belong to this partition to the pending files. Every partition looks at
+   * all the new files, since the blocks of a file are spread over the partitions.
+   */
+  private void scanBlocks()
+  {
+    Set<Path> newPaths = scanner.scan(fs, filePath, processedFiles, true);
+    for (Path newPath : newPaths) {
+      String newPathString = newPath.toString();
+      processedFiles.add(newPathString);
+      long length;
+      try {
+        length = fs.getFileStatus(newPath).getLen();
+      }
+      catch (FileNotFoundException e) {
+        LOG.warn("file {} was removed", newPathString);
+        continue;
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+
+      if (length <= blockSize) {
+        if (scanner.acceptFile(newPathString)) {
+          pendingFiles.add(newPathString);
+          localProcessedFileCount.increment();
+        }
+        continue;
+      }
+      for (long start = 0; start < length; start += blockSize) {
+        String block = getBlockName(newPathString, start, Math.min(start + blockSize, length));
+        if (scanner.acceptFile(block)) {
+          pendingFiles.add(block);
+          localProcessedFileCount.increment();
+        }
+      }
+    }
+  }
+
   /**
    * Helper method for handling IOExceptions.
    * @param e The caught IOException.
@@ -729,10 +835,12 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
     ff.retryCount ++;
     ff.lastFailedTime = System.currentTimeMillis();
     ff.offset = this.offset;
+    ff.position = skipCount == 0 ? this.bytePosition : -1;
 
     // Clear current file state.
     this.currentFile = null;
     this.inputStream = null;
+    this.bytePosition = -1;
 
     if (ff.retryCount > maxRetryCount)
       return;
@@ -746,26 +854,108 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
   {
     LOG.info("retrying failed file {} offset {} retry {}", ff.path, ff.offset, ff.retryCount);
     String path = ff.path;
-    if (!fs.exists(new Path(path)))
+    if (!fs.exists(getFilePath(path)))
       return null;
-    this.inputStream = openFile(new Path(path));
+    this.inputStream = openFile(new Path(path), ff.position);
     this.offset = ff.offset;
     this.retryCount = ff.retryCount;
-    this.skipCount = ff.offset;
+    if (ff.position < 0) {
+      this.skipCount = ff.offset;
+      if (ff.offset > 0) {
+        this.bytePosition = -1;
+      }
+    }
     return this.inputStream;
   }
 
+  /**
+   * Opens the file at a byte position reported by {@link #getRecordPosition()}.
+   *
+   * @param path path of the file or the name of a block of the file.
+   * @param position byte position; -1 opens the file at its start.
+   */
+  private InputStream openFile(Path path, long position) throws IOException
+  {
+    seekPosition = position;
+    try {
+      return openFile(path);
+    }
+    finally {
+      seekPosition = -1;
+    }
+  }
+
   protected InputStream openFile(Path path) throws IOException
   {
     currentFile = path.toString();
     offset = 0;
     retryCount = 0;
     skipCount = 0;
-    LOG.info("opening file {}", path);
-    InputStream input = fs.open(path);
+    long position = Math.max(0, seekPosition);
+    LOG.info("opening file {} at {}", path, position);
+    Matcher block = BLOCK_NAME.matcher(currentFile);
+    if (block.matches()) {
+      InputStream input = openBlock(fs.open(new Path(block.group(1))), Math.max(Long.parseLong(block.group(2)), position),
+                                    Long.parseLong(block.group(3)));
+      bytePosition = input instanceof LineBlockInputStream ? ((LineBlockInputStream) input).getPosition() : -1;
+      return input;
+    }
+    FSDataInputStream input = fs.open(path);
+    if (position > 0) {
+      try {
+        input.seek(position);
+      }
+      catch (IOException e) {
+        //file systems like ftp do not support seek, the bytes are still skipped without reading the records
+        LOG.debug("seek not supported, skipping to {}", position, e);
+        IOUtils.skipFully(input, position);
+      }
+    }
+    bytePosition = position;
     return input;
   }
 
+  /**
+   * Returns the stream of the records of a block of a file, when the files are split into blocks. A record belongs to
+   * the block in which it starts. The default implementation is for records which end with '\n'; override this for
+   * other formats.
+   *
+   * @param input the stream of the file
+   * @param start offset of the first byte of the block
+   * @param end offset after the last byte of the block
+   * @return the stream of the records of the block.
+   * @throws IOException
+   */
+  protected InputStream openBlock(FSDataInputStream input, long start, long end) throws IOException
+  {
+    return new LineBlockInputStream(input, start, end);
+  }
+
+  private static final Pattern BLOCK_NAME = Pattern.compile("(.*)#block=(\\d+)-(\\d+)");
+
+  /**
+   * @return the name which a block of a file is tracked by in place of the file.
+   */
+  protected static String getBlockName(String path, long start, long end)
+  {
+    return path + "#block=" + start + "-" + end;
+  }
+
+  /**
+   * @param name name of a file or a block of a file
+   * @return path of the file.
+   */
+  protected static Path getFilePath(String name)
+  {
+    return new Path(getFilePathString(name));
+  }
+
+  private static String getFilePathString(String name)
+  {
+    Matcher block = BLOCK_NAME.matcher(name);
+    return block.matches() ? block.group(1) : name;
+  }
+
   protected void closeFile(InputStream is) throws IOException
   {
     LOG.info("closing file {} offset {}", currentFile, offset);
@@ -775,6 +965,7 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
 
     currentFile = null;
     inputStream = null;
+    bytePosition = -1;
   }
 
   @Override
@@ -814,7 +1005,9 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
       tempGlobalNumberOfRetries.add(oper.localNumberOfRetries);
       tempGlobalNumberOfFailures.add(oper.localNumberOfFailures);
       if (oper.currentFile != null) {
-        currentFiles.add(new FailedFile(oper.currentFile, oper.offset));
+        FailedFile current = new FailedFile(oper.currentFile, oper.offset);
+        current.position = oper.bytePosition;
+        currentFiles.add(current);
       }
       oldscanners.add(oper.getScanner());
       deletedOperators.add(oper.operatorId);
@@ -856,6 +1049,7 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
       oper.unfinishedFiles.clear();
       oper.currentFile = null;
       oper.offset = 0;
+      oper.bytePosition = -1;
       Iterator<FailedFile> unfinishedIter = currentFiles.iterator();
       while(unfinishedIter.hasNext()) {
         FailedFile unfinishedFile = unfinishedIter.next();
@@ -936,6 +1130,19 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
    */
   abstract protected void emit(T tuple);
 
+  /**
+   * Returns the byte position in the file of the record which the next {@link #readEntity()} returns. The stream
+   * returned by {@link #openFile(Path)} starts at {@link #bytePosition}.<br/>
+   * When this is known the operator recovers a file by seeking to the position of the first record which was not
+   * emitted, otherwise it reads and skips all the records which were emitted.
+   *
+   * @return the byte position, or -1 when it is not known which is the default.
+   */
+  protected long getRecordPosition()
+  {
+    return -1;
+  }
+
 
   /**
    * Repartition is required when number of partitions are not equal to required
@@ -1016,6 +1223,17 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
     }
 
     public LinkedHashSet<Path> scan(FileSystem fs, Path filePath, Set<String> consumedFiles)
+    {
+      return scan(fs, filePath, consumedFiles, false);
+    }
+
+    /**
+     * Scans the directory for new files.
+     *
+     * @param allPartitions when true the files of all the partitions are returned, which is used when the files are
+     *                      split into blocks that are spread over the partitions.
+     */
+    public LinkedHashSet<Path> scan(FileSystem fs, Path filePath, Set<String> consumedFiles, boolean allPartitions)
     {
       LinkedHashSet<Path> pathSet = Sets.newLinkedHashSet();
       try {
@@ -1034,7 +1252,7 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
             continue;
           }
 
-          if (acceptFile(filePathStr)) {
+          if (allPartitions ? acceptPattern(filePathStr) : acceptFile(filePathStr)) {
             LOG.debug("Found {}", filePathStr);
             pathSet.add(path);
           } else {
@@ -1064,10 +1282,19 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
           return false;
         }
       }
+      return acceptPattern(filePathStr);
+    }
+
+    /**
+     * @param filePathStr path of a file, or name of a block of a file
+     * @return true if the path of the file matches the pattern, irrespective of the partition.
+     */
+    protected boolean acceptPattern(String filePathStr)
+    {
       Pattern regex = this.getRegex();
       if (regex != null)
       {
-        Matcher matcher = regex.matcher(filePathStr);
+        Matcher matcher = regex.matcher(getFilePathString(filePathStr));
         if (!matcher.matches()) {
           return false;
         }
@@ -1106,6 +1333,209 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
     }
   }
 
+  /**
+   * The stream of the records of a block of a file whose records end with '\n'. The partial record at the start of
+   * the block is skipped, since it belongs to the previous block, and the last record is read past the end of the
+   * block.
+   */
+  protected static class LineBlockInputStream extends FilterInputStream
+  {
+    private final long end;
+    private long position;
+    private boolean done;
+
+    public LineBlockInputStream(FSDataInputStream in, long start, long end) throws IOException
+    {
+      super(in);
+      this.end = end;
+      position = start;
+      if (start > 0) {
+        //the block starts after the first '\n' at or after the byte before the block
+        in.seek(start - 1);
+        position = start - 1;
+        byte[] buffer = new byte[4096];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) > 0) {
+          for (int i = 0; i < bytesRead; i++) {
+            if (buffer[i] == '\n') {
+              position += i + 1;
+              in.seek(position);
+              done = position >= end;
+              return;
+            }
+          }
+          position += bytesRead;
+        }
+        done = true;
+      }
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      if (done) {
+        return -1;
+      }
+      int b = in.read();
+      if (b < 0) {
+        done = true;
+        return -1;
+      }
+      if (b == '\n' && position >= end - 1) {
+        done = true;
+      }
+      position++;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      if (done) {
+        return -1;
+      }
+      int bytesRead = in.read(b, off, len);
+      if (bytesRead < 0) {
+        done = true;
+        return -1;
+      }
+      //the block ends with the first '\n' at or after its last byte
+      long lastByte = end - 1 - position;
+      for (int i = lastByte > 0 ? (int) Math.min(lastByte, bytesRead) : 0; i < bytesRead; i++) {
+        if (b[off + i] == '\n') {
+          bytesRead = i + 1;
+          done = true;
+          break;
+        }
+      }
+      position += bytesRead;
+      return bytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+      byte[] buffer = new byte[(int) Math.min(n, 4096)];
+      long skipped = 0;
+      int bytesRead;
+      while (skipped < n && (bytesRead = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) > 0) {
+        skipped += bytesRead;
+      }
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+      return done ? 0 : super.available();
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+      return false;
+    }
+
+    /**
+     * @return position in the file of the next byte of the stream.
+     */
+    public long getPosition()
+    {
+      return position;
+    }
+  }
+
+  /**
+   * Reads lines which end with '\n' or "\r\n" and tracks the byte position in the file of the next line, which line
+   * based subclasses return from {@link #getRecordPosition()}.
+   */
+  protected static class LineReader implements Closeable
+  {
+    private final InputStream in;
+    private final Charset charset;
+    private final byte[] buffer = new byte[8192];
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private int start;
+    private int end;
+    private long position;
+
+    /**
+     * @param in the stream returned by {@link #openFile(Path)}
+     * @param position the {@link #bytePosition} at which the stream starts, -1 when it is not known
+     */
+    public LineReader(InputStream in, long position)
+    {
+      this(in, position, Charset.defaultCharset());
+    }
+
+    public LineReader(InputStream in, long position, Charset charset)
+    {
+      this.in = in;
+      this.position = position;
+      this.charset = charset;
+    }
+
+    /**
+     * @return the next line without the line terminator; null at the end of the stream.
+     * @throws IOException
+     */
+    public String readLine() throws IOException
+    {
+      line.reset();
+      while (true) {
+        if (start == end) {
+          start = 0;
+          end = Math.max(0, in.read(buffer, 0, buffer.length));
+          if (end == 0) {
+            return line.size() > 0 ? toLine() : null;
+          }
+        }
+        for (int i = start; i < end; i++) {
+          if (buffer[i] == '\n') {
+            line.write(buffer, start, i - start);
+            consumed(i + 1 - start);
+            start = i + 1;
+            return toLine();
+          }
+        }
+        line.write(buffer, start, end - start);
+        consumed(end - start);
+        start = end;
+      }
+    }
+
+    private void consumed(int bytes)
+    {
+      if (position >= 0) {
+        position += bytes;
+      }
+    }
+
+    private String toLine()
+    {
+      byte[] bytes = line.toByteArray();
+      int length = bytes.length;
+      if (length > 0 && bytes[length - 1] == '\r') {
+        length--;
+      }
+      return new String(bytes, 0, length, charset);
+    }
+
+    /**
+     * @return position in the file of the next line; -1 when the position of the stream is not known.
+     */
+    public long getPosition()
+    {
+      return position;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      in.close();
+    }
+  }
+
   protected static class RecoveryEntry
   {
     final String file;
@@ -1127,6 +1557,14 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
       this.endOffset = endOffset;
     }
 
+    /**
+     * @return byte position of the record at startOffset; -1 when it is not known.
+     */
+    long getStartPosition()
+    {
+      return -1;
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -1145,6 +1583,9 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
       if (startOffset != that.startOffset) {
         return false;
       }
+      if (getStartPosition() != that.getStartPosition()) {
+        return false;
+      }
       return file.equals(that.file);
 
     }
@@ -1155,7 +1596,36 @@ public abstract class AbstractFileInputOperator<T> implements InputOperator, Par
       int result = file.hashCode();
       result = 31 * result + startOffset;
       result = 31 * result + endOffset;
+      long startPosition = getStartPosition();
+      result = 31 * result + (int) (startPosition ^ (startPosition >>> 32));
       return result;
     }
   }
+
+  /**
+   * Recovery entry with the byte position of its first record. The position is kept in a subclass, so that the entries
+   * saved by the {@link IdempotentStorageManager} before positions were tracked are still read as {@link RecoveryEntry}.
+   */
+  protected static class PositionedRecoveryEntry extends RecoveryEntry
+  {
+    final long startPosition;
+
+    @SuppressWarnings("unused")
+    private PositionedRecoveryEntry()
+    {
+      startPosition = -1;
+    }
+
+    PositionedRecoveryEntry(String file, int startOffset, int endOffset, long startPosition)
+    {
+      super(file, startOffset, endOffset);
+      this.startPosition = startPosition;
+    }
+
+    @Override
+    long getStartPosition()
+    {
+      return startPosition;
+    }
+  }
 }
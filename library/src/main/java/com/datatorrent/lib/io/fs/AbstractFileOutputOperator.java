@@ -19,11 +19,11 @@ package com.datatorrent.lib.io.fs;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
 import javax.validation.constraints.Min;
@@ -31,6 +31,7 @@ import javax.validation.constraints.NotNull;
 
 import com.google.common.base.Strings;
 import com.google.common.cache.*;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import org.slf4j.Logger;
@@ -51,6 +52,8 @@ import com.datatorrent.api.DefaultInputPort;
 import com.datatorrent.api.StreamCodec;
 import com.datatorrent.api.annotation.OperatorAnnotation;
 
+import com.datatorrent.common.util.NameableThreadFactory;
+
 /**
  * This base implementation for a fault tolerant HDFS output operator,
  * which can handle outputting to multiple files when the output file depends on the tuple.
@@ -64,6 +67,11 @@ import com.datatorrent.api.annotation.OperatorAnnotation;
  * field. If the user configures this operator to write to an enormous
  * number of files, there is a risk that the operator will run out of memory. In such a case the
  * user is responsible for maintaining the internal state to prevent the operator from running out
+ * <br/>
+ * <br/>
+ * When asyncWrites is set, tuples are encoded into a ring of write buffers per file and a pool of threads writes the
+ * filled buffers to the files, so the operator thread does not wait for the file system. The streams are flushed in
+ * parallel at the end of the window.
  *
  * BenchMark Results
  * -----------------
@@ -212,6 +220,44 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
    */
   protected FilterStreamProvider filterStreamProvider;
 
+  /**
+   * When true, tuples are encoded into per-file write buffers which are written to the files by a pool of
+   * {@link #writeThreads} threads, and the streams are flushed in parallel at the end of the window.
+   */
+  protected boolean asyncWrites;
+
+  /**
+   * The number of threads which write the buffers when writes are asynchronous.
+   */
+  @Min(1)
+  protected int writeThreads = 4;
+
+  /**
+   * The size in bytes of a write buffer.
+   */
+  @Min(1)
+  protected int writeBufferSize = 64 * 1024;
+
+  /**
+   * The number of write buffers of a file. The operator fills one buffer while the others are being written, and
+   * waits for a buffer when all of them are full.
+   */
+  @Min(2)
+  protected int writeBuffersPerFile = 2;
+
+  private transient ExecutorService writeExecutor;
+
+  /**
+   * Nanoseconds spent by the write threads writing, and by the write buffers waiting for a write thread.
+   */
+  private transient AtomicLong asyncWritingTime;
+  private transient AtomicLong queueingDelay;
+
+  /**
+   * Nanoseconds the operator has waited for a free write buffer.
+   */
+  private transient long bufferWaitTime;
+
   /**
    * This input port receives incoming tuples.
    */
@@ -382,6 +428,12 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
 
     streamsCache = CacheBuilder.newBuilder().maximumSize(maxOpenFiles).removalListener(removalListener).build(loader);
 
+    if (asyncWrites) {
+      writeExecutor = Executors.newFixedThreadPool(writeThreads, new NameableThreadFactory("FileWriter"));
+      asyncWritingTime = new AtomicLong();
+      queueingDelay = new AtomicLong();
+    }
+
     try {
       LOG.debug("File system class: {}", fs.getClass());
       LOG.debug("end-offsets {}", endOffsets);
@@ -476,6 +528,10 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
                             new MutableLong());
     fileCounters.setCounter(Counters.TOTAL_TIME_WRITING_MILLISECONDS,
                             new MutableLong());
+    if (asyncWrites) {
+      fileCounters.setCounter(Counters.TOTAL_QUEUEING_DELAY_MILLISECONDS, new MutableLong());
+      fileCounters.setCounter(Counters.TOTAL_BUFFER_WAIT_MILLISECONDS, new MutableLong());
+    }
   }
 
   @Override
@@ -508,6 +564,10 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
       }
     }
 
+    if (writeExecutor != null) {
+      writeExecutor.shutdownNow();
+    }
+
     //Try to close the file system
     boolean fsFailed = false;
 
@@ -565,12 +625,20 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
     }
 
     try {
-      FilterOutputStream fsOutput = streamsCache.get(fileName).getFilterStream();
-      byte[] tupleBytes = getBytesForTuple(tuple);
-      long start = System.currentTimeMillis();
-      fsOutput.write(tupleBytes);
-      totalWritingTime += System.currentTimeMillis() - start;
-      totalBytesWritten += tupleBytes.length;
+      FSFilterStreamContext streamContext = streamsCache.get(fileName);
+      int tupleLength;
+      if (asyncWrites) {
+        tupleLength = streamContext.write(tuple);
+      }
+      else {
+        FilterOutputStream fsOutput = streamContext.getFilterStream();
+        byte[] tupleBytes = getBytesForTuple(tuple);
+        long start = System.currentTimeMillis();
+        fsOutput.write(tupleBytes);
+        totalWritingTime += System.currentTimeMillis() - start;
+        tupleLength = tupleBytes.length;
+      }
+      totalBytesWritten += tupleLength;
       MutableLong currentOffset = endOffsets.get(fileName);
 
       if(currentOffset == null) {
@@ -578,7 +646,7 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
         endOffsets.put(fileName, currentOffset);
       }
 
-      currentOffset.add(tupleBytes.length);
+      currentOffset.add(tupleLength);
 
       if (rotationWindows > 0) {
         getRotationState(fileName).notEmpty = true;
@@ -723,11 +791,16 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
   {
     try {
       Map<String, FSFilterStreamContext> openStreams = streamsCache.asMap();
-      for (FSFilterStreamContext streamContext: openStreams.values()) {
-        long start = System.currentTimeMillis();
-        streamContext.finalizeContext();
-        totalWritingTime += System.currentTimeMillis() - start;
-        //streamContext.resetFilter();
+      if (asyncWrites) {
+        finalizeContextsAsync(openStreams.values());
+      }
+      else {
+        for (FSFilterStreamContext streamContext: openStreams.values()) {
+          long start = System.currentTimeMillis();
+          streamContext.finalizeContext();
+          totalWritingTime += System.currentTimeMillis() - start;
+          //streamContext.resetFilter();
+        }
       }
     }
     catch (IOException e) {
@@ -767,11 +840,48 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
       }
     }
 
-    fileCounters.getCounter(Counters.TOTAL_TIME_WRITING_MILLISECONDS).setValue(totalWritingTime);
+    long writingTime = totalWritingTime;
+    if (asyncWrites) {
+      writingTime += TimeUnit.NANOSECONDS.toMillis(asyncWritingTime.get());
+      fileCounters.getCounter(Counters.TOTAL_QUEUEING_DELAY_MILLISECONDS).setValue(
+        TimeUnit.NANOSECONDS.toMillis(queueingDelay.get()));
+      fileCounters.getCounter(Counters.TOTAL_BUFFER_WAIT_MILLISECONDS).setValue(
+        TimeUnit.NANOSECONDS.toMillis(bufferWaitTime));
+    }
+    fileCounters.getCounter(Counters.TOTAL_TIME_WRITING_MILLISECONDS).setValue(writingTime);
     fileCounters.getCounter(Counters.TOTAL_BYTES_WRITTEN).setValue(totalBytesWritten);
     context.setCounters(fileCounters);
   }
 
+  /**
+   * Writes the filled buffers of all the streams, then finalizes and flushes the streams in parallel on the write
+   * threads.
+   * @param streamContexts The contexts of the open streams.
+   * @throws IOException
+   */
+  private void finalizeContextsAsync(Collection<FSFilterStreamContext> streamContexts) throws IOException
+  {
+    List<Future<Void>> flushes = Lists.newArrayListWithCapacity(streamContexts.size());
+    for (FSFilterStreamContext streamContext : streamContexts) {
+      flushes.add(streamContext.flushAsync());
+    }
+    try {
+      for (Future<Void> flush : flushes) {
+        flush.get();
+      }
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    //filter stream providers are not thread safe, so the contexts are reclaimed here
+    for (FSFilterStreamContext streamContext : streamContexts) {
+      streamContext.reclaimFilterContext();
+    }
+  }
+
   /**
    * This method determines the file that a received tuple is written out to.
    * @param tuple The tuple which can be used to determine the output file name.
@@ -786,6 +896,20 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
    */
   protected abstract byte[] getBytesForTuple(INPUT tuple);
 
+  /**
+   * This method puts the bytes of a tuple into a write buffer when writes are asynchronous.
+   * Override this method to encode tuples straight into the buffer instead of allocating a byte array per tuple.
+   * When the tuple does not fit in the remaining space the method should throw {@link BufferOverflowException}; the
+   * bytes put so far are discarded and the method is called again with an empty buffer, which is grown if needed.
+   * By default the bytes returned by {@link #getBytesForTuple(Object)} are put.
+   * @param tuple A received tuple to be converted into bytes.
+   * @param buffer The buffer the bytes are put into, starting at its position.
+   */
+  protected void encodeTuple(INPUT tuple, ByteBuffer buffer)
+  {
+    buffer.put(getBytesForTuple(tuple));
+  }
+
   /**
    * Sets the path of the working directory where files are being written.
    * @param dir The path of the working directory where files are being written.
@@ -899,6 +1023,80 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
     this.filterStreamProvider = filterStreamProvider;
   }
 
+  /**
+   * Returns true if tuples are written to the files by a pool of write threads.
+   * @return True if writes are asynchronous.
+   */
+  public boolean isAsyncWrites()
+  {
+    return asyncWrites;
+  }
+
+  /**
+   * Sets whether tuples are encoded into per-file write buffers which are written to the files by a pool of write
+   * threads, with the streams flushed in parallel at the end of the window. Default is false.
+   * @param asyncWrites True to write asynchronously.
+   */
+  public void setAsyncWrites(boolean asyncWrites)
+  {
+    this.asyncWrites = asyncWrites;
+  }
+
+  /**
+   * Gets the number of threads which write the buffers when writes are asynchronous.
+   * @return The number of write threads.
+   */
+  public int getWriteThreads()
+  {
+    return writeThreads;
+  }
+
+  /**
+   * Sets the number of threads which write the buffers when writes are asynchronous.
+   * @param writeThreads The number of write threads.
+   */
+  public void setWriteThreads(int writeThreads)
+  {
+    this.writeThreads = writeThreads;
+  }
+
+  /**
+   * Gets the size in bytes of a write buffer.
+   * @return The size of a write buffer.
+   */
+  public int getWriteBufferSize()
+  {
+    return writeBufferSize;
+  }
+
+  /**
+   * Sets the size in bytes of a write buffer. A tuple which is bigger gets a buffer of its own.
+   * @param writeBufferSize The size of a write buffer.
+   */
+  public void setWriteBufferSize(int writeBufferSize)
+  {
+    this.writeBufferSize = writeBufferSize;
+  }
+
+  /**
+   * Gets the number of write buffers of a file.
+   * @return The number of write buffers of a file.
+   */
+  public int getWriteBuffersPerFile()
+  {
+    return writeBuffersPerFile;
+  }
+
+  /**
+   * Sets the number of write buffers of a file. The operator fills one buffer while the others are being written,
+   * and waits when all of them are full.
+   * @param writeBuffersPerFile The number of write buffers of a file.
+   */
+  public void setWriteBuffersPerFile(int writeBuffersPerFile)
+  {
+    this.writeBuffersPerFile = writeBuffersPerFile;
+  }
+
   public static enum Counters
   {
     /**
@@ -911,7 +1109,19 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
      * An enum for counters representing the total time the operator has
      * been operational for.
      */
-    TOTAL_TIME_WRITING_MILLISECONDS
+    TOTAL_TIME_WRITING_MILLISECONDS,
+
+    /**
+     * An enum for counters representing the total time the write buffers
+     * have waited for a write thread when writes are asynchronous.
+     */
+    TOTAL_QUEUEING_DELAY_MILLISECONDS,
+
+    /**
+     * An enum for counters representing the total time the operator has
+     * waited for a free write buffer when writes are asynchronous.
+     */
+    TOTAL_BUFFER_WAIT_MILLISECONDS
   }
 
   private class FSFilterStreamContext implements FilterStreamContext<FilterOutputStream>
@@ -921,11 +1131,28 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
     
     private FilterStreamContext filterContext;
     private NonCloseableFilterOutputStream outputWrapper;
+
+    /**
+     * Write buffer being filled by the operator, and the free buffers of the file when writes are asynchronous.
+     */
+    private ByteBuffer buffer;
+    private BlockingQueue<ByteBuffer> freeBuffers;
+    private int allocatedBuffers;
+
+    /**
+     * Writes and flushes of the file, which the write threads run one at a time in order.
+     */
+    private final Queue<Runnable> tasks = Lists.newLinkedList();
+    private boolean running;
+    private volatile Throwable writeError;
     
     public FSFilterStreamContext(FSDataOutputStream outputStream) throws IOException
     {
       this.outputStream = outputStream;     
       outputWrapper = new NonCloseableFilterOutputStream(outputStream);
+      if (asyncWrites) {
+        freeBuffers = new ArrayBlockingQueue<ByteBuffer>(writeBuffersPerFile);
+      }
       //resetFilter();
       initializeContext();
     }
@@ -941,12 +1168,22 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
 
     @Override
     public void finalizeContext() throws IOException
+    {
+      flushContext();
+      reclaimFilterContext();
+    }
+
+    private void flushContext() throws IOException
     {
       if (filterContext != null) {
         filterContext.finalizeContext();
         outputWrapper.flush();
       }
       outputStream.hflush();
+    }
+
+    private void reclaimFilterContext()
+    {
       if (filterStreamProvider != null) {
         filterStreamProvider.reclaimFilterStreamContext(filterContext);
       }
@@ -962,10 +1199,189 @@ public abstract class AbstractFileOutputOperator<INPUT> extends BaseOperator
     public void close() throws IOException
     {
       //finalizeContext();
+      if (asyncWrites) {
+        awaitWrites();
+      }
       if (filterContext != null) {
         filterContext.getFilterStream().close();
       }
       outputStream.close();
+      checkWriteError();
+    }
+
+    /**
+     * Puts the tuple into the write buffer, handing the buffer to the write threads when it is full.
+     * @return The number of bytes of the tuple.
+     */
+    int write(INPUT tuple) throws IOException
+    {
+      checkWriteError();
+      if (buffer == null) {
+        buffer = takeBuffer();
+      }
+      int start = buffer.position();
+      while (true) {
+        try {
+          encodeTuple(tuple, buffer);
+          return buffer.position() - start;
+        }
+        catch (BufferOverflowException ex) {
+          buffer.position(start);
+          if (start > 0) {
+            submitBuffer();
+            buffer = takeBuffer();
+          }
+          else {
+            //the tuple does not fit in an empty buffer
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+          }
+          start = 0;
+        }
+      }
+    }
+
+    private ByteBuffer takeBuffer()
+    {
+      ByteBuffer free = freeBuffers.poll();
+      if (free == null) {
+        if (allocatedBuffers < writeBuffersPerFile) {
+          allocatedBuffers++;
+          return ByteBuffer.allocate(writeBufferSize);
+        }
+        long start = System.nanoTime();
+        try {
+          free = freeBuffers.take();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        bufferWaitTime += System.nanoTime() - start;
+      }
+      free.clear();
+      return free;
+    }
+
+    private void submitBuffer()
+    {
+      if (buffer == null || buffer.position() == 0) {
+        return;
+      }
+      final ByteBuffer filled = buffer;
+      final long queuedTime = System.nanoTime();
+      buffer = null;
+      filled.flip();
+      execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          long start = System.nanoTime();
+          queueingDelay.addAndGet(start - queuedTime);
+          try {
+            if (writeError == null) {
+              getFilterStream().write(filled.array(), filled.arrayOffset(), filled.limit());
+            }
+          }
+          catch (IOException e) {
+            writeError = e;
+          }
+          catch (RuntimeException e) {
+            writeError = e;
+          }
+          finally {
+            asyncWritingTime.addAndGet(System.nanoTime() - start);
+            freeBuffers.add(filled);
+          }
+        }
+      });
+    }
+
+    /**
+     * Hands the write buffer to the write threads, followed by the finalization and the flush of the stream.
+     * @return The future of the flush.
+     */
+    Future<Void> flushAsync()
+    {
+      submitBuffer();
+      FutureTask<Void> flush = new FutureTask<Void>(new Callable<Void>()
+      {
+        @Override
+        public Void call() throws IOException
+        {
+          long start = System.nanoTime();
+          try {
+            checkWriteError();
+            flushContext();
+          }
+          finally {
+            asyncWritingTime.addAndGet(System.nanoTime() - start);
+          }
+          return null;
+        }
+      });
+      execute(flush);
+      return flush;
+    }
+
+    /**
+     * Waits until the write threads have written the buffers of this file.
+     */
+    private void awaitWrites()
+    {
+      submitBuffer();
+      FutureTask<Void> written = new FutureTask<Void>(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+        }
+      }, null);
+      execute(written);
+      try {
+        written.get();
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      catch (ExecutionException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private void checkWriteError() throws IOException
+    {
+      if (writeError != null) {
+        throw new IOException("writing the file failed", writeError);
+      }
+    }
+
+    private void execute(Runnable task)
+    {
+      synchronized (tasks) {
+        tasks.add(task);
+        if (running) {
+          return;
+        }
+        running = true;
+      }
+      writeExecutor.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          while (true) {
+            Runnable next;
+            synchronized (tasks) {
+              next = tasks.poll();
+              if (next == null) {
+                running = false;
+                return;
+              }
+            }
+            next.run();
+          }
+        }
+      });
     }
     
   }
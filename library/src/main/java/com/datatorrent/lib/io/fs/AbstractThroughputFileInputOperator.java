@@ -38,6 +38,11 @@ import org.slf4j.LoggerFactory;
  * repartition interval has passed then a new number of operators are created
  * to accommodate the remaining pending files.
  * </p>
+ * <p>
+ * The files of a repartitioned operator are resumed at the byte position of their next record when the concrete
+ * operator reports it from {@link #getRecordPosition()}. Line based operators can read with a {@link LineReader}
+ * created in {@link #openFile(org.apache.hadoop.fs.Path)} and return its position.
+ * </p>
  *
  * @displayName FS Throughput Directory Scan Input
  * @category Input
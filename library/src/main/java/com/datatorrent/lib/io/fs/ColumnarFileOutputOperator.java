@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.io.fs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import com.google.common.collect.Lists;
+
+import com.datatorrent.api.Context.OperatorContext;
+
+import com.datatorrent.lib.io.fs.ColumnarStripe.ColumnType;
+import com.datatorrent.lib.io.fs.ColumnarStripe.Compression;
+import com.datatorrent.lib.util.PojoUtils;
+import com.datatorrent.lib.util.PojoUtils.Getter;
+import com.datatorrent.lib.util.PojoUtils.GetterBoolean;
+import com.datatorrent.lib.util.PojoUtils.GetterDouble;
+import com.datatorrent.lib.util.PojoUtils.GetterFloat;
+import com.datatorrent.lib.util.PojoUtils.GetterInt;
+import com.datatorrent.lib.util.PojoUtils.GetterLong;
+
+/**
+ * This output operator writes POJOs to a file in a columnar layout.<br/>
+ * The fields of the POJOs are read with {@link PojoUtils} getters, which are created from the expressions when the
+ * first tuple arrives, into one vector per column. The rows are written as a {@link ColumnarStripe} with min/max
+ * statistics and compressed column chunks at the end of every window, or earlier when maxStripeRows rows are buffered.
+ * <p>
+ * The operator relies on the rolling and recovery of {@link AbstractFileOutputOperator}: a stripe is written as a
+ * whole, so the end offsets which are checkpointed always point at a stripe boundary and a file which is truncated
+ * to its checkpointed offset on recovery has only complete stripes. Files are rolled at stripe boundaries as well.
+ * </p>
+ *
+ * @displayName FS Columnar Writer
+ * @category Output
+ * @tags fs, file, output operator, columnar
+ */
+public class ColumnarFileOutputOperator extends AbstractSingleFileOutputOperator<Object>
+{
+  /**
+   * Names of the columns.
+   */
+  @NotNull
+  private ArrayList<String> columnNames = Lists.newArrayList();
+
+  /**
+   * Java expressions which get the values of the columns from a POJO.
+   */
+  @NotNull
+  private ArrayList<String> expressions = Lists.newArrayList();
+
+  /**
+   * Types of the columns.
+   */
+  @NotNull
+  private ArrayList<ColumnType> columnTypes = Lists.newArrayList();
+
+  @NotNull
+  private Compression compression = Compression.DEFLATE;
+
+  /**
+   * The max number of rows of a stripe.
+   */
+  @Min(1)
+  private int maxStripeRows = 100000;
+
+  private transient ColumnarStripe stripe;
+  private transient Object[] getters;
+  private transient ByteArrayOutputStream stripeBytes;
+
+  @Override
+  public void setup(OperatorContext context)
+  {
+    if (columnNames.size() != expressions.size() || columnNames.size() != columnTypes.size()) {
+      throw new IllegalArgumentException("column names " + columnNames + ", expressions " + expressions + " and types " + columnTypes + " do not match");
+    }
+    stripe = new ColumnarStripe(columnNames.toArray(new String[columnNames.size()]),
+                                columnTypes.toArray(new ColumnType[columnTypes.size()]));
+    stripeBytes = new ByteArrayOutputStream();
+    super.setup(context);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void processTuple(Object tuple)
+  {
+    if (getters == null) {
+      createGetters(tuple.getClass());
+    }
+
+    stripe.addRow();
+    for (int i = 0; i < getters.length; i++) {
+      switch (columnTypes.get(i)) {
+        case BOOLEAN:
+          stripe.setBoolean(i, ((GetterBoolean<Object>)getters[i]).get(tuple));
+          break;
+        case INT:
+          stripe.setLong(i, ((GetterInt<Object>)getters[i]).get(tuple));
+          break;
+        case LONG:
+          stripe.setLong(i, ((GetterLong<Object>)getters[i]).get(tuple));
+          break;
+        case FLOAT:
+          stripe.setDouble(i, ((GetterFloat<Object>)getters[i]).get(tuple));
+          break;
+        case DOUBLE:
+          stripe.setDouble(i, ((GetterDouble<Object>)getters[i]).get(tuple));
+          break;
+        default:
+          stripe.setString(i, ((Getter<Object, String>)getters[i]).get(tuple));
+          break;
+      }
+    }
+
+    if (stripe.getRowCount() >= maxStripeRows) {
+      writeStripe();
+    }
+  }
+
+  private void createGetters(Class<?> pojoClass)
+  {
+    getters = new Object[expressions.size()];
+    for (int i = 0; i < getters.length; i++) {
+      String expression = expressions.get(i);
+      switch (columnTypes.get(i)) {
+        case BOOLEAN:
+          getters[i] = PojoUtils.createGetterBoolean(pojoClass, expression);
+          break;
+        case INT:
+          getters[i] = PojoUtils.createGetterInt(pojoClass, expression);
+          break;
+        case LONG:
+          getters[i] = PojoUtils.createGetterLong(pojoClass, expression);
+          break;
+        case FLOAT:
+          getters[i] = PojoUtils.createGetterFloat(pojoClass, expression);
+          break;
+        case DOUBLE:
+          getters[i] = PojoUtils.createGetterDouble(pojoClass, expression);
+          break;
+        default:
+          getters[i] = PojoUtils.createGetter(pojoClass, expression, String.class);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Writes the buffered rows as a stripe through {@link AbstractFileOutputOperator#processTuple(Object)}, which
+   * tracks the end offset of the file and rolls the file.
+   */
+  private void writeStripe()
+  {
+    if (stripe.getRowCount() > 0) {
+      super.processTuple(stripe);
+      stripe.clear();
+    }
+  }
+
+  @Override
+  public void endWindow()
+  {
+    writeStripe();
+    super.endWindow();
+  }
+
+  /**
+   * Encodes the stripe of buffered rows, which is the only tuple given to the base operator.
+   */
+  @Override
+  protected byte[] getBytesForTuple(Object tuple)
+  {
+    stripeBytes.reset();
+    try {
+      ((ColumnarStripe)tuple).write(new DataOutputStream(stripeBytes), compression);
+    }
+    catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    return stripeBytes.toByteArray();
+  }
+
+  /**
+   * Gets the names of the columns.
+   * @return The names of the columns.
+   */
+  public ArrayList<String> getColumnNames()
+  {
+    return columnNames;
+  }
+
+  /**
+   * Sets the names of the columns.
+   * @param columnNames The names of the columns.
+   */
+  public void setColumnNames(ArrayList<String> columnNames)
+  {
+    this.columnNames = columnNames;
+  }
+
+  /**
+   * Gets the Java expressions which get the values of the columns from a POJO.
+   * @return The getter expressions, one per column.
+   */
+  public ArrayList<String> getExpressions()
+  {
+    return expressions;
+  }
+
+  /**
+   * Sets the Java expressions which get the values of the columns from a POJO, for example a field name or
+   * "getName()".
+   * @param expressions The getter expressions, one per column.
+   */
+  public void setExpressions(ArrayList<String> expressions)
+  {
+    this.expressions = expressions;
+  }
+
+  /**
+   * Gets the types of the columns.
+   * @return The types of the columns.
+   */
+  public ArrayList<ColumnType> getColumnTypes()
+  {
+    return columnTypes;
+  }
+
+  /**
+   * Sets the types of the columns.
+   * @param columnTypes The types of the columns.
+   */
+  public void setColumnTypes(ArrayList<ColumnType> columnTypes)
+  {
+    this.columnTypes = columnTypes;
+  }
+
+  /**
+   * Gets the compression of the column chunks.
+   * @return The compression.
+   */
+  public Compression getCompression()
+  {
+    return compression;
+  }
+
+  /**
+   * Sets the compression of the column chunks. Default is {@link Compression#DEFLATE}.
+   * @param compression The compression.
+   */
+  public void setCompression(Compression compression)
+  {
+    this.compression = compression;
+  }
+
+  /**
+   * Gets the max number of rows of a stripe.
+   * @return The max number of rows of a stripe.
+   */
+  public int getMaxStripeRows()
+  {
+    return maxStripeRows;
+  }
+
+  /**
+   * Sets the max number of rows of a stripe. The rows of a window are written in more than one stripe when there are
+   * more rows.
+   * @param maxStripeRows The max number of rows of a stripe.
+   */
+  public void setMaxStripeRows(int maxStripeRows)
+  {
+    this.maxStripeRows = maxStripeRows;
+  }
+
+}
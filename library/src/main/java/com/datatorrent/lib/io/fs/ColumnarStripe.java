@@ -0,0 +1,708 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.io.fs;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Rows of a {@link ColumnarFileOutputOperator} file kept in one vector per column.<br/>
+ * A stripe is stored as a header with the row count and the schema, followed by one chunk per column. Every chunk
+ * starts with the min/max statistics of the column, so readers can skip the stripes which do not match a predicate
+ * without decoding them. Integral columns are delta encoded, string columns are dictionary encoded when there are
+ * few distinct values, and every chunk is optionally deflated.
+ * <p>
+ * Stripes do not depend on each other and a file has no footer, so a file truncated at a stripe boundary is complete.
+ * </p>
+ */
+public class ColumnarStripe
+{
+  /**
+   * "COL1", the first bytes of every stripe.
+   */
+  public static final int MAGIC = 0x434f4c31;
+
+  private static final int MIN_CAPACITY = 16;
+  private static final int PLAIN = 0;
+  private static final int DICTIONARY = 1;
+
+  /**
+   * Types of the columns.
+   */
+  public static enum ColumnType
+  {
+    BOOLEAN, INT, LONG, FLOAT, DOUBLE, STRING;
+
+    boolean isIntegral()
+    {
+      return this == BOOLEAN || this == INT || this == LONG;
+    }
+
+    boolean isFloatingPoint()
+    {
+      return this == FLOAT || this == DOUBLE;
+    }
+  }
+
+  /**
+   * Compression of the column chunks.
+   */
+  public static enum Compression
+  {
+    NONE, DEFLATE
+  }
+
+  /**
+   * Statistics of a column of a stripe.
+   */
+  public static class ColumnStatistics
+  {
+    private int nullCount;
+    private Object min;
+    private Object max;
+
+    /**
+     * @return number of null values.
+     */
+    public int getNullCount()
+    {
+      return nullCount;
+    }
+
+    /**
+     * @return the min value, which is a {@link Boolean}, {@link Long}, {@link Double} or {@link String} depending on
+     * the column type; null if all the values are null. NaN values are not counted in the min/max of floating point
+     * columns, which are null if all the values are NaN.
+     */
+    public Object getMin()
+    {
+      return min;
+    }
+
+    /**
+     * @return the max value, see {@link #getMin()}.
+     */
+    public Object getMax()
+    {
+      return max;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "ColumnStatistics{" + "nullCount=" + nullCount + ", min=" + min + ", max=" + max + '}';
+    }
+  }
+
+  private final String[] names;
+  private final ColumnType[] types;
+  /* one vector per column, of the kind of the column type */
+  private final long[][] longs;
+  private final double[][] doubles;
+  private final String[][] strings;
+  private int rowCount;
+  private int capacity;
+  /* statistics read with the stripe */
+  private ColumnStatistics[] statistics;
+
+  public ColumnarStripe(String[] names, ColumnType[] types)
+  {
+    if (names.length != types.length) {
+      throw new IllegalArgumentException("column names " + Arrays.toString(names) + " and types " + Arrays.toString(types) + " do not match");
+    }
+    this.names = names;
+    this.types = types;
+    longs = new long[types.length][];
+    doubles = new double[types.length][];
+    strings = new String[types.length][];
+    allocate(MIN_CAPACITY);
+  }
+
+  private void allocate(int capacity)
+  {
+    for (int i = types.length; i-- > 0; ) {
+      if (types[i].isIntegral()) {
+        longs[i] = longs[i] == null ? new long[capacity] : Arrays.copyOf(longs[i], capacity);
+      }
+      else if (types[i].isFloatingPoint()) {
+        doubles[i] = doubles[i] == null ? new double[capacity] : Arrays.copyOf(doubles[i], capacity);
+      }
+      else {
+        strings[i] = strings[i] == null ? new String[capacity] : Arrays.copyOf(strings[i], capacity);
+      }
+    }
+    this.capacity = capacity;
+  }
+
+  public int getColumnCount()
+  {
+    return types.length;
+  }
+
+  public String getColumnName(int column)
+  {
+    return names[column];
+  }
+
+  public ColumnType getColumnType(int column)
+  {
+    return types[column];
+  }
+
+  /**
+   * @return number of rows.
+   */
+  public int getRowCount()
+  {
+    return rowCount;
+  }
+
+  /**
+   * Adds a row. The setters set the columns of the last row.
+   */
+  public void addRow()
+  {
+    if (rowCount == capacity) {
+      allocate(capacity << 1);
+    }
+    rowCount++;
+    statistics = null;
+  }
+
+  /**
+   * Removes all the rows, keeping the vectors for the next rows.
+   */
+  public void clear()
+  {
+    for (String[] column : strings) {
+      if (column != null) {
+        Arrays.fill(column, 0, rowCount, null);
+      }
+    }
+    rowCount = 0;
+    statistics = null;
+  }
+
+  public void setBoolean(int column, boolean value)
+  {
+    longs[column][rowCount - 1] = value ? 1 : 0;
+  }
+
+  public void setLong(int column, long value)
+  {
+    longs[column][rowCount - 1] = value;
+  }
+
+  public void setDouble(int column, double value)
+  {
+    doubles[column][rowCount - 1] = value;
+  }
+
+  public void setString(int column, String value)
+  {
+    strings[column][rowCount - 1] = value;
+  }
+
+  public boolean getBoolean(int column, int row)
+  {
+    return longs[column][row] != 0;
+  }
+
+  public long getLong(int column, int row)
+  {
+    return longs[column][row];
+  }
+
+  public double getDouble(int column, int row)
+  {
+    return doubles[column][row];
+  }
+
+  public String getString(int column, int row)
+  {
+    return strings[column][row];
+  }
+
+  /**
+   * Gets the statistics of a column, which are read from the file for a stripe which was read.
+   *
+   * @param column column
+   * @return statistics of the values of the column.
+   */
+  public ColumnStatistics getStatistics(int column)
+  {
+    if (this.statistics != null) {
+      return this.statistics[column];
+    }
+    ColumnStatistics statistics = new ColumnStatistics();
+    if (rowCount == 0) {
+      return statistics;
+    }
+    ColumnType type = types[column];
+    if (type.isIntegral()) {
+      long[] values = longs[column];
+      long min = values[0];
+      long max = values[0];
+      for (int row = 1; row < rowCount; row++) {
+        min = Math.min(min, values[row]);
+        max = Math.max(max, values[row]);
+      }
+      statistics.min = type == ColumnType.BOOLEAN ? (Object)(min != 0) : (Object)min;
+      statistics.max = type == ColumnType.BOOLEAN ? (Object)(max != 0) : (Object)max;
+    }
+    else if (type.isFloatingPoint()) {
+      // NaN is not ordered and would make both min and max NaN, it is skipped
+      double[] values = doubles[column];
+      Double min = null;
+      Double max = null;
+      for (int row = 0; row < rowCount; row++) {
+        double value = values[row];
+        if (Double.isNaN(value)) {
+          continue;
+        }
+        if (min == null || value < min) {
+          min = value;
+        }
+        if (max == null || value > max) {
+          max = value;
+        }
+      }
+      statistics.min = min;
+      statistics.max = max;
+    }
+    else {
+      String min = null;
+      String max = null;
+      String[] values = strings[column];
+      for (int row = 0; row < rowCount; row++) {
+        String value = values[row];
+        if (value == null) {
+          statistics.nullCount++;
+        }
+        else {
+          if (min == null || value.compareTo(min) < 0) {
+            min = value;
+          }
+          if (max == null || value.compareTo(max) > 0) {
+            max = value;
+          }
+        }
+      }
+      statistics.min = min;
+      statistics.max = max;
+    }
+    return statistics;
+  }
+
+  /**
+   * Writes the rows as a stripe.
+   *
+   * @param out         output
+   * @param compression compression of the column chunks
+   * @throws IOException
+   */
+  public void write(DataOutputStream out, Compression compression) throws IOException
+  {
+    out.writeInt(MAGIC);
+    out.writeInt(rowCount);
+    out.writeInt(types.length);
+    for (int i = 0; i < types.length; i++) {
+      out.writeUTF(names[i]);
+      out.writeByte(types[i].ordinal());
+    }
+
+    ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+    DataOutputStream chunkOut = new DataOutputStream(chunk);
+    Deflater deflater = compression == Compression.DEFLATE ? new Deflater() : null;
+    byte[] buffer = new byte[4096];
+    try {
+      for (int i = 0; i < types.length; i++) {
+        writeStatistics(out, types[i], getStatistics(i));
+
+        chunk.reset();
+        writeColumn(chunkOut, i);
+        chunkOut.flush();
+        out.writeByte(compression.ordinal());
+        out.writeInt(chunk.size());
+        if (deflater == null) {
+          out.writeInt(chunk.size());
+          chunk.writeTo(out);
+        }
+        else {
+          ByteArrayOutputStream deflated = new ByteArrayOutputStream(chunk.size() / 2 + 16);
+          deflater.reset();
+          deflater.setInput(chunk.toByteArray());
+          deflater.finish();
+          while (!deflater.finished()) {
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+          }
+          out.writeInt(deflated.size());
+          deflated.writeTo(out);
+        }
+      }
+    }
+    finally {
+      if (deflater != null) {
+        deflater.end();
+      }
+    }
+  }
+
+  private static void writeStatistics(DataOutputStream out, ColumnType type, ColumnStatistics statistics) throws IOException
+  {
+    out.writeInt(statistics.nullCount);
+    out.writeBoolean(statistics.min != null);
+    if (statistics.min == null) {
+      return;
+    }
+    switch (type) {
+      case BOOLEAN:
+        out.writeBoolean((Boolean)statistics.min);
+        out.writeBoolean((Boolean)statistics.max);
+        break;
+      case INT:
+      case LONG:
+        out.writeLong((Long)statistics.min);
+        out.writeLong((Long)statistics.max);
+        break;
+      case FLOAT:
+      case DOUBLE:
+        out.writeDouble((Double)statistics.min);
+        out.writeDouble((Double)statistics.max);
+        break;
+      default:
+        writeString(out, (String)statistics.min);
+        writeString(out, (String)statistics.max);
+        break;
+    }
+  }
+
+  private static ColumnStatistics readStatistics(DataInputStream in, ColumnType type) throws IOException
+  {
+    ColumnStatistics statistics = new ColumnStatistics();
+    statistics.nullCount = in.readInt();
+    if (!in.readBoolean()) {
+      return statistics;
+    }
+    switch (type) {
+      case BOOLEAN:
+        statistics.min = in.readBoolean();
+        statistics.max = in.readBoolean();
+        break;
+      case INT:
+      case LONG:
+        statistics.min = in.readLong();
+        statistics.max = in.readLong();
+        break;
+      case FLOAT:
+      case DOUBLE:
+        statistics.min = in.readDouble();
+        statistics.max = in.readDouble();
+        break;
+      default:
+        statistics.min = readString(in);
+        statistics.max = readString(in);
+        break;
+    }
+    return statistics;
+  }
+
+  private void writeColumn(DataOutputStream out, int column) throws IOException
+  {
+    switch (types[column]) {
+      case BOOLEAN: {
+        long[] values = longs[column];
+        for (int row = 0; row < rowCount; row += 8) {
+          int bits = 0;
+          for (int bit = 0; bit < 8 && row + bit < rowCount; bit++) {
+            if (values[row + bit] != 0) {
+              bits |= 1 << bit;
+            }
+          }
+          out.writeByte(bits);
+        }
+        break;
+      }
+      case INT:
+      case LONG: {
+        long[] values = longs[column];
+        long previous = 0;
+        for (int row = 0; row < rowCount; row++) {
+          writeVarLong(out, zigZag(values[row] - previous));
+          previous = values[row];
+        }
+        break;
+      }
+      case FLOAT: {
+        double[] values = doubles[column];
+        for (int row = 0; row < rowCount; row++) {
+          out.writeFloat((float)values[row]);
+        }
+        break;
+      }
+      case DOUBLE: {
+        double[] values = doubles[column];
+        for (int row = 0; row < rowCount; row++) {
+          out.writeDouble(values[row]);
+        }
+        break;
+      }
+      default:
+        writeStrings(out, strings[column]);
+        break;
+    }
+  }
+
+  private void writeStrings(DataOutputStream out, String[] values) throws IOException
+  {
+    /* null flags */
+    for (int row = 0; row < rowCount; row += 8) {
+      int bits = 0;
+      for (int bit = 0; bit < 8 && row + bit < rowCount; bit++) {
+        if (values[row + bit] == null) {
+          bits |= 1 << bit;
+        }
+      }
+      out.writeByte(bits);
+    }
+
+    Map<String, Integer> dictionary = Maps.newLinkedHashMap();
+    int nonNulls = 0;
+    for (int row = 0; row < rowCount; row++) {
+      if (values[row] != null) {
+        nonNulls++;
+        if (!dictionary.containsKey(values[row])) {
+          dictionary.put(values[row], dictionary.size());
+        }
+      }
+    }
+
+    if (dictionary.size() * 2 <= nonNulls) {
+      out.writeByte(DICTIONARY);
+      writeVarLong(out, dictionary.size());
+      for (String value : dictionary.keySet()) {
+        writeString(out, value);
+      }
+      for (int row = 0; row < rowCount; row++) {
+        if (values[row] != null) {
+          writeVarLong(out, dictionary.get(values[row]));
+        }
+      }
+    }
+    else {
+      out.writeByte(PLAIN);
+      for (int row = 0; row < rowCount; row++) {
+        if (values[row] != null) {
+          writeString(out, values[row]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the next stripe.
+   *
+   * @param in input
+   * @return the stripe; null at the end of the input.
+   * @throws IOException
+   */
+  public static ColumnarStripe read(DataInputStream in) throws IOException
+  {
+    int magic;
+    try {
+      magic = in.readInt();
+    }
+    catch (EOFException ex) {
+      return null;
+    }
+    if (magic != MAGIC) {
+      throw new IOException("not a stripe " + Integer.toHexString(magic));
+    }
+    int rowCount = in.readInt();
+    int columnCount = in.readInt();
+    String[] names = new String[columnCount];
+    ColumnType[] types = new ColumnType[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      names[i] = in.readUTF();
+      types[i] = ColumnType.values()[in.readByte()];
+    }
+
+    ColumnarStripe stripe = new ColumnarStripe(names, types);
+    stripe.allocate(Math.max(MIN_CAPACITY, rowCount));
+    stripe.rowCount = rowCount;
+    ColumnStatistics[] statistics = new ColumnStatistics[columnCount];
+    Inflater inflater = null;
+    try {
+      for (int i = 0; i < columnCount; i++) {
+        statistics[i] = readStatistics(in, types[i]);
+        Compression compression = Compression.values()[in.readByte()];
+        byte[] chunk = new byte[in.readInt()];
+        byte[] stored = new byte[in.readInt()];
+        in.readFully(stored);
+        if (compression == Compression.DEFLATE) {
+          if (inflater == null) {
+            inflater = new Inflater();
+          }
+          inflater.reset();
+          inflater.setInput(stored);
+          int length = 0;
+          while (length < chunk.length) {
+            int inflated = inflater.inflate(chunk, length, chunk.length - length);
+            if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+              throw new EOFException("truncated column " + names[i]);
+            }
+            length += inflated;
+          }
+        }
+        else {
+          chunk = stored;
+        }
+        stripe.readColumn(new DataInputStream(new ByteArrayInputStream(chunk)), i);
+      }
+    }
+    catch (DataFormatException ex) {
+      throw new IOException(ex);
+    }
+    finally {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+    stripe.statistics = statistics;
+    return stripe;
+  }
+
+  private void readColumn(DataInputStream in, int column) throws IOException
+  {
+    switch (types[column]) {
+      case BOOLEAN: {
+        long[] values = longs[column];
+        for (int row = 0; row < rowCount; row += 8) {
+          int bits = in.readUnsignedByte();
+          for (int bit = 0; bit < 8 && row + bit < rowCount; bit++) {
+            values[row + bit] = (bits >>> bit) & 1;
+          }
+        }
+        break;
+      }
+      case INT:
+      case LONG: {
+        long[] values = longs[column];
+        long previous = 0;
+        for (int row = 0; row < rowCount; row++) {
+          previous += unZigZag(readVarLong(in));
+          values[row] = previous;
+        }
+        break;
+      }
+      case FLOAT: {
+        double[] values = doubles[column];
+        for (int row = 0; row < rowCount; row++) {
+          values[row] = in.readFloat();
+        }
+        break;
+      }
+      case DOUBLE: {
+        double[] values = doubles[column];
+        for (int row = 0; row < rowCount; row++) {
+          values[row] = in.readDouble();
+        }
+        break;
+      }
+      default:
+        readStrings(in, strings[column]);
+        break;
+    }
+  }
+
+  private void readStrings(DataInputStream in, String[] values) throws IOException
+  {
+    boolean[] nulls = new boolean[rowCount];
+    for (int row = 0; row < rowCount; row += 8) {
+      int bits = in.readUnsignedByte();
+      for (int bit = 0; bit < 8 && row + bit < rowCount; bit++) {
+        nulls[row + bit] = ((bits >>> bit) & 1) != 0;
+      }
+    }
+
+    if (in.readByte() == DICTIONARY) {
+      String[] dictionary = new String[(int)readVarLong(in)];
+      for (int i = 0; i < dictionary.length; i++) {
+        dictionary[i] = readString(in);
+      }
+      for (int row = 0; row < rowCount; row++) {
+        values[row] = nulls[row] ? null : dictionary[(int)readVarLong(in)];
+      }
+    }
+    else {
+      for (int row = 0; row < rowCount; row++) {
+        values[row] = nulls[row] ? null : readString(in);
+      }
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException
+  {
+    byte[] bytes = value.getBytes("UTF-8");
+    writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException
+  {
+    byte[] bytes = new byte[(int)readVarLong(in)];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private static long zigZag(long value)
+  {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value)
+  {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException
+  {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int)((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int)value);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException
+  {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long)(b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.statistics;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates of a {@link DimensionsComputation.ColumnarAggregator} kept in primitive columns.<br/>
+ * Every group of events is a row. The row of an event is found by hashing the dimension fields straight from the
+ * event with the hashing strategy of the aggregator, so no key object is allocated per event. A copy of the dimension
+ * fields of the first event of a group, made by {@link DimensionsComputation.ColumnarAggregator#copyKey(Object)}, is
+ * kept as the key of the row.
+ * <p>
+ * The columns are a flyweight: the aggregator reads and updates the columns of the current row which is positioned
+ * before every callback.
+ * </p>
+ *
+ * @param <EVENT> type of the events.
+ */
+public class AggregateColumns<EVENT>
+{
+  private static final int MIN_CAPACITY = 16;
+
+  private final DimensionsComputation.ColumnarAggregator<EVENT, ?> aggregator;
+  /* row + 1 for every occupied slot of the open addressing table, 0 for a free slot */
+  private int[] slots;
+  private int[] hashes;
+  private Object[] keys;
+  private long[][] longs;
+  private double[][] doubles;
+  private int size;
+  private int row;
+
+  public AggregateColumns(DimensionsComputation.ColumnarAggregator<EVENT, ?> aggregator, int longColumns, int doubleColumns)
+  {
+    this.aggregator = aggregator;
+    slots = new int[MIN_CAPACITY * 2];
+    hashes = new int[MIN_CAPACITY];
+    keys = new Object[MIN_CAPACITY];
+    longs = new long[longColumns][MIN_CAPACITY];
+    doubles = new double[doubleColumns][MIN_CAPACITY];
+  }
+
+  /**
+   * Positions the columns at the row of the group of the event, adding a row with zero columns if the group is new.
+   *
+   * @param event event
+   * @return true if a row was added.
+   */
+  boolean position(EVENT event)
+  {
+    int hash = aggregator.computeHashCode(event);
+    int mask = slots.length - 1;
+    int slot = mix(hash) & mask;
+    int entry;
+    while ((entry = slots[slot]) != 0) {
+      @SuppressWarnings("unchecked")
+      EVENT key = (EVENT)keys[entry - 1];
+      if (hashes[entry - 1] == hash && aggregator.equals(key, event)) {
+        row = entry - 1;
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    if (size == keys.length) {
+      grow();
+      slot = free(hash);
+    }
+    row = size++;
+    slots[slot] = size;
+    hashes[row] = hash;
+    keys[row] = aggregator.copyKey(event);
+    return true;
+  }
+
+  private int free(int hash)
+  {
+    int mask = slots.length - 1;
+    int slot = mix(hash) & mask;
+    while (slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static int mix(int hash)
+  {
+    int h = hash * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Doubles the rows; the table is kept at twice the rows so that it is never more than half full.
+   */
+  private void grow()
+  {
+    int capacity = keys.length << 1;
+    keys = Arrays.copyOf(keys, capacity);
+    hashes = Arrays.copyOf(hashes, capacity);
+    for (int i = longs.length; i-- > 0; ) {
+      longs[i] = Arrays.copyOf(longs[i], capacity);
+    }
+    for (int i = doubles.length; i-- > 0; ) {
+      doubles[i] = Arrays.copyOf(doubles[i], capacity);
+    }
+    slots = new int[capacity << 1];
+    for (int r = 0; r < size; r++) {
+      slots[free(hashes[r])] = r + 1;
+    }
+  }
+
+  /**
+   * @return number of rows.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Positions the columns at the given row.
+   *
+   * @param row row
+   * @return the key of the group of the row.
+   */
+  EVENT seek(int row)
+  {
+    this.row = row;
+    @SuppressWarnings("unchecked")
+    EVENT key = (EVENT)keys[row];
+    return key;
+  }
+
+  /**
+   * Removes all the rows and zeroes the columns.
+   */
+  public void clear()
+  {
+    Arrays.fill(slots, 0);
+    Arrays.fill(keys, 0, size, null);
+    for (long[] column : longs) {
+      Arrays.fill(column, 0, size, 0L);
+    }
+    for (double[] column : doubles) {
+      Arrays.fill(column, 0, size, 0d);
+    }
+    size = 0;
+    row = 0;
+  }
+
+  public long getLong(int column)
+  {
+    return longs[column][row];
+  }
+
+  public void setLong(int column, long value)
+  {
+    longs[column][row] = value;
+  }
+
+  public void addLong(int column, long value)
+  {
+    longs[column][row] += value;
+  }
+
+  public void minLong(int column, long value)
+  {
+    if (value < longs[column][row]) {
+      longs[column][row] = value;
+    }
+  }
+
+  public void maxLong(int column, long value)
+  {
+    if (value > longs[column][row]) {
+      longs[column][row] = value;
+    }
+  }
+
+  public double getDouble(int column)
+  {
+    return doubles[column][row];
+  }
+
+  public void setDouble(int column, double value)
+  {
+    doubles[column][row] = value;
+  }
+
+  public void addDouble(int column, double value)
+  {
+    doubles[column][row] += value;
+  }
+
+  public void minDouble(int column, double value)
+  {
+    if (value < doubles[column][row]) {
+      doubles[column][row] = value;
+    }
+  }
+
+  public void maxDouble(int column, double value)
+  {
+    if (value > doubles[column][row]) {
+      doubles[column][row] = value;
+    }
+  }
+
+}
@@ -106,6 +106,57 @@ public class DimensionsComputation<EVENT, AGGREGATE extends DimensionsComputatio
     void aggregate(AGGREGATE dest, AGGREGATE src);
   }
 
+  /**
+   * An {@link Aggregator} which keeps the aggregates of a window in primitive columns instead of AGGREGATE objects.<br/>
+   * Events are aggregated into the {@link AggregateColumns} and the AGGREGATE objects are created only at the end of
+   * the window, so the aggregation of an event allocates nothing.
+   *
+   * @param <EVENT>
+   * @param <AGGREGATE>
+   */
+  public static interface ColumnarAggregator<EVENT, AGGREGATE extends AggregateEvent> extends Aggregator<EVENT, AGGREGATE>
+  {
+    /**
+     * @return number of long columns of an aggregate.
+     */
+    int getLongColumnCount();
+
+    /**
+     * @return number of double columns of an aggregate.
+     */
+    int getDoubleColumnCount();
+
+    /**
+     * Initializes the zeroed columns of a new group, eg. to the identities of min and max.
+     *
+     * @param dest columns of the group of the event.
+     * @param src  first event of the group.
+     */
+    void initialize(AggregateColumns<EVENT> dest, EVENT src);
+
+    void aggregate(AggregateColumns<EVENT> dest, EVENT src);
+
+    /**
+     * Copies the fields of an event which are hashed and compared by this aggregator and read by
+     * {@link #getGroup(Object, AggregateColumns, int)}. The copy is the key of a new group, so that the first event of
+     * the group is not retained until the end of the window.
+     *
+     * @param src first event of a group.
+     * @return the key of the group.
+     */
+    EVENT copyKey(EVENT src);
+
+    /**
+     * Creates the aggregate of a group.
+     *
+     * @param src            key of the group, see {@link #copyKey(Object)}.
+     * @param aggregates     columns of the group.
+     * @param aggregatorIndex index of the aggregator.
+     * @return the aggregate.
+     */
+    AGGREGATE getGroup(EVENT src, AggregateColumns<EVENT> aggregates, int aggregatorIndex);
+  }
+
   private AggregatorMap<EVENT, AGGREGATE>[] aggregatorMaps;
 
   /**
@@ -144,7 +195,17 @@ public class DimensionsComputation<EVENT, AGGREGATE extends DimensionsComputatio
   @Override
   public void endWindow()
   {
-    for (AggregatorMap<EVENT, AGGREGATE> dimension : aggregatorMaps) {
+    for (int i = 0; i < aggregatorMaps.length; i++) {
+      AggregatorMap<EVENT, AGGREGATE> dimension = aggregatorMaps[i];
+      if (dimension.columns != null) {
+        @SuppressWarnings("unchecked")
+        ColumnarAggregator<EVENT, AGGREGATE> aggregator = (ColumnarAggregator<EVENT, AGGREGATE>) dimension.aggregator;
+        for (int row = 0; row < dimension.columns.size(); row++) {
+          EVENT src = dimension.columns.seek(row);
+          output.emit(aggregator.getGroup(src, dimension.columns, i));
+        }
+        dimension.columns.clear();
+      }
       for (AGGREGATE value : dimension.values()) {
         output.emit(value);
       }
@@ -325,6 +386,8 @@ public class DimensionsComputation<EVENT, AGGREGATE extends DimensionsComputatio
   static class AggregatorMap<EVENT, AGGREGATE extends AggregateEvent> extends TCustomHashMap<EVENT, AGGREGATE>
   {
     transient Aggregator<EVENT, AGGREGATE> aggregator;
+    /* aggregates of a columnar aggregator, which are emitted and cleared before every checkpoint */
+    transient AggregateColumns<EVENT> columns;
 
     @SuppressWarnings("PublicConstructorInNonPublicClass")
     public AggregatorMap()
@@ -337,17 +400,40 @@ public class DimensionsComputation<EVENT, AGGREGATE extends DimensionsComputatio
     AggregatorMap(Aggregator<EVENT, AGGREGATE> aggregator)
     {
       super(aggregator);
-      this.aggregator = aggregator;
+      setAggregator(aggregator);
     }
 
     AggregatorMap(Aggregator<EVENT, AGGREGATE> aggregator, int initialCapacity)
     {
       super(aggregator, initialCapacity);
+      setAggregator(aggregator);
+    }
+
+    private void setAggregator(Aggregator<EVENT, AGGREGATE> aggregator)
+    {
       this.aggregator = aggregator;
+      if (aggregator instanceof ColumnarAggregator) {
+        @SuppressWarnings("unchecked")
+        ColumnarAggregator<EVENT, AGGREGATE> columnarAggregator = (ColumnarAggregator<EVENT, AGGREGATE>) aggregator;
+        columns = new AggregateColumns<EVENT>(columnarAggregator, columnarAggregator.getLongColumnCount(), columnarAggregator.getDoubleColumnCount());
+      }
+      else {
+        columns = null;
+      }
     }
 
     public void add(EVENT tuple, int aggregatorIdx)
     {
+      if (columns != null) {
+        @SuppressWarnings("unchecked")
+        ColumnarAggregator<EVENT, AGGREGATE> columnarAggregator = (ColumnarAggregator<EVENT, AGGREGATE>) aggregator;
+        if (columns.position(tuple)) {
+          columnarAggregator.initialize(columns, tuple);
+        }
+        columnarAggregator.aggregate(columns, tuple);
+        return;
+      }
+
       AGGREGATE aggregateEvent = get(tuple);
       if (aggregateEvent == null) {
         aggregateEvent = aggregator.getGroup(tuple, aggregatorIdx);
@@ -362,7 +448,7 @@ public class DimensionsComputation<EVENT, AGGREGATE extends DimensionsComputatio
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
     {
       super.readExternal(in);
-      aggregator = (Aggregator<EVENT, AGGREGATE>) super.strategy;
+      setAggregator((Aggregator<EVENT, AGGREGATE>) super.strategy);
     }
 
     @Override
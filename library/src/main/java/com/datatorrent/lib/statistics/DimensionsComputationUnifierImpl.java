@@ -15,20 +15,44 @@
  */
 package com.datatorrent.lib.statistics;
 
-import java.util.Map;
+import java.io.*;
+import java.util.*;
 
 import javax.annotation.Nonnull;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import com.datatorrent.api.BaseOperator;
+import com.datatorrent.api.Context.OperatorContext;
 import com.datatorrent.api.DefaultOutputPort;
 import com.datatorrent.api.Operator;
 
 /**
  * A {@link Unifier} implementation for {@link DimensionsComputation}.<br/>
  * <p>
+ * By default all the aggregates of a window are kept in memory. When {@link #setMaxAggregates(int)} is set, the unifier
+ * keeps at most that many aggregates in memory and when the limit is reached it either
+ * <ul>
+ * <li>{@link Overflow#SPILL}: writes the aggregates to a local run file sorted by hash code. The runs are merged at the
+ * end of the window, so every aggregate is still emitted once per window.</li>
+ * <li>{@link Overflow#EMIT}: emits the aggregates early. Downstream operators then receive partial aggregates which
+ * they have to combine.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * For large number of upstream partitions, the unifier can be cascaded by setting the
+ * {@link com.datatorrent.api.Context.PortContext#UNIFIER_LIMIT} attribute of the output port of
+ * {@link DimensionsComputation}.
+ * </p>
  * @displayName Dimension Computation Unifier Implementation
  * @category Statistics
  * @tags event, dimension, aggregation, computation
@@ -37,11 +61,27 @@ import com.datatorrent.api.Operator;
  */
 public class DimensionsComputationUnifierImpl<EVENT, AGGREGATE extends DimensionsComputation.AggregateEvent> extends BaseOperator implements Operator.Unifier<AGGREGATE>
 {
+  /**
+   * What the unifier does when the aggregates in memory reach {@link #getMaxAggregates()}.
+   */
+  public static enum Overflow
+  {
+    SPILL, EMIT
+  }
+
   @NotNull
   private DimensionsComputation.Aggregator<EVENT, AGGREGATE>[] aggregators;
   @NotNull
   private final Map<AGGREGATE, AGGREGATE> aggregates;
-  
+  @Min(0)
+  private int maxAggregates;
+  @NotNull
+  private Overflow overflow = Overflow.SPILL;
+  private String spillDirectory;
+
+  private transient Kryo kryo;
+  private transient List<File> runs;
+
   /**
    * Output port that emits an aggregate of events.
    */
@@ -64,24 +104,294 @@ public class DimensionsComputationUnifierImpl<EVENT, AGGREGATE extends Dimension
     this.aggregators = aggregators;
   }
 
+  @Override
+  public void setup(OperatorContext context)
+  {
+    kryo = new Kryo();
+    kryo.setClassLoader(Thread.currentThread().getContextClassLoader());
+    runs = Lists.newArrayList();
+  }
+
   @Override
   public void process(AGGREGATE tuple)
   {
     AGGREGATE destination = aggregates.get(tuple);
     if (destination == null) {
+      if (maxAggregates > 0 && aggregates.size() >= maxAggregates) {
+        if (overflow == Overflow.EMIT) {
+          emitAggregates();
+        }
+        else {
+          spill();
+        }
+      }
       aggregates.put(tuple, tuple);
     }
     else {
-      int aggregatorIndex = tuple.getAggregatorIndex();
-      aggregators[aggregatorIndex].aggregate(destination, tuple);
+      aggregate(destination, tuple);
     }
   }
 
-  public void endWindow()
+  private void aggregate(AGGREGATE destination, AGGREGATE tuple)
+  {
+    int aggregatorIndex = tuple.getAggregatorIndex();
+    aggregators[aggregatorIndex].aggregate(destination, tuple);
+  }
+
+  private void emitAggregates()
   {
     for (AGGREGATE value : aggregates.values()) {
       output.emit(value);
     }
     aggregates.clear();
   }
+
+  private List<AGGREGATE> sortedAggregates()
+  {
+    List<AGGREGATE> sorted = Lists.newArrayList(aggregates.values());
+    Collections.sort(sorted, HASH_CODE_ORDER);
+    return sorted;
+  }
+
+  /**
+   * Writes the aggregates in memory to a new run file sorted by hash code.
+   */
+  private void spill()
+  {
+    File directory = spillDirectory == null ? null : new File(spillDirectory);
+    try {
+      File run = File.createTempFile("unifier-", ".run", directory);
+      runs.add(run);
+      Output out = new Output(new FileOutputStream(run));
+      try {
+        for (AGGREGATE value : sortedAggregates()) {
+          kryo.writeClassAndObject(out, value);
+        }
+      }
+      finally {
+        out.close();
+      }
+      logger.debug("spilled {} aggregates to {}", aggregates.size(), run);
+    }
+    catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    aggregates.clear();
+  }
+
+  @Override
+  public void endWindow()
+  {
+    if (runs.isEmpty()) {
+      emitAggregates();
+      return;
+    }
+
+    /* merge the runs and the aggregates in memory by hash code; equal aggregates have equal hash codes */
+    PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size() + 1);
+    try {
+      for (File file : runs) {
+        addIfNotEmpty(queue, new FileRun(file));
+      }
+      addIfNotEmpty(queue, new MemoryRun(sortedAggregates().iterator()));
+      aggregates.clear();
+
+      List<Run> group = Lists.newArrayList();
+      while (!queue.isEmpty()) {
+        int hashCode = queue.peek().hashCode;
+        while (!queue.isEmpty() && queue.peek().hashCode == hashCode) {
+          group.add(queue.poll());
+        }
+        for (Run run : group) {
+          do {
+            AGGREGATE destination = aggregates.get(run.current);
+            if (destination == null) {
+              aggregates.put(run.current, run.current);
+            }
+            else {
+              aggregate(destination, run.current);
+            }
+          }
+          while (run.advance() && run.hashCode == hashCode);
+          if (run.current != null) {
+            queue.add(run);
+          }
+          else {
+            run.close();
+          }
+        }
+        group.clear();
+        emitAggregates();
+      }
+    }
+    catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    finally {
+      for (Run run : queue) {
+        run.close();
+      }
+      deleteRuns();
+    }
+  }
+
+  private void addIfNotEmpty(PriorityQueue<Run> queue, Run run)
+  {
+    if (run.advance()) {
+      queue.add(run);
+    }
+    else {
+      run.close();
+    }
+  }
+
+  private void deleteRuns()
+  {
+    for (File run : runs) {
+      if (!run.delete()) {
+        logger.warn("could not delete {}", run);
+      }
+    }
+    runs.clear();
+  }
+
+  @Override
+  public void teardown()
+  {
+    if (runs != null) {
+      deleteRuns();
+    }
+  }
+
+  /**
+   * Sets the maximum number of aggregates kept in memory; 0 which is the default means no limit.
+   *
+   * @param maxAggregates
+   */
+  public void setMaxAggregates(int maxAggregates)
+  {
+    this.maxAggregates = maxAggregates;
+  }
+
+  public int getMaxAggregates()
+  {
+    return maxAggregates;
+  }
+
+  /**
+   * Sets what is done when the aggregates in memory reach the maximum. Default is {@link Overflow#SPILL}.
+   *
+   * @param overflow
+   */
+  public void setOverflow(@Nonnull Overflow overflow)
+  {
+    this.overflow = overflow;
+  }
+
+  public Overflow getOverflow()
+  {
+    return overflow;
+  }
+
+  /**
+   * Sets the local directory of the run files. Default is the temporary directory of the JVM.
+   *
+   * @param spillDirectory
+   */
+  public void setSpillDirectory(String spillDirectory)
+  {
+    this.spillDirectory = spillDirectory;
+  }
+
+  public String getSpillDirectory()
+  {
+    return spillDirectory;
+  }
+
+  /**
+   * Sorted aggregates which are positioned at the current aggregate.
+   */
+  private abstract class Run implements Comparable<Run>, Closeable
+  {
+    AGGREGATE current;
+    int hashCode;
+
+    abstract AGGREGATE next();
+
+    /**
+     * @return false if there are no more aggregates.
+     */
+    boolean advance()
+    {
+      current = next();
+      if (current == null) {
+        return false;
+      }
+      hashCode = current.hashCode();
+      return true;
+    }
+
+    @Override
+    public int compareTo(Run o)
+    {
+      return hashCode < o.hashCode ? -1 : (hashCode == o.hashCode ? 0 : 1);
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+
+  private class MemoryRun extends Run
+  {
+    private final Iterator<AGGREGATE> iterator;
+
+    MemoryRun(Iterator<AGGREGATE> iterator)
+    {
+      this.iterator = iterator;
+    }
+
+    @Override
+    AGGREGATE next()
+    {
+      return iterator.hasNext() ? iterator.next() : null;
+    }
+  }
+
+  private class FileRun extends Run
+  {
+    private final Input input;
+
+    FileRun(File file) throws FileNotFoundException
+    {
+      input = new Input(new FileInputStream(file));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    AGGREGATE next()
+    {
+      return input.eof() ? null : (AGGREGATE)kryo.readClassAndObject(input);
+    }
+
+    @Override
+    public void close()
+    {
+      input.close();
+    }
+  }
+
+  private static final Comparator<Object> HASH_CODE_ORDER = new Comparator<Object>()
+  {
+    @Override
+    public int compare(Object o1, Object o2)
+    {
+      int h1 = o1.hashCode();
+      int h2 = o2.hashCode();
+      return h1 < h2 ? -1 : (h1 == h2 ? 0 : 1);
+    }
+  };
+
+  private static final Logger logger = LoggerFactory.getLogger(DimensionsComputationUnifierImpl.class);
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.bucket;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.datatorrent.common.util.Slice;
+
+public class BloomFilterTest
+{
+  private static final int KEYS = 10000;
+
+  @Test
+  public void testSequentialEventKeys()
+  {
+    BloomFilter filter = new BloomFilter(1, KEYS, 0.01);
+    for (int i = 0; i < KEYS; i++) {
+      filter.add(i);
+    }
+    Assert.assertEquals("size", KEYS, filter.size());
+
+    int falsePositives = 0;
+    for (int i = 0; i < 10 * KEYS; i++) {
+      Assert.assertTrue("added key " + i, i >= KEYS || filter.mightContain(i));
+      if (filter.mightContain(KEYS + i)) {
+        falsePositives++;
+      }
+    }
+    Assert.assertTrue("false positives " + falsePositives, falsePositives < 2 * 0.01 * 10 * KEYS);
+  }
+
+  @Test
+  public void testKeyHashes()
+  {
+    long[] hashes = new long[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      hashes[i] = BloomFilter.hash(newKey(i));
+    }
+    BloomFilter filter = BloomFilter.create(1, hashes, KEYS, 10);
+
+    int falsePositives = 0;
+    for (int i = 0; i < 10 * KEYS; i++) {
+      Assert.assertTrue("added key " + i, i >= KEYS || filter.mightContainHash(BloomFilter.hash(newKey(i))));
+      if (filter.mightContainHash(BloomFilter.hash(newKey(KEYS + i)))) {
+        falsePositives++;
+      }
+    }
+    Assert.assertTrue("false positives " + falsePositives, falsePositives < 2 * 0.01 * 10 * KEYS);
+  }
+
+  private static Slice newKey(long i)
+  {
+    return new Slice(ByteBuffer.allocate(8).putLong(i).array());
+  }
+
+}
@@ -16,8 +16,13 @@
 package com.datatorrent.lib.bucket;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Exchanger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -118,6 +123,22 @@ public class BucketManagerTest
     }
   }
 
+  @Test
+  public void testSuspendLoads() throws Exception
+  {
+    manager.suspendLoads();
+    manager.loadBucketData(bucket1);
+    try {
+      eventBucketExchanger.exchange(null, 200, TimeUnit.MILLISECONDS);
+      Assert.fail("bucket loaded while the loads are suspended");
+    }
+    catch (TimeoutException e) {
+      //the load is held back
+    }
+    manager.resumeLoads();
+    Assert.assertEquals("loaded bucket", bucket1, (long)eventBucketExchanger.exchange(null));
+  }
+
   @Test
   public void testClone() throws CloneNotSupportedException, InterruptedException
   {
@@ -138,6 +159,112 @@ public class BucketManagerTest
     Assert.assertTrue(clonedManager.committedWindow==manager.committedWindow);
   }
 
+  @Test
+  public void testFilter() throws Exception
+  {
+    long bucketKey = 3;
+    long now = System.currentTimeMillis();
+    manager.setExpectedEventsPerBucket(1000);
+    try {
+      Assert.assertFalse("no filter before load", manager.hasFilter(bucketKey));
+      Assert.assertTrue(manager.mightContain(bucketKey, 1));
+
+      manager.loadBucketData(bucketKey);
+      eventBucketExchanger.exchange(null);
+      for (int i = 0; i < 1000; i++) {
+        manager.newEvent(bucketKey, new DummyEvent(i, now));
+      }
+      Assert.assertTrue("filter after load", manager.hasFilter(bucketKey));
+      for (int i = 0; i < 1000; i++) {
+        Assert.assertTrue("no false negatives", manager.mightContain(bucketKey, i));
+      }
+      int falsePositives = 0;
+      for (int i = 1000; i < 2000; i++) {
+        if (manager.mightContain(bucketKey, i)) {
+          falsePositives++;
+        }
+      }
+      Assert.assertTrue("false positives " + falsePositives, falsePositives < 50);
+    }
+    finally {
+      manager.setExpectedEventsPerBucket(0);
+    }
+  }
+
+  private static BucketManagerImpl<DummyEvent> newManager(int operatorId, int noOfBucketsInMemory, int loaderThreads)
+  {
+    BucketManagerImpl<DummyEvent> lManager = new BucketManagerImpl<DummyEvent>();
+    lManager.setNoOfBuckets(100);
+    lManager.setNoOfBucketsInMemory(noOfBucketsInMemory);
+    lManager.setMaxNoOfBucketsInMemory(noOfBucketsInMemory);
+    lManager.setMillisPreventingBucketEviction(0);
+    lManager.setLoaderThreads(loaderThreads);
+    HdfsBucketStore<DummyEvent> bucketStore = new HdfsBucketStore<DummyEvent>();
+    lManager.setBucketStore(bucketStore);
+    bucketStore.setConfiguration(operatorId, applicationPath, Sets.newHashSet(0), 0);
+    return lManager;
+  }
+
+  static class CollectingListener implements BucketManager.Listener<DummyEvent>
+  {
+    final Set<Long> loaded = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    @Override
+    public void bucketLoaded(AbstractBucket<DummyEvent> bucket)
+    {
+      loaded.add(bucket.bucketKey);
+    }
+
+    @Override
+    public void bucketOffLoaded(long bucketKey)
+    {
+    }
+
+  }
+
+  @Test
+  public void testSecondChanceEviction() throws Exception
+  {
+    BucketManagerImpl<DummyEvent> lManager = newManager(1, 2, 1);
+    lManager.startService(new CollectingListener());
+    try {
+      lManager.loadBucketData(1);
+      lManager.loadBucketData(2);
+      lManager.blockUntilAllRequestsServiced();
+      //access gives bucket 1 a second chance
+      Assert.assertNotNull(lManager.getBucket(1));
+      lManager.loadBucketData(3);
+      lManager.blockUntilAllRequestsServiced();
+      Assert.assertNotNull("accessed bucket", lManager.getBucket(1));
+      Assert.assertNull("evicted bucket", lManager.getBucket(2));
+      Assert.assertNotNull(lManager.getBucket(3));
+    }
+    finally {
+      lManager.shutdownService();
+    }
+  }
+
+  @Test
+  public void testConcurrentLoaders() throws Exception
+  {
+    BucketManagerImpl<DummyEvent> lManager = newManager(2, 100, 4);
+    CollectingListener listener = new CollectingListener();
+    lManager.startService(listener);
+    try {
+      for (long i = 0; i < 50; i++) {
+        lManager.loadBucketData(i);
+      }
+      lManager.blockUntilAllRequestsServiced();
+      Assert.assertEquals("loaded buckets", 50, listener.loaded.size());
+      for (long i = 0; i < 50; i++) {
+        Assert.assertNotNull("bucket " + i, lManager.getBucket(i));
+      }
+    }
+    finally {
+      lManager.shutdownService();
+    }
+  }
+
   @BeforeClass
   public static void setup() throws Exception
   {
@@ -15,6 +15,7 @@
  */
 package com.datatorrent.lib.bucket;
 
+import org.apache.hadoop.fs.Path;
 import org.junit.*;
 import org.junit.runner.Description;
 
@@ -52,4 +53,28 @@ public class ExpirableHdfsBucketStoreTest
     ((BucketStore.ExpirableBucketStore) testMeta.bucketStore).deleteExpiredBuckets(1);
     Assert.assertTrue(!testMeta.util.bucketExists(0));
   }
+
+  @Test
+  public void testExpiredCompactedFile() throws Exception
+  {
+    testMeta.bucketStore.setCompactionThreshold(2);
+    testMeta.bucketStore.teardown();
+    testMeta.bucketStore.setup();
+
+    testMeta.util.storeBucket(0);
+    testMeta.util.storeBucket(1);
+    HdfsBucketStoreTest.awaitCompactions(testMeta.bucketStore);
+    testMeta.bucketStore.fetchBucket(0);
+    Assert.assertNotNull("compacted", testMeta.bucketStore.compactedSegments.get(0));
+    Path compactedFile = testMeta.bucketStore.getCompactedFilePath(0, 1);
+
+    //recovery from the last checkpoint reads the compacted file
+    ((BucketStore.ExpirableBucketStore) testMeta.bucketStore).deleteExpiredBuckets(1);
+    Assert.assertNull("expired", testMeta.bucketStore.compactedSegments.get(0));
+    Assert.assertTrue("compacted file kept", testMeta.fs.exists(compactedFile));
+
+    testMeta.util.storeBucket(2);
+    testMeta.bucketStore.committed(2);
+    Assert.assertFalse("compacted file deleted", testMeta.fs.exists(compactedFile));
+  }
 }
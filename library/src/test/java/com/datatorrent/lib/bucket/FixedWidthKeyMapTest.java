@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.bucket;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class FixedWidthKeyMapTest
+{
+  @Test
+  public void testLongKeys()
+  {
+    FixedWidthKeyMap<DummyEvent> map = new FixedWidthKeyMap<DummyEvent>(FixedWidthKeyMap.KeyType.LONG);
+    for (long i = -500; i < 500; i++) {
+      map.put(i * 31, null);
+    }
+    map.put(0L, null);
+    Assert.assertEquals("size", 1000, map.size());
+    for (long i = -500; i < 500; i++) {
+      Assert.assertTrue("key " + i, map.containsKey(i * 31));
+    }
+    Assert.assertFalse(map.containsKey(1L));
+    Assert.assertFalse("boxed type", map.containsKey(31));
+
+    Set<Object> keys = Sets.newHashSet();
+    for (Map.Entry<Object, DummyEvent> entry : map.entrySet()) {
+      keys.add(entry.getKey());
+      Assert.assertNull(entry.getValue());
+    }
+    Assert.assertEquals("iterated keys", 1000, keys.size());
+
+    FixedWidthKeyMap<DummyEvent> copy = new FixedWidthKeyMap<DummyEvent>(FixedWidthKeyMap.KeyType.LONG);
+    copy.putAll(map);
+    Assert.assertEquals("copy", map, copy);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testValuesNotStored()
+  {
+    new FixedWidthKeyMap<DummyEvent>(FixedWidthKeyMap.KeyType.LONG).put(1L, new DummyEvent(1, 0));
+  }
+
+  @Test
+  public void testHashCode()
+  {
+    for (long i = 0; i < 100; i++) {
+      long high = i * 0x9e3779b97f4a7c15L;
+      Assert.assertEquals(Long.valueOf(high).hashCode(), FixedWidthKeyMap.KeyType.LONG.hashCode(high, 0));
+      Assert.assertEquals(new java.util.UUID(high, ~i).hashCode(), FixedWidthKeyMap.KeyType.UUID.hashCode(high, ~i));
+    }
+  }
+}
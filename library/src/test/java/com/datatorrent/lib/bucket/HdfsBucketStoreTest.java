@@ -17,6 +17,7 @@ package com.datatorrent.lib.bucket;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.UUID;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -143,6 +144,84 @@ public class HdfsBucketStoreTest
     Assert.assertTrue("latest value", retrievedEvent.equals(newEvent));
   }
 
+  @Test
+  public void testCompaction() throws Exception
+  {
+    testMeta.bucketStore.setWriteEventKeysOnly(false);
+    testMeta.bucketStore.setCompactionThreshold(3);
+    testMeta.bucketStore.teardown();
+    testMeta.bucketStore.setup();
+
+    DummyEvent newEvent = new DummyEvent(0, System.currentTimeMillis());
+    testMeta.util.storeBucket(0);
+    testMeta.util.storeBucket(1);
+    //latest value of event 0 in window 2
+    Map<Object, DummyEvent> bucketData = Maps.newHashMap(testMeta.data.get(0));
+    bucketData.put(newEvent.getEventKey(), newEvent);
+    testMeta.data.put(0, bucketData);
+    testMeta.util.storeBucket(2);
+
+    awaitCompactions(testMeta.bucketStore);
+    //fetch applies completed compactions
+    testMeta.bucketStore.fetchBucket(0);
+    testMeta.bucketStore.fetchBucket(1);
+    Assert.assertEquals("compacted buckets", 2, testMeta.bucketStore.compactedSegments.size());
+    //the merged windows are deleted when the first window stored after the compaction is committed
+    testMeta.util.storeBucket(3);
+    testMeta.bucketStore.committed(2);
+    for (int window = 0; window < 3; window++) {
+      Assert.assertTrue("window file kept " + window, testMeta.fs.exists(new Path(testMeta.rootBucketPath, String.valueOf(window))));
+    }
+    testMeta.bucketStore.committed(3);
+    for (int window = 0; window < 3; window++) {
+      Assert.assertFalse("window file deleted " + window, testMeta.fs.exists(new Path(testMeta.rootBucketPath, String.valueOf(window))));
+    }
+    Assert.assertTrue("window file kept", testMeta.fs.exists(new Path(testMeta.rootBucketPath, "3")));
+
+    Map<Object, DummyEvent> fetchedData = testMeta.bucketStore.fetchBucket(0);
+    Assert.assertEquals("events", testMeta.data.get(0).size(), fetchedData.size());
+    Assert.assertTrue("latest value", fetchedData.get(newEvent.getEventKey()).equals(newEvent));
+
+    testMeta.bucketStore.deleteBucket(0);
+    Assert.assertTrue("deleted", testMeta.bucketStore.fetchBucket(0).isEmpty());
+    Assert.assertEquals("compacted buckets", 10, testMeta.bucketStore.fetchBucket(1).size());
+  }
+
+  /**
+   * Waits for the compactions submitted so far, the compaction executor runs one task at a time.
+   */
+  static void awaitCompactions(HdfsBucketStore<?> bucketStore) throws Exception
+  {
+    bucketStore.compactionExecutor.submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+      }
+    }).get();
+  }
+
+  @Test
+  public void testFixedWidthKeys() throws Exception
+  {
+    testMeta.bucketStore.setEventKeyType(FixedWidthKeyMap.KeyType.UUID);
+    testMeta.data = Maps.newHashMap();
+    Map<Object, DummyEvent> bucketData = new FixedWidthKeyMap<DummyEvent>(FixedWidthKeyMap.KeyType.UUID);
+    for (long i = 0; i < 100; i++) {
+      bucketData.put(new UUID(i, -i), null);
+    }
+    testMeta.data.put(0, bucketData);
+    testMeta.util.storeBucket(0);
+
+    Map<Object, DummyEvent> fetchedData = testMeta.bucketStore.fetchBucket(0);
+    Assert.assertTrue("primitive keys", fetchedData instanceof FixedWidthKeyMap);
+    Assert.assertEquals("events", 100, fetchedData.size());
+    for (long i = 0; i < 100; i++) {
+      Assert.assertTrue("key " + i, fetchedData.containsKey(new UUID(i, -i)));
+    }
+    Assert.assertFalse(fetchedData.containsKey(new UUID(100, -100)));
+  }
+
   public static class BucketStoreTestsUtil
   {
     protected final TestMeta meta;
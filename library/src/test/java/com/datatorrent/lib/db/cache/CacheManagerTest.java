@@ -18,9 +18,11 @@ package com.datatorrent.lib.db.cache;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
+import org.apache.commons.lang.mutable.MutableLong;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -28,6 +30,8 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import com.datatorrent.lib.counters.BasicCounters;
+
 /**
  * Tests for {@link CacheManager}
  */
@@ -128,4 +132,123 @@ public class CacheManagerTest
     Assert.assertEquals("backup hit", "six", manager.get(6));
     Assert.assertEquals("primary updated- total", 6, manager.primary.getKeys().size());
   }
+
+  @Test
+  public void testCounters() throws IOException
+  {
+    CacheManager manager = new CacheManager();
+    manager.setPrimary(new OffHeapCacheStore());
+    manager.setBackup(new DummyBackupStore());
+    manager.initialize();
+
+    Assert.assertEquals("primary hit", "one", manager.get(1));
+    Assert.assertEquals("backup hit", "seven", manager.get(7));
+    Assert.assertEquals("primary hit after load", "seven", manager.get(7));
+    Assert.assertNull("missing key", manager.get(11));
+
+    BasicCounters<MutableLong> counters = manager.getCounters();
+    Assert.assertEquals("hits", 2, counters.getCounter(CacheManager.CounterKeys.PRIMARY_HITS).longValue());
+    Assert.assertEquals("misses", 2, counters.getCounter(CacheManager.CounterKeys.PRIMARY_MISSES).longValue());
+    Assert.assertEquals("hit ratio", 500000, counters.getCounter(CacheManager.CounterKeys.HIT_RATIO_PPM).longValue());
+    Assert.assertEquals("loads", 2, counters.getCounter(CacheManager.CounterKeys.BACKUP_LOADS).longValue());
+    Assert.assertEquals("evictions", 0, counters.getCounter(CacheManager.CounterKeys.EVICTIONS).longValue());
+    manager.close();
+  }
+
+  @Test
+  public void testAsyncLookupCounters() throws IOException
+  {
+    CacheManager manager = new CacheManager();
+    manager.setBackup(new DummyBackupStore());
+    manager.initialize();
+
+    Assert.assertEquals("primary hit", "one", manager.getIfPresent(1));
+    Assert.assertNull("primary miss", manager.getIfPresent(7));
+    Assert.assertNull("primary miss", manager.getIfPresent(11));
+    Assert.assertEquals("loaded", Lists.newArrayList((Object)"seven", null), manager.loadAll(Lists.<Object>newArrayList(7, 11)));
+    Assert.assertEquals("primary hit after load", "seven", manager.getIfPresent(7));
+
+    BasicCounters<MutableLong> counters = manager.getCounters();
+    Assert.assertEquals("hits", 2, counters.getCounter(CacheManager.CounterKeys.PRIMARY_HITS).longValue());
+    Assert.assertEquals("misses", 2, counters.getCounter(CacheManager.CounterKeys.PRIMARY_MISSES).longValue());
+    Assert.assertEquals("hit ratio", 500000, counters.getCounter(CacheManager.CounterKeys.HIT_RATIO_PPM).longValue());
+    Assert.assertEquals("loads", 1, counters.getCounter(CacheManager.CounterKeys.BACKUP_LOADS).longValue());
+    manager.close();
+  }
+
+  /**
+   * Backup store which records calls by more than one thread at a time.
+   */
+  private static class SerialBackupStore extends DummyBackupStore
+  {
+    private final AtomicInteger activeCalls = new AtomicInteger();
+    private volatile boolean concurrentCalls;
+
+    private void enter()
+    {
+      if (activeCalls.incrementAndGet() > 1) {
+        concurrentCalls = true;
+      }
+      try {
+        Thread.sleep(1);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public Object get(Object key)
+    {
+      enter();
+      try {
+        return super.get(key);
+      }
+      finally {
+        activeCalls.decrementAndGet();
+      }
+    }
+
+    @Override
+    public List<Object> getAll(List<Object> keys)
+    {
+      enter();
+      try {
+        return super.getAll(keys);
+      }
+      finally {
+        activeCalls.decrementAndGet();
+      }
+    }
+  }
+
+  @Test
+  public void testSerializedBackupCalls() throws Exception
+  {
+    final SerialBackupStore backup = new SerialBackupStore();
+    final CacheManager manager = new CacheManager();
+    manager.setBackup(backup);
+    manager.setEntryRefreshIntervalMillis(1);
+    manager.initialize();
+
+    // operator and lookup thread load missing keys while the refresh timer reloads the initial keys
+    Thread lookupThread = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        for (int i = 0; i < 50; i++) {
+          manager.loadAll(Lists.<Object>newArrayList(11, 12));
+        }
+      }
+    };
+    lookupThread.start();
+    for (int i = 0; i < 50; i++) {
+      Assert.assertNull("missing key", manager.get(13));
+    }
+    lookupThread.join();
+    manager.close();
+
+    Assert.assertFalse("concurrent backup calls", backup.concurrentCalls);
+  }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.db.cache;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests for {@link OffHeapCacheStore}
+ */
+public class OffHeapCacheStoreTest
+{
+  private static String value(int i)
+  {
+    return Strings.repeat("v", i % 40) + i;
+  }
+
+  @Test
+  public void testPutGetRemove() throws IOException
+  {
+    OffHeapCacheStore store = new OffHeapCacheStore();
+    store.setMaxCacheSizeInBytes(1 << 20);
+    store.connect();
+
+    store.put(1, "one");
+    store.put(2, "two");
+    Assert.assertEquals("value", "one", store.get(1));
+    Assert.assertNull("missing key", store.get(3));
+
+    store.put(1, "uno");
+    Assert.assertEquals("replaced value", "uno", store.get(1));
+    Assert.assertEquals("keys", 2, store.getKeys().size());
+
+    store.remove(1);
+    Assert.assertNull("removed key", store.get(1));
+    Assert.assertEquals("keys after remove", 1, store.getKeys().size());
+    store.disconnect();
+  }
+
+  @Test
+  public void testEviction() throws IOException
+  {
+    OffHeapCacheStore store = new OffHeapCacheStore();
+    store.setMaxCacheSizeInBytes(1024);
+    store.setSegmentCount(1);
+    store.connect();
+
+    for (int i = 0; i < 500; i++) {
+      store.put(i, value(i));
+      Assert.assertTrue("within budget", store.getUsedBytes() <= 1024);
+      Assert.assertEquals("latest value", value(i), store.get(i));
+    }
+    Assert.assertTrue("evictions", store.getEvictionCount() > 0);
+    Assert.assertEquals("live keys", 500 - store.getEvictionCount(), store.getKeys().size());
+
+    /* the oldest entries are evicted first */
+    boolean present = false;
+    for (int i = 0; i < 500; i++) {
+      Object value = store.get(i);
+      if (value != null) {
+        Assert.assertEquals("value", value(i), value);
+        present = true;
+      }
+      else {
+        Assert.assertFalse("evicted after a newer entry " + i, present);
+      }
+    }
+    store.disconnect();
+  }
+
+  @Test
+  public void testPutAll() throws IOException
+  {
+    OffHeapCacheStore store = new OffHeapCacheStore();
+    store.setMaxCacheSizeInBytes(8 << 20);
+    store.connect();
+
+    Map<Object, Object> entries = Maps.newHashMap();
+    for (int i = 0; i < 10000; i++) {
+      entries.put("key" + i, value(i));
+    }
+    store.putAll(entries);
+    Assert.assertEquals("keys", entries.keySet(), store.getKeys());
+    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+      Assert.assertEquals("value", entry.getValue(), store.get(entry.getKey()));
+    }
+    Assert.assertEquals("evictions", 0, store.getEvictionCount());
+    store.disconnect();
+  }
+}
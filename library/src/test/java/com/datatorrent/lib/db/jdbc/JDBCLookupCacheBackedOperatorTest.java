@@ -30,12 +30,14 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import com.datatorrent.api.Context;
 
 import com.datatorrent.lib.helper.OperatorContextTestHelper;
 import com.datatorrent.lib.testbench.CollectorTestSink;
+import com.datatorrent.lib.util.KeyValPair;
 
 /**
  * Test for {@link JDBCLookupCacheBackedOperator}
@@ -151,6 +153,121 @@ public class JDBCLookupCacheBackedOperatorTest
     Assert.assertEquals("bulk values retrieval", 2, bulk.size());
   }
 
+  public static class TestAsyncJDBCLookupCacheBackedOperator extends JDBCLookupCacheBackedOperator<String>
+  {
+    private final List<Integer> getAllSizes = Lists.newArrayList();
+
+    @Override
+    public Integer getKeyFromTuple(String tuple)
+    {
+      return Integer.parseInt(tuple);
+    }
+
+    @Override
+    public Map<Object, Object> loadInitialData()
+    {
+      return null;
+    }
+
+    @Override
+    protected void preparePutStatement(PreparedStatement putStatement, Object key, Object value) throws SQLException
+    {
+      putStatement.setInt(1, (Integer) key);
+      putStatement.setString(2, (String) value);
+    }
+
+    @Override
+    protected void prepareGetStatement(PreparedStatement getStatement, Object key) throws SQLException
+    {
+      getStatement.setInt(1, (Integer) key);
+    }
+
+    @Override
+    public Object processResultSet(ResultSet resultSet) throws SQLException
+    {
+      if (resultSet.next()) {
+        return resultSet.getString(2);
+      }
+      return null;
+    }
+
+    @Override
+    protected String fetchInsertQuery()
+    {
+      return "INSERT INTO " + TABLE_NAME + " (col1, col2) VALUES (?, ?)";
+    }
+
+    @Override
+    protected String fetchGetQuery()
+    {
+      return "select col1, col2 from " + TABLE_NAME + " where col1 = ?";
+    }
+
+    @Override
+    protected String fetchGetAllQuery(int numKeys)
+    {
+      return "select col1, col2 from " + TABLE_NAME + " where col1 in " + getParameterList(numKeys);
+    }
+
+    @Override
+    public List<Object> getAll(List<Object> keys)
+    {
+      synchronized (getAllSizes) {
+        getAllSizes.add(keys.size());
+      }
+      return super.getAll(keys);
+    }
+
+    @Override
+    public void putAll(Map<Object, Object> m)
+    {
+    }
+
+    @Override
+    public void remove(Object key)
+    {
+    }
+  }
+
+  @Test
+  public void testAsyncLookups() throws Exception
+  {
+    TestAsyncJDBCLookupCacheBackedOperator oper = new TestAsyncJDBCLookupCacheBackedOperator();
+    oper.getStore().setDatabaseUrl(INMEM_DB_URL);
+    oper.getStore().setDatabaseDriver(INMEM_DB_DRIVER);
+    oper.setTableName(TABLE_NAME);
+    oper.setAsyncLookups(true);
+    oper.setLookupBatchSize(2);
+    oper.setMaxKeysPerQuery(2);
+    CollectorTestSink<Object> asyncSink = new CollectorTestSink<Object>();
+    oper.output.setSink(asyncSink);
+    oper.setup(new OperatorContextTestHelper.TestIdOperatorContext(8));
+
+    oper.beginWindow(0);
+    for (String tuple : new String[] {"1", "2", "3", "9", "1", "4"}) {
+      oper.input.process(tuple);
+    }
+    oper.endWindow();
+
+    List<Object> expected = Lists.newArrayList();
+    for (int key : new int[] {1, 2, 3, 1, 4}) {
+      expected.add(new KeyValPair<Object, Object>(key, mapping.get(key)));
+    }
+    Assert.assertEquals("tuples in order", expected, asyncSink.collectedTuples);
+    // the second lookup of 1 may be served by the cache
+    Assert.assertEquals("batches", 3, oper.getAllSizes.size());
+    Assert.assertEquals("batched lookups", Lists.newArrayList(2, 2), oper.getAllSizes.subList(0, 2));
+
+    // cached keys are emitted without lookups
+    asyncSink.clear();
+    oper.beginWindow(1);
+    oper.input.process("2");
+    oper.endWindow();
+    Assert.assertEquals("cached", Lists.<Object>newArrayList(new KeyValPair<Object, Object>(2, "two")), asyncSink.collectedTuples);
+    Assert.assertEquals("batched lookups", 3, oper.getAllSizes.size());
+    oper.teardown();
+  }
+
   @BeforeClass
   public static void setup() throws Exception
   {
@@ -32,7 +32,9 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.esotericsoftware.kryo.Kryo;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import com.datatorrent.api.DAG;
 
@@ -41,6 +43,7 @@ import com.datatorrent.lib.bucket.DummyEvent;
 import com.datatorrent.lib.bucket.ExpirableHdfsBucketStore;
 import com.datatorrent.lib.bucket.TimeBasedBucketManagerImpl;
 import com.datatorrent.lib.helper.OperatorContextTestHelper;
+import com.datatorrent.lib.io.IdempotentStorageManager;
 import com.datatorrent.lib.testbench.CollectorTestSink;
 import com.datatorrent.lib.util.TestUtils;
 
@@ -84,6 +87,31 @@ public class DeduperTest
     }
   }
 
+  private static class LoadHoldingDeduper extends DummyDeduper
+  {
+    @Override
+    public void bucketLoaded(AbstractBucket<DummyEvent> bucket)
+    {
+      try {
+        //report the bucket only after the test released it
+        eventBucketExchanger.exchange(bucket.bucketKey);
+        fetchedBuckets.add(bucket);
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private static class ReplayDeduper extends DeduperWithHdfsStore<DummyEvent, DummyEvent>
+  {
+    @Override
+    public DummyEvent convert(DummyEvent dummyEvent)
+    {
+      return dummyEvent;
+    }
+  }
+
   private static DummyDeduper deduper;
   private static String applicationPath;
 
@@ -177,6 +205,118 @@ public class DeduperTest
     deduper.teardown();
   }
 
+  @Test
+  public void testNonBlockingEndWindow() throws Exception
+  {
+    com.datatorrent.api.Attribute.AttributeMap.DefaultAttributeMap attributes = new com.datatorrent.api.Attribute.AttributeMap.DefaultAttributeMap();
+    attributes.put(DAG.APPLICATION_ID, APP_ID);
+    attributes.put(DAG.APPLICATION_PATH, applicationPath);
+
+    DummyDeduper nonBlockingDeduper = new LoadHoldingDeduper();
+    TimeBasedBucketManagerImpl<DummyEvent> storageManager = new TimeBasedBucketManagerImpl<DummyEvent>();
+    storageManager.setBucketSpanInMillis(1000);
+    storageManager.setMillisPreventingBucketEviction(60000);
+    storageManager.setBucketStore(new ExpirableHdfsBucketStore<DummyEvent>());
+    nonBlockingDeduper.setBucketManager(storageManager);
+    nonBlockingDeduper.setNonBlockingEndWindow(true);
+    nonBlockingDeduper.setup(new OperatorContextTestHelper.TestIdOperatorContext(OPERATOR_ID + 1, attributes));
+    CollectorTestSink<DummyEvent> collectorTestSink = new CollectorTestSink<DummyEvent>();
+    TestUtils.setSink(nonBlockingDeduper.output, collectorTestSink);
+
+    long now = System.currentTimeMillis();
+    nonBlockingDeduper.beginWindow(0);
+    nonBlockingDeduper.input.process(new DummyEvent(200, now));
+    nonBlockingDeduper.input.process(new DummyEvent(200, now));
+    //the bucket is not reported as loaded until the exchange, so the events are carried over
+    nonBlockingDeduper.endWindow();
+    Assert.assertEquals("output tuples", 0, collectorTestSink.collectedTuples.size());
+
+    eventBucketExchanger.exchange(null, 1, TimeUnit.SECONDS);
+    nonBlockingDeduper.beginWindow(1);
+    long deadline = System.currentTimeMillis() + 1000;
+    while (collectorTestSink.collectedTuples.isEmpty() && System.currentTimeMillis() < deadline) {
+      nonBlockingDeduper.handleIdleTime();
+    }
+    nonBlockingDeduper.endWindow();
+    Assert.assertEquals("output tuples", 1, collectorTestSink.collectedTuples.size());
+    nonBlockingDeduper.teardown();
+  }
+
+  @Test
+  public void testReplayAfterFailure() throws Exception
+  {
+    com.datatorrent.api.Attribute.AttributeMap.DefaultAttributeMap attributes = new com.datatorrent.api.Attribute.AttributeMap.DefaultAttributeMap();
+    attributes.put(DAG.APPLICATION_ID, APP_ID);
+    attributes.put(DAG.APPLICATION_PATH, applicationPath);
+    OperatorContextTestHelper.TestIdOperatorContext context = new OperatorContextTestHelper.TestIdOperatorContext(OPERATOR_ID + 2, attributes);
+
+    ReplayDeduper replayDeduper = new ReplayDeduper();
+    TimeBasedBucketManagerImpl<DummyEvent> storageManager = new TimeBasedBucketManagerImpl<DummyEvent>();
+    storageManager.setBucketSpanInMillis(1000);
+    storageManager.setMillisPreventingBucketEviction(60000);
+    storageManager.setBucketStore(new ExpirableHdfsBucketStore<DummyEvent>());
+    replayDeduper.setBucketManager(storageManager);
+    replayDeduper.setNonBlockingEndWindow(true);
+    replayDeduper.setIdempotentStorageManager(new IdempotentStorageManager.FSIdempotentStorageManager());
+    replayDeduper.setup(context);
+    CollectorTestSink<DummyEvent> output = new CollectorTestSink<DummyEvent>();
+    CollectorTestSink<DummyEvent> duplicates = new CollectorTestSink<DummyEvent>();
+    TestUtils.setSink(replayDeduper.output, output);
+    TestUtils.setSink(replayDeduper.duplicates, duplicates);
+
+    long now = System.currentTimeMillis();
+    //the bucket of the first event is loaded in window 0
+    replayDeduper.beginWindow(0);
+    replayDeduper.input.process(new DummyEvent(300, now));
+    awaitOutput(replayDeduper, output, 1);
+    replayDeduper.endWindow();
+    ReplayDeduper checkpointed = TestUtils.clone(new Kryo(), replayDeduper);
+
+    //window 1 emits the events of the loaded bucket without waiting and waits for the bucket of the last event
+    List<DummyEvent> window1 = Lists.newArrayList(new DummyEvent(301, now), new DummyEvent(300, now), new DummyEvent(302, now + 2000));
+    output.clear();
+    replayDeduper.beginWindow(1);
+    for (DummyEvent event : window1) {
+      replayDeduper.input.process(event);
+    }
+    awaitOutput(replayDeduper, output, 2);
+    replayDeduper.endWindow();
+    List<DummyEvent> window1Output = Lists.newArrayList(output.collectedTuples);
+    List<DummyEvent> window1Duplicates = Lists.newArrayList(duplicates.collectedTuples);
+    Assert.assertEquals("duplicates", 1, window1Duplicates.size());
+
+    //failure in window 2
+    replayDeduper.beginWindow(2);
+    replayDeduper.input.process(new DummyEvent(303, now));
+    replayDeduper.teardown();
+
+    //the restored operator waits for the buckets of window 1, which are not loaded after the restart
+    output.clear();
+    duplicates.clear();
+    checkpointed.setup(context);
+    TestUtils.setSink(checkpointed.output, output);
+    TestUtils.setSink(checkpointed.duplicates, duplicates);
+    checkpointed.beginWindow(1);
+    for (DummyEvent event : window1) {
+      checkpointed.input.process(event);
+    }
+    checkpointed.handleIdleTime();
+    checkpointed.endWindow();
+    Assert.assertEquals("replayed output", Sets.newHashSet(window1Output), Sets.newHashSet(output.collectedTuples));
+    Assert.assertEquals("replayed output size", window1Output.size(), output.collectedTuples.size());
+    Assert.assertEquals("replayed duplicates", window1Duplicates, duplicates.collectedTuples);
+    checkpointed.teardown();
+  }
+
+  private static void awaitOutput(AbstractDeduper<DummyEvent, DummyEvent> deduper, CollectorTestSink<DummyEvent> sink, int count)
+  {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (sink.collectedTuples.size() < count && System.currentTimeMillis() < deadline) {
+      deduper.handleIdleTime();
+    }
+    Assert.assertEquals("output tuples", count, sink.collectedTuples.size());
+  }
+
   @BeforeClass
   public static void setup()
   {
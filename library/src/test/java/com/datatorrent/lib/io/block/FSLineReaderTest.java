@@ -20,6 +20,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -175,6 +176,43 @@ public class FSLineReaderTest
     }
   }
 
+  @Test
+  public void testMultiByteCharacters() throws IOException
+  {
+    List<String> lines = Lists.newArrayList();
+    StringBuilder data = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      String line = "01/0" + (i % 9 + 1) + "/2015,caf\u00e9 \u00fcber \u2713," + i;
+      lines.add(line);
+      data.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+    }
+    File file = new File("target/" + FSLineReaderTest.class.getSimpleName() + "/multibyte.csv");
+    FileUtils.writeStringToFile(file, data.toString(), "UTF-8");
+
+    //lines and characters span the buffers
+    ((ReaderContext.LineReaderContext<?>) testMeta.blockReader.readerContext).setBufferSize(7);
+
+    long blockSize = 100;
+    int noOfBlocks = (int) ((file.length() / blockSize) + (((file.length() % blockSize) == 0) ? 0 : 1));
+
+    testMeta.blockReader.beginWindow(1);
+    for (int i = 0; i < noOfBlocks; i++) {
+      BlockMetadata.FileBlockMetadata blockMetadata = new BlockMetadata.FileBlockMetadata(file.getAbsolutePath(), i, i * blockSize,
+        i == noOfBlocks - 1 ? file.length() : (i + 1) * blockSize, i == noOfBlocks - 1, i - 1);
+      testMeta.blockReader.blocksMetadataInput.process(blockMetadata);
+    }
+    testMeta.blockReader.endWindow();
+
+    List<Object> messages = testMeta.messageSink.collectedTuples;
+    Assert.assertEquals("No of records", lines.size(), messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      @SuppressWarnings("unchecked")
+      AbstractBlockReader.ReaderRecord<String> msg = (AbstractBlockReader.ReaderRecord<String>) messages.get(i);
+      Assert.assertEquals("line " + i, new String(lines.get(i).getBytes("UTF-8")), msg.getRecord());
+    }
+    FileUtils.deleteQuietly(file.getParentFile());
+  }
+
   public static final class BlockReader extends AbstractFSBlockReader.AbstractFSLineReader<String>
   {
     private final Pattern datePattern = Pattern.compile("\\d{2}?/\\d{2}?/\\d{4}?");
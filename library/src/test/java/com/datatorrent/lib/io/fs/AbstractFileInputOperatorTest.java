@@ -25,6 +25,8 @@ import com.datatorrent.lib.testbench.CollectorTestSink;
 import com.datatorrent.lib.util.TestUtils;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import com.google.common.collect.*;
 
 import java.io.*;
@@ -105,6 +107,62 @@ public class AbstractFileInputOperatorTest
     }
   }
 
+  /**
+   * Reads lines and reports their byte positions.
+   */
+  public static class PositionFileInputOperator extends AbstractFileInputOperator<String>
+  {
+    public final transient DefaultOutputPort<String> output = new DefaultOutputPort<String>();
+    private transient InputStream in;
+    private transient long position;
+    transient int reads;
+
+    @Override
+    protected InputStream openFile(Path path) throws IOException
+    {
+      InputStream is = super.openFile(path);
+      in = new BufferedInputStream(is);
+      position = bytePosition;
+      return is;
+    }
+
+    @Override
+    protected void closeFile(InputStream is) throws IOException
+    {
+      super.closeFile(is);
+      in.close();
+      in = null;
+    }
+
+    @Override
+    protected String readEntity() throws IOException
+    {
+      reads++;
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b;
+      while ((b = in.read()) != -1) {
+        position++;
+        if (b == '\n') {
+          return line.toString();
+        }
+        line.write(b);
+      }
+      return line.size() > 0 ? line.toString() : null;
+    }
+
+    @Override
+    protected long getRecordPosition()
+    {
+      return position;
+    }
+
+    @Override
+    protected void emit(String tuple)
+    {
+      output.emit(tuple);
+    }
+  }
+
   @Test
   public void testSinglePartiton() throws Exception
   {
@@ -301,6 +359,63 @@ public class AbstractFileInputOperatorTest
     Assert.assertEquals("All tuples read ", 12, sink.collectedTuples.size());
   }
 
+  /**
+   * Test for reading a file in blocks.
+   * - Create a file with 1000 records.
+   * - Create two partitions which split the file into blocks of 200 bytes.
+   * - Every record is emitted once and each partition emits its records in order.
+   */
+  @Test
+  public void testBlocks() throws Exception
+  {
+    Path path = new Path(new File(testMeta.dir).getAbsolutePath());
+    FileContext.getLocalFSFileContext().delete(path, true);
+    List<String> lines = Lists.newArrayList();
+    for (int line = 0; line < 1000; line++) {
+      lines.add("l" + line);
+    }
+    FileUtils.write(new File(testMeta.dir, "file0"), StringUtils.join(lines, '\n'));
+
+    TestFileInputOperator oper = new TestFileInputOperator();
+    oper.getScanner().setFilePatternRegexp(".*file[\\d]");
+    oper.setDirectory(new File(testMeta.dir).getAbsolutePath());
+    oper.setBlockSize(200);
+
+    List<Partition<AbstractFileInputOperator<String>>> partitions = Lists.newArrayList();
+    partitions.add(new DefaultPartition<AbstractFileInputOperator<String>>(oper));
+    Collection<Partition<AbstractFileInputOperator<String>>> newPartitions = oper.definePartitions(partitions,
+      new PartitioningContextImpl(null, 2));
+    Assert.assertEquals(2, newPartitions.size());
+
+    Set<String> allLines = Sets.newHashSet();
+    int partitionId = 1;
+    for (Partition<AbstractFileInputOperator<String>> p : newPartitions) {
+      TestFileInputOperator oi = (TestFileInputOperator)p.getPartitionedInstance();
+      CollectorTestSink<String> queryResults = new CollectorTestSink<String>();
+      @SuppressWarnings({ "unchecked", "rawtypes" })
+      CollectorTestSink<Object> sink = (CollectorTestSink) queryResults;
+      oi.output.setSink(sink);
+
+      oi.setup(new OperatorContextTestHelper.TestIdOperatorContext(partitionId++, new Attribute.AttributeMap.DefaultAttributeMap()));
+      for (long wid = 0; wid < 100; wid++) {
+        oi.beginWindow(wid);
+        oi.emitTuples();
+        oi.endWindow();
+      }
+      oi.teardown();
+
+      Assert.assertFalse("partition read blocks", queryResults.collectedTuples.isEmpty());
+      int previous = -1;
+      for (String line : queryResults.collectedTuples) {
+        int index = Integer.parseInt(line.substring(1));
+        Assert.assertTrue("order " + line, index > previous);
+        previous = index;
+        Assert.assertTrue("duplicate " + line, allLines.add(line));
+      }
+    }
+    Assert.assertEquals("lines", Sets.newHashSet(lines), allLines);
+  }
+
   /**
    * Test for testing dynamic partitioning.
    * - Create 4 file with 3 records each.
@@ -768,6 +883,81 @@ public class AbstractFileInputOperatorTest
     oper.teardown();
   }
 
+  @Test
+  public void testIdempotencyWithBytePosition() throws Exception
+  {
+    FileContext.getLocalFSFileContext().delete(new Path(new File(testMeta.dir).getAbsolutePath()), true);
+
+    List<String> lines = Lists.newArrayList();
+    for (int line = 0; line < 10; line++) {
+      lines.add("l" + line);
+    }
+    FileUtils.write(new File(testMeta.dir, "file0"), StringUtils.join(lines, '\n'));
+
+    PositionFileInputOperator oper = new PositionFileInputOperator();
+    IdempotentStorageManager.FSIdempotentStorageManager manager = new IdempotentStorageManager.FSIdempotentStorageManager();
+    manager.setRecoveryPath(testMeta.dir + "/recovery");
+    oper.setEmitBatchSize(5);
+    oper.setIdempotentStorageManager(manager);
+    oper.setDirectory(testMeta.dir);
+    oper.getScanner().setFilePatternRegexp(".*file[\\d]");
+    PositionFileInputOperator initialState = new Kryo().copy(oper);
+
+    CollectorTestSink<String> queryResults = new CollectorTestSink<String>();
+    TestUtils.setSink(oper.output, queryResults);
+
+    oper.setup(testMeta.context);
+    for (long wid = 0; wid < 3; wid++) {
+      oper.beginWindow(wid);
+      oper.emitTuples();
+      oper.endWindow();
+    }
+    oper.teardown();
+    Assert.assertEquals("lines", lines, queryResults.collectedTuples);
+
+    //replay the last window only, the file is sought to the first line of the window
+    queryResults.clear();
+    TestUtils.setSink(initialState.output, queryResults);
+    initialState.setup(testMeta.context);
+    initialState.beginWindow(2);
+    initialState.endWindow();
+    initialState.teardown();
+
+    Assert.assertEquals("lines", lines.subList(5, 10), queryResults.collectedTuples);
+    Assert.assertEquals("records read", 5, initialState.reads);
+  }
+
+  @Test
+  public void testRecoveryWithCurrentFilePosition() throws Exception
+  {
+    FileContext.getLocalFSFileContext().delete(new Path(new File(testMeta.dir).getAbsolutePath()), true);
+    List<String> lines = Lists.newArrayList();
+    for (int line = 0; line < 5; line++) {
+      lines.add("l" + line);
+    }
+    File testFile = new File(testMeta.dir, "file0");
+    FileUtils.write(testFile, StringUtils.join(lines, '\n'));
+
+    PositionFileInputOperator oper = new PositionFileInputOperator();
+    oper.scanner = null;
+    oper.currentFile = testFile.getAbsolutePath();
+    oper.offset = 2;
+    oper.bytePosition = 6;
+
+    CollectorTestSink<String> queryResults = new CollectorTestSink<String>();
+    TestUtils.setSink(oper.output, queryResults);
+    oper.setDirectory(testMeta.dir);
+
+    oper.setup(testMeta.context);
+    oper.beginWindow(0);
+    oper.emitTuples();
+    oper.endWindow();
+    oper.teardown();
+
+    Assert.assertEquals("lines", lines.subList(2, 5), queryResults.collectedTuples);
+    Assert.assertEquals("records read", 4, oper.reads);
+  }
+
   @Test
   public void testStateWithIdempotency() throws Exception
   {
@@ -872,6 +1062,48 @@ public class AbstractFileInputOperatorTest
     Assert.assertEquals("deleted operators", Sets.newHashSet(7), deleteManager.getDeletedOperators());
   }
 
+  @Test
+  public void testLineReader() throws Exception
+  {
+    byte[] bytes = "a\nbc\r\n\ndef".getBytes();
+    AbstractFileInputOperator.LineReader reader = new AbstractFileInputOperator.LineReader(new ByteArrayInputStream(bytes), 10);
+    Assert.assertEquals("line", "a", reader.readLine());
+    Assert.assertEquals("position", 12, reader.getPosition());
+    Assert.assertEquals("line", "bc", reader.readLine());
+    Assert.assertEquals("position", 16, reader.getPosition());
+    Assert.assertEquals("line", "", reader.readLine());
+    Assert.assertEquals("position", 17, reader.getPosition());
+    Assert.assertEquals("line", "def", reader.readLine());
+    Assert.assertEquals("position", 20, reader.getPosition());
+    Assert.assertNull("end", reader.readLine());
+    reader.close();
+
+    reader = new AbstractFileInputOperator.LineReader(new ByteArrayInputStream(bytes), -1);
+    Assert.assertEquals("line", "a", reader.readLine());
+    Assert.assertEquals("unknown position", -1, reader.getPosition());
+    reader.close();
+  }
+
+  @Test
+  public void testRecoveryEntrySerialization() throws Exception
+  {
+    List<AbstractFileInputOperator.RecoveryEntry> entries = Lists.newArrayList();
+    entries.add(new AbstractFileInputOperator.RecoveryEntry("file0", 0, 5));
+    entries.add(new AbstractFileInputOperator.PositionedRecoveryEntry("file1", 5, 9, 42));
+
+    Kryo kryo = new Kryo();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Output output = new Output(bos);
+    kryo.writeClassAndObject(output, entries);
+    output.close();
+
+    @SuppressWarnings("unchecked")
+    List<AbstractFileInputOperator.RecoveryEntry> read = (List<AbstractFileInputOperator.RecoveryEntry>)kryo.readClassAndObject(new Input(bos.toByteArray()));
+    Assert.assertEquals("entries", entries, read);
+    Assert.assertEquals("unknown position", -1, read.get(0).getStartPosition());
+    Assert.assertEquals("position", 42, read.get(1).getStartPosition());
+  }
+
   private static class TestStorageManager extends IdempotentStorageManager.FSIdempotentStorageManager
   {
     Set<Integer> getDeletedOperators()
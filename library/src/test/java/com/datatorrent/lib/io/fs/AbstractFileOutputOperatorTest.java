@@ -1021,6 +1021,17 @@ public class AbstractFileOutputOperatorTest
     testMultiRollingFileCompletedWriteHelper(writer);
   }
 
+  @Test
+  public void testMultiRollingFileCompletedWriteAsync()
+  {
+    EvenOddHDFSExactlyOnceWriter writer = new EvenOddHDFSExactlyOnceWriter();
+    writer.setAsyncWrites(true);
+    writer.setWriteBufferSize(3);
+
+    testMultiRollingFileCompletedWriteHelper(writer);
+    writer.teardown();
+  }
+
   @Test
   public void testMultiRollingFileCompletedWriteCache1()
   {
@@ -1655,8 +1666,22 @@ public class AbstractFileOutputOperatorTest
 
   @Test
   public void testCompression() throws IOException
+  {
+    testCompressionHelper(new EvenOddHDFSExactlyOnceWriter());
+  }
+
+  @Test
+  public void testCompressionAsync() throws IOException
   {
     EvenOddHDFSExactlyOnceWriter writer = new EvenOddHDFSExactlyOnceWriter();
+    writer.setAsyncWrites(true);
+    writer.setWriteBufferSize(100);
+
+    testCompressionHelper(writer);
+  }
+
+  private void testCompressionHelper(EvenOddHDFSExactlyOnceWriter writer) throws IOException
+  {
     writer.setFilterStreamProvider(new FilterStreamCodec.GZipFilterStreamProvider());
 
     File evenFile = new File(testMeta.getDir(), EVEN_FILE);
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.io.fs;
+
+import java.io.*;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.datatorrent.lib.io.fs.ColumnarStripe.ColumnStatistics;
+import com.datatorrent.lib.io.fs.ColumnarStripe.ColumnType;
+import com.datatorrent.lib.util.TestUtils.TestInfo;
+
+import static com.datatorrent.lib.io.fs.AbstractFileOutputOperatorTest.testOperatorContext;
+
+public class ColumnarFileOutputOperatorTest
+{
+  @Rule public TestInfo testMeta = new AbstractFileOutputOperatorTest.FSTestWatcher();
+
+  public static class Event
+  {
+    public long time;
+    public String name;
+    public double value;
+
+    public Event(long time, String name, double value)
+    {
+      this.time = time;
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  private ColumnarFileOutputOperator newWriter()
+  {
+    ColumnarFileOutputOperator writer = new ColumnarFileOutputOperator();
+    writer.setFilePath(testMeta.getDir());
+    writer.setOutputFileName("events");
+    writer.setColumnNames(Lists.newArrayList("time", "name", "value"));
+    writer.setExpressions(Lists.newArrayList("time", "name", "value"));
+    writer.setColumnTypes(Lists.newArrayList(ColumnType.LONG, ColumnType.STRING, ColumnType.DOUBLE));
+    return writer;
+  }
+
+  private static String name(int i)
+  {
+    return i % 3 == 0 ? null : "name" + (i % 5);
+  }
+
+  private static void writeWindow(ColumnarFileOutputOperator writer, long windowId, int from, int to)
+  {
+    writer.beginWindow(windowId);
+    for (int i = from; i < to; i++) {
+      writer.input.put(new Event(i, name(i), i / 2.0));
+    }
+    writer.endWindow();
+  }
+
+  private List<ColumnarStripe> readStripes(String fileName) throws IOException
+  {
+    List<ColumnarStripe> stripes = Lists.newArrayList();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(testMeta.getDir(), fileName))));
+    try {
+      ColumnarStripe stripe;
+      while ((stripe = ColumnarStripe.read(in)) != null) {
+        stripes.add(stripe);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return stripes;
+  }
+
+  /**
+   * Checks that the stripes have the rows from the given row in order.
+   *
+   * @return the row after the last row of the stripes.
+   */
+  private static int checkRows(List<ColumnarStripe> stripes, int from)
+  {
+    int i = from;
+    for (ColumnarStripe stripe : stripes) {
+      Assert.assertEquals("columns", 3, stripe.getColumnCount());
+      Assert.assertEquals("column name", "name", stripe.getColumnName(1));
+      for (int row = 0; row < stripe.getRowCount(); row++, i++) {
+        Assert.assertEquals("time", i, stripe.getLong(0, row));
+        Assert.assertEquals("name", name(i), stripe.getString(1, row));
+        Assert.assertEquals("value", i / 2.0, stripe.getDouble(2, row), 0);
+      }
+    }
+    return i;
+  }
+
+  @Test
+  public void testStripesAndRotation() throws IOException
+  {
+    ColumnarFileOutputOperator writer = newWriter();
+    writer.setMaxStripeRows(40);
+    writer.setRotationWindows(2);
+    writer.setup(testOperatorContext);
+
+    writeWindow(writer, 0, 0, 100);
+    writeWindow(writer, 1, 100, 110);
+    writeWindow(writer, 2, 110, 120);
+    writer.teardown();
+
+    List<ColumnarStripe> stripes = readStripes("events.0");
+    Assert.assertEquals("stripes", 4, stripes.size());
+    int[] rowCounts = new int[] {40, 40, 20, 10};
+    for (int i = 0; i < rowCounts.length; i++) {
+      Assert.assertEquals("rows of stripe " + i, rowCounts[i], stripes.get(i).getRowCount());
+    }
+    Assert.assertEquals("rows", 110, checkRows(stripes, 0));
+
+    ColumnStatistics time = stripes.get(1).getStatistics(0);
+    Assert.assertEquals("min time", 40L, time.getMin());
+    Assert.assertEquals("max time", 79L, time.getMax());
+    ColumnStatistics name = stripes.get(0).getStatistics(1);
+    Assert.assertEquals("nulls", 14, name.getNullCount());
+    Assert.assertEquals("min name", "name0", name.getMin());
+    Assert.assertEquals("max name", "name4", name.getMax());
+
+    Assert.assertEquals("rows of the next part", 120, checkRows(readStripes("events.1"), 110));
+  }
+
+  @Test
+  public void testLongString() throws IOException
+  {
+    ColumnarFileOutputOperator writer = newWriter();
+    writer.setup(testOperatorContext);
+    StringBuilder name = new StringBuilder();
+    while (name.length() < 70000) {
+      name.append("long name ");
+    }
+    writer.beginWindow(0);
+    writer.input.put(new Event(0, name.toString(), 0));
+    writer.endWindow();
+    writer.teardown();
+
+    ColumnarStripe stripe = readStripes("events").get(0);
+    Assert.assertEquals("name", name.toString(), stripe.getString(1, 0));
+    Assert.assertEquals("max name", name.toString(), stripe.getStatistics(1).getMax());
+  }
+
+  @Test
+  public void testNaNStatistics() throws IOException
+  {
+    ColumnarFileOutputOperator writer = newWriter();
+    writer.setup(testOperatorContext);
+    writer.beginWindow(0);
+    writer.input.put(new Event(0, "a", Double.NaN));
+    writer.input.put(new Event(1, "b", 2));
+    writer.input.put(new Event(2, "c", -1));
+    writer.endWindow();
+    writer.beginWindow(1);
+    writer.input.put(new Event(3, "d", Double.NaN));
+    writer.endWindow();
+    writer.teardown();
+
+    List<ColumnarStripe> stripes = readStripes("events");
+    ColumnStatistics statistics = stripes.get(0).getStatistics(2);
+    Assert.assertEquals("min", -1.0, statistics.getMin());
+    Assert.assertEquals("max", 2.0, statistics.getMax());
+    statistics = stripes.get(1).getStatistics(2);
+    Assert.assertNull("min of NaN", statistics.getMin());
+    Assert.assertNull("max of NaN", statistics.getMax());
+  }
+
+  @Test
+  public void testRecovery() throws IOException
+  {
+    ColumnarFileOutputOperator writer = newWriter();
+    writer.setMaxStripeRows(10);
+    writer.setup(testOperatorContext);
+    writeWindow(writer, 0, 0, 25);
+    AbstractFileOutputOperatorTest.CheckPointWriter checkPointWriter = AbstractFileOutputOperatorTest.checkpoint(writer);
+
+    //a stripe of the next window is written before the failure
+    writer.beginWindow(1);
+    for (int i = 25; i < 40; i++) {
+      writer.input.put(new Event(i, name(i), i / 2.0));
+    }
+    writer.teardown();
+    Assert.assertEquals("stripes before recovery", 4, readStripes("events").size());
+
+    writer = newWriter();
+    writer.setMaxStripeRows(10);
+    AbstractFileOutputOperatorTest.restoreCheckPoint(checkPointWriter, writer);
+    writer.setup(testOperatorContext);
+    writeWindow(writer, 1, 25, 45);
+    writer.teardown();
+
+    List<ColumnarStripe> stripes = readStripes("events");
+    Assert.assertEquals("stripes", 5, stripes.size());
+    Assert.assertEquals("rows", 45, checkRows(stripes, 0));
+  }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.statistics;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.google.common.collect.Maps;
+
+import com.datatorrent.lib.testbench.CollectorTestSink;
+import com.datatorrent.lib.util.TestUtils;
+
+/**
+ * Tests for {@link DimensionsComputation}
+ */
+public class DimensionsComputationTest
+{
+  public static class Event
+  {
+    long key;
+    long value;
+
+    Event()
+    {
+    }
+
+    Event(long key, long value)
+    {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  public static class Aggregate implements DimensionsComputation.AggregateEvent
+  {
+    long key;
+    long sum;
+    long min;
+    long max;
+    int count;
+    int aggregatorIndex;
+
+    @Override
+    public int getAggregatorIndex()
+    {
+      return aggregatorIndex;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Aggregate)) {
+        return false;
+      }
+      Aggregate that = (Aggregate)o;
+      return key == that.key && aggregatorIndex == that.aggregatorIndex;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * (int)(key ^ (key >>> 32)) + aggregatorIndex;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Aggregate{" + "key=" + key + ", sum=" + sum + ", min=" + min + ", max=" + max + ", count=" + count + '}';
+    }
+  }
+
+  public static class Aggregator implements DimensionsComputation.Aggregator<Event, Aggregate>
+  {
+    @Override
+    public Aggregate getGroup(Event src, int aggregatorIndex)
+    {
+      Aggregate aggregate = new Aggregate();
+      aggregate.key = src.key;
+      aggregate.min = Long.MAX_VALUE;
+      aggregate.max = Long.MIN_VALUE;
+      aggregate.aggregatorIndex = aggregatorIndex;
+      return aggregate;
+    }
+
+    @Override
+    public void aggregate(Aggregate dest, Event src)
+    {
+      dest.sum += src.value;
+      dest.min = Math.min(dest.min, src.value);
+      dest.max = Math.max(dest.max, src.value);
+      dest.count++;
+    }
+
+    @Override
+    public void aggregate(Aggregate dest, Aggregate src)
+    {
+      dest.sum += src.sum;
+      dest.min = Math.min(dest.min, src.min);
+      dest.max = Math.max(dest.max, src.max);
+      dest.count += src.count;
+    }
+
+    @Override
+    public int computeHashCode(Event event)
+    {
+      return (int)(event.key ^ (event.key >>> 32));
+    }
+
+    @Override
+    public boolean equals(Event o1, Event o2)
+    {
+      return o1.key == o2.key;
+    }
+
+    private static final long serialVersionUID = 201503101200L;
+  }
+
+  public static class ColumnarAggregator extends Aggregator implements DimensionsComputation.ColumnarAggregator<Event, Aggregate>
+  {
+    private static final int SUM = 0;
+    private static final int MIN = 1;
+    private static final int MAX = 2;
+    private static final int COUNT = 3;
+
+    @Override
+    public int getLongColumnCount()
+    {
+      return 4;
+    }
+
+    @Override
+    public int getDoubleColumnCount()
+    {
+      return 0;
+    }
+
+    @Override
+    public void initialize(AggregateColumns<Event> dest, Event src)
+    {
+      dest.setLong(MIN, Long.MAX_VALUE);
+      dest.setLong(MAX, Long.MIN_VALUE);
+    }
+
+    @Override
+    public void aggregate(AggregateColumns<Event> dest, Event src)
+    {
+      dest.addLong(SUM, src.value);
+      dest.minLong(MIN, src.value);
+      dest.maxLong(MAX, src.value);
+      dest.addLong(COUNT, 1);
+    }
+
+    @Override
+    public Event copyKey(Event src)
+    {
+      return new Event(src.key, 0);
+    }
+
+    @Override
+    public Aggregate getGroup(Event src, AggregateColumns<Event> aggregates, int aggregatorIndex)
+    {
+      Aggregate aggregate = getGroup(src, aggregatorIndex);
+      aggregate.sum = aggregates.getLong(SUM);
+      aggregate.min = aggregates.getLong(MIN);
+      aggregate.max = aggregates.getLong(MAX);
+      aggregate.count = (int)aggregates.getLong(COUNT);
+      return aggregate;
+    }
+
+    private static final long serialVersionUID = 201503101201L;
+  }
+
+  private static Map<Long, Aggregate> runWindow(DimensionsComputation<Event, Aggregate> oper, long windowId, int keys)
+  {
+    CollectorTestSink<Aggregate> sink = new CollectorTestSink<Aggregate>();
+    TestUtils.setSink(oper.output, sink);
+    oper.beginWindow(windowId);
+    for (int i = 0; i < 1000; i++) {
+      oper.data.process(new Event(i % keys, i * windowId));
+    }
+    oper.endWindow();
+
+    Map<Long, Aggregate> aggregates = Maps.newHashMap();
+    for (Aggregate aggregate : sink.collectedTuples) {
+      Assert.assertNull("duplicate aggregate " + aggregate, aggregates.put(aggregate.key, aggregate));
+    }
+    return aggregates;
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testColumnarAggregator() throws Exception
+  {
+    DimensionsComputation<Event, Aggregate> expected = new DimensionsComputation<Event, Aggregate>();
+    expected.setAggregators(new DimensionsComputation.Aggregator[] {new Aggregator()});
+    DimensionsComputation<Event, Aggregate> oper = new DimensionsComputation<Event, Aggregate>();
+    oper.setAggregators(new DimensionsComputation.Aggregator[] {new ColumnarAggregator()});
+    expected.setup(null);
+    oper.setup(null);
+
+    for (long windowId = 1; windowId <= 3; windowId++) {
+      /* more groups than the initial rows */
+      Map<Long, Aggregate> expectedAggregates = runWindow(expected, windowId, 37);
+      Map<Long, Aggregate> aggregates = runWindow(oper, windowId, 37);
+      Assert.assertEquals("groups", 37, aggregates.size());
+      for (Aggregate expectedAggregate : expectedAggregates.values()) {
+        Assert.assertEquals("aggregate", expectedAggregate.toString(), aggregates.get(expectedAggregate.key).toString());
+      }
+    }
+
+    DimensionsComputation<Event, Aggregate> restored = TestUtils.clone(new Kryo(), oper);
+    Map<Long, Aggregate> aggregates = runWindow(restored, 4, 5);
+    Assert.assertEquals("groups after restore", 5, aggregates.size());
+    Assert.assertEquals("count", 200, aggregates.get(0L).count);
+  }
+
+  @Test
+  public void testColumnarKeyCopy()
+  {
+    AggregateColumns<Event> columns = new AggregateColumns<Event>(new ColumnarAggregator(), 4, 0);
+    Event event = new Event(1, 5);
+    Assert.assertTrue("new group", columns.position(event));
+    Assert.assertFalse("same group", columns.position(new Event(1, 6)));
+    Event key = columns.seek(0);
+    Assert.assertNotSame("key is a copy", event, key);
+    Assert.assertEquals("key", 1, key.key);
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015 DataTorrent, Inc. ALL Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datatorrent.lib.statistics;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import com.datatorrent.lib.statistics.DimensionsComputationTest.Aggregate;
+import com.datatorrent.lib.statistics.DimensionsComputationTest.Aggregator;
+import com.datatorrent.lib.statistics.DimensionsComputationTest.Event;
+import com.datatorrent.lib.testbench.CollectorTestSink;
+import com.datatorrent.lib.util.TestUtils;
+
+/**
+ * Tests for {@link DimensionsComputationUnifierImpl}
+ */
+public class DimensionsComputationUnifierImplTest
+{
+  @Rule
+  public TestUtils.TestInfo testInfo = new TestUtils.TestInfo();
+
+  private static final int KEYS = 100;
+  private static final int PARTITIONS = 4;
+
+  @SuppressWarnings("unchecked")
+  private DimensionsComputationUnifierImpl<Event, Aggregate> newUnifier()
+  {
+    DimensionsComputationUnifierImpl<Event, Aggregate> unifier = new DimensionsComputationUnifierImpl<Event, Aggregate>();
+    unifier.setAggregators(new DimensionsComputation.Aggregator[] {new Aggregator()});
+    return unifier;
+  }
+
+  /**
+   * Every partition sends one aggregate of every key.
+   */
+  private static CollectorTestSink<Aggregate> runWindow(DimensionsComputationUnifierImpl<Event, Aggregate> unifier)
+  {
+    CollectorTestSink<Aggregate> sink = new CollectorTestSink<Aggregate>();
+    TestUtils.setSink(unifier.output, sink);
+    Aggregator aggregator = new Aggregator();
+    unifier.beginWindow(1);
+    for (int partition = 0; partition < PARTITIONS; partition++) {
+      for (long key = 0; key < KEYS; key++) {
+        Event event = new Event(key, partition);
+        Aggregate aggregate = aggregator.getGroup(event, 0);
+        aggregator.aggregate(aggregate, event);
+        unifier.process(aggregate);
+      }
+    }
+    unifier.endWindow();
+    return sink;
+  }
+
+  @Test
+  public void testSpill()
+  {
+    File directory = new File(testInfo.getDir());
+    directory.mkdirs();
+    DimensionsComputationUnifierImpl<Event, Aggregate> unifier = newUnifier();
+    unifier.setMaxAggregates(KEYS / 3);
+    unifier.setSpillDirectory(directory.getAbsolutePath());
+    unifier.setup(null);
+
+    CollectorTestSink<Aggregate> sink = runWindow(unifier);
+    Assert.assertEquals("aggregates", KEYS, sink.collectedTuples.size());
+    for (Aggregate aggregate : sink.collectedTuples) {
+      Assert.assertEquals("count " + aggregate, PARTITIONS, aggregate.count);
+      Assert.assertEquals("sum " + aggregate, PARTITIONS * (PARTITIONS - 1) / 2, aggregate.sum);
+      Assert.assertEquals("max " + aggregate, PARTITIONS - 1, aggregate.max);
+    }
+    Assert.assertEquals("run files", 0, directory.list().length);
+    unifier.teardown();
+  }
+
+  @Test
+  public void testEmit()
+  {
+    DimensionsComputationUnifierImpl<Event, Aggregate> unifier = newUnifier();
+    unifier.setMaxAggregates(KEYS / 3);
+    unifier.setOverflow(DimensionsComputationUnifierImpl.Overflow.EMIT);
+    unifier.setup(null);
+
+    CollectorTestSink<Aggregate> sink = runWindow(unifier);
+    Assert.assertTrue("partial aggregates", sink.collectedTuples.size() > KEYS);
+    Map<Aggregate, Aggregate> aggregates = Maps.newHashMap();
+    Aggregator aggregator = new Aggregator();
+    for (Aggregate aggregate : sink.collectedTuples) {
+      Aggregate destination = aggregates.get(aggregate);
+      if (destination == null) {
+        aggregates.put(aggregate, aggregate);
+      }
+      else {
+        aggregator.aggregate(destination, aggregate);
+      }
+    }
+    Assert.assertEquals("aggregates", KEYS, aggregates.size());
+    for (Aggregate aggregate : aggregates.values()) {
+      Assert.assertEquals("count " + aggregate, PARTITIONS, aggregate.count);
+    }
+    unifier.teardown();
+  }
+
+}